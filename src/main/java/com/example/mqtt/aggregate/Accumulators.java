@@ -0,0 +1,81 @@
+package com.example.mqtt.aggregate;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 一组以下标区分的累加器，按列存放计数、和、最小值、最大值，更新只做几次基本类型运算
+ */
+final class Accumulators {
+
+    private final long[] count;
+    private final double[] sum;
+    private final double[] min;
+    private final double[] max;
+
+    Accumulators(int slots) {
+        count = new long[slots];
+        sum = new double[slots];
+        min = new double[slots];
+        max = new double[slots];
+        Arrays.fill(min, Double.POSITIVE_INFINITY);
+        Arrays.fill(max, Double.NEGATIVE_INFINITY);
+    }
+
+    void add(int slot, double value) {
+        count[slot]++;
+        sum[slot] += value;
+        if (value < min[slot]) {
+            min[slot] = value;
+        }
+        if (value > max[slot]) {
+            max[slot] = value;
+        }
+    }
+
+    void reset(int slot) {
+        count[slot] = 0;
+        sum[slot] = 0;
+        min[slot] = Double.POSITIVE_INFINITY;
+        max[slot] = Double.NEGATIVE_INFINITY;
+    }
+
+    void copy(int from, int to) {
+        count[to] = count[from];
+        sum[to] = sum[from];
+        min[to] = min[from];
+        max[to] = max[from];
+    }
+
+    /**
+     * 把slot合并进target的to位置
+     */
+    void mergeInto(int slot, Accumulators target, int to) {
+        if (count[slot] == 0) {
+            return;
+        }
+        target.count[to] += count[slot];
+        target.sum[to] += sum[slot];
+        target.min[to] = Math.min(target.min[to], min[slot]);
+        target.max[to] = Math.max(target.max[to], max[slot]);
+    }
+
+    Map<String, Object> summary(int slot) {
+        Map<String, Object> result = new HashMap<>();
+        result.put("count", count[slot]);
+        if (count[slot] > 0) {
+            result.put("min", min[slot]);
+            result.put("max", max[slot]);
+            result.put("avg", sum[slot] / count[slot]);
+        }
+        return result;
+    }
+
+    /**
+     * 每个下标占用的字节数
+     */
+    static int bytesPerSlot() {
+        return Long.BYTES + 3 * Double.BYTES;
+    }
+}
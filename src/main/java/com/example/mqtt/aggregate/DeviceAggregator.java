@@ -0,0 +1,166 @@
+package com.example.mqtt.aggregate;
+
+import com.example.mqtt.model.DeviceData;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * 设备数据流式聚合
+ * <p>
+ * 每台设备、每种设备类型在最近1分钟、1小时、1天上维护温湿度的最小值/最大值/平均值，
+ * 包括滑动窗口（以桶为粒度的最近一个窗口长度）和按本地时间对齐的滚动窗口（当前周期和上一个周期）。
+ * 采样按到达时间归入窗口，每个采样对每个窗口只做O(1)的更新；查询时才合并各桶，
+ * 不扫描原始数据。占用与 (设备数 + 类型数) × 窗口数 × 桶数 成正比。
+ */
+@Component
+public class DeviceAggregator {
+
+    /**
+     * 聚合窗口
+     */
+    private enum Window {
+        MINUTE("1m", TimeUnit.MINUTES.toMillis(1)),
+        HOUR("1h", TimeUnit.HOURS.toMillis(1)),
+        DAY("1d", TimeUnit.DAYS.toMillis(1));
+
+        private final String label;
+        private final long millis;
+
+        Window(String label, long millis) {
+            this.label = label;
+            this.millis = millis;
+        }
+    }
+
+    private static final Window[] WINDOWS = Window.values();
+    private static final String UNKNOWN_TYPE = "unknown";
+
+    private final ConcurrentHashMap<String, WindowAggregate[]> devices = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, WindowAggregate[]> types = new ConcurrentHashMap<>();
+    private final boolean enabled;
+    private final int buckets;
+    private final LongSupplier clock;
+    private final TimeZone timeZone;
+    private final LongAdder samples = new LongAdder();
+
+    @Autowired
+    public DeviceAggregator(@Value("${mqtt.aggregates.enabled:true}") boolean enabled,
+                            @Value("${mqtt.aggregates.buckets:60}") int buckets) {
+        this(enabled, buckets, System::currentTimeMillis, TimeZone.getDefault());
+    }
+
+    /**
+     * 供测试指定时钟和时区
+     */
+    public DeviceAggregator(boolean enabled, int buckets, LongSupplier clock, TimeZone timeZone) {
+        this.enabled = enabled;
+        this.buckets = Math.max(1, buckets);
+        this.clock = clock;
+        this.timeZone = timeZone;
+    }
+
+    /**
+     * 累加一个设备数据采样到所属设备和设备类型的各窗口
+     */
+    public void record(DeviceData data) {
+        if (!enabled || data.getDeviceId() == null) {
+            return;
+        }
+        double temperature = data.getTemperature() != null ? data.getTemperature() : Double.NaN;
+        double humidity = data.getHumidity() != null ? data.getHumidity() : Double.NaN;
+        if (Double.isNaN(temperature) && Double.isNaN(humidity)) {
+            return;
+        }
+        long now = clock.getAsLong();
+        long local = now + timeZone.getOffset(now);
+        String type = data.getDeviceType() != null ? data.getDeviceType() : UNKNOWN_TYPE;
+        add(devices.computeIfAbsent(data.getDeviceId(), k -> newWindows()), local, temperature, humidity);
+        add(types.computeIfAbsent(type, k -> newWindows()), local, temperature, humidity);
+        samples.increment();
+    }
+
+    private WindowAggregate[] newWindows() {
+        WindowAggregate[] windows = new WindowAggregate[WINDOWS.length];
+        for (int i = 0; i < WINDOWS.length; i++) {
+            windows[i] = new WindowAggregate(WINDOWS[i].millis, buckets);
+        }
+        return windows;
+    }
+
+    private static void add(WindowAggregate[] windows, long local, double temperature, double humidity) {
+        synchronized (windows) {
+            for (WindowAggregate window : windows) {
+                window.add(local, temperature, humidity);
+            }
+        }
+    }
+
+    /**
+     * 设备的聚合结果，按窗口标签（1m/1h/1d）组织；没有数据时返回null
+     */
+    public Map<String, Object> getDeviceAggregates(String deviceId) {
+        return snapshot(devices.get(deviceId));
+    }
+
+    /**
+     * 设备类型的聚合结果；没有数据时返回null
+     */
+    public Map<String, Object> getTypeAggregates(String deviceType) {
+        return snapshot(types.get(deviceType));
+    }
+
+    /**
+     * 全部设备类型的聚合结果
+     */
+    public Map<String, Object> getAllTypeAggregates() {
+        Map<String, Object> result = new HashMap<>();
+        types.forEach((type, windows) -> result.put(type, snapshot(windows)));
+        return result;
+    }
+
+    /**
+     * 删除设备的聚合，设备类型的聚合保留
+     */
+    public void remove(String deviceId) {
+        devices.remove(deviceId);
+    }
+
+    private Map<String, Object> snapshot(WindowAggregate[] windows) {
+        if (windows == null) {
+            return null;
+        }
+        long now = clock.getAsLong();
+        long offset = timeZone.getOffset(now);
+        Map<String, Object> result = new LinkedHashMap<>();
+        synchronized (windows) {
+            for (int i = 0; i < WINDOWS.length; i++) {
+                result.put(WINDOWS[i].label, windows[i].snapshot(now + offset, offset));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 获取聚合统计
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> result = new HashMap<>();
+        result.put("enabled", enabled);
+        result.put("devices", devices.size());
+        result.put("types", types.size());
+        result.put("buckets", buckets);
+        result.put("samples", samples.sum());
+        result.put("bytes", (long) (devices.size() + types.size()) * WINDOWS.length * WindowAggregate.sizeBytes(buckets));
+        return result;
+    }
+}
@@ -0,0 +1,153 @@
+package com.example.mqtt.aggregate;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 一个键（设备或设备类型）在一种窗口长度上的聚合
+ * <p>
+ * 滑动窗口：窗口划分为固定数量的桶组成环，采样落入当前桶，桶编号过期时先清零再复用，
+ * 查询时合并最近的全部桶，粒度为一个桶的长度。
+ * 滚动窗口：按本地时间对齐的周期（整分钟、整点、零点），保留当前周期和上一个完整周期。
+ * 每个采样的更新是O(1)，占用与桶数成正比，与采样数无关。调用方负责加锁。
+ */
+final class WindowAggregate {
+
+    private static final int TEMPERATURE = 0;
+    private static final int HUMIDITY = 1;
+    private static final int METRICS = 2;
+    private static final String[] METRIC_NAMES = {"temperature", "humidity"};
+    private static final int CURRENT = 0;
+    private static final int PREVIOUS = 1;
+
+    private final long windowMillis;
+    private final long bucketMillis;
+    private final int buckets;
+    private final long[] bucketIds;
+    // 下标为 桶 * METRICS + 指标
+    private final Accumulators bucketValues;
+    private long latestBucket = Long.MIN_VALUE;
+
+    // 下标为 (CURRENT|PREVIOUS) * METRICS + 指标
+    private final Accumulators periodValues = new Accumulators(2 * METRICS);
+    private long currentPeriod = Long.MIN_VALUE;
+
+    WindowAggregate(long windowMillis, int buckets) {
+        this.windowMillis = windowMillis;
+        this.buckets = buckets;
+        this.bucketMillis = Math.max(1, windowMillis / buckets);
+        this.bucketIds = new long[buckets];
+        Arrays.fill(bucketIds, Long.MIN_VALUE);
+        this.bucketValues = new Accumulators(buckets * METRICS);
+    }
+
+    /**
+     * 累加一个采样，localMillis为本地时区的毫秒时间，缺失的指标传NaN
+     */
+    void add(long localMillis, double temperature, double humidity) {
+        addToBucket(localMillis, temperature, humidity);
+        addToPeriod(localMillis, temperature, humidity);
+    }
+
+    private void addToBucket(long localMillis, double temperature, double humidity) {
+        long id = Math.floorDiv(localMillis, bucketMillis);
+        if (latestBucket != Long.MIN_VALUE && id <= latestBucket - buckets) {
+            // 已滑出窗口的迟到采样
+            return;
+        }
+        int index = (int) Math.floorMod(id, (long) buckets);
+        if (bucketIds[index] != id) {
+            if (bucketIds[index] > id) {
+                return;
+            }
+            bucketIds[index] = id;
+            bucketValues.reset(index * METRICS + TEMPERATURE);
+            bucketValues.reset(index * METRICS + HUMIDITY);
+        }
+        accumulate(bucketValues, index, temperature, humidity);
+        latestBucket = Math.max(latestBucket, id);
+    }
+
+    private void addToPeriod(long localMillis, double temperature, double humidity) {
+        long period = Math.floorDiv(localMillis, windowMillis);
+        if (period > currentPeriod) {
+            for (int m = 0; m < METRICS; m++) {
+                if (period == currentPeriod + 1) {
+                    periodValues.copy(CURRENT * METRICS + m, PREVIOUS * METRICS + m);
+                } else {
+                    periodValues.reset(PREVIOUS * METRICS + m);
+                }
+                periodValues.reset(CURRENT * METRICS + m);
+            }
+            currentPeriod = period;
+        }
+        if (period == currentPeriod) {
+            accumulate(periodValues, CURRENT, temperature, humidity);
+        } else if (period == currentPeriod - 1) {
+            accumulate(periodValues, PREVIOUS, temperature, humidity);
+        }
+    }
+
+    private static void accumulate(Accumulators values, int index, double temperature, double humidity) {
+        if (!Double.isNaN(temperature)) {
+            values.add(index * METRICS + TEMPERATURE, temperature);
+        }
+        if (!Double.isNaN(humidity)) {
+            values.add(index * METRICS + HUMIDITY, humidity);
+        }
+    }
+
+    /**
+     * 以localNow为当前时间生成滑动窗口和滚动窗口的汇总，startOffsetMillis把本地时间换回epoch毫秒
+     */
+    Map<String, Object> snapshot(long localNow, long startOffsetMillis) {
+        Accumulators sliding = new Accumulators(METRICS);
+        long nowBucket = Math.floorDiv(localNow, bucketMillis);
+        for (int b = 0; b < buckets; b++) {
+            long id = bucketIds[b];
+            if (id > nowBucket - buckets && id <= nowBucket) {
+                for (int m = 0; m < METRICS; m++) {
+                    bucketValues.mergeInto(b * METRICS + m, sliding, m);
+                }
+            }
+        }
+        long nowPeriod = Math.floorDiv(localNow, windowMillis);
+        Map<String, Object> result = new HashMap<>();
+        Map<String, Object> slidingResult = metrics(sliding, 0);
+        slidingResult.put("start", (nowBucket - buckets + 1) * bucketMillis - startOffsetMillis);
+        result.put("sliding", slidingResult);
+        result.put("current", period(nowPeriod, startOffsetMillis));
+        result.put("previous", period(nowPeriod - 1, startOffsetMillis));
+        return result;
+    }
+
+    private Map<String, Object> period(long period, long startOffsetMillis) {
+        Map<String, Object> result;
+        if (period == currentPeriod) {
+            result = metrics(periodValues, CURRENT);
+        } else if (period == currentPeriod - 1) {
+            result = metrics(periodValues, PREVIOUS);
+        } else {
+            result = metrics(new Accumulators(METRICS), 0);
+        }
+        result.put("start", period * windowMillis - startOffsetMillis);
+        return result;
+    }
+
+    private static Map<String, Object> metrics(Accumulators values, int index) {
+        Map<String, Object> result = new HashMap<>();
+        for (int m = 0; m < METRICS; m++) {
+            result.put(METRIC_NAMES[m], values.summary(index * METRICS + m));
+        }
+        return result;
+    }
+
+    /**
+     * 使用buckets个桶时占用的字节数（数组内容，不含对象头）
+     */
+    static long sizeBytes(int buckets) {
+        return (long) buckets * (Long.BYTES + METRICS * Accumulators.bytesPerSlot())
+            + 2L * METRICS * Accumulators.bytesPerSlot();
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.mqtt.broker;
+
+import com.example.mqtt.broker.SharedSubscriptionGroup.Member;
+
+import java.util.function.ToIntFunction;
+
+/**
+ * 内置的共享订阅选择策略
+ * <p>
+ * 均优先选择在线成员；全部离线时仍按策略选出一个成员，由持久会话缓存消息。
+ */
+public enum BuiltinSharedSubscriptionStrategy implements SharedSubscriptionStrategy {
+
+    /**
+     * 轮询，跳过离线成员
+     */
+    ROUND_ROBIN {
+        @Override
+        public <S> Member<S> select(SharedSubscriptionGroup<S> group, Member<S>[] members, String topic,
+                                    ToIntFunction<? super S> load) {
+            int start = group.nextCursor();
+            for (int i = 0; i < members.length; i++) {
+                Member<S> member = members[Math.floorMod(start + i, members.length)];
+                if (load.applyAsInt(member.getSubscriber()) >= 0) {
+                    return member;
+                }
+            }
+            return members[Math.floorMod(start, members.length)];
+        }
+    },
+
+    /**
+     * 在途消息最少的成员优先，处理慢的消费者自动少分；负载相同时从轮转位置开始，避免总落在第一个成员
+     */
+    LEAST_INFLIGHT {
+        @Override
+        public <S> Member<S> select(SharedSubscriptionGroup<S> group, Member<S>[] members, String topic,
+                                    ToIntFunction<? super S> load) {
+            int start = group.nextCursor();
+            Member<S> best = null;
+            int bestLoad = Integer.MAX_VALUE;
+            for (int i = 0; i < members.length; i++) {
+                Member<S> member = members[Math.floorMod(start + i, members.length)];
+                int memberLoad = load.applyAsInt(member.getSubscriber());
+                if (memberLoad >= 0 && memberLoad < bestLoad) {
+                    best = member;
+                    bestLoad = memberLoad;
+                    if (memberLoad == 0) {
+                        break;
+                    }
+                }
+            }
+            return best != null ? best : members[Math.floorMod(start, members.length)];
+        }
+    },
+
+    /**
+     * 按主题哈希固定到同一成员（rendezvous哈希），同一设备的消息保持顺序；
+     * 成员增减时只有原本落在该成员上的主题会迁移
+     */
+    STICKY_HASH {
+        @Override
+        public <S> Member<S> select(SharedSubscriptionGroup<S> group, Member<S>[] members, String topic,
+                                    ToIntFunction<? super S> load) {
+            int topicHash = topic.hashCode();
+            Member<S> best = null;
+            Member<S> bestOffline = null;
+            int bestWeight = Integer.MIN_VALUE;
+            int bestOfflineWeight = Integer.MIN_VALUE;
+            for (Member<S> member : members) {
+                int weight = mix(topicHash * 31 + member.getClientId().hashCode());
+                if (load.applyAsInt(member.getSubscriber()) >= 0) {
+                    if (best == null || weight > bestWeight) {
+                        best = member;
+                        bestWeight = weight;
+                    }
+                } else if (bestOffline == null || weight > bestOfflineWeight) {
+                    bestOffline = member;
+                    bestOfflineWeight = weight;
+                }
+            }
+            return best != null ? best : bestOffline;
+        }
+    };
+
+    /**
+     * murmur3 的32位混淆函数
+     */
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
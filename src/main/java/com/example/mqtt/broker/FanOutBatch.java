@@ -0,0 +1,74 @@
+package com.example.mqtt.broker;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.mqtt.MqttQoS;
+
+import java.util.Arrays;
+
+/**
+ * 一条发布消息在某个事件循环上的全部投递
+ * <p>
+ * 转发时按订阅者会话所属的事件循环分组，每个目标循环只收到一个批次，
+ * 由该循环在本地逐个写出。批次持有payload的一个引用，处理完后释放。
+ */
+public final class FanOutBatch {
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    private final LoopMailbox<FanOutBatch> mailbox;
+    private final String topic;
+    private final ByteBuf payload;
+    private Session[] sessions = new Session[INITIAL_CAPACITY];
+    private MqttQoS[] qos = new MqttQoS[INITIAL_CAPACITY];
+    private int size;
+
+    /**
+     * @param payload 批次接管该引用的所有权
+     */
+    public FanOutBatch(LoopMailbox<FanOutBatch> mailbox, String topic, ByteBuf payload) {
+        this.mailbox = mailbox;
+        this.topic = topic;
+        this.payload = payload;
+    }
+
+    public void add(Session session, MqttQoS deliveryQos) {
+        if (size == sessions.length) {
+            sessions = Arrays.copyOf(sessions, size * 2);
+            qos = Arrays.copyOf(qos, size * 2);
+        }
+        sessions[size] = session;
+        qos[size] = deliveryQos;
+        size++;
+    }
+
+    public LoopMailbox<FanOutBatch> getMailbox() {
+        return mailbox;
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    public ByteBuf getPayload() {
+        return payload;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public Session sessionAt(int index) {
+        return sessions[index];
+    }
+
+    public MqttQoS qosAt(int index) {
+        return qos[index];
+    }
+
+    /**
+     * 交给目标事件循环
+     */
+    public void dispatch() {
+        mailbox.offer(this);
+    }
+}
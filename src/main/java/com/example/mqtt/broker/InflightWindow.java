@@ -0,0 +1,216 @@
+package com.example.mqtt.broker;
+
+import io.netty.handler.codec.mqtt.MqttPublishMessage;
+
+import java.util.Arrays;
+
+/**
+ * 出站QoS 1/QoS 2消息的飞行窗口
+ * <p>
+ * 记录已发送但尚未完成确认流程的消息，容量即同时在途的最大消息数（类似MQTT 5的Receive Maximum）。
+ * 使用按发送顺序排列的并行原始类型数组保存（报文标识符 -> 状态），窗口很小，
+ * 线性查找比哈希表更省内存且不装箱。
+ * 负责会话内16位报文标识符的分配，跳过仍在途的标识符。
+ * <p>
+ * 非线程安全，只能在会话所属连接的事件循环中访问。
+ */
+public class InflightWindow {
+
+    /**
+     * QoS 1：等待PUBACK
+     */
+    public static final byte AWAIT_PUBACK = 1;
+
+    /**
+     * QoS 2：已发送PUBLISH，等待PUBREC
+     */
+    public static final byte AWAIT_PUBREC = 2;
+
+    /**
+     * QoS 2：已发送PUBREL，等待PUBCOMP，此时消息内容已释放
+     */
+    public static final byte AWAIT_PUBCOMP = 3;
+
+    private static final int MAX_PACKET_ID = 0xFFFF;
+    private static final int INITIAL_CAPACITY = 4;
+
+    private final int capacity;
+    private int[] packetIds;
+    private MqttPublishMessage[] messages;
+    private long[] sentAt;
+    private byte[] states;
+    private int size;
+    private int nextPacketId = 1;
+
+    public InflightWindow(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * 分配一个当前未在途的报文标识符（1-65535）
+     */
+    public int nextPacketId() {
+        while (true) {
+            int packetId = nextPacketId;
+            nextPacketId = packetId == MAX_PACKET_ID ? 1 : packetId + 1;
+            if (indexOf(packetId) < 0) {
+                return packetId;
+            }
+        }
+    }
+
+    /**
+     * 放入在途消息，窗口接管消息的所有权，初始状态由消息的QoS决定
+     */
+    public void add(int packetId, MqttPublishMessage message, long now) {
+        ensureSlot();
+        packetIds[size] = packetId;
+        messages[size] = message;
+        sentAt[size] = now;
+        states[size] = message.fixedHeader().qosLevel().value() == 2 ? AWAIT_PUBREC : AWAIT_PUBACK;
+        size++;
+    }
+
+    /**
+     * 恢复持久会话时放入只差PUBCOMP的QoS 2消息，消息内容在PUBREC时已释放
+     */
+    public void addReleased(int packetId, long now) {
+        ensureSlot();
+        packetIds[size] = packetId;
+        messages[size] = null;
+        sentAt[size] = now;
+        states[size] = AWAIT_PUBCOMP;
+        size++;
+    }
+
+    public boolean contains(int packetId) {
+        return indexOf(packetId) >= 0;
+    }
+
+    /**
+     * 完成确认流程（QoS 1收到PUBACK或QoS 2收到PUBCOMP），状态不符时不做处理并返回false
+     */
+    public boolean complete(int packetId, byte expectedState) {
+        int index = indexOf(packetId);
+        if (index < 0 || states[index] != expectedState) {
+            return false;
+        }
+        if (messages[index] != null) {
+            messages[index].release();
+        }
+        // 保持发送顺序，重传时按原顺序发出
+        int moved = size - index - 1;
+        if (moved > 0) {
+            System.arraycopy(packetIds, index + 1, packetIds, index, moved);
+            System.arraycopy(messages, index + 1, messages, index, moved);
+            System.arraycopy(sentAt, index + 1, sentAt, index, moved);
+            System.arraycopy(states, index + 1, states, index, moved);
+        }
+        size--;
+        messages[size] = null;
+        return true;
+    }
+
+    /**
+     * QoS 2收到PUBREC：转入等待PUBCOMP状态并释放消息内容。
+     * 重复的PUBREC同样返回true，以便重发PUBREL。
+     */
+    public boolean received(int packetId, long now) {
+        int index = indexOf(packetId);
+        if (index < 0 || states[index] == AWAIT_PUBACK) {
+            return false;
+        }
+        if (states[index] == AWAIT_PUBREC) {
+            states[index] = AWAIT_PUBCOMP;
+            messages[index].release();
+            messages[index] = null;
+        }
+        sentAt[index] = now;
+        return true;
+    }
+
+    public boolean isFull() {
+        return size >= capacity;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 在途消息，AWAIT_PUBCOMP状态下为null
+     */
+    public MqttPublishMessage messageAt(int index) {
+        return messages[index];
+    }
+
+    public int packetIdAt(int index) {
+        return packetIds[index];
+    }
+
+    public byte stateAt(int index) {
+        return states[index];
+    }
+
+    public long sentAt(int index) {
+        return sentAt[index];
+    }
+
+    public void markSent(int index, long now) {
+        sentAt[index] = now;
+    }
+
+    /**
+     * 释放所有在途消息
+     */
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            if (messages[i] != null) {
+                messages[i].release();
+                messages[i] = null;
+            }
+        }
+        size = 0;
+    }
+
+    /**
+     * 数组按需扩容到窗口容量，在途消息少的会话只占几十字节
+     */
+    private void ensureSlot() {
+        if (isFull()) {
+            throw new IllegalStateException("飞行窗口已满");
+        }
+        if (packetIds == null) {
+            allocate(Math.min(INITIAL_CAPACITY, capacity));
+        } else if (size == packetIds.length) {
+            allocate(Math.min(packetIds.length * 2, capacity));
+        }
+    }
+
+    private void allocate(int length) {
+        if (packetIds == null) {
+            packetIds = new int[length];
+            messages = new MqttPublishMessage[length];
+            sentAt = new long[length];
+            states = new byte[length];
+            return;
+        }
+        packetIds = Arrays.copyOf(packetIds, length);
+        messages = Arrays.copyOf(messages, length);
+        sentAt = Arrays.copyOf(sentAt, length);
+        states = Arrays.copyOf(states, length);
+    }
+
+    private int indexOf(int packetId) {
+        for (int i = 0; i < size; i++) {
+            if (packetIds[i] == packetId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.mqtt.broker;
+
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.internal.PlatformDependent;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * 事件循环的投递信箱
+ * <p>
+ * 其他线程把要在该事件循环中处理的工作放入无锁的多生产者单消费者队列，
+ * 队列由空变为非空时才向事件循环提交一次排空任务，一轮排空处理此前到达的全部工作，
+ * 高扇出时跨线程的任务提交和唤醒次数与消息数无关。
+ * <p>
+ * 工作只在所属事件循环中处理，处理方可以不加锁地访问该循环上的连接和会话。
+ */
+@Slf4j
+public final class LoopMailbox<T> {
+
+    private final EventExecutor executor;
+    private final Consumer<T> consumer;
+    private final int maxDrain;
+    private final Queue<T> queue = PlatformDependent.newMpscQueue();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final Runnable drainTask = this::drain;
+    private final LongAdder drains = new LongAdder();
+    private final LongAdder items = new LongAdder();
+
+    /**
+     * @param executor 所属事件循环
+     * @param consumer 在事件循环中逐个处理工作
+     * @param maxDrain 一轮最多处理的工作数，超过后让出事件循环处理I/O，剩余的工作另排一轮
+     */
+    public LoopMailbox(EventExecutor executor, Consumer<T> consumer, int maxDrain) {
+        this.executor = executor;
+        this.consumer = consumer;
+        this.maxDrain = maxDrain;
+    }
+
+    public EventExecutor executor() {
+        return executor;
+    }
+
+    /**
+     * 放入工作，可在任意线程调用
+     */
+    public void offer(T item) {
+        queue.offer(item);
+        if (scheduled.compareAndSet(false, true)) {
+            executor.execute(drainTask);
+        }
+    }
+
+    private void drain() {
+        drains.increment();
+        int drained = 0;
+        T item;
+        while (drained < maxDrain && (item = queue.poll()) != null) {
+            drained++;
+            try {
+                consumer.accept(item);
+            } catch (Exception e) {
+                // 单个工作失败不能让信箱停止排空
+                log.error("事件循环信箱处理失败", e);
+            }
+        }
+        items.add(drained);
+        scheduled.set(false);
+        // 清除标记后再检查一次，避免与刚入队的生产者互相错过
+        if (!queue.isEmpty() && scheduled.compareAndSet(false, true)) {
+            executor.execute(drainTask);
+        }
+    }
+
+    /**
+     * 已执行的排空任务数，即跨线程提交的任务数
+     */
+    public long getDrains() {
+        return drains.sum();
+    }
+
+    /**
+     * 已处理的工作数
+     */
+    public long getItems() {
+        return items.sum();
+    }
+
+    public int pending() {
+        return queue.size();
+    }
+}
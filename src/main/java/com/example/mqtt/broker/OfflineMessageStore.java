@@ -0,0 +1,414 @@
+package com.example.mqtt.broker;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.mqtt.*;
+import io.netty.util.internal.PlatformDependent;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 离线消息存储
+ * <p>
+ * 持久会话（cleanSession=false）离线期间的QoS 1/2消息写入内存映射的追加日志，消息内容不占用堆内存。
+ * 按客户端ID哈希分片，每个分片一组固定大小的段文件，所有会话的消息顺序追加到当前段；
+ * 堆上只为每个会话保留一个long数组形式的位置索引（段号 << 32 | 段内偏移），每条消息8字节。
+ * 段内消息全部被消费或丢弃后删除段文件。
+ * <p>
+ * 记录格式: [int 记录长度][byte 标志][short 报文标识符][short 主题长度][主题][payload]。
+ * 标志低两位为QoS，另有DUP与PUBREL标记；断开时尚未完成握手的在途消息保留原报文标识符，
+ * 重连后按原标识符重发，保证QoS 2的exactly-once语义。
+ * <p>
+ * 存储只作为离线缓冲，不做fsync，Broker重启时清空目录。线程安全，同一分片内的操作串行执行。
+ */
+@Slf4j
+public class OfflineMessageStore implements AutoCloseable {
+
+    private static final int HEADER_SIZE = 4 + 1 + 2 + 2;
+    private static final int FLAG_QOS_MASK = 0x03;
+    private static final int FLAG_DUP = 0x04;
+    private static final int FLAG_PUBREL = 0x08;
+
+    private final Shard[] shards;
+    private final int segmentSize;
+    private final int maxMessagesPerSession;
+    private final long maxBytesPerSession;
+    private final LongAdder appended = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    public OfflineMessageStore(Path directory, int shardCount, int segmentSize,
+                               int maxMessagesPerSession, long maxBytesPerSession) {
+        this.segmentSize = segmentSize;
+        this.maxMessagesPerSession = maxMessagesPerSession;
+        this.maxBytesPerSession = maxBytesPerSession;
+        try {
+            Files.createDirectories(directory);
+            // 离线消息不跨Broker重启保留，清理上次运行遗留的段文件
+            try (DirectoryStream<Path> stale = Files.newDirectoryStream(directory, "*.log")) {
+                for (Path file : stale) {
+                    Files.delete(file);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("无法初始化离线消息目录: " + directory, e);
+        }
+        this.shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard(directory, i);
+        }
+    }
+
+    /**
+     * 追加一条离线消息，超过会话上限或单条消息超过段大小时丢弃并返回false
+     */
+    public boolean append(String clientId, String topic, MqttQoS qos, ByteBuf payload) {
+        Shard shard = shard(clientId);
+        synchronized (shard) {
+            SessionIndex index = shard.sessions.computeIfAbsent(clientId, k -> new SessionIndex());
+            if (index.size >= maxMessagesPerSession || index.bytes + payload.readableBytes() > maxBytesPerSession) {
+                dropped.increment();
+                return false;
+            }
+            long position = shard.write(topic, qos.value(), 0, payload);
+            if (position < 0) {
+                dropped.increment();
+                return false;
+            }
+            index.addLast(position, payload.readableBytes());
+        }
+        appended.increment();
+        return true;
+    }
+
+    /**
+     * 断开时把尚未送达的消息按原顺序放回队首（排在已有离线消息之前），不受会话上限限制。
+     * 消息的所有权仍归调用方；PUBREL报文表示只差PUBCOMP的QoS 2消息。
+     */
+    public void requeue(String clientId, List<MqttMessage> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        Shard shard = shard(clientId);
+        synchronized (shard) {
+            SessionIndex index = shard.sessions.computeIfAbsent(clientId, k -> new SessionIndex());
+            for (int i = messages.size() - 1; i >= 0; i--) {
+                MqttMessage message = messages.get(i);
+                long position;
+                int length;
+                if (message instanceof MqttPublishMessage) {
+                    MqttPublishMessage publish = (MqttPublishMessage) message;
+                    int flags = publish.fixedHeader().qosLevel().value() | (publish.fixedHeader().isDup() ? FLAG_DUP : 0);
+                    length = publish.payload().readableBytes();
+                    position = shard.write(publish.variableHeader().topicName(), flags,
+                        publish.variableHeader().packetId(), publish.payload());
+                } else {
+                    length = 0;
+                    position = shard.write("", FLAG_PUBREL | MqttQoS.AT_LEAST_ONCE.value(),
+                        ((MqttMessageIdVariableHeader) message.variableHeader()).messageId(), Unpooled.EMPTY_BUFFER);
+                }
+                if (position < 0) {
+                    dropped.increment();
+                    continue;
+                }
+                index.addFirst(position, length);
+            }
+        }
+    }
+
+    /**
+     * 取出会话最早的一条离线消息：PUBLISH（内容复制到分配器的缓冲区）或PUBREL；没有时返回null
+     */
+    public MqttMessage poll(String clientId, ByteBufAllocator allocator) {
+        Shard shard = shard(clientId);
+        synchronized (shard) {
+            SessionIndex index = shard.sessions.get(clientId);
+            if (index == null || index.size == 0) {
+                return null;
+            }
+            long position = index.pollFirst();
+            MqttMessage message = shard.read(position, allocator);
+            index.bytes -= message instanceof MqttPublishMessage
+                ? ((MqttPublishMessage) message).payload().readableBytes() : 0;
+            if (index.size == 0) {
+                shard.sessions.remove(clientId);
+            }
+            shard.release(position);
+            return message;
+        }
+    }
+
+    public boolean hasMessages(String clientId) {
+        return size(clientId) > 0;
+    }
+
+    public int size(String clientId) {
+        Shard shard = shard(clientId);
+        synchronized (shard) {
+            SessionIndex index = shard.sessions.get(clientId);
+            return index == null ? 0 : index.size;
+        }
+    }
+
+    /**
+     * 丢弃会话的全部离线消息（会话过期或以cleanSession=true重新连接）
+     */
+    public void discard(String clientId) {
+        Shard shard = shard(clientId);
+        synchronized (shard) {
+            SessionIndex index = shard.sessions.remove(clientId);
+            if (index == null) {
+                return;
+            }
+            while (index.size > 0) {
+                shard.release(index.pollFirst());
+            }
+        }
+    }
+
+    /**
+     * 存储统计
+     */
+    public Map<String, Object> getStats() {
+        long queued = 0;
+        int sessions = 0;
+        int segments = 0;
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                sessions += shard.sessions.size();
+                for (SessionIndex index : shard.sessions.values()) {
+                    queued += index.size;
+                }
+                for (Segment segment : shard.segments) {
+                    if (segment != null) {
+                        segments++;
+                    }
+                }
+            }
+        }
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("sessions_with_messages", sessions);
+        stats.put("queued", queued);
+        stats.put("appended", appended.sum());
+        stats.put("dropped", dropped.sum());
+        stats.put("segments", segments);
+        stats.put("segment_size", segmentSize);
+        return stats;
+    }
+
+    @Override
+    public void close() {
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                shard.sessions.clear();
+                for (int i = 0; i < shard.segments.size(); i++) {
+                    Segment segment = shard.segments.get(i);
+                    if (segment != null) {
+                        segment.delete();
+                        shard.segments.set(i, null);
+                    }
+                }
+            }
+        }
+    }
+
+    private Shard shard(String clientId) {
+        return shards[(clientId.hashCode() & Integer.MAX_VALUE) % shards.length];
+    }
+
+    /**
+     * 分片：一组按段号排列的段文件，最后一段为当前写入段
+     */
+    private final class Shard {
+
+        private final Path directory;
+        private final int id;
+        private final Map<String, SessionIndex> sessions = new HashMap<>();
+        // 下标 = 段号 - firstSegmentId，已删除的段为null
+        private final List<Segment> segments = new ArrayList<>();
+        private int firstSegmentId;
+        private Segment active;
+
+        Shard(Path directory, int id) {
+            this.directory = directory;
+            this.id = id;
+        }
+
+        /**
+         * 写入一条记录，返回位置；记录超过段大小时返回-1
+         */
+        long write(String topic, int flags, int packetId, ByteBuf payload) {
+            byte[] topicBytes = topic.getBytes(StandardCharsets.UTF_8);
+            int recordSize = HEADER_SIZE + topicBytes.length + payload.readableBytes();
+            if (recordSize > segmentSize) {
+                log.warn("离线消息超过段大小，丢弃: 主题={}, 大小={}", topic, recordSize);
+                return -1;
+            }
+            if (active == null || active.writePosition + recordSize > segmentSize) {
+                roll();
+            }
+            ByteBuf view = active.view;
+            int offset = active.writePosition;
+            view.setInt(offset, recordSize);
+            view.setByte(offset + 4, flags);
+            view.setShort(offset + 5, packetId);
+            view.setShort(offset + 7, topicBytes.length);
+            view.setBytes(offset + HEADER_SIZE, topicBytes);
+            view.setBytes(offset + HEADER_SIZE + topicBytes.length, payload, payload.readerIndex(), payload.readableBytes());
+            active.writePosition += recordSize;
+            active.live++;
+            return (long) active.id << 32 | offset;
+        }
+
+        MqttMessage read(long position, ByteBufAllocator allocator) {
+            ByteBuf view = segment(position).view;
+            int offset = (int) position;
+            int recordSize = view.getInt(offset);
+            int flags = view.getByte(offset + 4);
+            int packetId = view.getUnsignedShort(offset + 5);
+            int topicLength = view.getUnsignedShort(offset + 7);
+            MqttQoS qos = MqttQoS.valueOf(flags & FLAG_QOS_MASK);
+            if ((flags & FLAG_PUBREL) != 0) {
+                return new MqttMessage(
+                    new MqttFixedHeader(MqttMessageType.PUBREL, false, qos, false, 0),
+                    MqttMessageIdVariableHeader.from(packetId));
+            }
+            String topic = view.getCharSequence(offset + HEADER_SIZE, topicLength, StandardCharsets.UTF_8).toString();
+            int payloadOffset = offset + HEADER_SIZE + topicLength;
+            int payloadLength = recordSize - HEADER_SIZE - topicLength;
+            ByteBuf payload = allocator.buffer(payloadLength);
+            payload.writeBytes(view, payloadOffset, payloadLength);
+            return new MqttPublishMessage(
+                new MqttFixedHeader(MqttMessageType.PUBLISH, (flags & FLAG_DUP) != 0, qos, false, 0),
+                new MqttPublishVariableHeader(topic, packetId),
+                payload);
+        }
+
+        /**
+         * 记录已消费或丢弃，段内没有存活记录且不是当前写入段时删除
+         */
+        void release(long position) {
+            Segment segment = segment(position);
+            if (--segment.live == 0 && segment != active) {
+                segment.delete();
+                segments.set(segment.id - firstSegmentId, null);
+                while (!segments.isEmpty() && segments.get(0) == null) {
+                    segments.remove(0);
+                    firstSegmentId++;
+                }
+            }
+        }
+
+        private Segment segment(long position) {
+            return segments.get((int) (position >>> 32) - firstSegmentId);
+        }
+
+        private void roll() {
+            Segment previous = active;
+            int segmentId = firstSegmentId + segments.size();
+            active = new Segment(directory.resolve(String.format("shard-%02d-%010d.log", id, segmentId)), segmentId, segmentSize);
+            segments.add(active);
+            if (previous != null && previous.live == 0) {
+                previous.delete();
+                segments.set(previous.id - firstSegmentId, null);
+            }
+            while (segments.get(0) == null) {
+                segments.remove(0);
+                firstSegmentId++;
+            }
+        }
+    }
+
+    /**
+     * 段文件，整体映射到内存
+     */
+    private static final class Segment {
+
+        private final Path path;
+        private final int id;
+        private final MappedByteBuffer buffer;
+        private final ByteBuf view;
+        private int writePosition;
+        private int live;
+
+        Segment(Path path, int id, int size) {
+            this.path = path;
+            this.id = id;
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            } catch (IOException e) {
+                throw new UncheckedIOException("无法创建离线消息段: " + path, e);
+            }
+            this.view = Unpooled.wrappedBuffer(buffer);
+        }
+
+        void delete() {
+            PlatformDependent.freeDirectBuffer(buffer);
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                log.warn("删除离线消息段失败: {}", path, e);
+            }
+        }
+    }
+
+    /**
+     * 会话的消息位置索引：long环形双端队列
+     */
+    private static final class SessionIndex {
+
+        private long[] positions = new long[8];
+        private int head;
+        private int size;
+        private long bytes;
+
+        void addLast(long position, int length) {
+            ensureCapacity();
+            positions[(head + size) & (positions.length - 1)] = position;
+            size++;
+            bytes += length;
+        }
+
+        void addFirst(long position, int length) {
+            ensureCapacity();
+            head = (head - 1) & (positions.length - 1);
+            positions[head] = position;
+            size++;
+            bytes += length;
+        }
+
+        long pollFirst() {
+            long position = positions[head];
+            head = (head + 1) & (positions.length - 1);
+            size--;
+            return position;
+        }
+
+        private void ensureCapacity() {
+            if (size < positions.length) {
+                return;
+            }
+            long[] grown = new long[positions.length * 2];
+            for (int i = 0; i < size; i++) {
+                grown[i] = positions[(head + i) & (positions.length - 1)];
+            }
+            positions = grown;
+            head = 0;
+        }
+    }
+}
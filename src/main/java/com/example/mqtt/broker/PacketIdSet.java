@@ -0,0 +1,136 @@
+package com.example.mqtt.broker;
+
+/**
+ * 报文标识符集合
+ * <p>
+ * 以char数组实现的开放寻址哈希集合（线性探测），报文标识符为1-65535，0表示空槽。
+ * 没有装箱也没有Entry对象，空集合不分配数组，只有几十字节的对象头开销。
+ * 用于记录入站QoS 2消息"已收到PUBLISH、等待PUBREL"的状态。
+ * <p>
+ * 非线程安全，只在连接所属的事件循环中访问。
+ */
+public class PacketIdSet {
+
+    private static final int INITIAL_CAPACITY = 4;
+
+    private char[] table;
+    private int size;
+
+    public boolean contains(int packetId) {
+        if (table == null) {
+            return false;
+        }
+        char id = (char) packetId;
+        int mask = table.length - 1;
+        for (int i = hash(id) & mask; table[i] != 0; i = (i + 1) & mask) {
+            if (table[i] == id) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 添加报文标识符，已存在时返回false
+     */
+    public boolean add(int packetId) {
+        if (packetId <= 0 || packetId > 0xFFFF) {
+            throw new IllegalArgumentException("非法的报文标识符: " + packetId);
+        }
+        if (table == null) {
+            table = new char[INITIAL_CAPACITY];
+        } else if ((size + 1) * 2 > table.length) {
+            resize(table.length * 2);
+        }
+        if (!insert(table, (char) packetId)) {
+            return false;
+        }
+        size++;
+        return true;
+    }
+
+    /**
+     * 移除报文标识符，不存在时返回false
+     */
+    public boolean remove(int packetId) {
+        if (table == null) {
+            return false;
+        }
+        char id = (char) packetId;
+        int mask = table.length - 1;
+        int i = hash(id) & mask;
+        while (table[i] != id) {
+            if (table[i] == 0) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        table[i] = 0;
+        size--;
+
+        // 回移后续元素，保证线性探测链不断开
+        for (int j = (i + 1) & mask; table[j] != 0; j = (j + 1) & mask) {
+            char moved = table[j];
+            table[j] = 0;
+            insert(table, moved);
+        }
+        if (size == 0) {
+            table = null;
+        }
+        return true;
+    }
+
+    /**
+     * 加入other中的全部报文标识符
+     */
+    public void addAll(PacketIdSet other) {
+        if (other.table == null) {
+            return;
+        }
+        for (char id : other.table) {
+            if (id != 0) {
+                add(id);
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        table = null;
+        size = 0;
+    }
+
+    private void resize(int capacity) {
+        char[] old = table;
+        table = new char[capacity];
+        for (char id : old) {
+            if (id != 0) {
+                insert(table, id);
+            }
+        }
+    }
+
+    private static boolean insert(char[] table, char id) {
+        int mask = table.length - 1;
+        int i = hash(id) & mask;
+        while (table[i] != 0) {
+            if (table[i] == id) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        table[i] = id;
+        return true;
+    }
+
+    private static int hash(char id) {
+        return id * 0x9E3779B1 >>> 16;
+    }
+}
@@ -0,0 +1,171 @@
+package com.example.mqtt.broker;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 发布限流
+ * <p>
+ * 两级令牌桶，每级同时限制消息数/秒和字节数/秒：每个会话各有一组，按主题前缀的规则在所有客户端之间共享一组。
+ * 令牌桶基于CAS实现，发布路径上不加锁；突发容量为burstSeconds秒的速率。速率小于等于0表示不限制。
+ * 一条消息要通过全部桶才放行，后面的桶拒绝时归还前面已取的令牌，被拒绝的消息不消耗任何限额。
+ */
+public class PublishRateLimiter {
+
+    private final RateLimitAction action;
+    private final double clientMessageRate;
+    private final double clientByteRate;
+    private final double burstSeconds;
+    private final TopicLimit[] topicLimits;
+    private final LongAdder limited = new LongAdder();
+    private final LongAdder limitedByClient = new LongAdder();
+
+    /**
+     * 一个会话的发布配额，只在会话所属的事件循环中使用
+     */
+    public static final class Quota {
+        private final TokenBucket messages;
+        private final TokenBucket bytes;
+
+        private Quota(TokenBucket messages, TokenBucket bytes) {
+            this.messages = messages;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * 按主题前缀共享的限额
+     */
+    private static final class TopicLimit {
+        final String prefix;
+        final TokenBucket messages;
+        final TokenBucket bytes;
+        final LongAdder limited = new LongAdder();
+
+        TopicLimit(String prefix, TokenBucket messages, TokenBucket bytes) {
+            this.prefix = prefix;
+            this.messages = messages;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * @param topicRules 主题前缀规则，格式为 "前缀:消息数每秒:字节数每秒"，按顺序取第一条匹配的规则
+     */
+    public PublishRateLimiter(RateLimitAction action, double clientMessageRate, double clientByteRate,
+                              double burstSeconds, List<String> topicRules) {
+        this.action = action;
+        this.clientMessageRate = clientMessageRate;
+        this.clientByteRate = clientByteRate;
+        this.burstSeconds = burstSeconds;
+        long now = System.nanoTime();
+        List<TopicLimit> limits = new ArrayList<>();
+        for (String rule : topicRules) {
+            String[] parts = rule.trim().split(":");
+            if (parts.length != 3) {
+                throw new IllegalArgumentException("非法的主题限流规则: " + rule);
+            }
+            limits.add(new TopicLimit(parts[0], bucket(Double.parseDouble(parts[1]), now),
+                bucket(Double.parseDouble(parts[2]), now)));
+        }
+        this.topicLimits = limits.toArray(new TopicLimit[0]);
+    }
+
+    public RateLimitAction getAction() {
+        return action;
+    }
+
+    /**
+     * 为新会话创建配额，未配置客户端限额时返回null
+     */
+    public Quota newQuota() {
+        if (clientMessageRate <= 0 && clientByteRate <= 0) {
+            return null;
+        }
+        long now = System.nanoTime();
+        return new Quota(bucket(clientMessageRate, now), bucket(clientByteRate, now));
+    }
+
+    /**
+     * 检查一条发布消息
+     *
+     * @param quota 会话配额，可以为null
+     * @return 0表示允许；否则为超限，返回令牌恢复还需的纳秒数
+     */
+    public long check(Quota quota, String topic, int bytes) {
+        long now = System.nanoTime();
+        if (quota != null) {
+            long wait = acquire(quota.messages, quota.bytes, bytes, now);
+            if (wait > 0) {
+                limited.increment();
+                limitedByClient.increment();
+                return wait;
+            }
+        }
+        for (TopicLimit limit : topicLimits) {
+            if (topic.startsWith(limit.prefix)) {
+                long wait = acquire(limit.messages, limit.bytes, bytes, now);
+                if (wait > 0) {
+                    if (quota != null) {
+                        release(quota.messages, quota.bytes, bytes, now);
+                    }
+                    limited.increment();
+                    limit.limited.increment();
+                }
+                return wait;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * 依次从消息数桶和字节数桶取令牌，字节数不足时归还已取的消息数令牌
+     */
+    private static long acquire(TokenBucket messages, TokenBucket bytes, int size, long now) {
+        if (messages != null) {
+            long wait = messages.tryAcquire(1, now);
+            if (wait > 0) {
+                return wait;
+            }
+        }
+        long wait = bytes != null ? bytes.tryAcquire(size, now) : 0;
+        if (wait > 0 && messages != null) {
+            messages.release(1, now);
+        }
+        return wait;
+    }
+
+    private static void release(TokenBucket messages, TokenBucket bytes, int size, long now) {
+        if (messages != null) {
+            messages.release(1, now);
+        }
+        if (bytes != null) {
+            bytes.release(size, now);
+        }
+    }
+
+    private TokenBucket bucket(double rate, long now) {
+        return rate > 0 ? new TokenBucket(rate, Math.max(1, (long) (rate * burstSeconds)), now) : null;
+    }
+
+    /**
+     * 获取限流统计
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> result = new HashMap<>();
+        result.put("action", action.name());
+        result.put("client_messages_per_second", clientMessageRate);
+        result.put("client_bytes_per_second", clientByteRate);
+        result.put("limited", limited.sum());
+        result.put("limited_by_client", limitedByClient.sum());
+        Map<String, Object> topics = new HashMap<>();
+        for (TopicLimit limit : topicLimits) {
+            topics.put(limit.prefix, limit.limited.sum());
+        }
+        result.put("limited_by_topic", topics);
+        return result;
+    }
+}
@@ -0,0 +1,24 @@
+package com.example.mqtt.broker;
+
+/**
+ * 发布限流动作
+ * <p>
+ * 客户端的发布速率超过消息数或字节数限制时如何处理。
+ */
+public enum RateLimitAction {
+
+    /**
+     * 丢弃超限的消息，QoS 1/2仍正常应答，避免客户端重发
+     */
+    DROP,
+
+    /**
+     * 消息照常处理，但暂停读取该连接，直到令牌恢复
+     */
+    DELAY,
+
+    /**
+     * 断开连接
+     */
+    DISCONNECT
+}
@@ -0,0 +1,82 @@
+package com.example.mqtt.broker;
+
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 按原因暂停连接读取
+ * <p>
+ * 发布限流、业务管道背压、连接准入和流式转发都通过关闭autoRead让客户端放慢发送。
+ * 各机制共用同一个autoRead开关，直接读写会互相覆盖：一方恢复读取时另一方的暂停条件可能仍然成立。
+ * 这里为每个连接记录一个暂停原因位掩码，只有全部原因都解除后才恢复读取。
+ * <p>
+ * 掩码可以在任意线程修改，autoRead只在连接的事件循环中按修改后的掩码设置，
+ * 最后执行的设置总是对应最新的掩码，不会因线程间的先后顺序而停留在错误状态。
+ */
+public final class ReadPause {
+
+    /** 超过发布限额，等待令牌恢复 */
+    public static final int RATE_LIMIT = 1;
+    /** 业务处理管道积压 */
+    public static final int PIPELINE = 1 << 1;
+    /** 连接被准入控制拒绝，等待回复拒绝的CONNACK */
+    public static final int ADMISSION = 1 << 2;
+    /** 流式PUBLISH的订阅者写缓冲已满 */
+    public static final int STREAM = 1 << 3;
+
+    private static final AttributeKey<AtomicInteger> REASONS = AttributeKey.valueOf("readPauseReasons");
+
+    private ReadPause() {
+    }
+
+    /**
+     * 以reason暂停读取，返回该原因此前是否未生效
+     */
+    public static boolean pause(Channel channel, int reason) {
+        int previous = reasons(channel).getAndAccumulate(reason, (current, r) -> current | r);
+        if (previous == 0) {
+            apply(channel);
+        }
+        return (previous & reason) == 0;
+    }
+
+    /**
+     * 解除reason，没有其他原因时恢复读取，返回该原因此前是否生效
+     */
+    public static boolean resume(Channel channel, int reason) {
+        int previous = reasons(channel).getAndAccumulate(reason, (current, r) -> current & ~r);
+        if (previous == reason) {
+            apply(channel);
+        }
+        return (previous & reason) != 0;
+    }
+
+    /**
+     * 是否因reason暂停
+     */
+    public static boolean isPaused(Channel channel, int reason) {
+        return (reasons(channel).get() & reason) != 0;
+    }
+
+    private static void apply(Channel channel) {
+        if (channel.eventLoop().inEventLoop()) {
+            channel.config().setAutoRead(reasons(channel).get() == 0);
+        } else {
+            channel.eventLoop().execute(() -> channel.config().setAutoRead(reasons(channel).get() == 0));
+        }
+    }
+
+    private static AtomicInteger reasons(Channel channel) {
+        AtomicInteger reasons = channel.attr(REASONS).get();
+        if (reasons == null) {
+            AtomicInteger created = new AtomicInteger();
+            reasons = channel.attr(REASONS).setIfAbsent(created);
+            if (reasons == null) {
+                reasons = created;
+            }
+        }
+        return reasons;
+    }
+}
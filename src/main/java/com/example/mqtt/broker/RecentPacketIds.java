@@ -0,0 +1,46 @@
+package com.example.mqtt.broker;
+
+/**
+ * 最近收到的入站报文标识符
+ * <p>
+ * 固定大小的环形窗口，用于识别客户端因未收到PUBACK而重发（DUP=1）的QoS 1消息，
+ * 避免同一条消息被重复转发。非线程安全，只在连接所属的事件循环中访问。
+ */
+public class RecentPacketIds {
+
+    private final char[] packetIds;
+    private int position;
+    private int count;
+
+    public RecentPacketIds(int capacity) {
+        this.packetIds = new char[capacity];
+    }
+
+    public boolean contains(int packetId) {
+        char id = (char) packetId;
+        for (int i = 0; i < count; i++) {
+            if (packetIds[i] == id) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 按从旧到新的顺序加入other中的报文标识符
+     */
+    public void addAll(RecentPacketIds other) {
+        int start = other.count < other.packetIds.length ? 0 : other.position;
+        for (int i = 0; i < other.count; i++) {
+            add(other.packetIds[(start + i) % other.packetIds.length]);
+        }
+    }
+
+    public void add(int packetId) {
+        packetIds[position] = (char) packetId;
+        position = (position + 1) % packetIds.length;
+        if (count < packetIds.length) {
+            count++;
+        }
+    }
+}
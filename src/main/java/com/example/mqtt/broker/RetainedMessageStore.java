@@ -0,0 +1,283 @@
+package com.example.mqtt.broker;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.handler.codec.mqtt.MqttQoS;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 保留消息存储
+ * <p>
+ * 以发布主题的层级组成主题树，每个主题只保留最后一条RETAIN消息。
+ * 消息内容复制到池化的直接内存中，不占用Java堆，堆上只有树节点；
+ * 完整主题不单独保存，查找时由层级路径拼出；子节点表在第一次插入子节点时才创建，叶子节点不分配哈希表。
+ * <p>
+ * 写入/删除串行执行，按订阅过滤器（支持 "+" 与 "#"）的查找过程无锁。
+ */
+public class RetainedMessageStore {
+
+    private final Node root = new Node();
+    private final ByteBufAllocator allocator;
+    private final AtomicInteger count = new AtomicInteger();
+    private final AtomicLong bytes = new AtomicLong();
+
+    public RetainedMessageStore() {
+        this(PooledByteBufAllocator.DEFAULT);
+    }
+
+    public RetainedMessageStore(ByteBufAllocator allocator) {
+        this.allocator = allocator;
+    }
+
+    /**
+     * 保存主题的保留消息，payload为空时删除该主题的保留消息。调用方仍持有payload的所有权
+     */
+    public void put(String topic, ByteBuf payload, MqttQoS qos) {
+        if (!payload.isReadable()) {
+            remove(topic);
+            return;
+        }
+        // 复制而不是共享：入站payload是解码缓冲区的切片，长期持有会拖住整块读缓冲
+        int length = payload.readableBytes();
+        ByteBuf copy = allocator.directBuffer(length, length);
+        copy.writeBytes(payload, payload.readerIndex(), length);
+
+        ByteBuf previous;
+        synchronized (this) {
+            Node node = root;
+            int start = 0;
+            while (true) {
+                int end = topic.indexOf('/', start);
+                if (end < 0) {
+                    end = topic.length();
+                }
+                node = node.getOrCreateChild(topic.substring(start, end));
+                if (end == topic.length()) {
+                    break;
+                }
+                start = end + 1;
+            }
+            synchronized (node) {
+                previous = node.payload;
+                node.payload = copy;
+                node.qos = qos;
+            }
+        }
+        if (previous != null) {
+            bytes.addAndGet(length - previous.readableBytes());
+            previous.release();
+        } else {
+            count.incrementAndGet();
+            bytes.addAndGet(length);
+        }
+    }
+
+    /**
+     * 删除主题的保留消息，并清理不再使用的节点
+     */
+    public synchronized void remove(String topic) {
+        String[] levels = topic.split("/", -1);
+        Node[] path = new Node[levels.length + 1];
+        path[0] = root;
+        for (int i = 0; i < levels.length; i++) {
+            path[i + 1] = path[i].getChild(levels[i]);
+            if (path[i + 1] == null) {
+                return;
+            }
+        }
+        Node node = path[levels.length];
+        ByteBuf previous;
+        synchronized (node) {
+            previous = node.payload;
+            node.payload = null;
+            node.qos = null;
+        }
+        if (previous != null) {
+            count.decrementAndGet();
+            bytes.addAndGet(-previous.readableBytes());
+            previous.release();
+        }
+
+        // 自底向上删除空节点
+        for (int i = levels.length; i > 0 && path[i].isEmpty(); i--) {
+            path[i - 1].removeChild(levels[i - 1]);
+        }
+    }
+
+    /**
+     * 查找与订阅过滤器匹配的保留消息，结果中的payload为 retainedDuplicate，由调用方释放
+     */
+    public void match(TopicFilter filter, List<RetainedMessage> result) {
+        match(root, null, filter.getLevels(), 0, result);
+    }
+
+    private static String child(String topic, String level) {
+        return topic == null ? level : topic + '/' + level;
+    }
+
+    private void match(Node node, String topic, String[] levels, int index, List<RetainedMessage> result) {
+        if (index == levels.length) {
+            collect(node, topic, result);
+            return;
+        }
+        String level = levels[index];
+        // 以 "$" 开头的主题不匹配首层通配符
+        boolean skipSystem = index == 0;
+        if (TopicFilter.MULTI_LEVEL.equals(level)) {
+            // "a/#" 同样匹配 "a"
+            if (index > 0) {
+                collect(node, topic, result);
+            }
+            collectAll(node, topic, skipSystem, result);
+        } else if (TopicFilter.SINGLE_LEVEL.equals(level)) {
+            Map<String, Node> children = node.children;
+            if (children != null) {
+                children.forEach((name, child) -> {
+                    if (!skipSystem || !name.startsWith("$")) {
+                        match(child, child(topic, name), levels, index + 1, result);
+                    }
+                });
+            }
+        } else {
+            Node child = node.getChild(level);
+            if (child != null) {
+                match(child, child(topic, level), levels, index + 1, result);
+            }
+        }
+    }
+
+    private void collectAll(Node node, String topic, boolean skipSystem, List<RetainedMessage> result) {
+        Map<String, Node> children = node.children;
+        if (children == null) {
+            return;
+        }
+        children.forEach((name, child) -> {
+            if (!skipSystem || !name.startsWith("$")) {
+                String childTopic = child(topic, name);
+                collect(child, childTopic, result);
+                collectAll(child, childTopic, false, result);
+            }
+        });
+    }
+
+    private void collect(Node node, String topic, List<RetainedMessage> result) {
+        if (node.payload == null) {
+            return;
+        }
+        // 在节点锁内增加引用计数，避免与并发的替换/删除交错后拿到已释放的缓冲区
+        synchronized (node) {
+            if (node.payload != null) {
+                result.add(new RetainedMessage(topic, node.payload.retainedDuplicate(), node.qos));
+            }
+        }
+    }
+
+    /**
+     * 保留消息数量
+     */
+    public int size() {
+        return count.get();
+    }
+
+    /**
+     * 保留消息占用的直接内存字节数
+     */
+    public long bytes() {
+        return bytes.get();
+    }
+
+    /**
+     * 释放全部保留消息
+     */
+    public synchronized void clear() {
+        clear(root);
+        root.children = null;
+        count.set(0);
+        bytes.set(0);
+    }
+
+    private void clear(Node node) {
+        synchronized (node) {
+            if (node.payload != null) {
+                node.payload.release();
+                node.payload = null;
+            }
+        }
+        Map<String, Node> children = node.children;
+        if (children != null) {
+            children.values().forEach(this::clear);
+        }
+    }
+
+    /**
+     * 查找结果
+     */
+    public static final class RetainedMessage {
+
+        private final String topic;
+        private final ByteBuf payload;
+        private final MqttQoS qos;
+
+        RetainedMessage(String topic, ByteBuf payload, MqttQoS qos) {
+            this.topic = topic;
+            this.payload = payload;
+            this.qos = qos;
+        }
+
+        public String getTopic() {
+            return topic;
+        }
+
+        public ByteBuf getPayload() {
+            return payload;
+        }
+
+        public MqttQoS getQos() {
+            return qos;
+        }
+    }
+
+    /**
+     * 树节点，只在写锁内修改结构
+     */
+    private static final class Node {
+        volatile ConcurrentHashMap<String, Node> children;
+        volatile ByteBuf payload;
+        volatile MqttQoS qos;
+
+        Node getChild(String level) {
+            Map<String, Node> map = children;
+            return map != null ? map.get(level) : null;
+        }
+
+        Node getOrCreateChild(String level) {
+            ConcurrentHashMap<String, Node> map = children;
+            if (map == null) {
+                map = new ConcurrentHashMap<>(2);
+                children = map;
+            }
+            return map.computeIfAbsent(level, k -> new Node());
+        }
+
+        void removeChild(String level) {
+            Map<String, Node> map = children;
+            if (map != null) {
+                map.remove(level);
+                if (map.isEmpty()) {
+                    children = null;
+                }
+            }
+        }
+
+        boolean isEmpty() {
+            Map<String, Node> map = children;
+            return payload == null && (map == null || map.isEmpty());
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package com.example.mqtt.broker;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.mqtt.MqttQoS;
+import io.netty.util.Timeout;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 客户端会话
+ * <p>
+ * 每次CONNECT创建一个会话并挂在该连接上：订阅关系、待发送队列、出站QoS 1/2飞行窗口、
+ * 入站报文标识符去重窗口、入站QoS 2待释放的报文标识符、重传定时以及收发计数。
+ * 主题树中直接保存会话引用，转发时不再按clientId查找连接。
+ * 会话固定属于连接所在的事件循环，其他线程发来的投递经 {@link LoopMailbox} 批量交给该循环处理。
+ * <p>
+ * 同一clientId的新连接接管会话时，旧会话被标记为已替换，转发路径随即跳过它；
+ * 持久会话（cleanSession=false）的订阅和入站QoS 1/2去重状态转交给新会话，断开时未送达的消息转入 {@link OfflineMessageStore}。
+ * 除订阅关系、入站去重状态和统计计数外，其余状态只在连接所属的事件循环中访问。
+ */
+public class Session {
+
+    private static final int RECENT_PACKET_IDS = 16;
+
+    private final String clientId;
+    private final ChannelHandlerContext ctx;
+    private final LoopMailbox<FanOutBatch> mailbox;
+    private final boolean persistent;
+    private final Map<TopicFilter, MqttQoS> subscriptions = new ConcurrentHashMap<>();
+    private final SubscriberQueue pendingQueue = new SubscriberQueue();
+    private final InflightWindow inflightWindow;
+    private final RecentPacketIds inboundPacketIds = new RecentPacketIds(RECENT_PACKET_IDS);
+    private final PacketIdSet awaitingPubRel = new PacketIdSet();
+    // 入站去重状态属于会话状态，接管时由新连接的事件循环复制，只有此时才会出现跨线程访问
+    private final Object inboundLock = new Object();
+    private final LongAdder published = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+    private Timeout retransmitTimeout;
+    // 重传检查已排定、retransmit尚未执行；超时触发后任务还在事件循环队列中，只由retransmitFired()清除
+    private boolean retransmitScheduled;
+    // 正在向该会话写出的流式PUBLISH，同一时刻只允许一个，避免两个流的分段交错
+    private final AtomicReference<Object> streamOwner = new AtomicReference<>();
+    // 发布限额，只在连接所属的事件循环中使用，未限流时为null
+    private PublishRateLimiter.Quota publishQuota;
+    private volatile boolean replaced;
+    private volatile long expireAt;
+
+    public Session(String clientId, int maxInflight, boolean persistent) {
+        this(clientId, null, null, maxInflight, persistent);
+    }
+
+    public Session(String clientId, ChannelHandlerContext ctx, LoopMailbox<FanOutBatch> mailbox,
+                   int maxInflight, boolean persistent) {
+        this.clientId = clientId;
+        this.ctx = ctx;
+        this.mailbox = mailbox;
+        this.persistent = persistent;
+        this.inflightWindow = new InflightWindow(maxInflight);
+    }
+
+    public String getClientId() {
+        return clientId;
+    }
+
+    /**
+     * 会话所属连接的处理器上下文，未绑定连接时为null
+     */
+    public ChannelHandlerContext getContext() {
+        return ctx;
+    }
+
+    /**
+     * 连接所属事件循环的投递信箱，其他线程转发给该会话的消息经由它交给所属循环
+     */
+    public LoopMailbox<FanOutBatch> getMailbox() {
+        return mailbox;
+    }
+
+    /**
+     * 连接仍然有效且会话未被接管
+     */
+    public boolean isOnline() {
+        return ctx != null && !replaced && ctx.channel().isActive();
+    }
+
+    /**
+     * 是否已被同一clientId的新连接接管
+     */
+    public boolean isReplaced() {
+        return replaced;
+    }
+
+    public void markReplaced() {
+        replaced = true;
+    }
+
+    /**
+     * 订阅关系: 预编译的过滤器 -> 授予的QoS
+     */
+    public Map<TopicFilter, MqttQoS> getSubscriptions() {
+        return subscriptions;
+    }
+
+    /**
+     * 离线持久会话的过期时间（毫秒），在线时为0
+     */
+    public long getExpireAt() {
+        return expireAt;
+    }
+
+    public void setExpireAt(long expireAt) {
+        this.expireAt = expireAt;
+    }
+
+    /**
+     * 占用该会话的连接写出一个流式PUBLISH，已被其他流占用时返回false
+     */
+    public boolean claimStream(Object owner) {
+        return streamOwner.compareAndSet(null, owner);
+    }
+
+    public void releaseStream(Object owner) {
+        streamOwner.compareAndSet(owner, null);
+    }
+
+    /**
+     * 正在向该会话写出的流式PUBLISH，没有时返回null
+     */
+    public Object getStreamOwner() {
+        return streamOwner.get();
+    }
+
+    public PublishRateLimiter.Quota getPublishQuota() {
+        return publishQuota;
+    }
+
+    public void setPublishQuota(PublishRateLimiter.Quota publishQuota) {
+        this.publishQuota = publishQuota;
+    }
+
+    public void recordPublished() {
+        published.increment();
+    }
+
+    public void recordDelivered() {
+        delivered.increment();
+    }
+
+    /**
+     * 客户端发布的消息数
+     */
+    public long getPublished() {
+        return published.sum();
+    }
+
+    /**
+     * 转发给该客户端的消息数
+     */
+    public long getDelivered() {
+        return delivered.sum();
+    }
+
+    /**
+     * 是否为持久会话，断开后保留订阅并缓存离线消息
+     */
+    public boolean isPersistent() {
+        return persistent;
+    }
+
+    public SubscriberQueue getPendingQueue() {
+        return pendingQueue;
+    }
+
+    public InflightWindow getInflightWindow() {
+        return inflightWindow;
+    }
+
+    public RecentPacketIds getInboundPacketIds() {
+        return inboundPacketIds;
+    }
+
+    /**
+     * 已收到QoS 2 PUBLISH、等待客户端PUBREL的报文标识符
+     */
+    public PacketIdSet getAwaitingPubRel() {
+        return awaitingPubRel;
+    }
+
+    /**
+     * 记录入站QoS 1/2 PUBLISH的报文标识符，返回是否为客户端重发的重复消息：
+     * QoS 1在DUP=1且标识符仍在最近窗口内时视为重复；QoS 2在收到PUBREL之前同一标识符都视为重复
+     */
+    public boolean recordInbound(MqttQoS qos, int packetId, boolean dup) {
+        synchronized (inboundLock) {
+            if (qos == MqttQoS.AT_LEAST_ONCE) {
+                boolean duplicate = dup && inboundPacketIds.contains(packetId);
+                inboundPacketIds.add(packetId);
+                return duplicate;
+            }
+            return qos == MqttQoS.EXACTLY_ONCE && !awaitingPubRel.add(packetId);
+        }
+    }
+
+    /**
+     * 客户端已发送PUBREL，清除QoS 2待释放状态
+     */
+    public void releaseInbound(int packetId) {
+        synchronized (inboundLock) {
+            awaitingPubRel.remove(packetId);
+        }
+    }
+
+    /**
+     * 接管持久会话时继承入站去重状态，使客户端重连后重发的QoS 1/2消息仍被识别为重复
+     */
+    public void inheritInboundState(Session previous) {
+        PacketIdSet pubRel = new PacketIdSet();
+        RecentPacketIds recent = new RecentPacketIds(RECENT_PACKET_IDS);
+        synchronized (previous.inboundLock) {
+            pubRel.addAll(previous.awaitingPubRel);
+            recent.addAll(previous.inboundPacketIds);
+        }
+        synchronized (inboundLock) {
+            awaitingPubRel.addAll(pubRel);
+            inboundPacketIds.addAll(recent);
+        }
+    }
+
+    /**
+     * 是否已有重传检查在排队，包括计时已到、retransmit任务还在事件循环队列中等待执行的情况
+     */
+    public boolean isRetransmitScheduled() {
+        return retransmitScheduled;
+    }
+
+    public void setRetransmitTimeout(Timeout retransmitTimeout) {
+        this.retransmitTimeout = retransmitTimeout;
+        this.retransmitScheduled = true;
+    }
+
+    /**
+     * retransmit开始执行，之后才允许排定下一次检查
+     */
+    public void retransmitFired() {
+        retransmitTimeout = null;
+        retransmitScheduled = false;
+    }
+
+    /**
+     * 释放会话持有的全部消息并取消重传；持久会话保留入站去重状态，供重连的新会话继承
+     */
+    public void close() {
+        if (retransmitTimeout != null) {
+            retransmitTimeout.cancel();
+            retransmitTimeout = null;
+        }
+        retransmitScheduled = false;
+        pendingQueue.clear();
+        inflightWindow.clear();
+        if (!persistent) {
+            synchronized (inboundLock) {
+                awaitingPubRel.clear();
+            }
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.mqtt.broker;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * 分片的会话注册表
+ * <p>
+ * clientId按哈希落到固定分片，每个分片一把锁，连接风暴时不同clientId的登记互不阻塞。
+ * 登记新会话与取回旧会话在同一把锁内完成，同一clientId并发连接时恰好有一个会话胜出，
+ * 其余都作为被接管的旧会话返回给调用方处理。
+ * 注销只移除仍是当前登记的那个会话实例，旧连接迟到的断开不会影响接管它的新会话。
+ * <p>
+ * 只在连接、断开和管理接口中使用，转发路径持有会话引用，不经过注册表。
+ */
+public class SessionRegistry {
+
+    private final Shard[] shards;
+    private final int mask;
+    private final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * @param shards 分片数，向上取整为2的幂
+     */
+    public SessionRegistry(int shards) {
+        int count = 1;
+        while (count < shards) {
+            count <<= 1;
+        }
+        this.shards = new Shard[count];
+        for (int i = 0; i < count; i++) {
+            this.shards[i] = new Shard();
+        }
+        this.mask = count - 1;
+    }
+
+    /**
+     * 登记会话，返回被它接管的同一clientId的旧会话，没有时返回null
+     */
+    public Session register(Session session) {
+        Shard shard = shardOf(session.getClientId());
+        Session previous;
+        synchronized (shard) {
+            previous = shard.sessions.put(session.getClientId(), session);
+        }
+        if (previous == null) {
+            size.incrementAndGet();
+        }
+        return previous;
+    }
+
+    public Session get(String clientId) {
+        Shard shard = shardOf(clientId);
+        synchronized (shard) {
+            return shard.sessions.get(clientId);
+        }
+    }
+
+    /**
+     * 注销会话，只有该实例仍是当前登记的会话时才移除
+     */
+    public boolean remove(Session session) {
+        Shard shard = shardOf(session.getClientId());
+        boolean removed;
+        synchronized (shard) {
+            removed = shard.sessions.remove(session.getClientId(), session);
+        }
+        if (removed) {
+            size.decrementAndGet();
+        }
+        return removed;
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * 逐个分片取快照后遍历，回调在锁外执行，可以调用注册表的其他方法
+     */
+    public void forEach(Consumer<Session> action) {
+        List<Session> snapshot = new ArrayList<>();
+        for (Shard shard : shards) {
+            snapshot.clear();
+            synchronized (shard) {
+                snapshot.addAll(shard.sessions.values());
+            }
+            snapshot.forEach(action);
+        }
+    }
+
+    private Shard shardOf(String clientId) {
+        int h = clientId.hashCode();
+        return shards[(h ^ (h >>> 16)) & mask];
+    }
+
+    private static final class Shard {
+        final Map<String, Session> sessions = new HashMap<>();
+    }
+}
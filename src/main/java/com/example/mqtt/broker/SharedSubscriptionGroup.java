@@ -0,0 +1,122 @@
+package com.example.mqtt.broker;
+
+import io.netty.handler.codec.mqtt.MqttQoS;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 共享订阅组
+ * <p>
+ * 同一 "$share/{组名}/{过滤器}" 的全部订阅者，组内每条消息只投递给一个成员。
+ * 成员数组写时复制，成员变更在主题树的写锁内进行，转发路径无锁读取。
+ *
+ * @param <S> 订阅者类型，与所属的 {@link SubscriptionTrie} 一致
+ */
+public final class SharedSubscriptionGroup<S> {
+
+    @SuppressWarnings("rawtypes")
+    private static final Member[] EMPTY = new Member[0];
+
+    private final String name;
+    private final String topicFilter;
+    private final String sharedFilter;
+    private final AtomicInteger cursor = new AtomicInteger();
+    @SuppressWarnings("unchecked")
+    private volatile Member<S>[] members = EMPTY;
+
+    SharedSubscriptionGroup(String name, String topicFilter) {
+        this.name = name;
+        this.topicFilter = topicFilter;
+        this.sharedFilter = TopicFilter.SHARE_PREFIX + name + "/" + topicFilter;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getTopicFilter() {
+        return topicFilter;
+    }
+
+    /**
+     * 完整的 "$share/{组名}/{过滤器}"，创建时拼接一次，转发路径上按它查找组的属主
+     */
+    public String getSharedFilter() {
+        return sharedFilter;
+    }
+
+    /**
+     * 当前成员快照，调用方不得修改
+     */
+    public Member<S>[] getMembers() {
+        return members;
+    }
+
+    /**
+     * 轮转游标，供选择策略在成员之间轮换
+     */
+    public int nextCursor() {
+        return cursor.getAndIncrement();
+    }
+
+    void add(S subscriber, String clientId, MqttQoS qos) {
+        Member<S>[] current = members;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i].subscriber.equals(subscriber)) {
+                Member<S>[] updated = current.clone();
+                updated[i] = new Member<>(subscriber, clientId, qos);
+                members = updated;
+                return;
+            }
+        }
+        Member<S>[] updated = Arrays.copyOf(current, current.length + 1);
+        updated[current.length] = new Member<>(subscriber, clientId, qos);
+        members = updated;
+    }
+
+    boolean remove(S subscriber) {
+        Member<S>[] current = members;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i].subscriber.equals(subscriber)) {
+                Member<S>[] updated = Arrays.copyOf(current, current.length - 1);
+                System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+                members = updated;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    boolean isEmpty() {
+        return members.length == 0;
+    }
+
+    /**
+     * 组成员及其授予的QoS
+     */
+    public static final class Member<S> {
+
+        private final S subscriber;
+        private final String clientId;
+        private final MqttQoS qos;
+
+        Member(S subscriber, String clientId, MqttQoS qos) {
+            this.subscriber = subscriber;
+            this.clientId = clientId;
+            this.qos = qos;
+        }
+
+        public S getSubscriber() {
+            return subscriber;
+        }
+
+        public String getClientId() {
+            return clientId;
+        }
+
+        public MqttQoS getQos() {
+            return qos;
+        }
+    }
+}
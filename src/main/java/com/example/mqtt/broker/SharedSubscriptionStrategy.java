@@ -0,0 +1,27 @@
+package com.example.mqtt.broker;
+
+import com.example.mqtt.broker.SharedSubscriptionGroup.Member;
+
+import java.util.function.ToIntFunction;
+
+/**
+ * 共享订阅的成员选择策略
+ * <p>
+ * 内置策略见 {@link BuiltinSharedSubscriptionStrategy}；自定义策略注册为Spring Bean即可替换内置策略。
+ * 实现会在发布者的事件循环中并发调用，必须线程安全且不能阻塞。
+ */
+public interface SharedSubscriptionStrategy {
+
+    /**
+     * 从组内选出一个成员接收消息
+     *
+     * @param group   共享订阅组
+     * @param members 成员快照，至少有一个成员
+     * @param topic   发布主题
+     * @param load    成员当前负载（在途与排队的消息数，近似值），负数表示成员离线
+     * @param <S>     订阅者类型，需要稳定标识时使用 {@link Member#getClientId()}
+     * @return 选中的成员，返回null表示本条消息不投递给该组
+     */
+    <S> Member<S> select(SharedSubscriptionGroup<S> group, Member<S>[] members, String topic,
+                         ToIntFunction<? super S> load);
+}
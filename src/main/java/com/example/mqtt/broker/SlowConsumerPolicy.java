@@ -0,0 +1,25 @@
+package com.example.mqtt.broker;
+
+/**
+ * 慢消费者处理策略
+ * <p>
+ * 订阅者连接超过写缓冲高水位（Channel不可写）时如何处理新的转发消息。
+ */
+public enum SlowConsumerPolicy {
+
+    /**
+     * 直接丢弃
+     */
+    DROP,
+
+    /**
+     * 丢弃QoS 0消息，QoS 1及以上消息排队，队列满时断开连接。
+     * 连接可写但队列中仍有等待飞行窗口的消息时，QoS 0消息也排队以保持顺序
+     */
+    QUEUE,
+
+    /**
+     * 立即断开连接
+     */
+    DISCONNECT
+}
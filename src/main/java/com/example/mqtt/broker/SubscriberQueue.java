@@ -0,0 +1,105 @@
+package com.example.mqtt.broker;
+
+import io.netty.handler.codec.mqtt.MqttPublishMessage;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * 订阅者的有界待发送队列及限流计数
+ * <p>
+ * 连接不可写时，按 {@link SlowConsumerPolicy} 暂存的消息放在这里，
+ * 等连接重新可写后在其所属的事件循环中按顺序发出。
+ */
+public class SubscriberQueue {
+
+    private final Queue<MqttPublishMessage> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder queued = new LongAdder();
+    private final LongAdder disconnects = new LongAdder();
+
+    /**
+     * 入队，超过容量时返回false，调用方仍持有消息的所有权
+     */
+    public boolean offer(MqttPublishMessage message, int capacity) {
+        if (size.incrementAndGet() > capacity) {
+            size.decrementAndGet();
+            return false;
+        }
+        pending.offer(message);
+        queued.increment();
+        return true;
+    }
+
+    /**
+     * 查看队首消息但不取出，只能由唯一的消费者（连接所属的事件循环）调用
+     */
+    public MqttPublishMessage peek() {
+        return pending.peek();
+    }
+
+    public MqttPublishMessage poll() {
+        MqttPublishMessage message = pending.poll();
+        if (message != null) {
+            size.decrementAndGet();
+        }
+        return message;
+    }
+
+    public boolean isEmpty() {
+        return size.get() == 0;
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * 按入队顺序遍历待发送消息，不取出也不改变引用计数
+     */
+    public void forEach(Consumer<MqttPublishMessage> action) {
+        pending.forEach(action);
+    }
+
+    /**
+     * 释放所有待发送消息
+     */
+    public void clear() {
+        MqttPublishMessage message;
+        while ((message = poll()) != null) {
+            message.release();
+        }
+    }
+
+    public void recordDrop() {
+        dropped.increment();
+    }
+
+    public void recordDisconnect() {
+        disconnects.increment();
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    public long getQueued() {
+        return queued.sum();
+    }
+
+    public long getDisconnects() {
+        return disconnects.sum();
+    }
+
+    /**
+     * 是否发生过限流
+     */
+    public boolean isThrottled() {
+        return getDropped() > 0 || getQueued() > 0 || getDisconnects() > 0;
+    }
+}
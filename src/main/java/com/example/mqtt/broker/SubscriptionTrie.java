@@ -0,0 +1,258 @@
+package com.example.mqtt.broker;
+
+import io.netty.handler.codec.mqtt.MqttQoS;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * 订阅主题树
+ * <p>
+ * 主题过滤器按 "/" 拆分为层级，"+" 与 "#" 使用独立的子节点，
+ * 每个节点记录订阅该过滤器的订阅者及其授予的QoS，以及该过滤器上的共享订阅组。
+ * 匹配开销只与发布主题的层级深度相关，与订阅者数量无关。
+ * <p>
+ * 订阅者类型由使用方决定：Broker直接存放 {@link Session} 引用，转发时不必再按clientId查找连接；
+ * 集群路由存放节点ID。订阅者按equals区分，共享订阅组另外记录其clientId供选择策略使用。
+ * <p>
+ * 订阅/取消订阅串行执行，匹配过程无锁。匹配时按主题中的字符区间查找子节点，不为每一层截取子串。
+ */
+public class SubscriptionTrie<S> {
+
+    private final Node<S> root = new Node<>();
+    private final Function<? super S, String> clientIdOf;
+
+    /**
+     * @param clientIdOf 订阅者对应的clientId，用于共享订阅成员的选择
+     */
+    public SubscriptionTrie(Function<? super S, String> clientIdOf) {
+        this.clientIdOf = clientIdOf;
+    }
+
+    /**
+     * 添加订阅，共享订阅加入对应的组
+     */
+    public synchronized void subscribe(TopicFilter filter, S subscriber, MqttQoS qos) {
+        Node<S> node = root;
+        for (String level : filter.getLevels()) {
+            node = node.getOrCreateChild(level);
+        }
+        if (filter.isShared()) {
+            node.getOrCreateGroup(filter).add(subscriber, clientIdOf.apply(subscriber), qos);
+        } else {
+            node.subscribers.put(subscriber, qos);
+        }
+    }
+
+    /**
+     * 取消订阅，并清理不再使用的节点
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public synchronized boolean unsubscribe(TopicFilter filter, S subscriber) {
+        String[] levels = filter.getLevels();
+        Node<S>[] path = new Node[levels.length + 1];
+        path[0] = root;
+        for (int i = 0; i < levels.length; i++) {
+            path[i + 1] = path[i].getChild(levels[i]);
+            if (path[i + 1] == null) {
+                return false;
+            }
+        }
+        Node<S> node = path[levels.length];
+        boolean removed;
+        if (filter.isShared()) {
+            removed = node.removeFromGroup(filter.getShareName(), subscriber);
+        } else {
+            removed = node.subscribers.remove(subscriber) != null;
+        }
+
+        // 自底向上删除空节点
+        for (int i = levels.length; i > 0 && path[i].isEmpty(); i--) {
+            path[i - 1].removeChild(levels[i - 1]);
+        }
+        return removed;
+    }
+
+    /**
+     * 查找与发布主题匹配的订阅者，同一订阅者多个过滤器命中时取最高QoS
+     */
+    public void match(String topic, Map<S, MqttQoS> result) {
+        match(root, new LevelKey(topic), 0, result, null);
+    }
+
+    /**
+     * 查找与发布主题匹配的订阅者及共享订阅组，组内成员的选择由调用方完成
+     */
+    public void match(String topic, Map<S, MqttQoS> result, List<SharedSubscriptionGroup<S>> groups) {
+        match(root, new LevelKey(topic), 0, result, groups);
+    }
+
+    private void match(Node<S> node, LevelKey key, int start, Map<S, MqttQoS> result,
+                       List<SharedSubscriptionGroup<S>> groups) {
+        String topic = key.topic;
+        // 主题层级已全部匹配
+        if (start > topic.length()) {
+            collect(node, result, groups);
+            // "a/#" 同样匹配 "a"
+            Node<S> hash = node.hash;
+            if (hash != null) {
+                collect(hash, result, groups);
+            }
+            return;
+        }
+
+        int end = topic.indexOf('/', start);
+        if (end < 0) {
+            end = topic.length();
+        }
+
+        // 以 "$" 开头的主题不匹配首层通配符
+        boolean wildcardAllowed = start > 0 || topic.isEmpty() || topic.charAt(0) != '$';
+        if (wildcardAllowed) {
+            Node<S> hash = node.hash;
+            if (hash != null) {
+                collect(hash, result, groups);
+            }
+            Node<S> plus = node.plus;
+            if (plus != null) {
+                match(plus, key, end + 1, result, groups);
+            }
+        }
+
+        // 查找键在递归中复用，每次查找前重新设置区间
+        Node<S> child = node.children.get(key.range(start, end));
+        if (child != null) {
+            match(child, key, end + 1, result, groups);
+        }
+    }
+
+    private void collect(Node<S> node, Map<S, MqttQoS> result, List<SharedSubscriptionGroup<S>> groups) {
+        Map<String, SharedSubscriptionGroup<S>> shared = node.shared;
+        if (shared != null && groups != null) {
+            groups.addAll(shared.values());
+        }
+        if (node.subscribers.isEmpty()) {
+            return;
+        }
+        node.subscribers.forEach((subscriber, qos) -> result.merge(subscriber, qos,
+            (a, b) -> a.value() >= b.value() ? a : b));
+    }
+
+    /**
+     * 以主题中的一个层级区间查找子节点的键，不截取子串。
+     * 哈希值与对应子串的 {@link String#hashCode()} 相同，并按内容与String类型的键比较：
+     * ConcurrentHashMap.get以传入的键调用equals，子节点表中仍以String为键
+     */
+    private static final class LevelKey {
+        final String topic;
+        int start;
+        int end;
+
+        LevelKey(String topic) {
+            this.topic = topic;
+        }
+
+        LevelKey range(int start, int end) {
+            this.start = start;
+            this.end = end;
+            return this;
+        }
+
+        @Override
+        public int hashCode() {
+            int h = 0;
+            for (int i = start; i < end; i++) {
+                h = 31 * h + topic.charAt(i);
+            }
+            return h;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof String)) {
+                return false;
+            }
+            String level = (String) other;
+            return level.length() == end - start && topic.regionMatches(start, level, 0, level.length());
+        }
+    }
+
+    /**
+     * 树节点
+     */
+    private static final class Node<S> {
+        final ConcurrentHashMap<String, Node<S>> children = new ConcurrentHashMap<>();
+        final ConcurrentHashMap<S, MqttQoS> subscribers = new ConcurrentHashMap<>();
+        // 共享订阅组: 组名 -> 组，第一次共享订阅时才创建
+        volatile ConcurrentHashMap<String, SharedSubscriptionGroup<S>> shared;
+        volatile Node<S> plus;
+        volatile Node<S> hash;
+
+        SharedSubscriptionGroup<S> getOrCreateGroup(TopicFilter filter) {
+            ConcurrentHashMap<String, SharedSubscriptionGroup<S>> groups = shared;
+            if (groups == null) {
+                groups = new ConcurrentHashMap<>(2);
+                shared = groups;
+            }
+            return groups.computeIfAbsent(filter.getShareName(),
+                name -> new SharedSubscriptionGroup<>(name, filter.getTopicFilter()));
+        }
+
+        boolean removeFromGroup(String shareName, S subscriber) {
+            ConcurrentHashMap<String, SharedSubscriptionGroup<S>> groups = shared;
+            SharedSubscriptionGroup<S> group = groups != null ? groups.get(shareName) : null;
+            if (group == null || !group.remove(subscriber)) {
+                return false;
+            }
+            if (group.isEmpty()) {
+                groups.remove(shareName);
+                if (groups.isEmpty()) {
+                    shared = null;
+                }
+            }
+            return true;
+        }
+
+        Node<S> getChild(String level) {
+            if (TopicFilter.SINGLE_LEVEL.equals(level)) {
+                return plus;
+            }
+            if (TopicFilter.MULTI_LEVEL.equals(level)) {
+                return hash;
+            }
+            return children.get(level);
+        }
+
+        Node<S> getOrCreateChild(String level) {
+            if (TopicFilter.SINGLE_LEVEL.equals(level)) {
+                if (plus == null) {
+                    plus = new Node<>();
+                }
+                return plus;
+            }
+            if (TopicFilter.MULTI_LEVEL.equals(level)) {
+                if (hash == null) {
+                    hash = new Node<>();
+                }
+                return hash;
+            }
+            return children.computeIfAbsent(level, k -> new Node<>());
+        }
+
+        void removeChild(String level) {
+            if (TopicFilter.SINGLE_LEVEL.equals(level)) {
+                plus = null;
+            } else if (TopicFilter.MULTI_LEVEL.equals(level)) {
+                hash = null;
+            } else {
+                children.remove(level);
+            }
+        }
+
+        boolean isEmpty() {
+            return subscribers.isEmpty() && shared == null && children.isEmpty() && plus == null && hash == null;
+        }
+    }
+}
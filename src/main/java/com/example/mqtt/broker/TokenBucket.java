@@ -0,0 +1,72 @@
+package com.example.mqtt.broker;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 无锁令牌桶
+ * <p>
+ * 按GCRA（通用信元速率算法）实现：只保存一个“理论到达时间”，每次获取时把它向后推进所需令牌对应的时长，
+ * 推进后超出当前时间的部分不超过桶容量对应的时长即为允许。整个状态是一个long，用CAS更新，
+ * 多个事件循环同时获取时不加锁；令牌按需在获取时补充，不依赖定时器。
+ */
+public final class TokenBucket {
+
+    private final long nanosPerToken;
+    private final long tolerance;
+    private final AtomicLong theoreticalArrival;
+
+    /**
+     * @param ratePerSecond 每秒补充的令牌数
+     * @param burst         桶容量，即允许的最大突发
+     */
+    public TokenBucket(double ratePerSecond, long burst, long nowNanos) {
+        this.nanosPerToken = Math.max(1, (long) (1_000_000_000d / ratePerSecond));
+        this.tolerance = nanosPerToken * Math.max(1, burst);
+        this.theoreticalArrival = new AtomicLong(nowNanos);
+    }
+
+    /**
+     * 尝试取一个令牌
+     */
+    public boolean tryAcquire(long nowNanos) {
+        return tryAcquire(1, nowNanos) == 0;
+    }
+
+    /**
+     * 尝试取若干令牌（如按字节计量时取payload字节数）
+     *
+     * @return 0表示成功；否则为令牌不足，返回还需等待的纳秒数，此时不消耗令牌
+     */
+    public long tryAcquire(long permits, long nowNanos) {
+        long cost = permits * nanosPerToken;
+        while (true) {
+            long current = theoreticalArrival.get();
+            long next = Math.max(current, nowNanos) + cost;
+            long excess = next - nowNanos - tolerance;
+            // 桶满时允许单次超过容量的请求（如大payload），超出部分由之后的请求偿还
+            if (excess > 0 && current > nowNanos) {
+                return excess;
+            }
+            if (theoreticalArrival.compareAndSet(current, next)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * 归还之前取得的令牌，用于同一请求的后续检查失败、请求最终未被放行的情况
+     */
+    public void release(long permits, long nowNanos) {
+        long cost = permits * nanosPerToken;
+        // 理论到达时间早于当前时间即为桶满，不需要再往回退
+        theoreticalArrival.accumulateAndGet(cost,
+            (current, c) -> current > nowNanos ? Math.max(nowNanos, current - c) : current);
+    }
+
+    /**
+     * 桶已满，说明最近没有使用，可以回收
+     */
+    public boolean isFull(long nowNanos) {
+        return theoreticalArrival.get() <= nowNanos;
+    }
+}
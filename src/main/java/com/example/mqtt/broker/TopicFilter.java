@@ -0,0 +1,142 @@
+package com.example.mqtt.broker;
+
+/**
+ * 预编译的主题过滤器
+ * <p>
+ * 在SUBSCRIBE时解析一次并缓存，之后的匹配不再拆分字符串，也不创建正则表达式。
+ * 支持共享订阅 "$share/{组名}/{过滤器}"：组内每条消息只投递给一个成员，层级与匹配只针对组名之后的过滤器。
+ */
+public final class TopicFilter {
+
+    public static final String SINGLE_LEVEL = "+";
+    public static final String MULTI_LEVEL = "#";
+    public static final String SHARE_PREFIX = "$share/";
+
+    private final String filter;
+    private final String shareName;
+    private final String topicFilter;
+    private final String[] levels;
+    private final boolean wildcard;
+
+    private TopicFilter(String filter) {
+        this.filter = filter;
+        if (filter.startsWith(SHARE_PREFIX)) {
+            int separator = filter.indexOf('/', SHARE_PREFIX.length());
+            this.shareName = filter.substring(SHARE_PREFIX.length(), separator);
+            this.topicFilter = filter.substring(separator + 1);
+        } else {
+            this.shareName = null;
+            this.topicFilter = filter;
+        }
+        this.levels = topicFilter.split("/", -1);
+        this.wildcard = topicFilter.indexOf('+') >= 0 || topicFilter.indexOf('#') >= 0;
+    }
+
+    /**
+     * 编译主题过滤器，过滤器非法时抛出IllegalArgumentException
+     */
+    public static TopicFilter compile(String filter) {
+        if (!isValid(filter)) {
+            throw new IllegalArgumentException("非法的主题过滤器: " + filter);
+        }
+        return new TopicFilter(filter);
+    }
+
+    /**
+     * 校验主题过滤器："#" 只能作为最后一层，通配符必须独占一层；
+     * 共享订阅的组名不能为空，也不能包含通配符
+     */
+    public static boolean isValid(String filter) {
+        if (filter == null || filter.isEmpty()) {
+            return false;
+        }
+        if (filter.startsWith(SHARE_PREFIX)) {
+            int separator = filter.indexOf('/', SHARE_PREFIX.length());
+            if (separator <= SHARE_PREFIX.length()) {
+                return false;
+            }
+            String shareName = filter.substring(SHARE_PREFIX.length(), separator);
+            if (shareName.indexOf('+') >= 0 || shareName.indexOf('#') >= 0) {
+                return false;
+            }
+            filter = filter.substring(separator + 1);
+            if (filter.isEmpty()) {
+                return false;
+            }
+        }
+        int length = filter.length();
+        for (int i = 0; i < length; i++) {
+            char c = filter.charAt(i);
+            if (c != '+' && c != '#') {
+                continue;
+            }
+            boolean levelStart = i == 0 || filter.charAt(i - 1) == '/';
+            boolean levelEnd = i == length - 1 || filter.charAt(i + 1) == '/';
+            if (!levelStart || !levelEnd) {
+                return false;
+            }
+            if (c == '#' && i != length - 1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 判断发布主题是否匹配该过滤器，不含通配符时退化为字符串比较
+     */
+    public boolean matches(String topic) {
+        return wildcard ? TopicMatcher.matches(topicFilter, topic) : topicFilter.equals(topic);
+    }
+
+    /**
+     * 订阅时的完整过滤器，共享订阅包含 "$share/{组名}/" 前缀
+     */
+    public String getFilter() {
+        return filter;
+    }
+
+    /**
+     * 去掉共享前缀后的主题过滤器
+     */
+    public String getTopicFilter() {
+        return topicFilter;
+    }
+
+    public boolean isShared() {
+        return shareName != null;
+    }
+
+    /**
+     * 共享订阅的组名，普通订阅为null
+     */
+    public String getShareName() {
+        return shareName;
+    }
+
+    /**
+     * 过滤器的层级，"+" 与 "#" 各自独占一层
+     */
+    public String[] getLevels() {
+        return levels;
+    }
+
+    public boolean hasWildcard() {
+        return wildcard;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || (o instanceof TopicFilter other && filter.equals(other.filter));
+    }
+
+    @Override
+    public int hashCode() {
+        return filter.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return filter;
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.mqtt.broker;
+
+/**
+ * MQTT主题匹配工具
+ * <p>
+ * 按层级同时遍历过滤器和主题两个字符串，不分配任何对象，语义遵循MQTT 3.1.1 4.7节：
+ * "+" 匹配恰好一个层级，"#" 匹配父层级及其后的任意层级，以 "$" 开头的主题不匹配首层通配符。
+ */
+public final class TopicMatcher {
+
+    private TopicMatcher() {
+    }
+
+    /**
+     * 判断发布主题是否匹配主题过滤器，过滤器需已通过 {@link TopicFilter#isValid(String)} 校验
+     */
+    public static boolean matches(String filter, String topic) {
+        int filterLength = filter.length();
+        int topicLength = topic.length();
+        if (topicLength > 0 && topic.charAt(0) == '$'
+            && filterLength > 0 && (filter.charAt(0) == '+' || filter.charAt(0) == '#')) {
+            return false;
+        }
+
+        int f = 0;
+        int t = 0;
+        while (true) {
+            // f、t 均指向当前层级的起始位置
+            if (f < filterLength && filter.charAt(f) == '#') {
+                return true;
+            }
+            if (f < filterLength && filter.charAt(f) == '+' && (f + 1 == filterLength || filter.charAt(f + 1) == '/')) {
+                f++;
+                while (t < topicLength && topic.charAt(t) != '/') {
+                    t++;
+                }
+            } else {
+                while (f < filterLength && t < topicLength && filter.charAt(f) != '/') {
+                    if (filter.charAt(f) != topic.charAt(t)) {
+                        return false;
+                    }
+                    f++;
+                    t++;
+                }
+                boolean filterLevelEnd = f == filterLength || filter.charAt(f) == '/';
+                boolean topicLevelEnd = t == topicLength || topic.charAt(t) == '/';
+                if (!filterLevelEnd || !topicLevelEnd) {
+                    return false;
+                }
+            }
+
+            if (f == filterLength) {
+                return t == topicLength;
+            }
+            if (t == topicLength) {
+                // 主题已结束，只有剩余的 "/#" 还能匹配父层级
+                return f + 2 == filterLength && filter.charAt(f + 1) == '#';
+            }
+            f++;
+            t++;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.mqtt.cluster;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+
+/**
+ * 节点间通信帧
+ * <p>
+ * 帧外层由4字节长度前缀分隔，帧体第一个字节为类型：
+ * <pre>
+ * HELLO          [type][str nodeId]
+ * FILTER_ADD     [type][short count]{[str filter]}
+ * FILTER_REMOVE  [type][short count]{[str filter]}
+ * PUBLISH_BATCH  [type][short count]{[byte flags][str topic][int len][payload]}
+ * </pre>
+ * 字符串为 [short 长度][UTF-8字节]；flags 低两位为QoS，RETAIN=0x04。
+ */
+final class ClusterFrame {
+
+    static final byte HELLO = 1;
+    static final byte FILTER_ADD = 2;
+    static final byte FILTER_REMOVE = 3;
+    static final byte PUBLISH_BATCH = 4;
+
+    static final int LENGTH_FIELD_LENGTH = 4;
+    static final int MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+    static final int FLAG_RETAIN = 0x04;
+    static final int QOS_MASK = 0x03;
+
+    private ClusterFrame() {
+    }
+
+    static ByteBuf hello(ByteBufAllocator allocator, String nodeId) {
+        ByteBuf frame = allocator.ioBuffer();
+        frame.writeByte(HELLO);
+        writeString(frame, nodeId);
+        return frame;
+    }
+
+    /**
+     * 过滤器增删帧，一帧最多携带65535个过滤器，调用方负责分批
+     */
+    static ByteBuf filters(ByteBufAllocator allocator, byte type, Collection<String> filters) {
+        ByteBuf frame = allocator.ioBuffer();
+        frame.writeByte(type);
+        frame.writeShort(filters.size());
+        for (String filter : filters) {
+            writeString(frame, filter);
+        }
+        return frame;
+    }
+
+    static void writeString(ByteBuf buf, String value) {
+        int lengthIndex = buf.writerIndex();
+        buf.writeShort(0);
+        int length = ByteBufUtil.writeUtf8(buf, value);
+        buf.setShort(lengthIndex, length);
+    }
+
+    static String readString(ByteBuf buf) {
+        int length = buf.readUnsignedShort();
+        String value = buf.toString(buf.readerIndex(), length, StandardCharsets.UTF_8);
+        buf.skipBytes(length);
+        return value;
+    }
+}
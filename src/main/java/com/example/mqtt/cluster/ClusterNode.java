@@ -0,0 +1,482 @@
+package com.example.mqtt.cluster;
+
+import com.example.mqtt.broker.SharedSubscriptionGroup;
+import com.example.mqtt.broker.SubscriptionTrie;
+import com.example.mqtt.broker.TopicFilter;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import io.netty.handler.codec.mqtt.MqttQoS;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.FastThreadLocal;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * 集群节点
+ * <p>
+ * 各Broker实例之间通过独立的Netty端口两两相连。每个节点向其他节点广播本地订阅摘要：
+ * 有本地订阅者的主题过滤器集合（同一过滤器只出现一次，按引用计数只在首个订阅/最后一个取消时发送增量），
+ * 收到的摘要按节点ID放入一棵订阅主题树。本地发布的消息先在树中匹配出需要它的节点，
+ * 只转发给这些节点，并按连接成批发送；收到的消息只投递给本地订阅者，不再继续转发。
+ * <p>
+ * 节点ID即本节点对外的 "host:port"，必须与其他节点配置的peers地址一致。
+ * 节点间转发为尽力而为：连接断开期间的消息会被丢弃，不提供跨节点的QoS 1/2保证；RETAIN消息转发给所有节点。
+ * <p>
+ * 共享订阅以完整的 "$share/{组名}/{过滤器}" 进入摘要。每个组在有成员的节点中按最高随机权重哈希
+ * （组过滤器与节点ID的哈希）选出一个属主节点，只有属主在本地成员中选择投递对象，其他节点不投递该组，
+ * 发布节点不是属主时把消息转发给属主。各节点的摘要一致时属主一致，组内每条消息只投递一次；
+ * 摘要同步期间（节点加入、离开或组成员变化）可能短暂重复或丢失。
+ */
+@Slf4j
+public class ClusterNode {
+
+    private static final int MAX_FILTERS_PER_FRAME = 1024;
+    // 每条发布计算路由用的容器，按线程复用
+    private static final FastThreadLocal<RouteScratch> ROUTE_SCRATCH = new FastThreadLocal<>() {
+        @Override
+        protected RouteScratch initialValue() {
+            return new RouteScratch();
+        }
+    };
+
+    /**
+     * 本地投递回调，payload只在回调期间有效
+     */
+    @FunctionalInterface
+    public interface LocalDelivery {
+        void deliver(String topic, ByteBuf payload, MqttQoS qos, boolean retain);
+    }
+
+    private final String nodeId;
+    private final String bindHost;
+    private final int port;
+    private final int threads;
+    private final LocalDelivery delivery;
+    private final Map<String, ClusterPeer> peers = new LinkedHashMap<>();
+    private final List<String> peerAddresses;
+    private final int maxPendingPerPeer;
+    private final int maxBatchMessages;
+
+    // 本地订阅摘要: 过滤器 -> 本地订阅数，由this锁保护
+    private final Map<String, Integer> localFilters = new HashMap<>();
+    // 其他节点的订阅摘要，"订阅者"为节点ID
+    private final SubscriptionTrie<String> remoteRoutes = new SubscriptionTrie<>(Function.identity());
+    private final ConcurrentHashMap<String, RemoteNode> remoteNodes = new ConcurrentHashMap<>();
+    // 本地有成员的共享订阅组（完整过滤器），发布时无锁读取
+    private final Set<String> localSharedGroups = ConcurrentHashMap.newKeySet();
+    // 其他节点上有成员的共享订阅组: 完整过滤器 -> 节点ID
+    private final ConcurrentHashMap<String, Set<String>> remoteSharedGroups = new ConcurrentHashMap<>();
+    private final LongAdder received = new LongAdder();
+
+    private EventLoopGroup group;
+    private Channel serverChannel;
+
+    public ClusterNode(String nodeId, String bindHost, int port, List<String> peerAddresses, int threads,
+                       int maxPendingPerPeer, int maxBatchMessages, LocalDelivery delivery) {
+        this.nodeId = nodeId;
+        this.bindHost = bindHost;
+        this.port = port;
+        this.peerAddresses = peerAddresses;
+        this.threads = threads;
+        this.maxPendingPerPeer = maxPendingPerPeer;
+        this.maxBatchMessages = maxBatchMessages;
+        this.delivery = delivery;
+    }
+
+    /**
+     * 监听集群端口并连接所有其他节点，连接失败的节点在后台重试
+     */
+    public void start() throws InterruptedException {
+        group = new NioEventLoopGroup(threads, new DefaultThreadFactory("mqtt-cluster"));
+        serverChannel = new ServerBootstrap()
+            .group(group)
+            .channel(NioServerSocketChannel.class)
+            .option(ChannelOption.SO_REUSEADDR, true)
+            .childOption(ChannelOption.TCP_NODELAY, true)
+            .childHandler(new ChannelInitializer<SocketChannel>() {
+                @Override
+                protected void initChannel(SocketChannel ch) {
+                    ch.pipeline().addLast(
+                        new LengthFieldBasedFrameDecoder(ClusterFrame.MAX_FRAME_LENGTH, 0,
+                            ClusterFrame.LENGTH_FIELD_LENGTH, 0, ClusterFrame.LENGTH_FIELD_LENGTH),
+                        new InboundHandler());
+                }
+            })
+            .bind(bindHost, port).sync().channel();
+
+        Bootstrap bootstrap = new Bootstrap()
+            .group(group)
+            .channel(NioSocketChannel.class)
+            .option(ChannelOption.TCP_NODELAY, true)
+            .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 3000);
+        for (String address : peerAddresses) {
+            // 所有节点可以使用同一份peers列表，跳过自己
+            if (!address.equals(nodeId) && !peers.containsKey(address)) {
+                peers.put(address, new ClusterPeer(this, address, bootstrap, maxPendingPerPeer, maxBatchMessages));
+            }
+        }
+        peers.values().forEach(ClusterPeer::connect);
+        log.info("集群节点启动成功: {}, 监听端口: {}, 其他节点: {}", nodeId, port, peers.keySet());
+    }
+
+    /**
+     * 本地新增一个订阅过滤器，第一次出现时通知其他节点
+     */
+    public synchronized void subscribe(TopicFilter filter) {
+        String topicFilter = filter.getFilter();
+        if (localFilters.merge(topicFilter, 1, Integer::sum) == 1) {
+            if (filter.isShared()) {
+                localSharedGroups.add(topicFilter);
+            }
+            broadcast(ClusterFrame.FILTER_ADD, topicFilter);
+        }
+    }
+
+    /**
+     * 本地移除一个订阅过滤器，最后一个订阅取消时通知其他节点
+     */
+    public synchronized void unsubscribe(TopicFilter filter) {
+        String topicFilter = filter.getFilter();
+        Integer count = localFilters.get(topicFilter);
+        if (count == null) {
+            return;
+        }
+        if (count == 1) {
+            localFilters.remove(topicFilter);
+            localSharedGroups.remove(topicFilter);
+            broadcast(ClusterFrame.FILTER_REMOVE, topicFilter);
+        } else {
+            localFilters.put(topicFilter, count - 1);
+        }
+    }
+
+    private void broadcast(byte type, String topicFilter) {
+        for (ClusterPeer peer : peers.values()) {
+            Channel ch = peer.channel();
+            if (ch != null) {
+                ch.writeAndFlush(ClusterFrame.filters(ch.alloc(), type, Collections.singletonList(topicFilter)),
+                    ch.voidPromise());
+            }
+        }
+    }
+
+    /**
+     * 出站连接建立：发送HELLO和完整的本地摘要后才对订阅增量和转发可见
+     */
+    synchronized void linkEstablished(ClusterPeer peer, Channel ch) {
+        ch.write(ClusterFrame.hello(ch.alloc(), nodeId), ch.voidPromise());
+        List<String> chunk = new ArrayList<>();
+        for (String topicFilter : localFilters.keySet()) {
+            chunk.add(topicFilter);
+            if (chunk.size() == MAX_FILTERS_PER_FRAME) {
+                ch.write(ClusterFrame.filters(ch.alloc(), ClusterFrame.FILTER_ADD, chunk), ch.voidPromise());
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            ch.write(ClusterFrame.filters(ch.alloc(), ClusterFrame.FILTER_ADD, chunk), ch.voidPromise());
+        }
+        ch.flush();
+        peer.setChannel(ch);
+    }
+
+    /**
+     * 把本地发布的消息转发给有匹配订阅的节点，payload以引用计数共享，调用方仍持有所有权
+     */
+    public void publish(String topic, ByteBuf payload, MqttQoS qos, boolean retain) {
+        if (retain) {
+            // 保留消息要在所有节点上对之后的订阅者可见
+            for (ClusterPeer peer : peers.values()) {
+                peer.enqueue(topic, payload, qos, retain);
+            }
+            return;
+        }
+        if (remoteNodes.isEmpty()) {
+            return;
+        }
+        RouteScratch scratch = ROUTE_SCRATCH.get();
+        try {
+            collectRoutes(topic, scratch);
+            for (String target : scratch.targets.keySet()) {
+                ClusterPeer peer = peers.get(target);
+                if (peer != null) {
+                    peer.enqueue(topic, payload, qos, false);
+                }
+            }
+        } finally {
+            scratch.clear();
+        }
+    }
+
+    /**
+     * 需要该主题消息的其他节点：有匹配普通订阅的节点，以及匹配的共享订阅组的属主节点
+     */
+    public Set<String> routes(String topic) {
+        RouteScratch scratch = new RouteScratch();
+        collectRoutes(topic, scratch);
+        return scratch.targets.keySet();
+    }
+
+    private void collectRoutes(String topic, RouteScratch scratch) {
+        remoteRoutes.match(topic, scratch.targets, scratch.groups);
+        for (int i = 0; i < scratch.groups.size(); i++) {
+            String owner = ownerOf(scratch.groups.get(i).getSharedFilter());
+            if (owner != null && !owner.equals(nodeId)) {
+                scratch.targets.put(owner, MqttQoS.AT_MOST_ONCE);
+            }
+        }
+    }
+
+    /**
+     * 本节点是否是共享订阅组的属主，只有属主在本地成员中选择投递对象；本地没有该组成员时返回false
+     *
+     * @param sharedFilter 完整的 "$share/{组名}/{过滤器}"，见 {@link SharedSubscriptionGroup#getSharedFilter()}
+     */
+    public boolean ownsSharedGroup(String sharedFilter) {
+        return nodeId.equals(ownerOf(sharedFilter));
+    }
+
+    /**
+     * 在有该组成员的节点中选出属主：组过滤器与节点ID哈希值最大的节点，节点增减只影响涉及的组
+     */
+    private String ownerOf(String sharedFilter) {
+        String owner = null;
+        long best = Long.MIN_VALUE;
+        if (localSharedGroups.contains(sharedFilter)) {
+            owner = nodeId;
+            best = ownerWeight(sharedFilter, nodeId);
+        }
+        Set<String> remoteMembers = remoteSharedGroups.get(sharedFilter);
+        if (remoteMembers != null) {
+            for (String candidate : remoteMembers) {
+                long weight = ownerWeight(sharedFilter, candidate);
+                if (owner == null || weight > best || (weight == best && candidate.compareTo(owner) > 0)) {
+                    owner = candidate;
+                    best = weight;
+                }
+            }
+        }
+        return owner;
+    }
+
+    /**
+     * 各节点算出的权重必须相同，只使用规范中固定的String.hashCode，再经过64位混合
+     */
+    private static long ownerWeight(String sharedFilter, String candidate) {
+        long h = ((long) sharedFilter.hashCode() << 32) ^ (candidate.hashCode() & 0xFFFFFFFFL);
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * 获取集群统计：本地摘要大小、各节点的摘要大小及转发计数
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> result = new HashMap<>();
+        result.put("node_id", nodeId);
+        synchronized (this) {
+            result.put("local_filters", localFilters.size());
+        }
+        Map<String, Object> remote = new HashMap<>();
+        remoteNodes.forEach((id, node) -> remote.put(id, node.filters.size()));
+        result.put("remote_filters", remote);
+        List<Map<String, Object>> links = new ArrayList<>();
+        peers.values().forEach(peer -> links.add(peer.getStats()));
+        result.put("peers", links);
+        result.put("received", received.sum());
+        return result;
+    }
+
+    /**
+     * 断开所有节点连接并释放线程
+     */
+    public void close() {
+        peers.values().forEach(ClusterPeer::close);
+        if (serverChannel != null) {
+            serverChannel.close();
+        }
+        if (group != null) {
+            group.shutdownGracefully(0, 2, TimeUnit.SECONDS).syncUninterruptibly();
+        }
+        log.info("集群节点已关闭: {}", nodeId);
+    }
+
+    private RemoteNode registerRemote(String remoteId, Channel ch) {
+        RemoteNode remote = new RemoteNode(remoteId);
+        RemoteNode previous = remoteNodes.put(remoteId, remote);
+        if (previous != null) {
+            // 对端重连时旧连接可能尚未检测到断开，先清掉旧摘要，完整摘要紧随HELLO重新发送
+            previous.clearRoutes();
+        }
+        if (!peers.containsKey(remoteId)) {
+            log.warn("收到未配置节点的连接: {}, 远端地址: {}, 不会向其转发消息", remoteId, ch.remoteAddress());
+        }
+        log.info("集群节点已加入: {}", remoteId);
+        return remote;
+    }
+
+    private void unregisterRemote(RemoteNode remote) {
+        if (remoteNodes.remove(remote.nodeId, remote)) {
+            remote.clearRoutes();
+            log.info("集群节点已离开: {}", remote.nodeId);
+        }
+    }
+
+    /**
+     * 一个远端节点经入站连接同步过来的摘要，只在该连接的事件循环中修改
+     */
+    private final class RemoteNode {
+        final String nodeId;
+        final Map<String, TopicFilter> filters = new ConcurrentHashMap<>();
+
+        RemoteNode(String nodeId) {
+            this.nodeId = nodeId;
+        }
+
+        void add(String topicFilter) {
+            if (remoteNodes.get(nodeId) != this || !TopicFilter.isValid(topicFilter)) {
+                return;
+            }
+            TopicFilter filter = TopicFilter.compile(topicFilter);
+            if (filters.putIfAbsent(topicFilter, filter) == null) {
+                remoteRoutes.subscribe(filter, nodeId, MqttQoS.AT_MOST_ONCE);
+                if (filter.isShared()) {
+                    remoteSharedGroups.compute(topicFilter, (k, members) -> {
+                        Set<String> updated = members != null ? members : ConcurrentHashMap.newKeySet();
+                        updated.add(nodeId);
+                        return updated;
+                    });
+                }
+            }
+        }
+
+        void remove(String topicFilter) {
+            TopicFilter filter = filters.remove(topicFilter);
+            if (filter != null && remoteNodes.get(nodeId) == this) {
+                unroute(filter);
+            }
+        }
+
+        void clearRoutes() {
+            filters.values().forEach(this::unroute);
+            filters.clear();
+        }
+
+        private void unroute(TopicFilter filter) {
+            remoteRoutes.unsubscribe(filter, nodeId);
+            if (filter.isShared()) {
+                remoteSharedGroups.computeIfPresent(filter.getFilter(), (k, members) -> {
+                    members.remove(nodeId);
+                    return members.isEmpty() ? null : members;
+                });
+            }
+        }
+    }
+
+    /**
+     * 入站连接：接收对端的HELLO、摘要增量以及转发来的消息批次
+     */
+    private final class InboundHandler extends SimpleChannelInboundHandler<ByteBuf> {
+
+        private RemoteNode remote;
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, ByteBuf frame) {
+            byte type = frame.readByte();
+            if (type == ClusterFrame.HELLO) {
+                remote = registerRemote(ClusterFrame.readString(frame), ctx.channel());
+                return;
+            }
+            if (remote == null) {
+                log.warn("集群连接未发送HELLO，关闭连接: {}", ctx.channel().remoteAddress());
+                ctx.close();
+                return;
+            }
+            int count = frame.readUnsignedShort();
+            switch (type) {
+                case ClusterFrame.FILTER_ADD:
+                    for (int i = 0; i < count; i++) {
+                        remote.add(ClusterFrame.readString(frame));
+                    }
+                    break;
+                case ClusterFrame.FILTER_REMOVE:
+                    for (int i = 0; i < count; i++) {
+                        remote.remove(ClusterFrame.readString(frame));
+                    }
+                    break;
+                case ClusterFrame.PUBLISH_BATCH:
+                    for (int i = 0; i < count; i++) {
+                        int flags = frame.readUnsignedByte();
+                        String topic = ClusterFrame.readString(frame);
+                        ByteBuf payload = frame.readSlice(frame.readInt());
+                        delivery.deliver(topic, payload, MqttQoS.valueOf(flags & ClusterFrame.QOS_MASK),
+                            (flags & ClusterFrame.FLAG_RETAIN) != 0);
+                    }
+                    received.add(count);
+                    break;
+                default:
+                    log.warn("未知的集群帧类型: {}, 节点: {}", type, remote.nodeId);
+                    ctx.close();
+                    break;
+            }
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            if (remote != null) {
+                unregisterRemote(remote);
+            }
+            super.channelInactive(ctx);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            log.warn("集群入站连接异常: {}, 原因: {}", ctx.channel().remoteAddress(), cause.toString());
+            ctx.close();
+        }
+    }
+
+    /**
+     * 匹配到的节点（值只是占位）和共享订阅组，peer.enqueue不会重入publish，用完清空即可复用
+     */
+    private static final class RouteScratch {
+        final Map<String, MqttQoS> targets = new HashMap<>();
+        final List<SharedSubscriptionGroup<String>> groups = new ArrayList<>();
+
+        void clear() {
+            targets.clear();
+            groups.clear();
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package com.example.mqtt.cluster;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.handler.codec.LengthFieldPrepender;
+import io.netty.handler.codec.mqtt.MqttQoS;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.internal.PlatformDependent;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 到另一个节点的出站连接
+ * <p>
+ * 本节点只通过出站连接向对端发送数据（HELLO、本地订阅摘要、转发的消息），对端通过它自己的出站连接回传摘要，
+ * 因此每对节点之间有两条单向使用的连接，无需协商由谁发起。
+ * <p>
+ * 转发的消息先进入有界的MPSC队列，由连接所属的事件循环一次取出多条编码为一个PUBLISH_BATCH帧，
+ * 一轮只触发一次flush；连接不可写时暂停取队列，队列满后丢弃新消息。连接断开期间的消息直接丢弃，断开后定时重连。
+ */
+@Slf4j
+final class ClusterPeer {
+
+    private static final long RECONNECT_DELAY_MILLIS = 1000;
+    private static final int MAX_BATCH_BYTES = 256 * 1024;
+    // 单次flush任务最多编码的批次数，避免长期占用事件循环
+    private static final int MAX_BATCHES_PER_FLUSH = 16;
+
+    private final ClusterNode node;
+    private final String nodeId;
+    private final String host;
+    private final int port;
+    private final int maxBatchMessages;
+    private final Queue<PendingPublish> pending;
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final Bootstrap bootstrap;
+    private volatile Channel channel;
+    private volatile boolean closed;
+
+    private final LongAdder forwarded = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    ClusterPeer(ClusterNode node, String address, Bootstrap bootstrap, int maxPending, int maxBatchMessages) {
+        int separator = address.lastIndexOf(':');
+        if (separator <= 0) {
+            throw new IllegalArgumentException("节点地址格式应为 host:port: " + address);
+        }
+        this.node = node;
+        this.nodeId = address;
+        this.host = address.substring(0, separator);
+        this.port = Integer.parseInt(address.substring(separator + 1));
+        this.maxBatchMessages = Math.min(maxBatchMessages, 0xFFFF);
+        this.pending = PlatformDependent.newFixedMpscQueue(maxPending);
+        this.bootstrap = bootstrap.clone().handler(new ChannelInitializer<SocketChannel>() {
+            @Override
+            protected void initChannel(SocketChannel ch) {
+                ch.pipeline().addLast(new LengthFieldPrepender(ClusterFrame.LENGTH_FIELD_LENGTH), new LinkHandler());
+            }
+        });
+    }
+
+    String getNodeId() {
+        return nodeId;
+    }
+
+    Channel channel() {
+        return channel;
+    }
+
+    void connect() {
+        if (closed) {
+            return;
+        }
+        bootstrap.connect(host, port).addListener((ChannelFuture future) -> {
+            if (!future.isSuccess()) {
+                log.debug("连接集群节点失败: {}, 原因: {}", nodeId, future.cause().toString());
+                scheduleReconnect();
+                return;
+            }
+            Channel ch = future.channel();
+            if (closed) {
+                ch.close();
+                return;
+            }
+            node.linkEstablished(this, ch);
+            log.info("已连接集群节点: {}", nodeId);
+            ch.closeFuture().addListener(f -> {
+                channel = null;
+                releasePending();
+                log.info("集群节点连接断开: {}", nodeId);
+                scheduleReconnect();
+            });
+        });
+    }
+
+    private void scheduleReconnect() {
+        if (!closed) {
+            bootstrap.config().group().schedule(this::connect, RECONNECT_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 由ClusterNode在摘要锁内调用，保证连接可见时HELLO与完整摘要已排在所有增量之前
+     */
+    void setChannel(Channel ch) {
+        channel = ch;
+    }
+
+    /**
+     * 排队转发一条消息，payload以引用计数共享，调用方仍持有所有权
+     */
+    boolean enqueue(String topic, ByteBuf payload, MqttQoS qos, boolean retain) {
+        Channel ch = channel;
+        if (ch == null) {
+            dropped.increment();
+            return false;
+        }
+        PendingPublish publish = new PendingPublish(topic, payload.retainedDuplicate(), qos, retain);
+        if (!pending.offer(publish)) {
+            publish.payload.release();
+            dropped.increment();
+            return false;
+        }
+        scheduleFlush(ch);
+        return true;
+    }
+
+    private void scheduleFlush(Channel ch) {
+        if (flushScheduled.compareAndSet(false, true)) {
+            ch.eventLoop().execute(this::flush);
+        }
+    }
+
+    /**
+     * 在连接的事件循环中把排队的消息编码为批次帧写出，整轮只flush一次
+     */
+    private void flush() {
+        flushScheduled.set(false);
+        Channel ch = channel;
+        if (ch == null || !ch.isActive()) {
+            releasePending();
+            return;
+        }
+        int written = 0;
+        while (written < MAX_BATCHES_PER_FLUSH && ch.isWritable() && !pending.isEmpty()) {
+            ByteBuf batch = ch.alloc().ioBuffer();
+            batch.writeByte(ClusterFrame.PUBLISH_BATCH);
+            int countIndex = batch.writerIndex();
+            batch.writeShort(0);
+            int count = 0;
+            PendingPublish publish;
+            while (count < maxBatchMessages && batch.readableBytes() < MAX_BATCH_BYTES
+                && (publish = pending.poll()) != null) {
+                batch.writeByte(publish.qos.value() | (publish.retain ? ClusterFrame.FLAG_RETAIN : 0));
+                ClusterFrame.writeString(batch, publish.topic);
+                batch.writeInt(publish.payload.readableBytes());
+                batch.writeBytes(publish.payload);
+                publish.payload.release();
+                count++;
+            }
+            if (count == 0) {
+                // 生产者已占位但尚未发布元素
+                batch.release();
+                break;
+            }
+            batch.setShort(countIndex, count);
+            ch.write(batch, ch.voidPromise());
+            forwarded.add(count);
+            batches.increment();
+            written++;
+        }
+        if (written > 0) {
+            ch.flush();
+        }
+        // 预算用完时让出事件循环，不可写时等待channelWritabilityChanged
+        if (ch.isWritable() && !pending.isEmpty()) {
+            scheduleFlush(ch);
+        }
+    }
+
+    private void releasePending() {
+        PendingPublish publish;
+        while ((publish = pending.poll()) != null) {
+            publish.payload.release();
+            dropped.increment();
+        }
+    }
+
+    void close() {
+        closed = true;
+        Channel ch = channel;
+        if (ch != null) {
+            ch.close();
+        }
+    }
+
+    Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("node_id", nodeId);
+        stats.put("connected", channel != null);
+        stats.put("forwarded", forwarded.sum());
+        stats.put("batches", batches.sum());
+        stats.put("dropped", dropped.sum());
+        stats.put("pending", pending.size());
+        return stats;
+    }
+
+    /**
+     * 出站连接只写不读，恢复可写时继续发送积压的消息
+     */
+    private final class LinkHandler extends ChannelInboundHandlerAdapter {
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            ReferenceCountUtil.release(msg);
+        }
+
+        @Override
+        public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+            if (ctx.channel().isWritable() && !pending.isEmpty()) {
+                scheduleFlush(ctx.channel());
+            }
+            super.channelWritabilityChanged(ctx);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            log.warn("集群节点连接异常: {}, 原因: {}", nodeId, cause.toString());
+            ctx.close();
+        }
+    }
+
+    private static final class PendingPublish {
+        final String topic;
+        final ByteBuf payload;
+        final MqttQoS qos;
+        final boolean retain;
+
+        PendingPublish(String topic, ByteBuf payload, MqttQoS qos, boolean retain) {
+            this.topic = topic;
+            this.payload = payload;
+            this.qos = qos;
+            this.retain = retain;
+        }
+    }
+}
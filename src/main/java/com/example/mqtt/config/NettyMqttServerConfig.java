@@ -1,24 +1,52 @@
 package com.example.mqtt.config;
 
+import com.example.mqtt.broker.BuiltinSharedSubscriptionStrategy;
+import com.example.mqtt.broker.ConnectionAdmission;
+import com.example.mqtt.broker.OfflineMessageStore;
+import com.example.mqtt.broker.PublishRateLimiter;
+import com.example.mqtt.broker.RateLimitAction;
+import com.example.mqtt.broker.SharedSubscriptionStrategy;
+import com.example.mqtt.broker.SlowConsumerPolicy;
+import com.example.mqtt.cluster.ClusterNode;
+import com.example.mqtt.handler.AdmissionControlHandler;
 import com.example.mqtt.handler.MqttMessageHandler;
+import com.example.mqtt.handler.MqttPublishEncoder;
+import com.example.mqtt.handler.MqttWebSocketCodec;
+import com.example.mqtt.handler.PublishStreamDecoder;
+import com.example.mqtt.handler.StreamWriteGate;
+import com.example.mqtt.metrics.BrokerMetrics;
+import com.example.mqtt.metrics.OutboundTrafficHandler;
+import com.example.mqtt.pipeline.PublishConsumer;
+import com.example.mqtt.pipeline.PublishPipeline;
+import com.example.mqtt.trace.MessageTracer;
+import io.micrometer.core.instrument.MeterRegistry;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.*;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolConfig;
+import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolHandler;
 import io.netty.handler.codec.mqtt.MqttDecoder;
 import io.netty.handler.codec.mqtt.MqttEncoder;
+import io.netty.handler.flush.FlushConsolidationHandler;
 import io.netty.handler.logging.LogLevel;
 import io.netty.handler.logging.LoggingHandler;
 import io.netty.handler.timeout.IdleStateHandler;
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.stereotype.Component;
 
-
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -41,62 +69,302 @@ public class NettyMqttServerConfig {
     @Value("${mqtt.broker.worker-thread:4}")
     private int workerThread;
 
+    @Value("${mqtt.broker.websocket.enabled:true}")
+    private boolean websocketEnabled;
+
+    @Value("${mqtt.broker.websocket.port:8083}")
+    private int websocketPort;
+
+    @Value("${mqtt.broker.websocket.path:/mqtt}")
+    private String websocketPath;
+
+    @Value("${mqtt.broker.websocket.subprotocols:mqtt,mqttv3.1}")
+    private String websocketSubprotocols;
+
+    @Value("${mqtt.broker.transport:auto}")
+    private String transportName;
+
+    @Value("${mqtt.broker.reuse-port-acceptors:0}")
+    private int reusePortAcceptors;
+
+    @Value("${mqtt.broker.tcp-fastopen:0}")
+    private int tcpFastOpen;
+
+    @Value("${mqtt.broker.flush-consolidation.enabled:true}")
+    private boolean flushConsolidationEnabled;
+
+    @Value("${mqtt.broker.flush-consolidation.explicit-flush-after-flushes:256}")
+    private int explicitFlushAfterFlushes;
+
+    @Value("${mqtt.broker.write-buffer.low-water-mark:32768}")
+    private int writeBufferLowWaterMark;
+
+    @Value("${mqtt.broker.write-buffer.high-water-mark:65536}")
+    private int writeBufferHighWaterMark;
+
+    @Value("${mqtt.broker.admission.enabled:true}")
+    private boolean admissionEnabled;
+
+    @Value("${mqtt.broker.admission.global-rate:1000}")
+    private double admissionGlobalRate;
+
+    @Value("${mqtt.broker.admission.global-burst:2000}")
+    private int admissionGlobalBurst;
+
+    @Value("${mqtt.broker.admission.per-source-rate:20}")
+    private double admissionPerSourceRate;
+
+    @Value("${mqtt.broker.admission.per-source-burst:50}")
+    private int admissionPerSourceBurst;
+
+    @Value("${mqtt.broker.admission.max-half-open:5000}")
+    private int admissionMaxHalfOpen;
+
+    @Value("${mqtt.broker.admission.reject-delay-ms:2000}")
+    private long admissionRejectDelayMillis;
+
+    @Value("${mqtt.broker.rate-limit.enabled:false}")
+    private boolean rateLimitEnabled;
+
+    @Value("${mqtt.broker.rate-limit.action:DELAY}")
+    private RateLimitAction rateLimitAction;
+
+    @Value("${mqtt.broker.rate-limit.client-messages-per-second:100}")
+    private double rateLimitClientMessages;
+
+    @Value("${mqtt.broker.rate-limit.client-bytes-per-second:1048576}")
+    private double rateLimitClientBytes;
+
+    @Value("${mqtt.broker.rate-limit.burst-seconds:2}")
+    private double rateLimitBurstSeconds;
+
+    @Value("${mqtt.broker.rate-limit.topic-limits:}")
+    private List<String> rateLimitTopicRules;
+
+    @Value("${mqtt.broker.decoder.max-packet-size:1048576}")
+    private int maxPacketSize;
+
+    @Value("${mqtt.broker.decoder.max-client-id-length:128}")
+    private int maxClientIdLength;
+
+    @Value("${mqtt.broker.streaming.enabled:true}")
+    private boolean streamingEnabled;
+
+    @Value("${mqtt.broker.streaming.threshold-bytes:65536}")
+    private int streamingThreshold;
+
+    @Value("${mqtt.broker.streaming.max-payload-bytes:67108864}")
+    private int streamingMaxPayload;
+
+    @Value("${mqtt.broker.streaming.max-held-bytes:4194304}")
+    private long streamingMaxHeldBytes;
+
+    @Value("${mqtt.broker.slow-consumer.policy:QUEUE}")
+    private SlowConsumerPolicy slowConsumerPolicy;
+
+    @Value("${mqtt.broker.slow-consumer.max-queued-messages:1000}")
+    private int maxQueuedMessages;
+
+    @Value("${mqtt.broker.fan-out.cross-loop-batching:true}")
+    private boolean crossLoopBatching;
+
+    @Value("${mqtt.broker.pipeline.threads:2}")
+    private int pipelineThreads;
+
+    @Value("${mqtt.broker.pipeline.ring-size:8192}")
+    private int pipelineRingSize;
+
+    @Value("${mqtt.broker.pipeline.batch-size:64}")
+    private int pipelineBatchSize;
+
+    @Value("${mqtt.broker.delivery.max-inflight:32}")
+    private int maxInflight;
+
+    @Value("${mqtt.broker.delivery.retry-interval-ms:10000}")
+    private long retryIntervalMillis;
+
+    @Value("${mqtt.broker.persistence.enabled:true}")
+    private boolean persistenceEnabled;
+
+    @Value("${mqtt.broker.persistence.data-dir:${java.io.tmpdir}/mqtt-broker/sessions}")
+    private String persistenceDataDir;
+
+    @Value("${mqtt.broker.persistence.shards:4}")
+    private int persistenceShards;
+
+    @Value("${mqtt.broker.persistence.segment-size-mb:64}")
+    private int segmentSizeMb;
+
+    @Value("${mqtt.broker.persistence.max-messages-per-session:10000}")
+    private int maxMessagesPerSession;
+
+    @Value("${mqtt.broker.persistence.max-bytes-per-session-mb:16}")
+    private long maxBytesPerSessionMb;
+
+    @Value("${mqtt.broker.persistence.session-expiry-seconds:7200}")
+    private long sessionExpirySeconds;
+
+    @Value("${mqtt.broker.shared-subscription.strategy:ROUND_ROBIN}")
+    private BuiltinSharedSubscriptionStrategy sharedSubscriptionStrategy;
+
+    @Value("${mqtt.cluster.enabled:false}")
+    private boolean clusterEnabled;
+
+    @Value("${mqtt.cluster.node-id:127.0.0.1:1884}")
+    private String clusterNodeId;
+
+    @Value("${mqtt.cluster.host:0.0.0.0}")
+    private String clusterHost;
+
+    @Value("${mqtt.cluster.port:1884}")
+    private int clusterPort;
+
+    @Value("${mqtt.cluster.peers:}")
+    private List<String> clusterPeers;
+
+    @Value("${mqtt.cluster.threads:1}")
+    private int clusterThreads;
+
+    @Value("${mqtt.cluster.max-pending-per-peer:65536}")
+    private int clusterMaxPendingPerPeer;
+
+    @Value("${mqtt.cluster.batch-max-messages:256}")
+    private int clusterBatchMaxMessages;
+
     private EventLoopGroup bossGroup;
     private EventLoopGroup workerGroup;
-    private Channel serverChannel;
+    private NettyTransport transport;
+    private OfflineMessageStore offlineStore;
+    private ClusterNode clusterNode;
+    private PublishPipeline publishPipeline;
+    private ConnectionAdmission connectionAdmission;
+    private static final int WEBSOCKET_HANDSHAKE_MAX_BYTES = 8192;
+
+    private final List<Channel> serverChannels = new CopyOnWriteArrayList<>();
 
     private final MqttMessageHandler mqttMessageHandler;
+    private final ObjectProvider<SharedSubscriptionStrategy> customSharedSubscriptionStrategy;
+    private final ObjectProvider<PublishConsumer> publishConsumers;
+    private final BrokerMetrics brokerMetrics;
+    private final OutboundTrafficHandler outboundTrafficHandler;
+    private final MessageTracer messageTracer;
 
-    public NettyMqttServerConfig(MqttMessageHandler mqttMessageHandler) {
+    public NettyMqttServerConfig(MqttMessageHandler mqttMessageHandler,
+                                 ObjectProvider<SharedSubscriptionStrategy> customSharedSubscriptionStrategy,
+                                 ObjectProvider<PublishConsumer> publishConsumers,
+                                 ObjectProvider<MeterRegistry> meterRegistry,
+                                 MessageTracer messageTracer) {
         this.mqttMessageHandler = mqttMessageHandler;
+        this.customSharedSubscriptionStrategy = customSharedSubscriptionStrategy;
+        this.publishConsumers = publishConsumers;
+        MeterRegistry registry = meterRegistry.getIfAvailable();
+        this.brokerMetrics = registry != null ? new BrokerMetrics(registry) : BrokerMetrics.NOOP;
+        this.outboundTrafficHandler = new OutboundTrafficHandler(brokerMetrics);
+        this.messageTracer = messageTracer;
     }
 
     @PostConstruct
     public void start() {
+        // 段文件整体映射为一个MappedByteBuffer，大小不能超过Integer.MAX_VALUE
+        if (persistenceEnabled && (segmentSizeMb <= 0 || segmentSizeMb * 1024L * 1024 > Integer.MAX_VALUE)) {
+            throw new IllegalArgumentException(
+                "mqtt.broker.persistence.segment-size-mb 必须在1到2047之间: " + segmentSizeMb);
+        }
         new Thread(this::startServer, "netty-mqtt-server").start();
     }
 
     private void startServer() {
-        bossGroup = new NioEventLoopGroup(bossThread);
-        workerGroup = new NioEventLoopGroup(workerThread);
+        mqttMessageHandler.configureMetrics(brokerMetrics);
+        mqttMessageHandler.configureTracing(messageTracer);
+        mqttMessageHandler.configureSlowConsumer(slowConsumerPolicy, maxQueuedMessages);
+        mqttMessageHandler.configureDelivery(maxInflight, retryIntervalMillis);
+        if (rateLimitEnabled) {
+            mqttMessageHandler.configureRateLimit(new PublishRateLimiter(rateLimitAction, rateLimitClientMessages,
+                rateLimitClientBytes, rateLimitBurstSeconds,
+                rateLimitTopicRules.stream().filter(rule -> !rule.isBlank()).toList()));
+        }
+        mqttMessageHandler.configureFanOut(crossLoopBatching);
+        if (persistenceEnabled) {
+            offlineStore = new OfflineMessageStore(Paths.get(persistenceDataDir), persistenceShards,
+                (int) (segmentSizeMb * 1024L * 1024), maxMessagesPerSession, maxBytesPerSessionMb * 1024L * 1024);
+            log.info("持久会话已启用，离线消息目录: {}", persistenceDataDir);
+        }
+        mqttMessageHandler.configurePersistence(offlineStore, TimeUnit.SECONDS.toMillis(sessionExpirySeconds));
+        // 注册了自定义策略Bean时优先使用
+        mqttMessageHandler.configureSharedSubscriptions(
+            customSharedSubscriptionStrategy.getIfAvailable(() -> sharedSubscriptionStrategy));
+        // 注册了业务处理器Bean时才启动业务线程
+        List<PublishConsumer> consumers = publishConsumers.orderedStream().toList();
+        if (!consumers.isEmpty()) {
+            publishPipeline = new PublishPipeline(consumers, pipelineThreads, pipelineRingSize, pipelineBatchSize);
+            mqttMessageHandler.configurePipeline(publishPipeline);
+        }
+
+        transport = NettyTransport.select(transportName);
+
+        // 支持SO_REUSEPORT时绑定多个acceptor，连接风暴时由内核把新连接分散到多个boss线程
+        int acceptors = transport.acceptors(reusePortAcceptors, Runtime.getRuntime().availableProcessors());
+        bossGroup = transport.newEventLoopGroup(Math.max(bossThread, acceptors), "mqtt-boss");
+        workerGroup = transport.newEventLoopGroup(workerThread, "mqtt-worker");
+        brokerMetrics.bindEventLoops(workerGroup, "mqtt-worker");
+        if (admissionEnabled) {
+            connectionAdmission = new ConnectionAdmission(admissionGlobalRate, admissionGlobalBurst,
+                admissionPerSourceRate, admissionPerSourceBurst, admissionMaxHalfOpen);
+            bossGroup.scheduleAtFixedRate(connectionAdmission::evictIdle, 60, 60, TimeUnit.SECONDS);
+        }
 
         try {
+            // 先加入集群，客户端连上来之前订阅摘要的同步链路已就绪
+            if (clusterEnabled) {
+                List<String> peers = clusterPeers.stream().map(String::trim).filter(p -> !p.isEmpty()).toList();
+                clusterNode = new ClusterNode(clusterNodeId, clusterHost, clusterPort, peers, clusterThreads,
+                    clusterMaxPendingPerPeer, clusterBatchMaxMessages, mqttMessageHandler::deliverFromCluster);
+                clusterNode.start();
+                mqttMessageHandler.configureCluster(clusterNode);
+            }
+
             ServerBootstrap bootstrap = new ServerBootstrap();
+            transport.configureServer(bootstrap, acceptors > 1, tcpFastOpen);
             bootstrap.group(bossGroup, workerGroup)
-                    .channel(NioServerSocketChannel.class)
+                    .channel(transport.serverChannelClass())
                     .option(ChannelOption.SO_BACKLOG, 1024)
                     .option(ChannelOption.SO_REUSEADDR, true)
                     .childOption(ChannelOption.TCP_NODELAY, true)
                     .childOption(ChannelOption.SO_KEEPALIVE, true)
+                    // 写缓冲超过高水位后连接变为不可写，转发路径据此执行慢消费者策略
+                    .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK,
+                        new WriteBufferWaterMark(writeBufferLowWaterMark, writeBufferHighWaterMark))
                     .handler(new LoggingHandler(LogLevel.INFO))
                     .childHandler(new ChannelInitializer<SocketChannel>() {
                         @Override
                         protected void initChannel(SocketChannel ch) throws Exception {
                             ChannelPipeline pipeline = ch.pipeline();
                             
-                            // 添加空闲状态检测器，90秒没有消息就关闭连接
-                            pipeline.addLast("idleStateHandler", 
-                                new IdleStateHandler(90, 0, 0, TimeUnit.SECONDS));
+                            // 出站字节统计，放在最靠近socket的位置
+                            pipeline.addLast("outboundTraffic", outboundTrafficHandler);
                             
-                            // MQTT消息解码器
-                            pipeline.addLast("decoder", new MqttDecoder());
-                            
-                            // MQTT消息编码器
-                            pipeline.addLast("encoder", MqttEncoder.INSTANCE);
-                            
-                            // 自定义MQTT消息处理器
-                            pipeline.addLast("handler", mqttMessageHandler);
+                            addMqttHandlers(pipeline);
                         }
                     });
 
             // 绑定端口，同步等待成功
-            ChannelFuture future = bootstrap.bind(host, port).sync();
-            serverChannel = future.channel();
+            for (int i = 0; i < acceptors; i++) {
+                serverChannels.add(bootstrap.bind(host, port).sync().channel());
+            }
             
-            log.info("Netty MQTT服务器启动成功，监听地址: {}:{}", host, port);
+            log.info("Netty MQTT服务器启动成功，监听地址: {}:{}, 传输: {}, acceptor数: {}", 
+                host, port, transport, acceptors);
+            
+            // WebSocket监听复用同一组事件循环和同一个消息处理器，浏览器与TCP客户端互相收发
+            if (websocketEnabled) {
+                serverChannels.add(websocketBootstrap(bootstrap).bind(host, websocketPort).sync().channel());
+                log.info("MQTT over WebSocket监听地址: ws://{}:{}{}", host, websocketPort, websocketPath);
+            }
             
             // 等待服务器socket关闭
-            serverChannel.closeFuture().sync();
+            for (Channel serverChannel : serverChannels) {
+                serverChannel.closeFuture().sync();
+            }
             
         } catch (InterruptedException e) {
             log.error("Netty MQTT服务器启动失败", e);
@@ -107,11 +375,80 @@ public class NettyMqttServerConfig {
         }
     }
 
+    /**
+     * 在TCP监听的配置上换成WebSocket连接的处理器：HTTP握手升级后，二进制帧的内容交给MQTT解码器
+     */
+    private ServerBootstrap websocketBootstrap(ServerBootstrap tcpBootstrap) {
+        WebSocketServerProtocolConfig websocketConfig = WebSocketServerProtocolConfig.newBuilder()
+            .websocketPath(websocketPath)
+            .subprotocols(websocketSubprotocols)
+            .maxFramePayloadLength(maxPacketSize)
+            .build();
+        return tcpBootstrap.clone().childHandler(new ChannelInitializer<SocketChannel>() {
+            @Override
+            protected void initChannel(SocketChannel ch) {
+                ChannelPipeline pipeline = ch.pipeline();
+                pipeline.addLast("outboundTraffic", outboundTrafficHandler);
+                pipeline.addLast("httpCodec", new HttpServerCodec());
+                // 只用于聚合握手请求，握手完成后由握手器移除
+                pipeline.addLast("httpAggregator", new HttpObjectAggregator(WEBSOCKET_HANDSHAKE_MAX_BYTES));
+                pipeline.addLast("websocket", new WebSocketServerProtocolHandler(websocketConfig));
+                pipeline.addLast("websocketCodec", new MqttWebSocketCodec(writeBufferHighWaterMark));
+                addMqttHandlers(pipeline);
+            }
+        });
+    }
+
+    /**
+     * 添加MQTT协议层的处理器，TCP和WebSocket连接共用，之前只需放好把字节送进来的传输层处理器
+     */
+    private void addMqttHandlers(ChannelPipeline pipeline) {
+        // 订阅者正在接收流式PUBLISH时，暂存该连接上的其他写入
+        if (streamingEnabled) {
+            pipeline.addLast("streamWriteGate", new StreamWriteGate(streamingMaxHeldBytes));
+        }
+
+        // 刷新合并：读批次内的flush推迟到channelReadComplete，
+        // 其他连接转发过来的写在同一轮事件循环内只刷新一次
+        if (flushConsolidationEnabled) {
+            pipeline.addLast("flushConsolidation",
+                new FlushConsolidationHandler(explicitFlushAfterFlushes, true));
+        }
+
+        // 添加空闲状态检测器，90秒没有消息就关闭连接
+        pipeline.addLast("idleStateHandler", 
+            new IdleStateHandler(90, 0, 0, TimeUnit.SECONDS));
+
+        // 大PUBLISH的payload边收边转发，不交给MqttDecoder聚合
+        if (streamingEnabled) {
+            pipeline.addLast("streamDecoder",
+                new PublishStreamDecoder(streamingThreshold, streamingMaxPayload));
+        }
+
+        // MQTT消息解码器，超过最大报文长度的报文在读完固定头时即拒绝，不再缓冲
+        pipeline.addLast("decoder", new MqttDecoder(maxPacketSize, maxClientIdLength));
+
+        // MQTT消息编码器
+        pipeline.addLast("encoder", MqttEncoder.INSTANCE);
+
+        // PUBLISH零拷贝编码器，payload不再复制
+        pipeline.addLast("publishEncoder", MqttPublishEncoder.INSTANCE);
+
+        // 连接准入：限制CONNECT速率和半开连接数，接入后自行移除
+        if (connectionAdmission != null) {
+            pipeline.addLast("admission",
+                new AdmissionControlHandler(connectionAdmission, admissionRejectDelayMillis));
+        }
+
+        // 自定义MQTT消息处理器
+        pipeline.addLast("handler", mqttMessageHandler);
+    }
+
     @PreDestroy
     public void shutdown() {
         log.info("正在关闭Netty MQTT服务器...");
         
-        if (serverChannel != null) {
+        for (Channel serverChannel : serverChannels) {
             serverChannel.close();
         }
         
@@ -123,6 +460,24 @@ public class NettyMqttServerConfig {
             workerGroup.shutdownGracefully();
         }
         
+        if (publishPipeline != null) {
+            mqttMessageHandler.configurePipeline(null);
+            publishPipeline.close();
+            publishPipeline = null;
+        }
+        
+        if (clusterNode != null) {
+            mqttMessageHandler.configureCluster(null);
+            clusterNode.close();
+            clusterNode = null;
+        }
+        
+        if (offlineStore != null) {
+            mqttMessageHandler.configurePersistence(null, 0);
+            offlineStore.close();
+            offlineStore = null;
+        }
+        
         log.info("Netty MQTT服务器已关闭");
     }
 
@@ -130,16 +485,36 @@ public class NettyMqttServerConfig {
      * 获取服务器状态
      */
     public boolean isRunning() {
-        return serverChannel != null && serverChannel.isActive();
+        return serverChannels.stream().anyMatch(Channel::isActive);
+    }
+
+    /**
+     * 获取实际使用的传输
+     */
+    public String getTransport() {
+        return transport != null ? transport.name().toLowerCase(Locale.ROOT) : transportName;
+    }
+
+    /**
+     * 获取连接准入统计，未启用时只返回enabled=false
+     */
+    public Map<String, Object> getAdmissionStats() {
+        ConnectionAdmission admission = connectionAdmission;
+        if (admission == null) {
+            return Map.of("enabled", false);
+        }
+        Map<String, Object> result = new HashMap<>(admission.getStats());
+        result.put("enabled", true);
+        return result;
     }
 
     /**
      * 获取服务器信息
      */
     public String getServerInfo() {
-        return String.format("MQTT服务器 - 地址: %s:%d, 状态: %s, 连接数: %d", 
-            host, port, 
+        return String.format("MQTT服务器 - 地址: %s:%d, 传输: %s, 状态: %s, 连接数: %d", 
+            host, port, getTransport(),
             isRunning() ? "运行中" : "已停止",
-            MqttMessageHandler.getConnectedClientCount());
+            mqttMessageHandler.getConnectedClientCount());
     }
 }
\ No newline at end of file
@@ -0,0 +1,205 @@
+package com.example.mqtt.config;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.ServerSocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.incubator.channel.uring.IOUring;
+import io.netty.incubator.channel.uring.IOUringChannelOption;
+import io.netty.incubator.channel.uring.IOUringEventLoopGroup;
+import io.netty.incubator.channel.uring.IOUringServerSocketChannel;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Locale;
+
+/**
+ * Netty传输层实现
+ * <p>
+ * Linux上的原生epoll/io_uring传输比NIO延迟更低、垃圾更少，并支持SO_REUSEPORT与TCP_FASTOPEN。
+ * 原生库不可用时（非Linux、内核版本过低等）回退到NIO。
+ */
+@Slf4j
+public enum NettyTransport {
+
+    NIO {
+        @Override
+        public boolean isAvailable() {
+            return true;
+        }
+
+        @Override
+        public Throwable unavailabilityCause() {
+            return null;
+        }
+
+        @Override
+        public EventLoopGroup newEventLoopGroup(int threads, String poolName) {
+            return new NioEventLoopGroup(threads, new DefaultThreadFactory(poolName));
+        }
+
+        @Override
+        public Class<? extends ServerSocketChannel> serverChannelClass() {
+            return NioServerSocketChannel.class;
+        }
+
+        @Override
+        public boolean supportsReusePort() {
+            return false;
+        }
+
+        @Override
+        public void configureServer(ServerBootstrap bootstrap, boolean reusePort, int tcpFastOpen) {
+        }
+    },
+
+    EPOLL {
+        @Override
+        public boolean isAvailable() {
+            return Epoll.isAvailable();
+        }
+
+        @Override
+        public Throwable unavailabilityCause() {
+            return Epoll.unavailabilityCause();
+        }
+
+        @Override
+        public EventLoopGroup newEventLoopGroup(int threads, String poolName) {
+            return new EpollEventLoopGroup(threads, new DefaultThreadFactory(poolName));
+        }
+
+        @Override
+        public Class<? extends ServerSocketChannel> serverChannelClass() {
+            return EpollServerSocketChannel.class;
+        }
+
+        @Override
+        public boolean supportsReusePort() {
+            return true;
+        }
+
+        @Override
+        public void configureServer(ServerBootstrap bootstrap, boolean reusePort, int tcpFastOpen) {
+            if (reusePort) {
+                bootstrap.option(EpollChannelOption.SO_REUSEPORT, true);
+            }
+            if (tcpFastOpen > 0) {
+                bootstrap.option(ChannelOption.TCP_FASTOPEN, tcpFastOpen);
+            }
+        }
+    },
+
+    IO_URING {
+        @Override
+        public boolean isAvailable() {
+            return IOUring.isAvailable();
+        }
+
+        @Override
+        public Throwable unavailabilityCause() {
+            return IOUring.unavailabilityCause();
+        }
+
+        @Override
+        public EventLoopGroup newEventLoopGroup(int threads, String poolName) {
+            return new IOUringEventLoopGroup(threads, new DefaultThreadFactory(poolName));
+        }
+
+        @Override
+        public Class<? extends ServerSocketChannel> serverChannelClass() {
+            return IOUringServerSocketChannel.class;
+        }
+
+        @Override
+        public boolean supportsReusePort() {
+            return true;
+        }
+
+        @Override
+        public void configureServer(ServerBootstrap bootstrap, boolean reusePort, int tcpFastOpen) {
+            if (reusePort) {
+                bootstrap.option(IOUringChannelOption.SO_REUSEPORT, true);
+            }
+            if (tcpFastOpen > 0) {
+                bootstrap.option(ChannelOption.TCP_FASTOPEN, tcpFastOpen);
+            }
+        }
+    };
+
+    /**
+     * 当前平台是否支持该传输
+     */
+    public abstract boolean isAvailable();
+
+    /**
+     * 不可用的原因
+     */
+    public abstract Throwable unavailabilityCause();
+
+    public abstract EventLoopGroup newEventLoopGroup(int threads, String poolName);
+
+    public abstract Class<? extends ServerSocketChannel> serverChannelClass();
+
+    /**
+     * 是否支持SO_REUSEPORT，支持时可以绑定多个acceptor分摊建连压力
+     */
+    public abstract boolean supportsReusePort();
+
+    /**
+     * 默认最多绑定的acceptor数：再多的boss线程对建连吞吐帮助不大，反而占用核
+     */
+    public static final int DEFAULT_MAX_ACCEPTORS = 4;
+
+    /**
+     * 实际绑定的acceptor数：不支持SO_REUSEPORT时为1；configured小于等于0表示按核数自动选择，取min(核数, 4)
+     */
+    public int acceptors(int configured, int availableProcessors) {
+        if (!supportsReusePort()) {
+            return 1;
+        }
+        if (configured > 0) {
+            return configured;
+        }
+        return Math.max(1, Math.min(availableProcessors, DEFAULT_MAX_ACCEPTORS));
+    }
+
+    /**
+     * 设置传输相关的服务端选项
+     */
+    public abstract void configureServer(ServerBootstrap bootstrap, boolean reusePort, int tcpFastOpen);
+
+    /**
+     * 根据配置选择传输：nio / epoll / io_uring / auto
+     * <p>
+     * auto 优先选择epoll（生产成熟度最高），其次io_uring，最后NIO；
+     * 显式指定的传输不可用时同样回退到NIO。
+     */
+    public static NettyTransport select(String name) {
+        String normalized = name == null ? "auto" : name.trim().toLowerCase(Locale.ROOT).replace('-', '_');
+        if ("auto".equals(normalized)) {
+            if (EPOLL.isAvailable()) {
+                return EPOLL;
+            }
+            return IO_URING.isAvailable() ? IO_URING : NIO;
+        }
+        NettyTransport transport;
+        try {
+            transport = valueOf(normalized.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            log.warn("未知的传输类型: {}，使用NIO", name);
+            return NIO;
+        }
+        if (!transport.isAvailable()) {
+            log.warn("传输 {} 不可用，回退到NIO", transport, transport.unavailabilityCause());
+            return NIO;
+        }
+        return transport;
+    }
+}
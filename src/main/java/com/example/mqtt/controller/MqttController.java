@@ -1,18 +1,26 @@
 package com.example.mqtt.controller;
 
+import com.example.mqtt.broker.TopicFilter;
 import com.example.mqtt.config.NettyMqttServerConfig;
 import com.example.mqtt.handler.MqttMessageHandler;
+import com.example.mqtt.history.HistorySample;
 import com.example.mqtt.model.DeviceData;
 // import com.example.mqtt.model.MqttMessage; // 在方法中使用全限定名避免冲突
+import com.example.mqtt.service.DashboardStreamService;
 import com.example.mqtt.service.DeviceDataService;
 import com.example.mqtt.service.MqttClientService;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * MQTT REST API 控制器
@@ -23,16 +31,25 @@ import java.util.Map;
 @CrossOrigin(origins = "*")
 public class MqttController {
 
+    private static final int MAX_MESSAGES_LIMIT = 1000;
+    private static final int MAX_HISTORY_LIMIT = 10000;
+
     private final MqttClientService mqttClientService;
     private final DeviceDataService deviceDataService;
     private final NettyMqttServerConfig nettyMqttServerConfig;
+    private final MqttMessageHandler mqttMessageHandler;
+    private final DashboardStreamService dashboardStreamService;
 
     public MqttController(MqttClientService mqttClientService, 
                          DeviceDataService deviceDataService,
-                         NettyMqttServerConfig nettyMqttServerConfig) {
+                         NettyMqttServerConfig nettyMqttServerConfig,
+                         MqttMessageHandler mqttMessageHandler,
+                         DashboardStreamService dashboardStreamService) {
         this.mqttClientService = mqttClientService;
         this.deviceDataService = deviceDataService;
         this.nettyMqttServerConfig = nettyMqttServerConfig;
+        this.mqttMessageHandler = mqttMessageHandler;
+        this.dashboardStreamService = dashboardStreamService;
     }
 
     /**
@@ -44,8 +61,21 @@ public class MqttController {
         status.put("server_info", nettyMqttServerConfig.getServerInfo());
         status.put("server_running", nettyMqttServerConfig.isRunning());
         status.put("client_connected", mqttClientService.isConnected());
-        status.put("connected_clients", MqttMessageHandler.getConnectedClientCount());
+        status.put("received_messages", mqttClientService.getReceivedMessageStats());
+        status.put("connected_clients", mqttMessageHandler.getConnectedClientCount());
+        status.put("slow_consumers", mqttMessageHandler.getSlowConsumerStats());
+        status.put("persistent_sessions", mqttMessageHandler.getPersistenceStats());
+        status.put("retained_messages", mqttMessageHandler.getRetainedStats());
+        status.put("cluster", mqttMessageHandler.getClusterStats());
+        status.put("fan_out", mqttMessageHandler.getFanOutStats());
+        status.put("pipeline", mqttMessageHandler.getPipelineStats());
+        status.put("admission", nettyMqttServerConfig.getAdmissionStats());
+        status.put("rate_limits", mqttMessageHandler.getRateLimitStats());
+        status.put("streaming", mqttMessageHandler.getStreamingStats());
+        status.put("dashboard_streams", dashboardStreamService.getStats());
         status.put("device_count", deviceDataService.getDeviceCount());
+        status.put("device_history", deviceDataService.getHistoryStats());
+        status.put("device_aggregates", deviceDataService.getAggregateStats());
         status.put("timestamp", java.time.LocalDateTime.now().toString());
         status.put("application_status", "running");
         
@@ -114,12 +144,69 @@ public class MqttController {
     }
 
     /**
-     * 获取接收到的MQTT消息
+     * 按接收序号增量获取收到的MQTT消息：返回序号大于since、主题匹配topic过滤器的消息，最多limit条，
+     * 下次请求以返回的next作为since；truncated为true表示游标之后有消息已被缓冲区淘汰
      */
     @GetMapping("/messages")
-    public ResponseEntity<Map<String, com.example.mqtt.model.MqttMessage>> getReceivedMessages() {
-        Map<String, com.example.mqtt.model.MqttMessage> messages = mqttClientService.getReceivedMessages();
-        return ResponseEntity.ok(messages);
+    public ResponseEntity<Map<String, Object>> getReceivedMessages(
+            @RequestParam(defaultValue = "0") long since,
+            @RequestParam(required = false) String topic,
+            @RequestParam(defaultValue = "100") int limit) {
+        TopicFilter filter = null;
+        if (topic != null && !topic.isEmpty()) {
+            if (!TopicFilter.isValid(topic)) {
+                return ResponseEntity.badRequest().build();
+            }
+            filter = TopicFilter.compile(topic);
+        }
+        // 先读最新序号，查询期间新到的消息不会被游标跳过
+        long last = mqttClientService.getLastSequence();
+        long oldest = mqttClientService.getOldestSequence();
+        List<com.example.mqtt.model.MqttMessage> messages = mqttClientService.getReceivedMessages(
+            since, filter, Math.max(1, Math.min(limit, MAX_MESSAGES_LIMIT)));
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("messages", messages);
+        // 没有匹配的消息时游标直接移到最新序号，下次不再扫描这一段
+        response.put("next", messages.isEmpty() ? Math.max(since, last)
+            : messages.get(messages.size() - 1).getSequence());
+        response.put("oldest", oldest);
+        response.put("truncated", since + 1 < oldest);
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * 以SSE推送匹配主题过滤器（逗号分隔）的消息和设备增量更新，取代轮询 /messages 和 /devices。
+     * 事件名为 message 或 device，数据为JSON；连接建立后先推送当前状态
+     */
+    @GetMapping(path = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> stream(@RequestParam(defaultValue = "#") String topics) {
+        List<TopicFilter> filters = new ArrayList<>();
+        for (String topic : topics.split(",")) {
+            String filter = topic.trim();
+            if (!TopicFilter.isValid(filter)) {
+                return ResponseEntity.badRequest().build();
+            }
+            filters.add(TopicFilter.compile(filter));
+        }
+        SseEmitter emitter = dashboardStreamService.open(filters);
+        if (emitter == null) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+        return ResponseEntity.ok(emitter);
+    }
+
+    /**
+     * 获取Broker上单个客户端的会话状态
+     */
+    @GetMapping("/sessions/{clientId}")
+    public ResponseEntity<Map<String, Object>> getSession(@PathVariable String clientId) {
+        Map<String, Object> session = mqttMessageHandler.getSessionInfo(clientId);
+        if (session != null) {
+            return ResponseEntity.ok(session);
+        } else {
+            return ResponseEntity.notFound().build();
+        }
     }
 
     /**
@@ -133,7 +220,7 @@ public class MqttController {
         
         log.info("发送消息给客户端 - 客户端ID: {}, 主题: {}, 内容: {}", clientId, topic, payload);
         
-        boolean success = MqttMessageHandler.sendMessageToClient(clientId, topic, payload);
+        boolean success = mqttMessageHandler.sendMessageToClient(clientId, topic, payload);
         
         Map<String, Object> response = new HashMap<>();
         response.put("success", success);
@@ -166,6 +253,71 @@ public class MqttController {
         }
     }
 
+    /**
+     * 查询设备历史数据：from/to为epoch毫秒，默认最近1小时；
+     * 返回的next非空时保持from/to不变、以它作为cursor继续查询。采样按写入顺序返回，时间戳不一定递增，
+     * 所以游标是采样的写入序号而不是时间戳
+     */
+    @GetMapping("/devices/{deviceId}/history")
+    public ResponseEntity<Map<String, Object>> getDeviceHistory(
+            @PathVariable String deviceId,
+            @RequestParam(required = false) Long from,
+            @RequestParam(required = false) Long to,
+            @RequestParam(defaultValue = "0") long cursor,
+            @RequestParam(defaultValue = "1000") int limit) {
+        long end = to != null ? to : System.currentTimeMillis();
+        long start = from != null ? from : end - TimeUnit.HOURS.toMillis(1);
+        if (start > end) {
+            return ResponseEntity.badRequest().build();
+        }
+        int max = Math.max(1, Math.min(limit, MAX_HISTORY_LIMIT));
+        // 多取一条判断是否还有后续
+        List<HistorySample> samples = deviceDataService.getDeviceHistory(deviceId, start, end, cursor, max + 1);
+        boolean truncated = samples.size() > max;
+        Map<String, Object> response = new HashMap<>();
+        response.put("device_id", deviceId);
+        response.put("from", start);
+        response.put("to", end);
+        response.put("samples", truncated ? samples.subList(0, max) : samples);
+        response.put("truncated", truncated);
+        response.put("next", truncated ? samples.get(max).getSequence() : null);
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * 获取设备最近1分钟/1小时/1天的温湿度最小值、最大值、平均值（滑动窗口与滚动窗口）
+     */
+    @GetMapping("/devices/{deviceId}/aggregates")
+    public ResponseEntity<Map<String, Object>> getDeviceAggregates(@PathVariable String deviceId) {
+        Map<String, Object> aggregates = deviceDataService.getDeviceAggregates(deviceId);
+        if (aggregates != null) {
+            return ResponseEntity.ok(aggregates);
+        } else {
+            return ResponseEntity.notFound().build();
+        }
+    }
+
+    /**
+     * 获取全部设备类型的温湿度聚合
+     */
+    @GetMapping("/aggregates/types")
+    public ResponseEntity<Map<String, Object>> getTypeAggregates() {
+        return ResponseEntity.ok(deviceDataService.getAllTypeAggregates());
+    }
+
+    /**
+     * 获取指定设备类型的温湿度聚合
+     */
+    @GetMapping("/aggregates/types/{deviceType}")
+    public ResponseEntity<Map<String, Object>> getTypeAggregates(@PathVariable String deviceType) {
+        Map<String, Object> aggregates = deviceDataService.getTypeAggregates(deviceType);
+        if (aggregates != null) {
+            return ResponseEntity.ok(aggregates);
+        } else {
+            return ResponseEntity.notFound().build();
+        }
+    }
+
     /**
      * 手动发送设备数据
      */
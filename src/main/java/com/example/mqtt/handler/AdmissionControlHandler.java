@@ -0,0 +1,131 @@
+package com.example.mqtt.handler;
+
+import com.example.mqtt.broker.ConnectionAdmission;
+import com.example.mqtt.broker.ReadPause;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.mqtt.MqttConnAckMessage;
+import io.netty.handler.codec.mqtt.MqttConnAckVariableHeader;
+import io.netty.handler.codec.mqtt.MqttConnectMessage;
+import io.netty.handler.codec.mqtt.MqttConnectReturnCode;
+import io.netty.handler.codec.mqtt.MqttFixedHeader;
+import io.netty.handler.codec.mqtt.MqttMessage;
+import io.netty.handler.codec.mqtt.MqttMessageType;
+import io.netty.handler.codec.mqtt.MqttQoS;
+import io.netty.handler.codec.mqtt.MqttVersion;
+import io.netty.util.ReferenceCountUtil;
+import lombok.extern.slf4j.Slf4j;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 连接准入处理器，每个连接一个实例，放在解码器之后、消息处理器之前
+ * <p>
+ * TCP连接建立时检查半开连接上限，超过直接关闭；收到CONNECT时按全局和源IP令牌桶判断是否接入。
+ * 被拒绝的连接停止读取，延迟一段带随机抖动的时间后才回复拒绝的CONNACK并关闭，
+ * 立即重试的客户端被迫退避，重连风暴被摊开而不是在几秒内反复冲击。
+ * <p>
+ * 接入之前只处理CONNECT：CONNECT之前的其他报文释放并关闭连接，拒绝之后到达的报文直接释放，都不会到达消息处理器。
+ */
+@Slf4j
+public class AdmissionControlHandler extends ChannelInboundHandlerAdapter {
+
+    private final ConnectionAdmission admission;
+    private final long rejectDelayMillis;
+    // 连接仍计入半开连接数
+    private boolean pending;
+
+    /**
+     * @param rejectDelayMillis 拒绝前的平均延迟，实际延迟在其0.5到1.5倍之间随机
+     */
+    public AdmissionControlHandler(ConnectionAdmission admission, long rejectDelayMillis) {
+        this.admission = admission;
+        this.rejectDelayMillis = rejectDelayMillis;
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        if (!admission.opened()) {
+            // 还没有CONNECT可以回复，直接关闭
+            log.debug("半开连接已达上限，关闭新连接: {}", ctx.channel().remoteAddress());
+            ctx.close();
+            return;
+        }
+        pending = true;
+        super.channelActive(ctx);
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (msg instanceof MqttMessage && ((MqttMessage) msg).decoderResult().isFailure()) {
+            // 解码失败（包括不支持的协议版本）由消息处理器回复并断开
+            super.channelRead(ctx, msg);
+            return;
+        }
+        if (!(msg instanceof MqttConnectMessage) || !pending) {
+            // 接入成功后本处理器已移除，到这里的是CONNECT之前的报文或被拒绝后仍在读取批次中的报文
+            ReferenceCountUtil.release(msg);
+            if (pending) {
+                log.debug("CONNECT之前收到其他报文，关闭连接: {}", ctx.channel().remoteAddress());
+                ctx.close();
+            }
+            return;
+        }
+        settle();
+        ConnectionAdmission.Decision decision = admission.admit(sourceOf(ctx.channel().remoteAddress()));
+        if (decision == ConnectionAdmission.Decision.ACCEPT) {
+            // 接入后不再需要准入检查
+            ctx.pipeline().remove(this);
+            ctx.fireChannelRead(msg);
+            return;
+        }
+        // MQTT 5有专门的限流原因码，3.1/3.1.1只能回复“服务不可用”
+        boolean mqtt5 = ((MqttConnectMessage) msg).variableHeader().version() == MqttVersion.MQTT_5.protocolLevel();
+        ReferenceCountUtil.release(msg);
+        reject(ctx, decision, mqtt5
+            ? MqttConnectReturnCode.CONNECTION_REFUSED_CONNECTION_RATE_EXCEEDED
+            : MqttConnectReturnCode.CONNECTION_REFUSED_SERVER_UNAVAILABLE);
+    }
+
+    private void reject(ChannelHandlerContext ctx, ConnectionAdmission.Decision decision,
+                        MqttConnectReturnCode returnCode) {
+        ReadPause.pause(ctx.channel(), ReadPause.ADMISSION);
+        long delay = rejectDelayMillis <= 0 ? 0
+            : ThreadLocalRandom.current().nextLong(rejectDelayMillis / 2, rejectDelayMillis * 3 / 2 + 1);
+        log.debug("拒绝连接: {}, 原因: {}, {}ms后回复", ctx.channel().remoteAddress(), decision, delay);
+        ctx.executor().schedule(() -> {
+            if (!ctx.channel().isActive()) {
+                return;
+            }
+            MqttConnAckMessage connAck = new MqttConnAckMessage(
+                new MqttFixedHeader(MqttMessageType.CONNACK, false, MqttQoS.AT_MOST_ONCE, false, 0),
+                new MqttConnAckVariableHeader(returnCode, false));
+            ctx.writeAndFlush(connAck).addListener(ChannelFutureListener.CLOSE);
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        settle();
+        super.channelInactive(ctx);
+    }
+
+    private void settle() {
+        if (pending) {
+            pending = false;
+            admission.settled();
+        }
+    }
+
+    private static String sourceOf(SocketAddress address) {
+        if (address instanceof InetSocketAddress) {
+            InetSocketAddress inet = (InetSocketAddress) address;
+            return inet.getAddress() != null ? inet.getAddress().getHostAddress() : inet.getHostString();
+        }
+        return String.valueOf(address);
+    }
+}
@@ -1,37 +1,294 @@
 package com.example.mqtt.handler;
 
+import com.example.mqtt.broker.BuiltinSharedSubscriptionStrategy;
+import com.example.mqtt.broker.FanOutBatch;
+import com.example.mqtt.broker.InflightWindow;
+import com.example.mqtt.broker.LoopMailbox;
+import com.example.mqtt.broker.OfflineMessageStore;
+import com.example.mqtt.broker.PublishRateLimiter;
+import com.example.mqtt.broker.RateLimitAction;
+import com.example.mqtt.broker.ReadPause;
+import com.example.mqtt.broker.RetainedMessageStore;
+import com.example.mqtt.broker.RetainedMessageStore.RetainedMessage;
+import com.example.mqtt.broker.Session;
+import com.example.mqtt.broker.SessionRegistry;
+import com.example.mqtt.broker.SharedSubscriptionGroup;
+import com.example.mqtt.broker.SharedSubscriptionStrategy;
+import com.example.mqtt.broker.SlowConsumerPolicy;
+import com.example.mqtt.broker.SubscriberQueue;
+import com.example.mqtt.broker.SubscriptionTrie;
+import com.example.mqtt.broker.TopicFilter;
+import com.example.mqtt.cluster.ClusterNode;
+import com.example.mqtt.metrics.BrokerMetrics;
+import com.example.mqtt.pipeline.PublishPipeline;
+import com.example.mqtt.trace.MessageTracer;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelOutboundBuffer;
 import io.netty.handler.codec.mqtt.*;
 import io.netty.util.AttributeKey;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.FastThreadLocal;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.Set;
-import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * MQTT消息处理器
+ * <p>
+ * 一个实例就是一个Broker：会话注册表、主题树、保留消息等状态都属于实例，
+ * 各连接共享同一个实例，连接自身的状态保存在挂在Channel属性上的 {@link Session} 中。
+ * 同一JVM内可以创建多个实例组成互不干扰的多个Broker（如集群测试）。
  */
 @Slf4j
 @Component
+@ChannelHandler.Sharable
 public class MqttMessageHandler extends ChannelInboundHandlerAdapter {
 
-    private static final AttributeKey<String> CLIENT_ID = AttributeKey.valueOf("clientId");
-    private static final ConcurrentHashMap<String, ChannelHandlerContext> clients = new ConcurrentHashMap<>();
-    private static final ConcurrentHashMap<String, Set<String>> subscriptions = new ConcurrentHashMap<>(); // clientId -> topics
-    private static final AtomicInteger messageIdCounter = new AtomicInteger(1);
+    private static final AttributeKey<Session> SESSION = AttributeKey.valueOf("session");
+    private static final AttributeKey<InboundStream> INBOUND_STREAM = AttributeKey.valueOf("inboundStream");
+    // 所有会话共用一个时间轮驱动QoS 1/2重传，每个会话最多挂一个定时任务，不为单条消息创建定时器
+    private static final HashedWheelTimer retransmitTimer =
+        new HashedWheelTimer(new DefaultThreadFactory("mqtt-retransmit", true), 100, TimeUnit.MILLISECONDS);
+    private static final long SESSION_EXPIRY_CHECK_SECONDS = 1;
+    private static final int SESSION_REGISTRY_SHARDS = 16;
+    // 一轮排空最多处理的批次数，超过后让出事件循环处理I/O
+    private static final int MAILBOX_MAX_DRAIN = 64;
+    // 每个线程复用一份匹配结果容器，发布时不再为每条消息分配HashMap和ArrayList
+    private static final FastThreadLocal<MatchScratch> MATCH_SCRATCH = new FastThreadLocal<>() {
+        @Override
+        protected MatchScratch initialValue() {
+            return new MatchScratch();
+        }
+    };
+
+    // clientId -> 当前会话（在线或离线的持久会话），只在连接、断开时查找
+    private final SessionRegistry sessions = new SessionRegistry(SESSION_REGISTRY_SHARDS);
+    private final AtomicInteger connectedClients = new AtomicInteger();
+    // 主题树直接保存会话引用，转发时不再按clientId查找
+    private final SubscriptionTrie<Session> subscriptionTrie = new SubscriptionTrie<>(Session::getClientId);
+    private final RetainedMessageStore retainedMessages = new RetainedMessageStore();
+    private volatile SharedSubscriptionStrategy sharedSubscriptionStrategy = BuiltinSharedSubscriptionStrategy.ROUND_ROBIN;
+    private volatile int maxInflightMessages = 32;
+    private volatile long retryIntervalMillis = 10_000;
+
+    private final LongAdder slowConsumerDropped = new LongAdder();
+    private final LongAdder slowConsumerQueued = new LongAdder();
+    private final LongAdder slowConsumerDisconnects = new LongAdder();
+    private volatile SlowConsumerPolicy slowConsumerPolicy = SlowConsumerPolicy.QUEUE;
+    private volatile int maxQueuedMessages = 1000;
+
+    // 离线的持久会话仍留在注册表和主题树中，直到过期或被新连接接管
+    private volatile OfflineMessageStore offlineStore;
+    private volatile long sessionExpiryMillis = TimeUnit.HOURS.toMillis(2);
+
+    // 集群节点，单机模式为null
+    private volatile ClusterNode clusterNode;
+
+    // 热路径指标，未接入注册表时为空操作
+    private volatile BrokerMetrics metrics = BrokerMetrics.NOOP;
+
+    // 发布限流，未启用时为null
+    private volatile PublishRateLimiter rateLimiter;
+    private final LongAdder rateLimitDropped = new LongAdder();
+    private final LongAdder rateLimitDelayed = new LongAdder();
+    private final LongAdder rateLimitDisconnects = new LongAdder();
+
+    // 采样消息追踪，取代逐条消息的日志，未配置时为null
+    private volatile MessageTracer tracer;
+
+    // 业务处理管道，没有注册业务处理器时为null
+    private volatile PublishPipeline publishPipeline;
+
+    // 每个事件循环一个投递信箱，转发给其他循环上会话的消息按目标循环打包后经信箱交出
+    private final Map<EventExecutor, LoopMailbox<FanOutBatch>> loopMailboxes = new ConcurrentHashMap<>();
+    private volatile boolean crossLoopBatching = true;
+    private final LongAdder directDeliveries = new LongAdder();
+    private final LongAdder handedOffDeliveries = new LongAdder();
+    private final LongAdder handedOffBatches = new LongAdder();
+
+    // 流式PUBLISH：payload超过阈值的消息边收边转发给订阅者，不在内存中聚合
+    private final LongAdder streamedMessages = new LongAdder();
+    private final LongAdder streamedBytes = new LongAdder();
+    private final LongAdder streamSkippedSubscribers = new LongAdder();
+    private final LongAdder streamsAborted = new LongAdder();
+    private final LongAdder streamPauses = new LongAdder();
+
+    /**
+     * 配置慢消费者处理策略
+     */
+    public void configureSlowConsumer(SlowConsumerPolicy policy, int maxQueued) {
+        slowConsumerPolicy = policy;
+        maxQueuedMessages = maxQueued;
+    }
+
+    /**
+     * 配置跨事件循环转发：开启时发给其他循环上会话的消息按目标循环打包，每个循环只提交一次任务；
+     * 关闭时逐个会话直接写出，由Netty为每次跨线程写各提交一个任务
+     */
+    public void configureFanOut(boolean crossLoopBatching) {
+        this.crossLoopBatching = crossLoopBatching;
+    }
+
+    /**
+     * 配置QoS 1/2投递：每个会话的飞行窗口大小及未确认消息的重传间隔
+     */
+    public void configureDelivery(int maxInflight, long retryInterval) {
+        maxInflightMessages = maxInflight;
+        retryIntervalMillis = retryInterval;
+    }
+
+    /**
+     * 配置共享订阅的成员选择策略
+     */
+    public void configureSharedSubscriptions(SharedSubscriptionStrategy strategy) {
+        sharedSubscriptionStrategy = strategy;
+    }
+
+    /**
+     * 配置持久会话：离线消息存储及离线会话的过期时间，store为null时所有会话按cleanSession=true处理
+     */
+    public void configurePersistence(OfflineMessageStore store, long expiryMillis) {
+        offlineStore = store;
+        sessionExpiryMillis = expiryMillis;
+        if (store != null) {
+            scheduleSessionExpiry(store);
+        } else {
+            sessions.forEach(session -> {
+                if (session.getExpireAt() != 0 && sessions.remove(session)) {
+                    removeSubscriptions(session);
+                }
+            });
+        }
+    }
+
+    /**
+     * 配置集群节点：把已有的本地订阅过滤器同步给节点，之后订阅变化和本地发布都经由节点路由，null表示退出集群
+     */
+    public void configureCluster(ClusterNode node) {
+        clusterNode = node;
+        if (node != null) {
+            sessions.forEach(session -> session.getSubscriptions().keySet().forEach(node::subscribe));
+        }
+    }
+
+    /**
+     * 配置指标：热路径计量器由BrokerMetrics预先注册，这里补充只在采集时计算的Gauge
+     */
+    public void configureMetrics(BrokerMetrics brokerMetrics) {
+        brokerMetrics.gauge("mqtt.connections.active", "当前在线连接数", connectedClients, AtomicInteger::get);
+        brokerMetrics.gauge("mqtt.sessions", "会话数（含离线的持久会话）", sessions, SessionRegistry::size);
+        brokerMetrics.gauge("mqtt.write.buffer.pending.bytes", "所有连接写缓冲中尚未写出的字节数",
+            this, MqttMessageHandler::pendingWriteBytes);
+        metrics = brokerMetrics;
+    }
+
+    private double pendingWriteBytes() {
+        LongAdder pending = new LongAdder();
+        sessions.forEach(session -> {
+            ChannelHandlerContext ctx = session.getContext();
+            ChannelOutboundBuffer buffer = ctx != null ? ctx.channel().unsafe().outboundBuffer() : null;
+            if (buffer != null) {
+                pending.add(buffer.totalPendingWriteBytes());
+            }
+        });
+        return pending.sum();
+    }
+
+    /**
+     * 配置发布限流，null表示不限流。只对之后建立的连接生效会话级限额，主题前缀限额立即生效
+     */
+    public void configureRateLimit(PublishRateLimiter limiter) {
+        rateLimiter = limiter;
+    }
+
+    /**
+     * 配置消息追踪，null表示不追踪
+     */
+    public void configureTracing(MessageTracer messageTracer) {
+        tracer = messageTracer;
+    }
+
+    /**
+     * 配置业务处理管道：收到的PUBLISH在转发之后放入管道，由业务线程处理，null表示不做业务处理
+     */
+    public void configurePipeline(PublishPipeline pipeline) {
+        publishPipeline = pipeline;
+    }
+
+    /**
+     * 投递其他节点转发来的消息，只发给本地订阅者，不再转发回集群。调用方仍持有payload的所有权
+     */
+    public void deliverFromCluster(String topic, ByteBuf payload, MqttQoS qos, boolean retain) {
+        if (retain) {
+            retainedMessages.put(topic, payload, qos);
+        }
+        forwardMessageToSubscribers(topic, payload, qos);
+    }
 
     @Override
     public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        try {
+            dispatch(ctx, msg);
+        } finally {
+            // PUBLISH的payload在转发时以引用计数共享，处理完毕后统一释放
+            ReferenceCountUtil.release(msg);
+        }
+    }
+
+    private void dispatch(ChannelHandlerContext ctx, Object msg) {
+        if (msg instanceof PublishStreamStart || msg instanceof PublishStreamChunk) {
+            Session session = ctx.channel().attr(SESSION).get();
+            if (session == null || session.isReplaced()) {
+                return;
+            }
+            if (msg instanceof PublishStreamStart) {
+                handleStreamStart(ctx, session, (PublishStreamStart) msg);
+            } else {
+                handleStreamChunk(ctx, session, (PublishStreamChunk) msg);
+            }
+            return;
+        }
         if (msg instanceof MqttMessage) {
             MqttMessage mqttMessage = (MqttMessage) msg;
+            if (mqttMessage.decoderResult().isFailure()) {
+                handleDecoderFailure(ctx, mqttMessage.decoderResult().cause());
+                return;
+            }
             MqttFixedHeader fixedHeader = mqttMessage.fixedHeader();
-            
-            log.debug("接收到MQTT消息, 类型: {}, 客户端: {}", 
-                fixedHeader.messageType(), getClientId(ctx));
+
+            if (log.isDebugEnabled()) {
+                log.debug("接收到MQTT消息, 类型: {}, 客户端: {}", fixedHeader.messageType(), getClientId(ctx));
+            }
+
+            // 已被同一clientId的新连接接管的旧连接正在关闭，后续报文不再处理
+            Session session = ctx.channel().attr(SESSION).get();
+            if (session != null && session.isReplaced()) {
+                return;
+            }
+            // CONNECT之前只允许CONNECT，否则客户端可以绕过连接准入直接发布
+            if (session == null && fixedHeader.messageType() != MqttMessageType.CONNECT) {
+                log.warn("未连接的客户端发送{}，关闭连接: {}", fixedHeader.messageType(), ctx.channel().remoteAddress());
+                ctx.close();
+                return;
+            }
 
             switch (fixedHeader.messageType()) {
                 case CONNECT:
@@ -40,6 +297,18 @@ public class MqttMessageHandler extends ChannelInboundHandlerAdapter {
                 case PUBLISH:
                     handlePublish(ctx, mqttMessage);
                     break;
+                case PUBACK:
+                    handlePubAck(ctx, mqttMessage);
+                    break;
+                case PUBREC:
+                    handlePubRec(ctx, mqttMessage);
+                    break;
+                case PUBREL:
+                    handlePubRel(ctx, mqttMessage);
+                    break;
+                case PUBCOMP:
+                    handlePubComp(ctx, mqttMessage);
+                    break;
                 case SUBSCRIBE:
                     handleSubscribe(ctx, mqttMessage);
                     break;
@@ -59,6 +328,211 @@ public class MqttMessageHandler extends ChannelInboundHandlerAdapter {
         }
     }
 
+    /**
+     * 处理解码失败的报文：CONNECT阶段的错误回复对应的CONNACK返回码，其他错误（报文超长、格式错误）直接断开。
+     * 解码器出错后不再解析该连接的后续字节，连接无法继续使用
+     */
+    private void handleDecoderFailure(ChannelHandlerContext ctx, Throwable cause) {
+        MqttConnectReturnCode returnCode = null;
+        if (cause instanceof MqttIdentifierRejectedException) {
+            returnCode = MqttConnectReturnCode.CONNECTION_REFUSED_IDENTIFIER_REJECTED;
+        } else if (cause instanceof MqttUnacceptableProtocolVersionException) {
+            returnCode = MqttConnectReturnCode.CONNECTION_REFUSED_UNACCEPTABLE_PROTOCOL_VERSION;
+        }
+        log.warn("MQTT报文解码失败，断开连接: {}, 地址: {}, 原因: {}",
+            getClientId(ctx), ctx.channel().remoteAddress(), cause.toString());
+        if (returnCode != null) {
+            MqttConnAckMessage connAck = new MqttConnAckMessage(
+                new MqttFixedHeader(MqttMessageType.CONNACK, false, MqttQoS.AT_MOST_ONCE, false, 0),
+                new MqttConnAckVariableHeader(returnCode, false));
+            ctx.writeAndFlush(connAck).addListener(ChannelFutureListener.CLOSE);
+        } else {
+            ctx.close();
+        }
+    }
+
+    /**
+     * 开始接收流式PUBLISH：选出订阅者并各写出一个QoS 0的PUBLISH报文头，payload分段到达后直接跟在后面写出。
+     * 正在接收其他流的订阅者、写缓冲已满或离线的订阅者跳过本条消息。
+     * 流式消息只有QoS 0、非保留的PUBLISH，只转发给本节点的订阅者，不转发到集群
+     */
+    private void handleStreamStart(ChannelHandlerContext ctx, Session session, PublishStreamStart start) {
+        long startNanos = System.nanoTime();
+        String topic = start.getTopic();
+        if (topic.isEmpty() || topic.indexOf('+') >= 0 || topic.indexOf('#') >= 0) {
+            log.warn("非法的发布主题，断开连接: {}, 主题: {}", session.getClientId(), topic);
+            ctx.close();
+            return;
+        }
+        BrokerMetrics brokerMetrics = metrics;
+        brokerMetrics.published(0);
+        session.recordPublished();
+        RateLimitAction limited = applyRateLimit(ctx, session, topic, start.getPayloadLength(), brokerMetrics);
+        if (limited == RateLimitAction.DISCONNECT) {
+            return;
+        }
+        InboundStream stream = new InboundStream(ctx.channel(), start, startNanos);
+        ctx.channel().attr(INBOUND_STREAM).set(stream);
+        if (limited == RateLimitAction.DROP) {
+            return;
+        }
+
+        byte[] topicBytes = topic.getBytes(StandardCharsets.UTF_8);
+        ByteBuf header = ctx.alloc().buffer(7 + topicBytes.length);
+        header.writeByte(MqttMessageType.PUBLISH.value() << 4);
+        int remainingLength = 2 + topicBytes.length + start.getPayloadLength();
+        do {
+            int digit = remainingLength % 128;
+            remainingLength /= 128;
+            header.writeByte(remainingLength > 0 ? digit | 0x80 : digit);
+        } while (remainingLength > 0);
+        header.writeShort(topicBytes.length);
+        header.writeBytes(topicBytes);
+        // 流式消息不转发到集群，共享订阅组总在本地选择成员
+        MatchScratch scratch = matchSubscribers(topic, false);
+        try {
+            for (Session target : scratch.matched.keySet()) {
+                ChannelHandlerContext targetCtx = target.getContext();
+                if (targetCtx == null || !targetCtx.channel().isWritable() || !target.claimStream(stream)) {
+                    streamSkippedSubscribers.increment();
+                    continue;
+                }
+                stream.targets.add(target);
+                targetCtx.writeAndFlush(new StreamSegment(header.retainedDuplicate(), true, false));
+            }
+        } finally {
+            scratch.release();
+            header.release();
+        }
+    }
+
+    /**
+     * 把流式PUBLISH的一段payload写给各订阅者，最后一段写出后释放订阅者。
+     * 有订阅者的写缓冲超过高水位时暂停读取发布者的连接，所有订阅者恢复可写后继续，
+     * 慢订阅者缓冲的数据不超过高水位加上一次读取的字节数
+     */
+    private void handleStreamChunk(ChannelHandlerContext ctx, Session session, PublishStreamChunk chunk) {
+        InboundStream stream = ctx.channel().attr(INBOUND_STREAM).get();
+        if (stream == null) {
+            return;
+        }
+        boolean blocked = false;
+        for (Session target : stream.targets) {
+            Channel targetChannel = target.getContext().channel();
+            target.getContext().writeAndFlush(
+                new StreamSegment(chunk.content().retainedDuplicate(), false, chunk.isLast()));
+            blocked |= targetChannel.isActive() && !targetChannel.isWritable();
+        }
+        if (!chunk.isLast()) {
+            if (blocked && ReadPause.pause(ctx.channel(), ReadPause.STREAM)) {
+                streamPauses.increment();
+            }
+            return;
+        }
+        ctx.channel().attr(INBOUND_STREAM).set(null);
+        ReadPause.resume(ctx.channel(), ReadPause.STREAM);
+        for (Session target : stream.targets) {
+            target.releaseStream(stream);
+        }
+        PublishStreamStart start = stream.start;
+        int forwarded = stream.targets.size();
+        if (forwarded > 0) {
+            streamedMessages.increment();
+            streamedBytes.add(start.getPayloadLength());
+        }
+        metrics.routed(forwarded, stream.startNanos);
+        MessageTracer messageTracer = tracer;
+        if (messageTracer != null && messageTracer.sampled(session.getClientId(), start.getTopic())) {
+            messageTracer.trace("STREAM", session.getClientId(), start.getTopic(), 0,
+                start.getPayloadLength(), forwarded);
+        }
+    }
+
+    /**
+     * 订阅者恢复可写或断开时，通知正在向它写出的流检查是否可以恢复读取发布者；
+     * 检查在发布者所属的事件循环中执行
+     */
+    private void streamTargetReady(Session target) {
+        Object owner = target.getStreamOwner();
+        if (owner instanceof InboundStream) {
+            InboundStream stream = (InboundStream) owner;
+            stream.publisher.eventLoop().execute(() -> resumeStreamIfWritable(stream));
+        }
+    }
+
+    private void resumeStreamIfWritable(InboundStream stream) {
+        if (stream.publisher.attr(INBOUND_STREAM).get() != stream) {
+            return;
+        }
+        for (Session target : stream.targets) {
+            Channel targetChannel = target.getContext().channel();
+            if (targetChannel.isActive() && !targetChannel.isWritable()) {
+                return;
+            }
+        }
+        ReadPause.resume(stream.publisher, ReadPause.STREAM);
+    }
+
+    /**
+     * 发布者在流式PUBLISH中途断开：订阅者已收到不完整的报文，只能关闭其连接
+     */
+    private void abortInboundStream(ChannelHandlerContext ctx) {
+        InboundStream stream = ctx.channel().attr(INBOUND_STREAM).getAndSet(null);
+        if (stream == null) {
+            return;
+        }
+        streamsAborted.increment();
+        for (Session target : stream.targets) {
+            target.releaseStream(stream);
+            log.warn("流式PUBLISH的发布者中途断开，关闭订阅者连接: {}, 主题: {}",
+                target.getClientId(), stream.start.getTopic());
+            target.getContext().close();
+        }
+    }
+
+    /**
+     * 检查发布限额，超限时执行配置的动作（断开时已关闭连接），返回执行的动作，未超限返回null
+     */
+    private RateLimitAction applyRateLimit(ChannelHandlerContext ctx, Session session, String topic, int bytes,
+                                           BrokerMetrics brokerMetrics) {
+        PublishRateLimiter limiter = rateLimiter;
+        if (limiter == null) {
+            return null;
+        }
+        long wait = limiter.check(session.getPublishQuota(), topic, bytes);
+        if (wait == 0) {
+            return null;
+        }
+        RateLimitAction action = limiter.getAction();
+        brokerMetrics.rateLimited(action);
+        switch (action) {
+            case DISCONNECT:
+                rateLimitDisconnects.increment();
+                log.warn("客户端超过发布限额，断开连接: {}", getClientId(ctx));
+                ctx.close();
+                break;
+            case DROP:
+                rateLimitDropped.increment();
+                break;
+            default:
+                rateLimitDelayed.increment();
+                pauseReading(ctx, wait);
+                break;
+        }
+        return action;
+    }
+
+    /**
+     * 暂停读取连接，等待发布令牌恢复后再继续，期间TCP窗口让客户端放慢发送
+     */
+    private void pauseReading(ChannelHandlerContext ctx, long waitNanos) {
+        Channel channel = ctx.channel();
+        if (ReadPause.pause(channel, ReadPause.RATE_LIMIT)) {
+            ctx.executor().schedule(() -> ReadPause.resume(channel, ReadPause.RATE_LIMIT),
+                waitNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
     /**
      * 处理连接请求
      */
@@ -66,77 +540,302 @@ public class MqttMessageHandler extends ChannelInboundHandlerAdapter {
         MqttConnectMessage connectMessage = (MqttConnectMessage) msg;
         MqttConnectPayload payload = connectMessage.payload();
         String clientId = payload.clientIdentifier();
+        boolean persistent = !connectMessage.variableHeader().isCleanSession() && offlineStore != null;
         
-        log.info("客户端连接: {}", clientId);
-        
-        // 保存客户端信息
-        ctx.channel().attr(CLIENT_ID).set(clientId);
-        clients.put(clientId, ctx);
+        log.info("客户端连接: {}, cleanSession: {}", clientId, !persistent);
+
+        // 创建会话并挂到连接上，同一clientId之前的会话（在线或离线）由新会话接管
+        Session session = new Session(clientId, ctx, mailboxOf(ctx.executor()), maxInflightMessages, persistent);
+        PublishRateLimiter limiter = rateLimiter;
+        if (limiter != null) {
+            session.setPublishQuota(limiter.newQuota());
+        }
+        ctx.channel().attr(SESSION).set(session);
+        connectedClients.incrementAndGet();
+        metrics.connected();
+        Session previous = sessions.register(session);
+        boolean sessionPresent = previous != null && takeOver(previous, session);
         
         // 发送连接确认
         MqttConnAckMessage connAckMessage = new MqttConnAckMessage(
             new MqttFixedHeader(MqttMessageType.CONNACK, false, MqttQoS.AT_MOST_ONCE, false, 0),
-            new MqttConnAckVariableHeader(MqttConnectReturnCode.CONNECTION_ACCEPTED, false)
+            new MqttConnAckVariableHeader(MqttConnectReturnCode.CONNECTION_ACCEPTED, sessionPresent)
         );
         
-        ctx.writeAndFlush(connAckMessage);
+        ctx.write(connAckMessage);
+        
+        // 排在CONNACK之后按顺序重放离线消息
+        if (sessionPresent) {
+            ctx.executor().execute(() -> drainPendingQueue(ctx));
+        }
+    }
+
+    /**
+     * 接管同一clientId的旧会话：旧连接仍在线时将其关闭；新旧都是持久会话时转交订阅关系，
+     * 否则清除旧会话的订阅和离线消息。返回是否存在可以恢复的会话（CONNACK的sessionPresent）
+     */
+    private boolean takeOver(Session previous, Session session) {
+        previous.markReplaced();
+        ChannelHandlerContext previousCtx = previous.getContext();
+        if (previousCtx != null && previousCtx.channel().isActive()) {
+            log.info("客户端ID重复，关闭旧连接: {}, 旧连接地址: {}",
+                previous.getClientId(), previousCtx.channel().remoteAddress());
+            previousCtx.close();
+        }
+        if (previous.isPersistent() && session.isPersistent()) {
+            // 入站QoS 1/2的报文标识符属于会话状态：重连后重发的DUP消息不能再次转发
+            session.inheritInboundState(previous);
+            // 先以新会话订阅再移除旧会话，集群摘要的引用计数保持不变
+            previous.getSubscriptions().forEach((filter, qos) -> {
+                session.getSubscriptions().put(filter, qos);
+                subscriptionTrie.subscribe(filter, session, qos);
+                subscriptionTrie.unsubscribe(filter, previous);
+            });
+            previous.getSubscriptions().clear();
+            return true;
+        }
+        removeSubscriptions(previous);
+        OfflineMessageStore store = offlineStore;
+        if (previous.isPersistent() && store != null) {
+            store.discard(previous.getClientId());
+        }
+        return false;
     }
 
     /**
      * 处理发布消息
      */
     private void handlePublish(ChannelHandlerContext ctx, MqttMessage msg) {
+        // 解码器在同一次读事件中刚刚产出这条消息，从这里开始计算路由耗时
+        long startNanos = System.nanoTime();
         MqttPublishMessage publishMessage = (MqttPublishMessage) msg;
         String topic = publishMessage.variableHeader().topicName();
-        byte[] payload = new byte[publishMessage.payload().readableBytes()];
-        publishMessage.payload().readBytes(payload);
-        String content = new String(payload);
+        ByteBuf payload = publishMessage.payload();
+        
+        MqttQoS qos = publishMessage.fixedHeader().qosLevel();
+        int packetId = publishMessage.variableHeader().packetId();
+        BrokerMetrics brokerMetrics = metrics;
+        brokerMetrics.published(qos.value());
         
-        log.info("收到发布消息 - 主题: {}, 内容: {}, 客户端: {}", 
-            topic, content, getClientId(ctx));
+        // 客户端未收到PUBACK而重发的QoS 1消息只回复确认，不再重复转发
+        // QoS 2消息在收到PUBREL之前，同一报文标识符的PUBLISH都视为重发
+        Session session = ctx.channel().attr(SESSION).get();
+        session.recordPublished();
+        boolean duplicate = session.recordInbound(qos, packetId, publishMessage.fixedHeader().isDup());
+        // 超过发布限额：丢弃、暂停读取或断开；重发的重复消息只回复确认，不消耗限额
+        RateLimitAction limited = duplicate ? null
+            : applyRateLimit(ctx, session, topic, payload.readableBytes(), brokerMetrics);
+        if (limited == RateLimitAction.DISCONNECT) {
+            return;
+        }
+        boolean dropped = limited == RateLimitAction.DROP;
         
-        // 转发消息给所有订阅了相关主题的客户端（包括发布者）
-        forwardMessageToSubscribers(topic, content);
+        // 转发消息给所有订阅了相关主题的客户端（包括发布者），payload不做复制
+        if (duplicate) {
+            log.debug("忽略重复的{}消息: 客户端={}, 报文标识符={}", qos, getClientId(ctx), packetId);
+        } else if (!dropped) {
+            // 保留消息替换该主题之前的保留消息，空payload表示清除
+            if (publishMessage.fixedHeader().isRetain()) {
+                retainedMessages.put(topic, payload, qos);
+            }
+            int forwarded = forwardMessageToSubscribers(topic, payload, qos);
+            // 只转发给有匹配订阅者的节点
+            ClusterNode cluster = clusterNode;
+            if (cluster != null) {
+                cluster.publish(topic, payload, qos, publishMessage.fixedHeader().isRetain());
+            }
+            brokerMetrics.routed(forwarded, startNanos);
+            // 逐条消息只做采样追踪，不写日志
+            MessageTracer messageTracer = tracer;
+            String clientId = session.getClientId();
+            if (messageTracer != null && messageTracer.sampled(clientId, topic)) {
+                messageTracer.trace("PUB", clientId, topic, qos.value(), payload.readableBytes(), forwarded);
+            }
+        }
         
-        // 这里可以添加业务逻辑处理
-        // 比如转发给订阅者、保存到数据库等
+        // 业务处理（保存到数据库等）交给业务线程，不占用事件循环；队列积压时暂停该连接的读取
+        PublishPipeline pipeline = publishPipeline;
+        if (pipeline != null && !duplicate && !dropped) {
+            pipeline.publish(ctx.channel(), session.getClientId(), topic, payload,
+                qos, publishMessage.fixedHeader().isRetain());
+        }
         
         // 如果QoS > 0，需要发送PUBACK
-        MqttQoS qos = publishMessage.fixedHeader().qosLevel();
         if (qos == MqttQoS.AT_LEAST_ONCE) {
             MqttPubAckMessage pubAckMessage = new MqttPubAckMessage(
                 new MqttFixedHeader(MqttMessageType.PUBACK, false, MqttQoS.AT_MOST_ONCE, false, 0),
-                MqttMessageIdVariableHeader.from(publishMessage.variableHeader().packetId())
+                MqttMessageIdVariableHeader.from(packetId)
             );
-            ctx.writeAndFlush(pubAckMessage);
+            ctx.write(pubAckMessage);
+        } else if (qos == MqttQoS.EXACTLY_ONCE) {
+            ctx.write(packetIdMessage(MqttMessageType.PUBREC, packetId));
         }
     }
 
+    /**
+     * 处理订阅者对QoS 1消息的确认：移出飞行窗口，并补发排队中的消息
+     */
+    private void handlePubAck(ChannelHandlerContext ctx, MqttMessage msg) {
+        Session session = ctx.channel().attr(SESSION).get();
+        if (session == null) {
+            return;
+        }
+        int packetId = ((MqttMessageIdVariableHeader) msg.variableHeader()).messageId();
+        if (session.getInflightWindow().complete(packetId, InflightWindow.AWAIT_PUBACK)) {
+            drainPendingQueue(ctx);
+        } else {
+            log.debug("收到未知报文标识符的PUBACK: 客户端={}, 报文标识符={}", session.getClientId(), packetId);
+        }
+    }
+
+    /**
+     * 处理订阅者对QoS 2消息的接收确认：释放消息内容并回复PUBREL，窗口位置保留到PUBCOMP
+     */
+    private void handlePubRec(ChannelHandlerContext ctx, MqttMessage msg) {
+        Session session = ctx.channel().attr(SESSION).get();
+        if (session == null) {
+            return;
+        }
+        int packetId = ((MqttMessageIdVariableHeader) msg.variableHeader()).messageId();
+        if (session.getInflightWindow().received(packetId, System.nanoTime())) {
+            ctx.write(packetIdMessage(MqttMessageType.PUBREL, packetId));
+        } else {
+            log.debug("收到未知报文标识符的PUBREC: 客户端={}, 报文标识符={}", session.getClientId(), packetId);
+        }
+    }
+
+    /**
+     * 处理发布者对QoS 2消息的释放：清除待释放状态并回复PUBCOMP。
+     * 标识符未知时同样回复PUBCOMP，对应PUBCOMP丢失后客户端重发PUBREL的情况
+     */
+    private void handlePubRel(ChannelHandlerContext ctx, MqttMessage msg) {
+        Session session = ctx.channel().attr(SESSION).get();
+        int packetId = ((MqttMessageIdVariableHeader) msg.variableHeader()).messageId();
+        if (session != null) {
+            session.releaseInbound(packetId);
+        }
+        ctx.write(packetIdMessage(MqttMessageType.PUBCOMP, packetId));
+    }
+
+    /**
+     * 处理订阅者对QoS 2消息的完成确认：移出飞行窗口，并补发排队中的消息
+     */
+    private void handlePubComp(ChannelHandlerContext ctx, MqttMessage msg) {
+        Session session = ctx.channel().attr(SESSION).get();
+        if (session == null) {
+            return;
+        }
+        int packetId = ((MqttMessageIdVariableHeader) msg.variableHeader()).messageId();
+        if (session.getInflightWindow().complete(packetId, InflightWindow.AWAIT_PUBCOMP)) {
+            drainPendingQueue(ctx);
+        } else {
+            log.debug("收到未知报文标识符的PUBCOMP: 客户端={}, 报文标识符={}", session.getClientId(), packetId);
+        }
+    }
+
+    /**
+     * 构造只含报文标识符的确认报文，PUBREL的固定头QoS按协议要求为1
+     */
+    private static MqttMessage packetIdMessage(MqttMessageType type, int packetId) {
+        MqttQoS qos = type == MqttMessageType.PUBREL ? MqttQoS.AT_LEAST_ONCE : MqttQoS.AT_MOST_ONCE;
+        return new MqttMessage(
+            new MqttFixedHeader(type, false, qos, false, 0),
+            MqttMessageIdVariableHeader.from(packetId)
+        );
+    }
+
     /**
      * 处理订阅请求
      */
     private void handleSubscribe(ChannelHandlerContext ctx, MqttMessage msg) {
         MqttSubscribeMessage subscribeMessage = (MqttSubscribeMessage) msg;
-        String clientId = getClientId(ctx);
-        
-        log.info("客户端订阅请求: {}, 主题: {}", 
+        Session session = ctx.channel().attr(SESSION).get();
+        String clientId = session.getClientId();
+
+        log.info("客户端订阅请求: {}, 主题: {}",
             clientId, subscribeMessage.payload().topicSubscriptions());
-        
+
         // 记录订阅关系
-        Set<String> clientSubscriptions = subscriptions.computeIfAbsent(clientId, k -> ConcurrentHashMap.newKeySet());
+        Map<TopicFilter, MqttQoS> clientSubscriptions = session.getSubscriptions();
+        List<Integer> grantedQosLevels = new ArrayList<>();
+        List<TopicFilter> acceptedFilters = new ArrayList<>();
+        List<MqttQoS> acceptedQos = new ArrayList<>();
         subscribeMessage.payload().topicSubscriptions().forEach(subscription -> {
-            clientSubscriptions.add(subscription.topicName());
-            log.debug("记录订阅: 客户端={}, 主题={}", clientId, subscription.topicName());
+            String topicName = subscription.topicName();
+            MqttQoS grantedQos = subscription.qualityOfService();
+            if (TopicFilter.isValid(topicName)) {
+                TopicFilter filter = TopicFilter.compile(topicName);
+                // 重复订阅只更新QoS，集群摘要只在新增过滤器时变化
+                if (clientSubscriptions.put(filter, grantedQos) == null) {
+                    ClusterNode cluster = clusterNode;
+                    if (cluster != null) {
+                        cluster.subscribe(filter);
+                    }
+                }
+                subscriptionTrie.subscribe(filter, session, grantedQos);
+                grantedQosLevels.add(grantedQos.value());
+                acceptedFilters.add(filter);
+                acceptedQos.add(grantedQos);
+                log.debug("记录订阅: 客户端={}, 主题={}", clientId, topicName);
+            } else {
+                grantedQosLevels.add(MqttQoS.FAILURE.value());
+                log.warn("非法的订阅主题: 客户端={}, 主题={}", clientId, topicName);
+            }
         });
         
         // 发送订阅确认
         MqttSubAckMessage subAckMessage = new MqttSubAckMessage(
             new MqttFixedHeader(MqttMessageType.SUBACK, false, MqttQoS.AT_MOST_ONCE, false, 0),
             MqttMessageIdVariableHeader.from(subscribeMessage.variableHeader().messageId()),
-            new MqttSubAckPayload(MqttQoS.AT_LEAST_ONCE.value()) // 返回最大支持的QoS
+            new MqttSubAckPayload(grantedQosLevels)
         );
         
-        ctx.writeAndFlush(subAckMessage);
+        ctx.write(subAckMessage);
+        
+        // 紧跟SUBACK发送匹配的保留消息
+        deliverRetained(ctx, acceptedFilters, acceptedQos);
+    }
+
+    /**
+     * 向新订阅者投递匹配的保留消息（RETAIN=1），整批写入后只刷新一次
+     */
+    private void deliverRetained(ChannelHandlerContext ctx, List<TopicFilter> filters, List<MqttQoS> grantedQos) {
+        Session session = ctx.channel().attr(SESSION).get();
+        if (session == null || retainedMessages.size() == 0) {
+            return;
+        }
+        InflightWindow inflightWindow = session.getInflightWindow();
+        List<RetainedMessage> matched = new ArrayList<>();
+        int delivered = 0;
+        for (int i = 0; i < filters.size(); i++) {
+            // 共享订阅不发送保留消息
+            if (filters.get(i).isShared()) {
+                continue;
+            }
+            matched.clear();
+            retainedMessages.match(filters.get(i), matched);
+            for (RetainedMessage retained : matched) {
+                MqttQoS qos = retained.getQos().value() < grantedQos.get(i).value() ? retained.getQos() : grantedQos.get(i);
+                MqttPublishMessage publishMessage = new MqttPublishMessage(
+                    new MqttFixedHeader(MqttMessageType.PUBLISH, false, qos, true, 0),
+                    new MqttPublishVariableHeader(retained.getTopic(), 0),
+                    retained.getPayload()
+                );
+                boolean ready = ctx.channel().isWritable() && session.getPendingQueue().isEmpty();
+                if (qos == MqttQoS.AT_MOST_ONCE && ready) {
+                    ctx.write(publishMessage);
+                } else if (qos != MqttQoS.AT_MOST_ONCE && ready && !inflightWindow.isFull()) {
+                    sendInflight(ctx, session, publishMessage);
+                } else {
+                    handleSlowConsumer(ctx, session, publishMessage, qos);
+                }
+                delivered++;
+            }
+        }
+        if (delivered > 0) {
+            ctx.flush();
+            log.debug("发送保留消息: 客户端={}, 数量={}", session.getClientId(), delivered);
+        }
     }
 
     /**
@@ -144,9 +843,28 @@ public class MqttMessageHandler extends ChannelInboundHandlerAdapter {
      */
     private void handleUnsubscribe(ChannelHandlerContext ctx, MqttMessage msg) {
         MqttUnsubscribeMessage unsubscribeMessage = (MqttUnsubscribeMessage) msg;
-        
-        log.info("客户端取消订阅: {}, 主题: {}", 
-            getClientId(ctx), unsubscribeMessage.payload().topics());
+        Session session = ctx.channel().attr(SESSION).get();
+        if (session == null) {
+            log.warn("未连接的客户端发送取消订阅请求，关闭连接: {}", ctx.channel().remoteAddress());
+            ctx.close();
+            return;
+        }
+
+        log.info("客户端取消订阅: {}, 主题: {}",
+            session.getClientId(), unsubscribeMessage.payload().topics());
+
+        // 移除订阅关系
+        Map<TopicFilter, MqttQoS> clientSubscriptions = session.getSubscriptions();
+        for (String topicName : unsubscribeMessage.payload().topics()) {
+            if (!TopicFilter.isValid(topicName)) {
+                continue;
+            }
+            TopicFilter filter = TopicFilter.compile(topicName);
+            if (clientSubscriptions.remove(filter) != null) {
+                subscriptionTrie.unsubscribe(filter, session);
+                unsubscribeCluster(filter);
+            }
+        }
         
         // 发送取消订阅确认
         MqttUnsubAckMessage unsubAckMessage = new MqttUnsubAckMessage(
@@ -154,7 +872,7 @@ public class MqttMessageHandler extends ChannelInboundHandlerAdapter {
             MqttMessageIdVariableHeader.from(unsubscribeMessage.variableHeader().messageId())
         );
         
-        ctx.writeAndFlush(unsubAckMessage);
+        ctx.write(unsubAckMessage);
     }
 
     /**
@@ -167,33 +885,84 @@ public class MqttMessageHandler extends ChannelInboundHandlerAdapter {
             new MqttFixedHeader(MqttMessageType.PINGRESP, false, MqttQoS.AT_MOST_ONCE, false, 0)
         );
         
-        ctx.writeAndFlush(pingResp);
+        ctx.write(pingResp);
     }
 
     /**
      * 处理断开连接
      */
     private void handleDisconnect(ChannelHandlerContext ctx) {
-        String clientId = getClientId(ctx);
-        log.info("客户端断开连接: {}", clientId);
+        log.info("客户端断开连接: {}", getClientId(ctx));
         
-        if (clientId != null) {
-            clients.remove(clientId);
-        }
+        // 会话在channelInactive中统一清理或转为离线
         ctx.close();
     }
 
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
+        // 一批读事件中产生的应答（CONNACK、PUBACK、SUBACK、PINGRESP等）在此统一刷出
+        ctx.flush();
+        super.channelReadComplete(ctx);
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        // 写缓冲回落到低水位以下，发出排队中的消息，正在等待该连接的流式PUBLISH继续读取发布者
+        if (ctx.channel().isWritable()) {
+            drainPendingQueue(ctx);
+            Session session = ctx.channel().attr(SESSION).get();
+            if (session != null) {
+                streamTargetReady(session);
+            }
+        }
+        super.channelWritabilityChanged(ctx);
+    }
+
     @Override
     public void channelInactive(ChannelHandlerContext ctx) throws Exception {
-        String clientId = getClientId(ctx);
-        if (clientId != null) {
-            clients.remove(clientId);
-            subscriptions.remove(clientId); // 清理订阅关系
-            log.info("客户端连接断开: {}", clientId);
+        abortInboundStream(ctx);
+        Session session = ctx.channel().attr(SESSION).get();
+        if (session != null) {
+            streamTargetReady(session);
+            connectedClients.decrementAndGet();
+            metrics.disconnected();
+            closeSession(session);
+            session.close();
         }
         super.channelInactive(ctx);
     }
 
+    /**
+     * 连接断开后处理会话：持久会话保留订阅并把未送达的消息转入离线存储，
+     * 普通会话清理订阅并注销。已被接管的会话不会影响接管它的新会话
+     */
+    private void closeSession(Session session) {
+        String clientId = session.getClientId();
+        OfflineMessageStore store = offlineStore;
+        if (!session.isPersistent() || store == null) {
+            removeSubscriptions(session); // 清理订阅关系，被接管时可能已由新会话清理
+            sessions.remove(session);
+            log.info("客户端连接断开: {}", clientId);
+            return;
+        }
+        store.requeue(clientId, undeliveredMessages(session));
+        session.setExpireAt(System.currentTimeMillis() + sessionExpiryMillis);
+        Session current = sessions.get(clientId);
+        if (current == session) {
+            log.info("客户端连接断开，会话转为离线: {}, 离线消息: {}", clientId, store.size(clientId));
+        } else if (current != null && current.isPersistent()) {
+            // 接管的新会话可能已开始重放，补上刚转入的消息
+            ChannelHandlerContext currentCtx = current.getContext();
+            if (currentCtx != null) {
+                currentCtx.executor().execute(() -> drainPendingQueue(currentCtx));
+            }
+            log.info("会话已由新连接接管: {}, 离线消息: {}", clientId, store.size(clientId));
+        } else {
+            // 接管的新会话不保留状态，丢弃刚转入的消息
+            store.discard(clientId);
+        }
+    }
+
     @Override
     public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
         log.error("MQTT处理异常, 客户端: {}", getClientId(ctx), cause);
@@ -204,76 +973,684 @@ public class MqttMessageHandler extends ChannelInboundHandlerAdapter {
      * 获取客户端ID
      */
     private String getClientId(ChannelHandlerContext ctx) {
-        return ctx.channel().attr(CLIENT_ID).get();
+        Session session = ctx.channel().attr(SESSION).get();
+        return session != null ? session.getClientId() : null;
     }
 
     /**
      * 获取连接的客户端数量
      */
-    public static int getConnectedClientCount() {
-        return clients.size();
+    public int getConnectedClientCount() {
+        return connectedClients.get();
+    }
+
+    /**
+     * 获取单个会话的状态：订阅、在途与排队的消息数以及收发计数，会话不存在时返回null
+     */
+    public Map<String, Object> getSessionInfo(String clientId) {
+        Session session = sessions.get(clientId);
+        if (session == null) {
+            return null;
+        }
+        Map<String, Object> subscriptions = new HashMap<>();
+        session.getSubscriptions().forEach((filter, qos) -> subscriptions.put(filter.getFilter(), qos.value()));
+        Map<String, Object> result = new HashMap<>();
+        result.put("client_id", clientId);
+        result.put("online", session.isOnline());
+        result.put("persistent", session.isPersistent());
+        result.put("subscriptions", subscriptions);
+        result.put("inflight", session.getInflightWindow().size());
+        result.put("pending", session.getPendingQueue().size());
+        result.put("published", session.getPublished());
+        result.put("delivered", session.getDelivered());
+        return result;
     }
 
     /**
      * 向特定客户端发送消息
      */
-    public static boolean sendMessageToClient(String clientId, String topic, String payload) {
-        ChannelHandlerContext ctx = clients.get(clientId);
-        if (ctx != null && ctx.channel().isActive()) {
-            MqttPublishMessage publishMessage = new MqttPublishMessage(
-                new MqttFixedHeader(MqttMessageType.PUBLISH, false, MqttQoS.AT_MOST_ONCE, false, 0),
-                new MqttPublishVariableHeader(topic, messageIdCounter.getAndIncrement()),
-                ctx.alloc().buffer().writeBytes(payload.getBytes())
-            );
-            ctx.writeAndFlush(publishMessage);
-            return true;
+    public boolean sendMessageToClient(String clientId, String topic, String payload) {
+        ByteBuf content = Unpooled.wrappedBuffer(payload.getBytes(StandardCharsets.UTF_8));
+        try {
+            return sendMessageToClient(clientId, topic, content);
+        } finally {
+            content.release();
+        }
+    }
+
+    /**
+     * 向特定客户端发送消息，payload以引用计数共享，调用方仍持有原缓冲区的所有权
+     */
+    public boolean sendMessageToClient(String clientId, String topic, ByteBuf payload) {
+        return sendMessageToClient(clientId, topic, payload, MqttQoS.AT_MOST_ONCE);
+    }
+
+    /**
+     * 按投递QoS向客户端发送消息，连接不可写时按慢消费者策略处理
+     */
+    private boolean sendMessageToClient(String clientId, String topic, ByteBuf payload, MqttQoS qos) {
+        Session session = sessions.get(clientId);
+        return session != null && deliver(session, topic, payload, qos);
+    }
+
+    /**
+     * 按投递QoS向会话发送消息，转发路径直接持有会话引用
+     */
+    private boolean deliver(Session session, String topic, ByteBuf payload, MqttQoS qos) {
+        // 已被接管的会话由新会话接收
+        if (session.isReplaced()) {
+            return false;
+        }
+        ChannelHandlerContext ctx = session.getContext();
+        if (ctx == null || !ctx.channel().isActive()) {
+            // 离线的持久会话缓存QoS 1/2消息
+            return session.isPersistent() && storeOffline(session.getClientId(), topic, payload, qos);
+        }
+        session.recordDelivered();
+
+        // 每个订阅者只构造PUBLISH头，payload共享同一块内存
+        // QoS 1/2的报文标识符在真正发出时由会话分配
+        MqttPublishMessage publishMessage = new MqttPublishMessage(
+            new MqttFixedHeader(MqttMessageType.PUBLISH, false, qos, false, 0),
+            new MqttPublishVariableHeader(topic, 0),
+            payload.retainedDuplicate()
+        );
+
+        if (qos == MqttQoS.AT_MOST_ONCE) {
+            // 队列中还有积压时新消息也要排队，保证顺序
+            // 开启刷新合并时，目标连接同一轮事件循环内的多次flush会合并为一次
+            if (ctx.channel().isWritable() && session.getPendingQueue().isEmpty()) {
+                ctx.writeAndFlush(publishMessage);
+                return true;
+            }
+            return handleSlowConsumer(ctx, session, publishMessage, qos);
+        }
+
+        // 飞行窗口只在连接所属的事件循环中访问
+        if (ctx.executor().inEventLoop()) {
+            deliverReliably(ctx, session, publishMessage);
+        } else {
+            ctx.executor().execute(() -> deliverReliably(ctx, session, publishMessage));
+        }
+        return true;
+    }
+
+    /**
+     * 投递QoS 1/2消息：窗口有空位且连接可写时直接发出，否则按慢消费者策略排队
+     */
+    private void deliverReliably(ChannelHandlerContext ctx, Session session, MqttPublishMessage publishMessage) {
+        // 持久会话已断开或仍有离线消息未重放时，追加到离线存储以保证顺序；关闭时存储已被置空
+        OfflineMessageStore store = offlineStore;
+        if (!ctx.channel().isActive()
+            || (session.isPersistent() && store != null && store.hasMessages(session.getClientId()))) {
+            if (session.isPersistent()) {
+                storeOffline(session.getClientId(), publishMessage.variableHeader().topicName(),
+                    publishMessage.payload(), publishMessage.fixedHeader().qosLevel());
+            }
+            publishMessage.release();
+            drainPendingQueue(ctx);
+            return;
+        }
+        if (ctx.channel().isWritable() && session.getPendingQueue().isEmpty()
+            && !session.getInflightWindow().isFull()) {
+            sendInflight(ctx, session, publishMessage);
+            ctx.flush();
+            return;
+        }
+        handleSlowConsumer(ctx, session, publishMessage, publishMessage.fixedHeader().qosLevel());
+    }
+
+    /**
+     * 分配报文标识符、放入飞行窗口并发出；从离线存储恢复的在途消息沿用原报文标识符
+     */
+    private void sendInflight(ChannelHandlerContext ctx, Session session, MqttPublishMessage publishMessage) {
+        InflightWindow inflightWindow = session.getInflightWindow();
+        int packetId = publishMessage.variableHeader().packetId();
+        if (packetId == 0 || inflightWindow.contains(packetId)) {
+            packetId = inflightWindow.nextPacketId();
+        }
+        MqttPublishMessage inflight = new MqttPublishMessage(
+            publishMessage.fixedHeader(),
+            new MqttPublishVariableHeader(publishMessage.variableHeader().topicName(), packetId),
+            publishMessage.payload()
+        );
+        inflightWindow.add(packetId, inflight, System.nanoTime());
+        ctx.write(inflight.retainedDuplicate());
+        scheduleRetransmit(ctx, session);
+    }
+
+    private void scheduleRetransmit(ChannelHandlerContext ctx, Session session) {
+        if (session.isRetransmitScheduled()) {
+            return;
+        }
+        session.setRetransmitTimeout(retransmitTimer.newTimeout(
+            timeout -> ctx.executor().execute(() -> retransmit(ctx, session)),
+            retryIntervalMillis, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * 重发超过重传间隔仍未确认的消息（DUP=1），已收到PUBREC的QoS 2消息重发PUBREL，
+     * 窗口未清空时继续排定下一次检查
+     */
+    private void retransmit(ChannelHandlerContext ctx, Session session) {
+        session.retransmitFired();
+        if (!ctx.channel().isActive()) {
+            return;
+        }
+        InflightWindow inflightWindow = session.getInflightWindow();
+        long now = System.nanoTime();
+        long retryNanos = TimeUnit.MILLISECONDS.toNanos(retryIntervalMillis);
+        int resent = 0;
+        for (int i = 0; i < inflightWindow.size(); i++) {
+            if (now - inflightWindow.sentAt(i) < retryNanos) {
+                continue;
+            }
+            if (inflightWindow.stateAt(i) == InflightWindow.AWAIT_PUBCOMP) {
+                ctx.write(packetIdMessage(MqttMessageType.PUBREL, inflightWindow.packetIdAt(i)));
+            } else {
+                MqttPublishMessage inflight = inflightWindow.messageAt(i);
+                ctx.write(new MqttPublishMessage(
+                    new MqttFixedHeader(MqttMessageType.PUBLISH, true, inflight.fixedHeader().qosLevel(), false, 0),
+                    inflight.variableHeader(),
+                    inflight.payload().retainedDuplicate()
+                ));
+            }
+            inflightWindow.markSent(i, now);
+            resent++;
+        }
+        if (resent > 0) {
+            ctx.flush();
+            log.debug("重发未确认的消息: 客户端={}, 数量={}", session.getClientId(), resent);
+        }
+        if (!inflightWindow.isEmpty()) {
+            scheduleRetransmit(ctx, session);
+        }
+    }
+
+    /**
+     * 慢消费者处理：丢弃、排队或断开连接。
+     * 连接可写、只是队列中还有等待飞行窗口的消息时，QoS 0消息也排在后面，不算慢消费者
+     */
+    private boolean handleSlowConsumer(ChannelHandlerContext ctx, Session session,
+                                       MqttPublishMessage publishMessage, MqttQoS qos) {
+        SubscriberQueue pendingQueue = session.getPendingQueue();
+        SlowConsumerPolicy policy = slowConsumerPolicy;
+        if (policy == SlowConsumerPolicy.QUEUE && (qos != MqttQoS.AT_MOST_ONCE || ctx.channel().isWritable())) {
+            if (pendingQueue.offer(publishMessage, maxQueuedMessages)) {
+                slowConsumerQueued.increment();
+                // 入队期间连接可能已关闭或已恢复可写
+                if (!ctx.channel().isActive()) {
+                    pendingQueue.clear();
+                } else if (ctx.channel().isWritable()) {
+                    ctx.executor().execute(() -> drainPendingQueue(ctx));
+                }
+                return true;
+            }
+            log.warn("订阅者待发送队列已满，断开连接: 客户端={}, 队列长度={}", session.getClientId(), pendingQueue.size());
+            policy = SlowConsumerPolicy.DISCONNECT;
+        }
+
+        publishMessage.release();
+        if (policy == SlowConsumerPolicy.DISCONNECT) {
+            pendingQueue.recordDisconnect();
+            slowConsumerDisconnects.increment();
+            ctx.close();
+        } else {
+            pendingQueue.recordDrop();
+            slowConsumerDropped.increment();
         }
         return false;
     }
+
+    /**
+     * 在连接所属的事件循环中按顺序发出排队的消息，直到连接不可写，或下一条QoS 1/2消息遇到飞行窗口已满。
+     * 持久会话的内存队列发完后继续重放离线存储中的消息。
+     */
+    private void drainPendingQueue(ChannelHandlerContext ctx) {
+        Session session = ctx.channel().attr(SESSION).get();
+        if (session == null || !ctx.channel().isActive()) {
+            return;
+        }
+        SubscriberQueue pendingQueue = session.getPendingQueue();
+        InflightWindow inflightWindow = session.getInflightWindow();
+        OfflineMessageStore store = session.isPersistent() ? offlineStore : null;
+        boolean sent = false;
+        while (ctx.channel().isWritable()) {
+            MqttPublishMessage message = pendingQueue.peek();
+            if (message != null) {
+                boolean atMostOnce = message.fixedHeader().qosLevel() == MqttQoS.AT_MOST_ONCE;
+                if (!atMostOnce && inflightWindow.isFull()) {
+                    break;
+                }
+                pendingQueue.poll();
+                if (atMostOnce) {
+                    ctx.write(message);
+                } else {
+                    sendInflight(ctx, session, message);
+                }
+            } else {
+                MqttMessage stored = !inflightWindow.isFull() && store != null
+                    ? store.poll(session.getClientId(), ctx.alloc()) : null;
+                if (stored == null) {
+                    break;
+                }
+                resumeInflight(ctx, session, stored);
+            }
+            sent = true;
+        }
+        if (sent) {
+            ctx.flush();
+        }
+    }
+
+    /**
+     * 发出从离线存储取出的消息：PUBLISH正常进入飞行窗口，PUBREL对应只差PUBCOMP的QoS 2消息
+     */
+    private void resumeInflight(ChannelHandlerContext ctx, Session session, MqttMessage stored) {
+        if (stored instanceof MqttPublishMessage) {
+            sendInflight(ctx, session, (MqttPublishMessage) stored);
+            return;
+        }
+        int packetId = ((MqttMessageIdVariableHeader) stored.variableHeader()).messageId();
+        if (session.getInflightWindow().contains(packetId)) {
+            return;
+        }
+        session.getInflightWindow().addReleased(packetId, System.nanoTime());
+        ctx.write(stored);
+        scheduleRetransmit(ctx, session);
+    }
+
+    /**
+     * 追加离线消息，QoS 0消息不缓存
+     */
+    private boolean storeOffline(String clientId, String topic, ByteBuf payload, MqttQoS qos) {
+        OfflineMessageStore store = offlineStore;
+        return qos != MqttQoS.AT_MOST_ONCE && store != null && store.append(clientId, topic, qos, payload);
+    }
+
+    /**
+     * 收集会话中尚未完成投递的消息：飞行窗口中的消息（标记DUP，保留报文标识符）在前，待发送队列在后
+     */
+    private List<MqttMessage> undeliveredMessages(Session session) {
+        List<MqttMessage> undelivered = new ArrayList<>();
+        InflightWindow inflightWindow = session.getInflightWindow();
+        for (int i = 0; i < inflightWindow.size(); i++) {
+            if (inflightWindow.stateAt(i) == InflightWindow.AWAIT_PUBCOMP) {
+                undelivered.add(packetIdMessage(MqttMessageType.PUBREL, inflightWindow.packetIdAt(i)));
+            } else {
+                MqttPublishMessage inflight = inflightWindow.messageAt(i);
+                undelivered.add(new MqttPublishMessage(
+                    new MqttFixedHeader(MqttMessageType.PUBLISH, true, inflight.fixedHeader().qosLevel(), false, 0),
+                    inflight.variableHeader(),
+                    inflight.payload()
+                ));
+            }
+        }
+        // 只借用消息内容写入离线存储，会话关闭时统一释放；排队的QoS 0消息不保存
+        session.getPendingQueue().forEach(message -> {
+            if (message.fixedHeader().qosLevel() != MqttQoS.AT_MOST_ONCE) {
+                undelivered.add(message);
+            }
+        });
+        return undelivered;
+    }
+
+    /**
+     * 周期检查离线会话是否过期，存储被替换或关闭后停止
+     */
+    private void scheduleSessionExpiry(OfflineMessageStore store) {
+        retransmitTimer.newTimeout(timeout -> {
+            if (offlineStore == store) {
+                expireOfflineSessions(store);
+                scheduleSessionExpiry(store);
+            }
+        }, SESSION_EXPIRY_CHECK_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 清理超过过期时间仍未重连的离线会话：取消订阅并丢弃离线消息
+     */
+    private void expireOfflineSessions(OfflineMessageStore store) {
+        long now = System.currentTimeMillis();
+        sessions.forEach(session -> {
+            long expireAt = session.getExpireAt();
+            // 注销成功才清理，同时到来的重连会先一步接管会话
+            if (expireAt != 0 && expireAt <= now && sessions.remove(session)) {
+                removeSubscriptions(session);
+                store.discard(session.getClientId());
+                log.info("离线会话已过期: {}", session.getClientId());
+            }
+        });
+    }
+
+    /**
+     * 获取集群统计，单机模式只返回enabled=false
+     */
+    public Map<String, Object> getClusterStats() {
+        ClusterNode cluster = clusterNode;
+        if (cluster == null) {
+            return Map.of("enabled", false);
+        }
+        Map<String, Object> result = new HashMap<>(cluster.getStats());
+        result.put("enabled", true);
+        return result;
+    }
+
+    /**
+     * 获取业务处理管道统计，未启用时只返回enabled=false
+     */
+    public Map<String, Object> getPipelineStats() {
+        PublishPipeline pipeline = publishPipeline;
+        if (pipeline == null) {
+            return Map.of("enabled", false);
+        }
+        Map<String, Object> result = new HashMap<>(pipeline.getStats());
+        result.put("enabled", true);
+        return result;
+    }
+
+    /**
+     * 获取发布限流统计，未启用时只返回enabled=false
+     */
+    public Map<String, Object> getRateLimitStats() {
+        PublishRateLimiter limiter = rateLimiter;
+        if (limiter == null) {
+            return Map.of("enabled", false);
+        }
+        Map<String, Object> result = new HashMap<>(limiter.getStats());
+        result.put("enabled", true);
+        result.put("dropped", rateLimitDropped.sum());
+        result.put("delayed", rateLimitDelayed.sum());
+        result.put("disconnects", rateLimitDisconnects.sum());
+        return result;
+    }
+
+    /**
+     * 获取流式PUBLISH统计
+     */
+    public Map<String, Object> getStreamingStats() {
+        Map<String, Object> result = new HashMap<>();
+        result.put("streamedMessages", streamedMessages.sum());
+        result.put("streamedBytes", streamedBytes.sum());
+        result.put("skippedSubscribers", streamSkippedSubscribers.sum());
+        result.put("aborted", streamsAborted.sum());
+        result.put("publisherPauses", streamPauses.sum());
+        return result;
+    }
+
+    /**
+     * 获取保留消息统计
+     */
+    public Map<String, Object> getRetainedStats() {
+        Map<String, Object> result = new HashMap<>();
+        result.put("count", retainedMessages.size());
+        result.put("direct_memory_bytes", retainedMessages.bytes());
+        return result;
+    }
+
+    /**
+     * 获取持久会话统计：离线会话数及离线消息存储状态
+     */
+    public Map<String, Object> getPersistenceStats() {
+        Map<String, Object> result = new HashMap<>();
+        OfflineMessageStore store = offlineStore;
+        LongAdder offlineSessions = new LongAdder();
+        sessions.forEach(session -> {
+            if (session.getExpireAt() != 0) {
+                offlineSessions.increment();
+            }
+        });
+        result.put("enabled", store != null);
+        result.put("offline_sessions", offlineSessions.sum());
+        result.put("session_expiry_ms", sessionExpiryMillis);
+        if (store != null) {
+            result.put("store", store.getStats());
+        }
+        return result;
+    }
+
+    /**
+     * 获取慢消费者统计：全局计数及被限流的订阅者明细
+     */
+    public Map<String, Object> getSlowConsumerStats() {
+        List<Map<String, Object>> throttled = new ArrayList<>();
+        sessions.forEach(session -> {
+            SubscriberQueue subscriberQueue = session.getPendingQueue();
+            if (subscriberQueue.isThrottled()) {
+                Map<String, Object> stats = new HashMap<>();
+                stats.put("client_id", session.getClientId());
+                stats.put("dropped", subscriberQueue.getDropped());
+                stats.put("queued", subscriberQueue.getQueued());
+                stats.put("pending", subscriberQueue.size());
+                stats.put("disconnects", subscriberQueue.getDisconnects());
+                throttled.add(stats);
+            }
+        });
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("policy", slowConsumerPolicy.name());
+        result.put("max_queued_messages", maxQueuedMessages);
+        result.put("dropped", slowConsumerDropped.sum());
+        result.put("queued", slowConsumerQueued.sum());
+        result.put("disconnects", slowConsumerDisconnects.sum());
+        result.put("throttled_clients", throttled);
+        return result;
+    }
     
     /**
-     * 转发消息给订阅者
+     * 通过主题树查找订阅者会话及授予的QoS，每个会话只出现一次，每个共享订阅组只选出一个成员。
+     * 集群模式下共享订阅组只由属主节点选择成员，clusterWide为false时（消息不转发到集群）总在本地选择。
+     * 结果放在当前线程复用的容器中，调用方用完后必须release
      */
-    private void forwardMessageToSubscribers(String topic, String payload) {
-        log.debug("转发消息到订阅者 - 主题: {}", topic);
-        
+    private MatchScratch matchSubscribers(String topic, boolean clusterWide) {
+        MatchScratch scratch = MatchScratch.acquire();
+        Map<Session, MqttQoS> matched = scratch.matched;
+        List<SharedSubscriptionGroup<Session>> sharedGroups = scratch.groups;
+        subscriptionTrie.match(topic, matched, sharedGroups);
+
+        ClusterNode cluster = clusterWide ? clusterNode : null;
+        for (SharedSubscriptionGroup<Session> group : sharedGroups) {
+            if (cluster != null && !cluster.ownsSharedGroup(group.getSharedFilter())) {
+                continue;
+            }
+            SharedSubscriptionGroup.Member<Session>[] members = group.getMembers();
+            SharedSubscriptionGroup.Member<Session> member = members.length == 0 ? null
+                : sharedSubscriptionStrategy.select(group, members, topic, this::memberLoad);
+            if (member != null) {
+                matched.merge(member.getSubscriber(), member.getQos(), (a, b) -> a.value() >= b.value() ? a : b);
+            }
+        }
+        return scratch;
+    }
+
+    /**
+     * 转发消息给订阅者，返回转发到的订阅者数
+     */
+    private int forwardMessageToSubscribers(String topic, ByteBuf payload, MqttQoS publishQos) {
+        MatchScratch scratch = matchSubscribers(topic, true);
+        try {
+            return forward(scratch, topic, payload, publishQos);
+        } finally {
+            scratch.release();
+        }
+    }
+
+    private int forward(MatchScratch scratch, String topic, ByteBuf payload, MqttQoS publishQos) {
         int forwardCount = 0;
-        for (Map.Entry<String, Set<String>> entry : subscriptions.entrySet()) {
-            String clientId = entry.getKey();
-            Set<String> topics = entry.getValue();
-            
-            // 检查该客户端是否订阅了相关主题
-            for (String subscribedTopic : topics) {
-                if (topicMatches(subscribedTopic, topic)) {
-                    boolean sent = sendMessageToClient(clientId, topic, payload);
-                    if (sent) {
-                        forwardCount++;
-                        log.debug("消息转发成功: 客户端={}, 主题={}", clientId, topic);
-                    }
-                    break; // 每个客户端只转发一次
-                }
+        boolean batching = crossLoopBatching;
+        // 目标事件循环通常只有几个，线性查找即可
+        List<FanOutBatch> batches = batching ? scratch.batches : null;
+        for (Map.Entry<Session, MqttQoS> entry : scratch.matched.entrySet()) {
+            Session session = entry.getKey();
+            // 实际投递QoS取发布QoS与订阅授予QoS中的较小值
+            MqttQoS deliveryQos = entry.getValue().value() < publishQos.value() ? entry.getValue() : publishQos;
+            LoopMailbox<FanOutBatch> mailbox = session.getMailbox();
+            if (batching && mailbox != null && !mailbox.executor().inEventLoop()) {
+                batchFor(batches, mailbox, topic, payload).add(session, deliveryQos);
+                forwardCount++;
+                continue;
+            }
+            if (deliver(session, topic, payload, deliveryQos)) {
+                directDeliveries.increment();
+                forwardCount++;
             }
         }
-        
-        log.info("消息转发完成 - 主题: {}, 转发数量: {}", topic, forwardCount);
+        if (batches != null) {
+            for (FanOutBatch batch : batches) {
+                handedOffBatches.increment();
+                handedOffDeliveries.add(batch.size());
+                batch.dispatch();
+            }
+        }
+        return forwardCount;
+    }
+
+    private static FanOutBatch batchFor(List<FanOutBatch> batches, LoopMailbox<FanOutBatch> mailbox,
+                                        String topic, ByteBuf payload) {
+        for (FanOutBatch batch : batches) {
+            if (batch.getMailbox() == mailbox) {
+                return batch;
+            }
+        }
+        // 批次持有payload的一个引用，发布方处理完毕释放原消息后仍然有效
+        FanOutBatch batch = new FanOutBatch(mailbox, topic, payload.retain());
+        batches.add(batch);
+        return batch;
+    }
+
+    /**
+     * 获取事件循环的投递信箱，每个循环只创建一个
+     */
+    private LoopMailbox<FanOutBatch> mailboxOf(EventExecutor executor) {
+        return loopMailboxes.computeIfAbsent(executor,
+            loop -> new LoopMailbox<>(loop, this::deliverBatch, MAILBOX_MAX_DRAIN));
+    }
+
+    /**
+     * 在目标事件循环中投递一个批次，会话状态只在所属循环中访问，无需跨线程提交写任务
+     */
+    private void deliverBatch(FanOutBatch batch) {
+        try {
+            for (int i = 0; i < batch.size(); i++) {
+                deliver(batch.sessionAt(i), batch.getTopic(), batch.getPayload(), batch.qosAt(i));
+            }
+        } finally {
+            batch.getPayload().release();
+        }
+    }
+
+    /**
+     * 获取跨事件循环转发统计：直接写出与经信箱交给其他循环的投递数，以及跨线程提交的任务数
+     */
+    public Map<String, Object> getFanOutStats() {
+        long drains = 0;
+        long pending = 0;
+        for (LoopMailbox<FanOutBatch> mailbox : loopMailboxes.values()) {
+            drains += mailbox.getDrains();
+            pending += mailbox.pending();
+        }
+        Map<String, Object> result = new HashMap<>();
+        result.put("cross_loop_batching", crossLoopBatching);
+        result.put("event_loops", loopMailboxes.size());
+        result.put("direct_deliveries", directDeliveries.sum());
+        result.put("handed_off_deliveries", handedOffDeliveries.sum());
+        result.put("handed_off_batches", handedOffBatches.sum());
+        result.put("mailbox_drains", drains);
+        result.put("mailbox_pending", pending);
+        return result;
     }
     
     /**
-     * 检查主题是否匹配（支持通配符）
+     * 共享订阅成员的当前负载：在途与排队的消息数，离线返回-1。
+     * 跨线程读取会话状态，结果只是近似值，用于负载均衡足够
      */
-    private boolean topicMatches(String subscribedTopic, String publishTopic) {
-        if (subscribedTopic.equals(publishTopic)) {
-            return true;
+    private int memberLoad(Session session) {
+        if (!session.isOnline()) {
+            return -1;
         }
-        
-        // 处理通配符
-        if (subscribedTopic.contains("+") || subscribedTopic.contains("#")) {
-            String regex = subscribedTopic
-                .replace("+", "[^/]+")
-                .replace("#", ".*");
-            return publishTopic.matches(regex);
+        return session.getInflightWindow().size() + session.getPendingQueue().size();
+    }
+
+    /**
+     * 清理会话的全部订阅，可重复调用
+     */
+    private void removeSubscriptions(Session session) {
+        Map<TopicFilter, MqttQoS> clientSubscriptions = session.getSubscriptions();
+        for (TopicFilter filter : clientSubscriptions.keySet()) {
+            if (clientSubscriptions.remove(filter) != null) {
+                subscriptionTrie.unsubscribe(filter, session);
+                unsubscribeCluster(filter);
+            }
+        }
+    }
+
+    private void unsubscribeCluster(TopicFilter filter) {
+        ClusterNode cluster = clusterNode;
+        if (cluster != null) {
+            cluster.unsubscribe(filter);
+        }
+    }
+
+    /**
+     * 一次转发使用的匹配结果和跨循环批次，按线程复用。
+     * 转发过程中同一线程再次进入转发（如投递时同步触发的发布）时临时分配一份，不影响外层正在使用的容器
+     */
+    private static final class MatchScratch {
+        // 容器曾容纳过多订阅者时丢弃重建，避免clear反复扫描很大的哈希表
+        private static final int MAX_RETAINED_SIZE = 1024;
+
+        Map<Session, MqttQoS> matched = new HashMap<>();
+        final List<SharedSubscriptionGroup<Session>> groups = new ArrayList<>();
+        final List<FanOutBatch> batches = new ArrayList<>();
+        private final boolean pooled;
+        private boolean inUse;
+
+        private MatchScratch() {
+            this(true);
+        }
+
+        private MatchScratch(boolean pooled) {
+            this.pooled = pooled;
+        }
+
+        static MatchScratch acquire() {
+            MatchScratch scratch = MATCH_SCRATCH.get();
+            if (scratch.inUse) {
+                return new MatchScratch(false);
+            }
+            scratch.inUse = true;
+            return scratch;
+        }
+
+        void release() {
+            if (!pooled) {
+                return;
+            }
+            if (matched.size() > MAX_RETAINED_SIZE) {
+                matched = new HashMap<>();
+            } else {
+                matched.clear();
+            }
+            groups.clear();
+            batches.clear();
+            inUse = false;
+        }
+    }
+
+    /**
+     * 连接上正在接收的流式PUBLISH，只在发布者所属的事件循环中访问
+     */
+    private static final class InboundStream {
+        final Channel publisher;
+        final PublishStreamStart start;
+        final long startNanos;
+        // 已写出报文头的订阅者，限流丢弃时为空
+        final List<Session> targets = new ArrayList<>();
+
+        InboundStream(Channel publisher, PublishStreamStart start, long startNanos) {
+            this.publisher = publisher;
+            this.start = start;
+            this.startNanos = startNanos;
         }
-        
-        return false;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,86 @@
+package com.example.mqtt.handler;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToMessageEncoder;
+import io.netty.handler.codec.mqtt.MqttFixedHeader;
+import io.netty.handler.codec.mqtt.MqttPublishMessage;
+import io.netty.handler.codec.mqtt.MqttVersion;
+import io.netty.util.AttributeKey;
+
+import java.util.List;
+
+/**
+ * PUBLISH消息零拷贝编码器
+ * <p>
+ * Netty自带的MqttEncoder会把payload复制进新的缓冲区，扇出到N个订阅者时就要复制N次。
+ * 这里只为每个订阅者编码固定头和可变头，payload以原缓冲区的引用直接写出（writev聚合写）。
+ * MQTT 5 的PUBLISH包含属性，仍交给MqttEncoder处理。
+ */
+@ChannelHandler.Sharable
+public class MqttPublishEncoder extends MessageToMessageEncoder<MqttPublishMessage> {
+
+    public static final MqttPublishEncoder INSTANCE = new MqttPublishEncoder();
+
+    // 与 MqttCodecUtil 中的协议版本属性同名
+    private static final AttributeKey<MqttVersion> MQTT_VERSION_KEY = AttributeKey.valueOf("NETTY_CODEC_MQTT_VERSION");
+
+    private MqttPublishEncoder() {
+    }
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, MqttPublishMessage msg, List<Object> out) {
+        if (ctx.channel().attr(MQTT_VERSION_KEY).get() == MqttVersion.MQTT_5) {
+            out.add(msg.retain());
+            return;
+        }
+
+        MqttFixedHeader fixedHeader = msg.fixedHeader();
+        String topicName = msg.variableHeader().topicName();
+        boolean hasPacketId = fixedHeader.qosLevel().value() > 0;
+        ByteBuf payload = msg.payload();
+
+        int topicNameBytes = ByteBufUtil.utf8Bytes(topicName);
+        int variableHeaderSize = 2 + topicNameBytes + (hasPacketId ? 2 : 0);
+        int remainingLength = variableHeaderSize + payload.readableBytes();
+
+        ByteBuf header = ctx.alloc().buffer(1 + 4 + variableHeaderSize);
+        header.writeByte(fixedHeaderByte1(fixedHeader));
+        writeVariableLengthInt(header, remainingLength);
+        header.writeShort(topicNameBytes);
+        ByteBufUtil.reserveAndWriteUtf8(header, topicName, topicNameBytes);
+        if (hasPacketId) {
+            header.writeShort(msg.variableHeader().packetId());
+        }
+
+        out.add(header);
+        if (payload.isReadable()) {
+            out.add(payload.retain());
+        }
+    }
+
+    private static int fixedHeaderByte1(MqttFixedHeader header) {
+        int ret = header.messageType().value() << 4;
+        if (header.isDup()) {
+            ret |= 0x08;
+        }
+        ret |= header.qosLevel().value() << 1;
+        if (header.isRetain()) {
+            ret |= 0x01;
+        }
+        return ret;
+    }
+
+    private static void writeVariableLengthInt(ByteBuf buf, int num) {
+        do {
+            int digit = num % 128;
+            num /= 128;
+            if (num > 0) {
+                digit |= 0x80;
+            }
+            buf.writeByte(digit);
+        } while (num > 0);
+    }
+}
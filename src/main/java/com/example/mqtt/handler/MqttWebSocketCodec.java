@@ -0,0 +1,134 @@
+package com.example.mqtt.handler;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.CloseWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.ContinuationWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketCloseStatus;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.util.ReferenceCountUtil;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * MQTT over WebSocket的帧转换，每个连接一个实例，放在WebSocket协议处理器和MQTT编解码器之间
+ * <p>
+ * 入站的二进制帧和续帧直接把帧内容交给MQTT解码器，不做复制，一个报文跨帧或一帧多个报文都由解码器拼接；
+ * 出站的报文字节（头部和零拷贝的payload分别写出）先挂在组合缓冲区上，刷新时合成一个二进制帧写出，
+ * 不为每段字节各发一帧。文本帧不符合MQTT over WebSocket规范，收到后关闭连接。
+ */
+@Slf4j
+public class MqttWebSocketCodec extends ChannelDuplexHandler {
+
+    private final int maxFrameBytes;
+    private CompositeByteBuf pending;
+    private final List<ChannelPromise> pendingPromises = new ArrayList<>();
+
+    /**
+     * @param maxFrameBytes 出站帧的字节数上限，待发字节超过后不等刷新立即成帧
+     */
+    public MqttWebSocketCodec(int maxFrameBytes) {
+        this.maxFrameBytes = maxFrameBytes;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (msg instanceof BinaryWebSocketFrame || msg instanceof ContinuationWebSocketFrame) {
+            // 帧内容的所有权交给解码器
+            ctx.fireChannelRead(((WebSocketFrame) msg).content());
+            return;
+        }
+        if (msg instanceof WebSocketFrame) {
+            ReferenceCountUtil.release(msg);
+            log.debug("MQTT over WebSocket只接受二进制帧，关闭连接: {}", ctx.channel().remoteAddress());
+            ctx.writeAndFlush(new CloseWebSocketFrame(WebSocketCloseStatus.INVALID_MESSAGE_TYPE))
+                .addListener(ChannelFutureListener.CLOSE);
+            return;
+        }
+        if (msg instanceof FullHttpRequest) {
+            // 路径不匹配的HTTP请求由WebSocket协议处理器原样传下来
+            FullHttpRequest request = (FullHttpRequest) msg;
+            HttpVersion version = request.protocolVersion();
+            request.release();
+            ctx.writeAndFlush(new DefaultFullHttpResponse(version, HttpResponseStatus.NOT_FOUND))
+                .addListener(ChannelFutureListener.CLOSE);
+            return;
+        }
+        ctx.fireChannelRead(msg);
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (!(msg instanceof ByteBuf)) {
+            writePending(ctx);
+            ctx.write(msg, promise);
+            return;
+        }
+        if (pending == null) {
+            pending = ctx.alloc().compositeBuffer(Integer.MAX_VALUE);
+        }
+        pending.addComponent(true, (ByteBuf) msg);
+        pendingPromises.add(promise);
+        if (pending.readableBytes() >= maxFrameBytes) {
+            writePending(ctx);
+        }
+    }
+
+    @Override
+    public void flush(ChannelHandlerContext ctx) throws Exception {
+        writePending(ctx);
+        ctx.flush();
+    }
+
+    @Override
+    public void close(ChannelHandlerContext ctx, ChannelPromise promise) throws Exception {
+        writePending(ctx);
+        ctx.close(promise);
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) {
+        if (pending != null) {
+            pending.release();
+            pending = null;
+            IllegalStateException cause = new IllegalStateException("连接已关闭");
+            pendingPromises.forEach(promise -> promise.tryFailure(cause));
+            pendingPromises.clear();
+        }
+    }
+
+    private void writePending(ChannelHandlerContext ctx) {
+        if (pending == null) {
+            return;
+        }
+        CompositeByteBuf frameContent = pending;
+        pending = null;
+        if (pendingPromises.size() == 1) {
+            ctx.write(new BinaryWebSocketFrame(frameContent), pendingPromises.remove(0));
+            return;
+        }
+        // 合成一帧的各次写入随帧一起完成
+        ChannelPromise[] promises = pendingPromises.toArray(new ChannelPromise[0]);
+        pendingPromises.clear();
+        ctx.write(new BinaryWebSocketFrame(frameContent)).addListener(future -> {
+            for (ChannelPromise promise : promises) {
+                if (future.isSuccess()) {
+                    promise.trySuccess();
+                } else {
+                    promise.tryFailure(future.cause());
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,21 @@
+package com.example.mqtt.handler;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.DefaultByteBufHolder;
+
+/**
+ * 流式PUBLISH的一段payload，按到达顺序产出，last标记最后一段
+ */
+public final class PublishStreamChunk extends DefaultByteBufHolder {
+
+    private final boolean last;
+
+    public PublishStreamChunk(ByteBuf content, boolean last) {
+        super(content);
+        this.last = last;
+    }
+
+    public boolean isLast() {
+        return last;
+    }
+}
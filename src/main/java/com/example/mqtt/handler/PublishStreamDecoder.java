@@ -0,0 +1,128 @@
+package com.example.mqtt.handler;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.mqtt.MqttMessageType;
+import io.netty.handler.codec.mqtt.MqttVersion;
+import io.netty.util.AttributeKey;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * 大PUBLISH报文的流式解码器，每个连接一个实例，放在MqttDecoder之前
+ * <p>
+ * MqttDecoder要把整个报文缓冲完才产出消息。这里先读固定头：payload超过阈值的PUBLISH（固件分片、摄像头快照等）
+ * 在可变头到齐后产出 {@link PublishStreamStart}，之后每次读到的payload字节直接作为 {@link PublishStreamChunk} 产出，
+ * 不再聚合；其他报文原样交给MqttDecoder。
+ * <p>
+ * 只流式处理QoS 0、非保留的PUBLISH：payload不在内存中保留，无法重发、去重、保存为保留消息或转发到集群。
+ * QoS 1/2和保留消息即使超过阈值也交给MqttDecoder，不超过最大报文长度时按普通PUBLISH处理，超过时被拒绝并断开。
+ * MQTT 5的PUBLISH带属性，也不做流式处理。
+ */
+public class PublishStreamDecoder extends ByteToMessageDecoder {
+
+    // 与 MqttCodecUtil 中的协议版本属性同名，由MqttDecoder在收到CONNECT后设置
+    private static final AttributeKey<MqttVersion> MQTT_VERSION_KEY = AttributeKey.valueOf("NETTY_CODEC_MQTT_VERSION");
+
+    private final int threshold;
+    private final int maxPayload;
+    // 当前报文中还要原样转交给MqttDecoder的字节数
+    private long passThrough;
+    // 当前流式报文中还未产出的payload字节数
+    private int streamRemaining;
+    private boolean streaming;
+
+    /**
+     * @param threshold  payload超过该字节数的PUBLISH按流式处理
+     * @param maxPayload 流式处理的payload上限，超过的报文交给MqttDecoder按最大报文长度拒绝
+     */
+    public PublishStreamDecoder(int threshold, int maxPayload) {
+        this.threshold = threshold;
+        this.maxPayload = maxPayload;
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
+        while (in.isReadable()) {
+            if (streaming) {
+                int length = Math.min(in.readableBytes(), streamRemaining);
+                streamRemaining -= length;
+                streaming = streamRemaining > 0;
+                out.add(new PublishStreamChunk(in.readRetainedSlice(length), !streaming));
+                continue;
+            }
+            if (passThrough > 0) {
+                int length = (int) Math.min(in.readableBytes(), passThrough);
+                passThrough -= length;
+                out.add(in.readRetainedSlice(length));
+                continue;
+            }
+            if (!readHeader(ctx, in, out)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 读取下一个报文的头部，决定流式处理还是原样转交；字节不足时返回false等待更多数据
+     */
+    private boolean readHeader(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
+        int start = in.readerIndex();
+        if (in.readableBytes() < 2) {
+            return false;
+        }
+        int byte1 = in.getUnsignedByte(start);
+        long remainingLength = 0;
+        int multiplier = 1;
+        int headerLength = 1;
+        int digit;
+        do {
+            if (headerLength > 4) {
+                // 非法的剩余长度，交给MqttDecoder报错
+                passThrough = Long.MAX_VALUE;
+                return true;
+            }
+            if (in.readableBytes() <= headerLength) {
+                return false;
+            }
+            digit = in.getUnsignedByte(start + headerLength);
+            remainingLength += (long) (digit & 0x7F) * multiplier;
+            multiplier *= 128;
+            headerLength++;
+        } while ((digit & 0x80) != 0);
+
+        // QoS(bit 1-2)和RETAIN(bit 0)都为0
+        boolean qos0NotRetained = (byte1 & 0x07) == 0;
+        MqttVersion version = ctx.channel().attr(MQTT_VERSION_KEY).get();
+        // payload不会超过剩余长度，剩余长度不超过阈值的报文一定不需要流式处理
+        if ((byte1 >> 4) != MqttMessageType.PUBLISH.value() || !qos0NotRetained
+            || version == null || version == MqttVersion.MQTT_5
+            || remainingLength <= threshold) {
+            passThrough = headerLength + remainingLength;
+            return true;
+        }
+
+        // 等可变头到齐：主题长度、主题
+        if (in.readableBytes() < headerLength + 2) {
+            return false;
+        }
+        int topicLength = in.getUnsignedShort(start + headerLength);
+        int fullHeader = headerLength + 2 + topicLength;
+        if (in.readableBytes() < fullHeader) {
+            return false;
+        }
+        long payloadLength = remainingLength - (fullHeader - headerLength);
+        if (payloadLength <= threshold || payloadLength > maxPayload) {
+            passThrough = headerLength + remainingLength;
+            return true;
+        }
+        String topic = in.toString(start + headerLength + 2, topicLength, StandardCharsets.UTF_8);
+        in.skipBytes(fullHeader);
+        streamRemaining = (int) payloadLength;
+        streaming = true;
+        out.add(new PublishStreamStart(topic, streamRemaining));
+        return true;
+    }
+}
@@ -0,0 +1,24 @@
+package com.example.mqtt.handler;
+
+/**
+ * 流式转发的大PUBLISH报文的头部：已解析出主题，payload随后以 {@link PublishStreamChunk} 分段到达。
+ * 只有QoS 0、非保留的PUBLISH按流式处理，没有报文标识符
+ */
+public final class PublishStreamStart {
+
+    private final String topic;
+    private final int payloadLength;
+
+    public PublishStreamStart(String topic, int payloadLength) {
+        this.topic = topic;
+        this.payloadLength = payloadLength;
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    public int getPayloadLength() {
+        return payloadLength;
+    }
+}
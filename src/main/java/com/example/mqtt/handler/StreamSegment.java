@@ -0,0 +1,28 @@
+package com.example.mqtt.handler;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.DefaultByteBufHolder;
+
+/**
+ * 写给订阅者的流式PUBLISH的一段已编码字节：第一段是固定头和可变头，之后是payload分段。
+ * 由 {@link StreamWriteGate} 保证同一连接上一个流的各段之间不会插入其他报文。
+ */
+public final class StreamSegment extends DefaultByteBufHolder {
+
+    private final boolean first;
+    private final boolean last;
+
+    public StreamSegment(ByteBuf content, boolean first, boolean last) {
+        super(content);
+        this.first = first;
+        this.last = last;
+    }
+
+    public boolean isFirst() {
+        return first;
+    }
+
+    public boolean isLast() {
+        return last;
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.mqtt.handler;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.PendingWriteQueue;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 流式PUBLISH的写入闸门，每个连接一个实例，放在编码器和socket之间
+ * <p>
+ * 一个流的首段写出后、末段写出前，该连接上的其他写入（转发消息、PUBACK、PINGRESP等）暂存起来，
+ * 末段写出后再按原顺序写出，订阅者收到的字节流始终是完整的MQTT报文序列。
+ * 暂存的字节计入连接的写缓冲，转发路径会按慢消费者策略处理；暂存超过上限时，
+ * 说明订阅者长时间收不完当前的流，丢弃暂存的写入并关闭连接。
+ * 所有操作都在连接所属的事件循环中执行，无需加锁。
+ */
+@Slf4j
+public class StreamWriteGate extends ChannelOutboundHandlerAdapter {
+
+    private final long maxHeldBytes;
+    private PendingWriteQueue held;
+    private boolean streaming;
+
+    /**
+     * @param maxHeldBytes 流式PUBLISH写出期间暂存其他写入的字节上限
+     */
+    public StreamWriteGate(long maxHeldBytes) {
+        this.maxHeldBytes = maxHeldBytes;
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) {
+        held = new PendingWriteQueue(ctx);
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (msg instanceof StreamSegment) {
+            StreamSegment segment = (StreamSegment) msg;
+            if (segment.isFirst()) {
+                streaming = true;
+            }
+            ctx.write(segment.content(), promise);
+            if (segment.isLast()) {
+                streaming = false;
+                held.removeAndWriteAll();
+            }
+            return;
+        }
+        if (streaming) {
+            held.add(msg, promise);
+            if (held.bytes() > maxHeldBytes) {
+                log.warn("流式PUBLISH写出期间暂存的写入超过上限，关闭连接: {}, 暂存={}字节",
+                    ctx.channel().remoteAddress(), held.bytes());
+                held.removeAndFailAll(new IllegalStateException("流式PUBLISH写出期间暂存的写入超过上限"));
+                ctx.close();
+            }
+            return;
+        }
+        ctx.write(msg, promise);
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) {
+        held.removeAndFailAll(new IllegalStateException("连接已关闭"));
+    }
+}
@@ -0,0 +1,35 @@
+package com.example.mqtt.history;
+
+/**
+ * 按位顺序读取 {@link BitWriter} 写出的内容
+ */
+final class BitReader {
+
+    private final long[] words;
+    private long position;
+
+    BitReader(long[] words) {
+        this.words = words;
+    }
+
+    /**
+     * 读取n位（1 <= n <= 64），按无符号返回
+     */
+    long read(int n) {
+        int index = (int) (position >>> 6);
+        int used = (int) (position & 63);
+        int available = 64 - used;
+        long value;
+        if (n <= available) {
+            value = words[index] >>> (available - n);
+        } else {
+            value = (words[index] << (n - available)) | (words[index + 1] >>> (64 - (n - available)));
+        }
+        position += n;
+        return n == 64 ? value : value & ((1L << n) - 1);
+    }
+
+    boolean readBit() {
+        return read(1) != 0;
+    }
+}
@@ -0,0 +1,60 @@
+package com.example.mqtt.history;
+
+import java.util.Arrays;
+
+/**
+ * 按位追加写入的缓冲区，位从每个long的高位向低位排列
+ */
+final class BitWriter {
+
+    private long[] words;
+    private long bits;
+
+    BitWriter(int initialWords) {
+        words = new long[Math.max(1, initialWords)];
+    }
+
+    /**
+     * 写入value的低n位（1 <= n <= 64）
+     */
+    void write(long value, int n) {
+        if (n < 64) {
+            value &= (1L << n) - 1;
+        }
+        int index = (int) (bits >>> 6);
+        int used = (int) (bits & 63);
+        int free = 64 - used;
+        if (index + 1 >= words.length) {
+            words = Arrays.copyOf(words, words.length * 2);
+        }
+        if (n <= free) {
+            words[index] |= value << (free - n);
+        } else {
+            words[index] |= value >>> (n - free);
+            words[index + 1] |= value << (64 - (n - free));
+        }
+        bits += n;
+    }
+
+    void writeBit(boolean bit) {
+        write(bit ? 1 : 0, 1);
+    }
+
+    long bitLength() {
+        return bits;
+    }
+
+    /**
+     * 已写入内容的紧凑副本
+     */
+    long[] toArray() {
+        return Arrays.copyOf(words, (int) ((bits + 63) >>> 6));
+    }
+
+    /**
+     * 当前占用的字节数（含未用的预留空间）
+     */
+    long capacityBytes() {
+        return (long) words.length * Long.BYTES;
+    }
+}
@@ -0,0 +1,281 @@
+package com.example.mqtt.history;
+
+import com.example.mqtt.model.DeviceData;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * 设备数据历史存储
+ * <p>
+ * 每台设备一个序列，由若干 {@link SeriesChunk} 组成：最新的一个块接收写入，写满后封存为只读的紧凑列。
+ * 按对象保存一个采样（装箱的Double、LocalDateTime、位置对象）要几百字节，压缩列在上报间隔稳定、
+ * 读数变化平缓时每个采样只需十字节左右，几十MB即可容纳数百万个采样。
+ * <p>
+ * 封存块与写入中的块的总大小超过上限时，按封存顺序从最早封存的块开始淘汰；封存时还淘汰超过保留时长的块。
+ * 所有设备的封存块按封存顺序排在一个全局队列里，每次淘汰只看队首，不扫描全部设备。
+ * 写入中的块按实际占用计算，列缓冲从很小开始按需扩容，大量设备各自只写了少量采样时不会占满预算；
+ * 没有封存块可淘汰时停止淘汰，即使写入中的块仍超出预算。
+ * <p>
+ * 采样按写入顺序保存，时间戳不保证递增（设备时钟回拨、补报旧数据）。每个采样有一个设备内递增的写入序号，
+ * 分页查询以序号作为游标，不会因时间戳乱序或相同而重复或遗漏。
+ */
+@Component
+public class DeviceHistoryStore {
+
+    private final ConcurrentHashMap<String, DeviceSeries> series = new ConcurrentHashMap<>();
+    // 每封存一个块放入一次所属序列，队首序列的第一个封存块就是全局最早封存的块；已删除序列的条目出队时跳过
+    private final ConcurrentLinkedQueue<DeviceSeries> sealedOrder = new ConcurrentLinkedQueue<>();
+    private final boolean enabled;
+    private final int chunkSamples;
+    private final long retentionMillis;
+    private final long maxBytes;
+    private final LongSupplier clock;
+
+    private final AtomicLong sealedBytes = new AtomicLong();
+    private final AtomicLong activeBytes = new AtomicLong();
+    private final LongAdder recorded = new LongAdder();
+    private final LongAdder evictedChunks = new LongAdder();
+    private final LongAdder evictedSamples = new LongAdder();
+
+    @Autowired
+    public DeviceHistoryStore(@Value("${mqtt.history.enabled:true}") boolean enabled,
+                              @Value("${mqtt.history.chunk-samples:1024}") int chunkSamples,
+                              @Value("${mqtt.history.retention-hours:168}") long retentionHours,
+                              @Value("${mqtt.history.max-bytes-mb:64}") long maxBytesMb) {
+        this(enabled, chunkSamples, TimeUnit.HOURS.toMillis(retentionHours), maxBytesMb * 1024 * 1024,
+            System::currentTimeMillis);
+    }
+
+    /**
+     * 供测试指定时钟
+     */
+    public DeviceHistoryStore(boolean enabled, int chunkSamples, long retentionMillis, long maxBytes,
+                              LongSupplier clock) {
+        this.enabled = enabled;
+        this.chunkSamples = Math.max(16, chunkSamples);
+        this.retentionMillis = retentionMillis;
+        this.maxBytes = maxBytes;
+        this.clock = clock;
+    }
+
+    /**
+     * 记录一个设备数据采样
+     */
+    public void record(DeviceData data) {
+        if (!enabled || data.getDeviceId() == null) {
+            return;
+        }
+        long timestamp = data.getTimestamp() != null
+            ? data.getTimestamp().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli()
+            : clock.getAsLong();
+        record(data.getDeviceId(), timestamp, data.getTemperature(), data.getHumidity(), data.getBattery());
+    }
+
+    public void record(String deviceId, long timestamp, Double temperature, Double humidity, Integer battery) {
+        if (!enabled) {
+            return;
+        }
+        DeviceSeries s = series.computeIfAbsent(deviceId, id -> new DeviceSeries());
+        boolean sealed;
+        synchronized (s) {
+            if (s.removed) {
+                // 与remove()并发，设备已被删除
+                return;
+            }
+            sealed = s.append(timestamp, temperature, humidity, battery);
+        }
+        recorded.increment();
+        // 在序列锁外淘汰，淘汰时需要逐个锁住其他设备的序列
+        if (sealed) {
+            evictExpired();
+        }
+        if (sealed || isOverBudget()) {
+            evictOverBudget();
+        }
+    }
+
+    /**
+     * 查询设备在[from, to]内的采样，按写入顺序返回，最多limit条
+     */
+    public List<HistorySample> query(String deviceId, long from, long to, int limit) {
+        return query(deviceId, from, to, 0, limit);
+    }
+
+    /**
+     * 查询设备在[from, to]内、写入序号不小于cursor的采样，按写入顺序返回，最多limit条；
+     * 下一页以上一页之后第一个采样的 {@link HistorySample#getSequence()} 作为cursor
+     */
+    public List<HistorySample> query(String deviceId, long from, long to, long cursor, int limit) {
+        List<HistorySample> result = new ArrayList<>();
+        DeviceSeries s = series.get(deviceId);
+        if (s == null || limit <= 0) {
+            return result;
+        }
+        synchronized (s) {
+            long firstSequence = s.firstSequence;
+            for (SeriesChunk chunk : s.sealed) {
+                if (firstSequence + chunk.count() > cursor
+                        && chunk.decode(from, to, firstSequence, cursor, result, limit)) {
+                    return result;
+                }
+                firstSequence += chunk.count();
+            }
+            if (s.active != null) {
+                s.active.decode(from, to, firstSequence, cursor, result, limit);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 删除设备的全部历史
+     */
+    public void remove(String deviceId) {
+        DeviceSeries s = series.remove(deviceId);
+        if (s != null) {
+            synchronized (s) {
+                s.removed = true;
+                while (!s.sealed.isEmpty()) {
+                    SeriesChunk chunk = s.sealed.pollFirst();
+                    sealedBytes.addAndGet(-chunk.sizeBytes());
+                }
+                if (s.active != null) {
+                    activeBytes.addAndGet(-s.active.sizeBytes());
+                    s.active = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * 按封存顺序淘汰超过保留时长的块，遇到第一个未过期的块为止
+     */
+    private void evictExpired() {
+        long cutoff = clock.getAsLong() - retentionMillis;
+        DeviceSeries s;
+        while ((s = sealedOrder.peek()) != null) {
+            synchronized (s) {
+                SeriesChunk first = s.removed ? null : s.sealed.peekFirst();
+                if (first != null && first.maxTimestamp() >= cutoff) {
+                    return;
+                }
+                // 并发淘汰时队首可能已被取走，移除的是该序列的另一个条目，条目数与封存块数仍然一致
+                if (sealedOrder.remove(s) && first != null) {
+                    evictFirst(s);
+                }
+            }
+        }
+    }
+
+    private boolean isOverBudget() {
+        return sealedBytes.get() + activeBytes.get() > maxBytes;
+    }
+
+    /**
+     * 从最早封存的块开始淘汰到预算以内；没有封存块时返回，写入中的块不淘汰
+     */
+    private void evictOverBudget() {
+        while (isOverBudget()) {
+            DeviceSeries s = sealedOrder.poll();
+            if (s == null) {
+                return;
+            }
+            synchronized (s) {
+                if (!s.removed && !s.sealed.isEmpty()) {
+                    evictFirst(s);
+                }
+            }
+        }
+    }
+
+    private void evictFirst(DeviceSeries s) {
+        SeriesChunk chunk = s.sealed.pollFirst();
+        sealedBytes.addAndGet(-chunk.sizeBytes());
+        s.samples -= chunk.count();
+        s.firstSequence += chunk.count();
+        evictedChunks.increment();
+        evictedSamples.add(chunk.count());
+    }
+
+    /**
+     * 获取历史存储统计
+     */
+    public Map<String, Object> getStats() {
+        long samples = 0;
+        long chunks = 0;
+        for (DeviceSeries s : series.values()) {
+            synchronized (s) {
+                samples += s.samples;
+                chunks += s.sealed.size();
+                if (s.active != null) {
+                    chunks++;
+                }
+            }
+        }
+        long sealed = sealedBytes.get();
+        long active = activeBytes.get();
+        Map<String, Object> result = new HashMap<>();
+        result.put("enabled", enabled);
+        result.put("devices", series.size());
+        result.put("samples", samples);
+        result.put("chunks", chunks);
+        result.put("sealed_bytes", sealed);
+        result.put("active_bytes", active);
+        result.put("max_bytes", maxBytes);
+        result.put("bytes_per_sample", samples > 0 ? (double) (sealed + active) / samples : 0.0);
+        result.put("recorded", recorded.sum());
+        result.put("evicted_chunks", evictedChunks.sum());
+        result.put("evicted_samples", evictedSamples.sum());
+        return result;
+    }
+
+    /**
+     * 一台设备的序列：按时间顺序的封存块加上正在写入的块，访问时锁住序列对象
+     */
+    private final class DeviceSeries {
+        private final ArrayDeque<SeriesChunk> sealed = new ArrayDeque<>();
+        private SeriesChunk active;
+        private long samples;
+        // 最早一个保留的采样的写入序号，淘汰块时前移
+        private long firstSequence;
+        private boolean removed;
+
+        /**
+         * 追加采样，返回是否有块被封存
+         */
+        boolean append(long timestamp, Double temperature, Double humidity, Integer battery) {
+            if (active == null) {
+                active = new SeriesChunk(chunkSamples);
+                activeBytes.addAndGet(active.sizeBytes());
+            }
+            long before = active.sizeBytes();
+            active.append(timestamp, temperature, humidity, battery);
+            activeBytes.addAndGet(active.sizeBytes() - before);
+            samples++;
+            if (!active.isFull()) {
+                return false;
+            }
+            activeBytes.addAndGet(-active.sizeBytes());
+            active.seal();
+            sealed.addLast(active);
+            sealedOrder.add(this);
+            sealedBytes.addAndGet(active.sizeBytes());
+            active = null;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.example.mqtt.history;
+
+/**
+ * 历史采样点，查询时从压缩列解码生成
+ */
+public final class HistorySample {
+
+    private final long sequence;
+    private final long timestamp;
+    private final Double temperature;
+    private final Double humidity;
+    private final Integer battery;
+
+    public HistorySample(long sequence, long timestamp, Double temperature, Double humidity, Integer battery) {
+        this.sequence = sequence;
+        this.timestamp = timestamp;
+        this.temperature = temperature;
+        this.humidity = humidity;
+        this.battery = battery;
+    }
+
+    /**
+     * 采样在设备序列中的写入序号，从0开始递增，淘汰旧块后不变；分页查询以它作为游标
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * 采样时间（epoch毫秒）
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public Double getTemperature() {
+        return temperature;
+    }
+
+    public Double getHumidity() {
+        return humidity;
+    }
+
+    public Integer getBattery() {
+        return battery;
+    }
+}
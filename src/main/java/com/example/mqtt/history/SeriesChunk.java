@@ -0,0 +1,279 @@
+package com.example.mqtt.history;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 一台设备一段时间内的采样，按列压缩存储
+ * <p>
+ * 时间戳列使用差值的差值（delta-of-delta）编码，采样间隔稳定时每个时间戳只占1位；
+ * 温度、湿度列按Gorilla方式与前一个值的位模式异或，只写出有效位，变化缓慢的读数通常只占十几位；
+ * 电量列每个采样一个字节。缺失的温湿度以NaN、缺失的电量以-1存储。
+ * <p>
+ * 写满后封存：编码状态丢弃，各列裁剪为紧凑数组，之后只读。所有方法由所属设备序列加锁后调用。
+ */
+final class SeriesChunk {
+
+    private static final byte MISSING_BATTERY = -1;
+    // 写入中的列缓冲的初始大小，之后按需倍增；设备很多时每个写入中的块只占几十字节
+    private static final int INITIAL_WORDS = 2;
+    private static final int INITIAL_BATTERIES = 16;
+
+    private final int capacity;
+    private int count;
+    private long minTimestamp = Long.MAX_VALUE;
+    private long maxTimestamp = Long.MIN_VALUE;
+
+    // 写入中的各列，封存后为null
+    private BitWriter timestampWriter;
+    private XorEncoder temperatureWriter;
+    private XorEncoder humidityWriter;
+    private long previousTimestamp;
+    private long previousDelta;
+
+    // 封存后的各列
+    private long[] timestamps;
+    private long[] temperatures;
+    private long[] humidities;
+    private byte[] batteries;
+
+    SeriesChunk(int capacity) {
+        this.capacity = capacity;
+        this.timestampWriter = new BitWriter(INITIAL_WORDS);
+        this.temperatureWriter = new XorEncoder(new BitWriter(INITIAL_WORDS));
+        this.humidityWriter = new XorEncoder(new BitWriter(INITIAL_WORDS));
+        this.batteries = new byte[Math.min(capacity, INITIAL_BATTERIES)];
+    }
+
+    boolean isFull() {
+        return count == capacity;
+    }
+
+    boolean isSealed() {
+        return timestampWriter == null;
+    }
+
+    int count() {
+        return count;
+    }
+
+    long minTimestamp() {
+        return minTimestamp;
+    }
+
+    long maxTimestamp() {
+        return maxTimestamp;
+    }
+
+    /**
+     * 追加一个采样，调用方保证未写满
+     */
+    void append(long timestamp, Double temperature, Double humidity, Integer battery) {
+        writeTimestamp(timestamp);
+        temperatureWriter.write(temperature != null ? temperature : Double.NaN);
+        humidityWriter.write(humidity != null ? humidity : Double.NaN);
+        if (count == batteries.length) {
+            batteries = Arrays.copyOf(batteries, Math.min(capacity, batteries.length * 2));
+        }
+        batteries[count] = battery != null ? (byte) Math.max(0, Math.min(100, battery)) : MISSING_BATTERY;
+        count++;
+        minTimestamp = Math.min(minTimestamp, timestamp);
+        maxTimestamp = Math.max(maxTimestamp, timestamp);
+    }
+
+    private void writeTimestamp(long timestamp) {
+        BitWriter out = timestampWriter;
+        if (count == 0) {
+            out.write(timestamp, 64);
+            previousTimestamp = timestamp;
+            return;
+        }
+        long delta = timestamp - previousTimestamp;
+        long deltaOfDelta = delta - previousDelta;
+        if (deltaOfDelta == 0) {
+            out.write(0b0, 1);
+        } else if (deltaOfDelta >= -64 && deltaOfDelta <= 63) {
+            out.write(0b10, 2);
+            out.write(deltaOfDelta, 7);
+        } else if (deltaOfDelta >= -256 && deltaOfDelta <= 255) {
+            out.write(0b110, 3);
+            out.write(deltaOfDelta, 9);
+        } else if (deltaOfDelta >= -2048 && deltaOfDelta <= 2047) {
+            out.write(0b1110, 4);
+            out.write(deltaOfDelta, 12);
+        } else {
+            out.write(0b1111, 4);
+            out.write(deltaOfDelta, 64);
+        }
+        previousTimestamp = timestamp;
+        previousDelta = delta;
+    }
+
+    /**
+     * 封存：丢弃编码状态，各列裁剪为紧凑数组
+     */
+    void seal() {
+        if (isSealed()) {
+            return;
+        }
+        timestamps = timestampWriter.toArray();
+        temperatures = temperatureWriter.out.toArray();
+        humidities = humidityWriter.out.toArray();
+        batteries = Arrays.copyOf(batteries, count);
+        timestampWriter = null;
+        temperatureWriter = null;
+        humidityWriter = null;
+    }
+
+    /**
+     * 解码时间戳在[from, to]内、写入序号不小于cursor的采样追加到out，最多追加到limit条，
+     * 返回是否因达到limit而提前结束；firstSequence为本块第一个采样的写入序号
+     */
+    boolean decode(long from, long to, long firstSequence, long cursor, List<HistorySample> out, int limit) {
+        if (count == 0 || maxTimestamp < from || minTimestamp > to) {
+            return false;
+        }
+        BitReader timestampReader = new BitReader(isSealed() ? timestamps : timestampWriter.toArray());
+        XorDecoder temperatureReader = new XorDecoder(new BitReader(
+            isSealed() ? temperatures : temperatureWriter.out.toArray()));
+        XorDecoder humidityReader = new XorDecoder(new BitReader(
+            isSealed() ? humidities : humidityWriter.out.toArray()));
+        long timestamp = 0;
+        long delta = 0;
+        for (int i = 0; i < count; i++) {
+            if (i == 0) {
+                timestamp = timestampReader.read(64);
+            } else {
+                delta += readDeltaOfDelta(timestampReader);
+                timestamp += delta;
+            }
+            double temperature = temperatureReader.read();
+            double humidity = humidityReader.read();
+            if (timestamp < from || timestamp > to || firstSequence + i < cursor) {
+                continue;
+            }
+            if (out.size() >= limit) {
+                return true;
+            }
+            byte battery = batteries[i];
+            out.add(new HistorySample(firstSequence + i, timestamp,
+                Double.isNaN(temperature) ? null : temperature,
+                Double.isNaN(humidity) ? null : humidity,
+                battery == MISSING_BATTERY ? null : (int) battery));
+        }
+        return false;
+    }
+
+    private static long readDeltaOfDelta(BitReader in) {
+        if (!in.readBit()) {
+            return 0;
+        }
+        if (!in.readBit()) {
+            return signExtend(in.read(7), 7);
+        }
+        if (!in.readBit()) {
+            return signExtend(in.read(9), 9);
+        }
+        if (!in.readBit()) {
+            return signExtend(in.read(12), 12);
+        }
+        return in.read(64);
+    }
+
+    private static long signExtend(long value, int bits) {
+        int shift = 64 - bits;
+        return (value << shift) >> shift;
+    }
+
+    /**
+     * 占用的堆内存字节数（各列数组，不含对象头）
+     */
+    long sizeBytes() {
+        if (isSealed()) {
+            return (long) (timestamps.length + temperatures.length + humidities.length) * Long.BYTES
+                + batteries.length;
+        }
+        return timestampWriter.capacityBytes() + temperatureWriter.out.capacityBytes()
+            + humidityWriter.out.capacityBytes() + batteries.length;
+    }
+
+    /**
+     * Gorilla异或编码：与前一个值相同写1位；有效位落在前一个值的有效位窗口内时只写窗口内的位，
+     * 否则写出前导零个数、有效位长度和有效位
+     */
+    static final class XorEncoder {
+        final BitWriter out;
+        private long previous;
+        private int leading = -1;
+        private int trailing;
+        private boolean first = true;
+
+        XorEncoder(BitWriter out) {
+            this.out = out;
+        }
+
+        void write(double value) {
+            long bits = Double.doubleToRawLongBits(value);
+            if (first) {
+                out.write(bits, 64);
+                previous = bits;
+                first = false;
+                return;
+            }
+            long xor = bits ^ previous;
+            previous = bits;
+            if (xor == 0) {
+                out.write(0b0, 1);
+                return;
+            }
+            int newLeading = Math.min(31, Long.numberOfLeadingZeros(xor));
+            int newTrailing = Long.numberOfTrailingZeros(xor);
+            if (leading >= 0 && newLeading >= leading && newTrailing >= trailing) {
+                out.write(0b10, 2);
+                out.write(xor >>> trailing, 64 - leading - trailing);
+                return;
+            }
+            int significant = 64 - newLeading - newTrailing;
+            out.write(0b11, 2);
+            out.write(newLeading, 5);
+            // 有效位长度1到64，64以0表示
+            out.write(significant & 63, 6);
+            out.write(xor >>> newTrailing, significant);
+            leading = newLeading;
+            trailing = newTrailing;
+        }
+    }
+
+    static final class XorDecoder {
+        private final BitReader in;
+        private long previous;
+        private int leading;
+        private int trailing;
+        private boolean first = true;
+
+        XorDecoder(BitReader in) {
+            this.in = in;
+        }
+
+        double read() {
+            if (first) {
+                previous = in.read(64);
+                first = false;
+                return Double.longBitsToDouble(previous);
+            }
+            if (in.readBit()) {
+                if (in.readBit()) {
+                    leading = (int) in.read(5);
+                    int significant = (int) in.read(6);
+                    if (significant == 0) {
+                        significant = 64;
+                    }
+                    trailing = 64 - leading - significant;
+                }
+                int significant = 64 - leading - trailing;
+                previous ^= in.read(significant) << trailing;
+            }
+            return Double.longBitsToDouble(previous);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.example.mqtt.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import com.example.mqtt.broker.RateLimitAction;
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.SingleThreadEventExecutor;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Broker热路径指标
+ * <p>
+ * 所有计量器在构造时一次性注册并缓存引用，热路径上只做计数器累加和直方图记录，
+ * 不查找注册表、不创建标签，channelRead和转发路径上没有额外的分配和锁。
+ * 需要遍历连接或事件循环的指标（写缓冲积压、任务队列长度）注册为Gauge，只在采集时计算。
+ */
+public class BrokerMetrics {
+
+    /**
+     * 没有接入注册表时使用，记录操作为空操作
+     */
+    public static final BrokerMetrics NOOP = new BrokerMetrics(new CompositeMeterRegistry());
+
+    private final MeterRegistry registry;
+    private final Counter connects;
+    private final Counter disconnects;
+    // 按QoS值索引
+    private final Counter[] publishesByQos = new Counter[3];
+    private final DistributionSummary fanOut;
+    private final Timer routeLatency;
+    private final Counter outboundBytes;
+    // 按RateLimitAction序号索引
+    private final Counter[] rateLimited;
+
+    public BrokerMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        connects = Counter.builder("mqtt.connections.opened")
+            .description("已接受的CONNECT").register(registry);
+        disconnects = Counter.builder("mqtt.connections.closed")
+            .description("CONNECT之后断开的连接").register(registry);
+        for (int qos = 0; qos < publishesByQos.length; qos++) {
+            publishesByQos[qos] = Counter.builder("mqtt.publish.received")
+                .description("收到的PUBLISH报文")
+                .tag("qos", Integer.toString(qos))
+                .register(registry);
+        }
+        fanOut = DistributionSummary.builder("mqtt.publish.fanout")
+            .description("每条发布消息转发到的订阅者数")
+            .publishPercentileHistogram()
+            .register(registry);
+        routeLatency = Timer.builder("mqtt.publish.route")
+            .description("从PUBLISH解码完成到最后一个订阅者写出或交给其他事件循环的耗时")
+            .publishPercentileHistogram()
+            .register(registry);
+        outboundBytes = Counter.builder("mqtt.bytes.outbound")
+            .description("写出到客户端连接的字节数")
+            .baseUnit("bytes")
+            .register(registry);
+        RateLimitAction[] actions = RateLimitAction.values();
+        rateLimited = new Counter[actions.length];
+        for (RateLimitAction action : actions) {
+            rateLimited[action.ordinal()] = Counter.builder("mqtt.publish.rate.limited")
+                .description("超过发布限额的消息")
+                .tag("action", action.name())
+                .register(registry);
+        }
+    }
+
+    public void connected() {
+        connects.increment();
+    }
+
+    public void disconnected() {
+        disconnects.increment();
+    }
+
+    public void published(int qos) {
+        publishesByQos[qos].increment();
+    }
+
+    /**
+     * 记录一次转发：扇出数及自startNanos起的路由耗时
+     */
+    public void routed(int subscribers, long startNanos) {
+        fanOut.record(subscribers);
+        routeLatency.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void rateLimited(RateLimitAction action) {
+        rateLimited[action.ordinal()].increment();
+    }
+
+    public void bytesWritten(long bytes) {
+        outboundBytes.increment(bytes);
+    }
+
+    /**
+     * 注册只在采集时计算的Gauge，如在线连接数、写缓冲积压字节数
+     */
+    public <T> void gauge(String name, String description, T source, ToDoubleFunction<T> value) {
+        Gauge.builder(name, source, value).description(description).register(registry);
+    }
+
+    /**
+     * 为事件循环组中每个事件循环注册任务队列长度
+     */
+    public void bindEventLoops(EventLoopGroup group, String name) {
+        int index = 0;
+        for (EventExecutor executor : group) {
+            if (executor instanceof SingleThreadEventExecutor) {
+                Gauge.builder("mqtt.eventloop.pending.tasks", (SingleThreadEventExecutor) executor,
+                        SingleThreadEventExecutor::pendingTasks)
+                    .description("事件循环任务队列中等待执行的任务数")
+                    .tag("group", name)
+                    .tag("loop", Integer.toString(index))
+                    .register(registry);
+            }
+            index++;
+        }
+    }
+}
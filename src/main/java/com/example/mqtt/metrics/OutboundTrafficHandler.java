@@ -0,0 +1,33 @@
+package com.example.mqtt.metrics;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufHolder;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+
+/**
+ * 统计写出到客户端连接的字节数
+ * <p>
+ * 放在管道最前端（最靠近socket），此时消息已由编码器转换为ByteBuf，只读取可读字节数，不做复制。
+ */
+@ChannelHandler.Sharable
+public class OutboundTrafficHandler extends ChannelOutboundHandlerAdapter {
+
+    private final BrokerMetrics metrics;
+
+    public OutboundTrafficHandler(BrokerMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (msg instanceof ByteBuf) {
+            metrics.bytesWritten(((ByteBuf) msg).readableBytes());
+        } else if (msg instanceof ByteBufHolder) {
+            metrics.bytesWritten(((ByteBufHolder) msg).content().readableBytes());
+        }
+        super.write(ctx, msg, promise);
+    }
+}
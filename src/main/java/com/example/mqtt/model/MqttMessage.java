@@ -14,6 +14,11 @@ public class MqttMessage {
      */
     private String messageId;
     
+    /**
+     * 接收序号，客户端收到消息时按到达顺序分配，单调递增
+     */
+    private long sequence;
+    
     /**
      * 主题
      */
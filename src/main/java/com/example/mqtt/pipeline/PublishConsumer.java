@@ -0,0 +1,19 @@
+package com.example.mqtt.pipeline;
+
+import java.util.List;
+
+/**
+ * 发布消息的业务处理器
+ * <p>
+ * 在业务线程中成批调用，不占用Netty事件循环，可以执行数据库写入等阻塞操作。
+ * 同一客户端发布的消息总是由同一个业务线程按到达顺序处理。
+ * 注册为Spring Bean即可接入，多个处理器按注册顺序依次处理同一批消息。
+ */
+@FunctionalInterface
+public interface PublishConsumer {
+
+    /**
+     * 处理一批消息，消息的payload只在调用期间有效，需要保留时自行复制
+     */
+    void onPublish(List<PublishEvent> batch) throws Exception;
+}
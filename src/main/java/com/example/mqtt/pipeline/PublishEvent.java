@@ -0,0 +1,62 @@
+package com.example.mqtt.pipeline;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.mqtt.MqttQoS;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 进入业务处理管道的一条发布消息
+ */
+public final class PublishEvent {
+
+    private final String clientId;
+    private final String topic;
+    private final ByteBuf payload;
+    private final MqttQoS qos;
+    private final boolean retain;
+    private final long receivedAt;
+
+    PublishEvent(String clientId, String topic, ByteBuf payload, MqttQoS qos, boolean retain, long receivedAt) {
+        this.clientId = clientId;
+        this.topic = topic;
+        this.payload = payload;
+        this.qos = qos;
+        this.retain = retain;
+        this.receivedAt = receivedAt;
+    }
+
+    public String getClientId() {
+        return clientId;
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    /**
+     * 与Broker转发共享的payload，只在 {@link PublishConsumer#onPublish} 调用期间有效，不要释放
+     */
+    public ByteBuf getPayload() {
+        return payload;
+    }
+
+    public String getPayloadAsString() {
+        return payload.toString(StandardCharsets.UTF_8);
+    }
+
+    public MqttQoS getQos() {
+        return qos;
+    }
+
+    public boolean isRetain() {
+        return retain;
+    }
+
+    /**
+     * Broker收到消息的时间（毫秒）
+     */
+    public long getReceivedAt() {
+        return receivedAt;
+    }
+}
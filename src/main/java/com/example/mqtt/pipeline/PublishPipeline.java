@@ -0,0 +1,230 @@
+package com.example.mqtt.pipeline;
+
+import com.example.mqtt.broker.ReadPause;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.handler.codec.mqtt.MqttQoS;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.internal.PlatformDependent;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 发布消息的业务处理管道
+ * <p>
+ * 事件循环收到PUBLISH后只把消息放入有界环形队列即返回，业务处理器在独立的业务线程中成批执行，
+ * 慢处理器不会拖住同一事件循环上的其他连接。每个业务线程独占一个环形队列，消息按clientId分配，
+ * 同一客户端的消息保持顺序。payload以引用计数共享，处理完一批后释放。
+ * <p>
+ * 背压：环形队列超过3/4时暂停发布者连接的读取，由TCP窗口让设备放慢发送；
+ * 业务线程把队列消费到1/4以下时解除暂停，连接没有其他暂停原因（如发布限流）时才恢复读取。
+ * 暂停后已解码的少量消息仍可放入剩余空间，队列完全写满时新消息不进入管道（Broker转发不受影响），计入rejected。
+ */
+@Slf4j
+public class PublishPipeline {
+
+    private final Ring[] rings;
+    private final List<PublishConsumer> consumers;
+    private final int batchSize;
+    private final int pauseThreshold;
+    private final int resumeThreshold;
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder processed = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder pauses = new LongAdder();
+    private volatile boolean running = true;
+
+    /**
+     * @param consumers 业务处理器，按顺序处理同一批消息
+     * @param threads   业务线程数，每个线程一个环形队列
+     * @param ringSize  每个环形队列的容量
+     * @param batchSize 一次交给处理器的最大消息数
+     */
+    public PublishPipeline(List<PublishConsumer> consumers, int threads, int ringSize, int batchSize) {
+        this.consumers = List.copyOf(consumers);
+        this.batchSize = batchSize;
+        this.pauseThreshold = Math.max(1, ringSize * 3 / 4);
+        this.resumeThreshold = ringSize / 4;
+        ThreadFactory threadFactory = new DefaultThreadFactory("mqtt-business", true);
+        rings = new Ring[threads];
+        for (int i = 0; i < threads; i++) {
+            rings[i] = new Ring(ringSize);
+            rings[i].thread = threadFactory.newThread(rings[i]::run);
+        }
+        for (Ring ring : rings) {
+            ring.thread.start();
+        }
+        log.info("业务处理管道已启动，业务线程: {}, 队列容量: {}, 批次大小: {}, 处理器: {}",
+            threads, ringSize, batchSize, this.consumers.size());
+    }
+
+    /**
+     * 在事件循环中调用，放入消息后立即返回。调用方仍持有payload的所有权
+     *
+     * @param channel 发布者连接，队列积压时暂停其读取
+     * @return 队列已满未能放入时返回false
+     */
+    public boolean publish(Channel channel, String clientId, String topic, ByteBuf payload,
+                           MqttQoS qos, boolean retain) {
+        Ring ring = rings[Math.floorMod(clientId.hashCode(), rings.length)];
+        PublishEvent event = new PublishEvent(clientId, topic, payload.retainedDuplicate(), qos, retain,
+            System.currentTimeMillis());
+        if (!ring.queue.offer(event)) {
+            event.getPayload().release();
+            rejected.increment();
+            pause(ring, channel);
+            return false;
+        }
+        accepted.increment();
+        if (ring.queue.size() >= pauseThreshold) {
+            pause(ring, channel);
+        }
+        ring.wakeUp();
+        return true;
+    }
+
+    private void pause(Ring ring, Channel channel) {
+        if (ReadPause.pause(channel, ReadPause.PIPELINE)) {
+            ring.paused.offer(channel);
+            pauses.increment();
+            log.debug("业务队列积压，暂停读取: {}", channel.remoteAddress());
+            ring.wakeUp();
+        }
+    }
+
+    /**
+     * 停止业务线程，已入队未处理的消息直接释放
+     */
+    public void close() {
+        running = false;
+        for (Ring ring : rings) {
+            LockSupport.unpark(ring.thread);
+        }
+        for (Ring ring : rings) {
+            try {
+                ring.thread.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        for (Ring ring : rings) {
+            PublishEvent event;
+            while ((event = ring.queue.poll()) != null) {
+                event.getPayload().release();
+            }
+            ring.resumeAll();
+        }
+        log.info("业务处理管道已关闭");
+    }
+
+    /**
+     * 获取管道统计
+     */
+    public Map<String, Object> getStats() {
+        long pending = 0;
+        int paused = 0;
+        for (Ring ring : rings) {
+            pending += ring.queue.size();
+            paused += ring.paused.size();
+        }
+        Map<String, Object> result = new HashMap<>();
+        result.put("threads", rings.length);
+        result.put("batch_size", batchSize);
+        result.put("consumers", consumers.size());
+        result.put("accepted", accepted.sum());
+        result.put("rejected", rejected.sum());
+        result.put("processed", processed.sum());
+        result.put("batches", batches.sum());
+        result.put("failures", failures.sum());
+        result.put("pending", pending);
+        result.put("paused_channels", paused);
+        result.put("pauses", pauses.sum());
+        return result;
+    }
+
+    /**
+     * 一个业务线程及其独占的环形队列：多个事件循环写入，单个业务线程消费
+     */
+    private final class Ring {
+        final Queue<PublishEvent> queue;
+        // 被暂停读取的发布者连接，只由本队列的业务线程恢复
+        final Queue<Channel> paused = PlatformDependent.newMpscQueue();
+        Thread thread;
+        volatile boolean sleeping;
+
+        Ring(int capacity) {
+            queue = PlatformDependent.newFixedMpscQueue(capacity);
+        }
+
+        void wakeUp() {
+            if (sleeping) {
+                sleeping = false;
+                LockSupport.unpark(thread);
+            }
+        }
+
+        void run() {
+            List<PublishEvent> batch = new ArrayList<>(batchSize);
+            while (running) {
+                PublishEvent event;
+                while (batch.size() < batchSize && (event = queue.poll()) != null) {
+                    batch.add(event);
+                }
+                if (!batch.isEmpty()) {
+                    process(batch);
+                    batch.clear();
+                }
+                if (queue.size() <= resumeThreshold) {
+                    resumeAll();
+                }
+                if (queue.isEmpty()) {
+                    sleeping = true;
+                    // 设置标记后再检查一次，避免与刚入队的生产者互相错过
+                    if (queue.isEmpty() && paused.isEmpty() && running) {
+                        LockSupport.park(this);
+                    }
+                    sleeping = false;
+                }
+            }
+        }
+
+        void resumeAll() {
+            Channel channel;
+            while ((channel = paused.poll()) != null) {
+                ReadPause.resume(channel, ReadPause.PIPELINE);
+            }
+        }
+
+        private void process(List<PublishEvent> batch) {
+            try {
+                for (PublishConsumer consumer : consumers) {
+                    try {
+                        consumer.onPublish(batch);
+                    } catch (Exception e) {
+                        // 一个处理器失败不影响其他处理器和后续批次
+                        failures.increment();
+                        log.error("业务处理器执行失败: {}", consumer.getClass().getSimpleName(), e);
+                    }
+                }
+                processed.add(batch.size());
+                batches.increment();
+            } finally {
+                for (PublishEvent event : batch) {
+                    event.getPayload().release();
+                }
+            }
+        }
+    }
+}
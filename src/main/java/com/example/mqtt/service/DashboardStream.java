@@ -0,0 +1,218 @@
+package com.example.mqtt.service;
+
+import com.example.mqtt.broker.TopicFilter;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * 一个控制台的SSE推送连接
+ * <p>
+ * 更新按键（主题或设备ID）合并：两次发送之间同一个键只保留最新的值，
+ * 同一设备的一串更新只发最后一次，待发数据的大小只与键的数量有关。
+ * 同一时刻最多只有一个线程在发送，发送结束后如有新的更新再排下一轮；心跳也作为一个待发事件走同一轮发送。
+ * <p>
+ * SseEmitter.send在浏览器不读取时会阻塞，连接记录当前发送的开始时间，由调用方据此把卡住的连接标记为stalled：
+ * 连接立即停止接收更新，emitter由卡住的发送线程在send返回后完成，不另占一个线程等待emitter的锁。
+ */
+public class DashboardStream {
+
+    /**
+     * 放入更新的结果
+     */
+    public enum Offer {
+        /** 新的键，需要为连接排一轮发送 */
+        SCHEDULE,
+        /** 新的键，已经排过发送 */
+        QUEUED,
+        /** 替换了同一个键尚未发送的旧值 */
+        COALESCED,
+        /** 待发的键已达上限，挤掉了最早的一个 */
+        EVICTED,
+        /** 连接已关闭 */
+        CLOSED
+    }
+
+    // 心跳事件的键，不会与"message:"、"device:"开头的键冲突
+    private static final String HEARTBEAT_KEY = "";
+    private static final Event HEARTBEAT = new Event(null, null);
+
+    private final SseEmitter emitter;
+    private final List<TopicFilter> filters;
+    private final int maxPending;
+    // 键 -> 待发的事件，保持首次放入的顺序
+    private final LinkedHashMap<String, Event> pending = new LinkedHashMap<>();
+    private boolean scheduled;
+    private volatile boolean closed;
+    private boolean sending;
+    private long sendStartedNanos;
+    private volatile boolean stalled;
+
+    /**
+     * @param filters    只推送主题匹配其中之一的更新
+     * @param maxPending 最多合并保留的键数
+     */
+    public DashboardStream(SseEmitter emitter, List<TopicFilter> filters, int maxPending) {
+        this.emitter = emitter;
+        this.filters = filters;
+        this.maxPending = maxPending;
+    }
+
+    public SseEmitter getEmitter() {
+        return emitter;
+    }
+
+    /**
+     * 主题是否在该连接的过滤范围内
+     */
+    public boolean accepts(String topic) {
+        for (int i = 0; i < filters.size(); i++) {
+            if (filters.get(i).matches(topic)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 放入一个更新，json由调用方序列化一次后在所有连接间共用
+     */
+    public synchronized Offer offer(String key, String name, String json) {
+        if (closed) {
+            return Offer.CLOSED;
+        }
+        if (pending.put(key, new Event(name, json)) != null) {
+            return Offer.COALESCED;
+        }
+        Offer result = Offer.QUEUED;
+        if (pending.size() > maxPending) {
+            Iterator<String> eldest = pending.keySet().iterator();
+            eldest.next();
+            eldest.remove();
+            result = Offer.EVICTED;
+        }
+        if (!scheduled) {
+            scheduled = true;
+            return Offer.SCHEDULE;
+        }
+        return result;
+    }
+
+    /**
+     * 放入一个心跳；已有待发的更新时它们本身就能发现断开的连接，不再另加心跳
+     */
+    public synchronized Offer heartbeat() {
+        if (closed) {
+            return Offer.CLOSED;
+        }
+        if (!pending.isEmpty()) {
+            return Offer.QUEUED;
+        }
+        pending.put(HEARTBEAT_KEY, HEARTBEAT);
+        if (!scheduled) {
+            scheduled = true;
+            return Offer.SCHEDULE;
+        }
+        return Offer.QUEUED;
+    }
+
+    /**
+     * 发送当前合并的全部更新，返回发送的更新数（不含心跳）；发送期间又有更新时返回后需要再排一轮，由 {@link #finishFlush()} 判断
+     */
+    public int flush() {
+        List<Event> batch;
+        synchronized (this) {
+            batch = new ArrayList<>(pending.values());
+            pending.clear();
+            sendStartedNanos = System.nanoTime();
+            sending = true;
+        }
+        int count = 0;
+        try {
+            for (Event event : batch) {
+                if (event == HEARTBEAT) {
+                    emitter.send(SseEmitter.event().comment("ping"));
+                } else {
+                    emitter.send(SseEmitter.event().name(event.name).data(event.json, MediaType.APPLICATION_JSON));
+                    count++;
+                }
+            }
+        } catch (IOException | IllegalStateException e) {
+            // 浏览器已断开，连接的清理由emitter的完成回调处理
+            close();
+        } finally {
+            boolean complete;
+            synchronized (this) {
+                sending = false;
+                complete = stalled;
+            }
+            if (complete) {
+                emitter.complete();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 当前这轮发送超过timeoutNanos仍未结束时把连接标记为卡住并关闭，返回是否标记；
+     * 标记成功后正在发送的 {@link #flush()} 返回时完成emitter，之后 {@link #isStalled()} 为true
+     */
+    public synchronized boolean markStalled(long nowNanos, long timeoutNanos) {
+        if (closed || !sending || nowNanos - sendStartedNanos <= timeoutNanos) {
+            return false;
+        }
+        stalled = true;
+        closed = true;
+        pending.clear();
+        return true;
+    }
+
+    public boolean isStalled() {
+        return stalled;
+    }
+
+    /**
+     * 一轮发送结束：没有新的更新时清除排队标记返回false，否则返回true表示需要再排一轮
+     */
+    public synchronized boolean finishFlush() {
+        if (closed || pending.isEmpty()) {
+            scheduled = false;
+            return false;
+        }
+        return true;
+    }
+
+    public synchronized int pendingCount() {
+        return pending.size();
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            pending.clear();
+        }
+        emitter.complete();
+    }
+
+    private static final class Event {
+        final String name;
+        final String json;
+
+        Event(String name, String json) {
+            this.name = name;
+            this.json = json;
+        }
+    }
+}
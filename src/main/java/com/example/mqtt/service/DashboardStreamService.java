@@ -0,0 +1,252 @@
+package com.example.mqtt.service;
+
+import com.example.mqtt.broker.TopicFilter;
+import com.example.mqtt.model.DeviceData;
+import com.example.mqtt.model.MqttMessage;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 控制台推送服务
+ * <p>
+ * 取代页面定时轮询 /messages 和 /devices：浏览器建立一个SSE连接并给出关注的主题过滤器，
+ * 之后只收到匹配的增量更新（消息按主题、设备按设备ID）。每条更新只序列化一次，所有连接共用同一个JSON字符串；
+ * 每个连接在flush-interval内对同一个键只保留最新值，突发的更新合并成一次发送。
+ * <p>
+ * 浏览器不读取时SseEmitter.send会阻塞。定时线程只负责排期，发送在单独的发送线程池中进行，
+ * 每个连接同一时刻最多占用一个发送线程，卡住的连接不会拖住其他连接的推送。
+ * 一轮发送超过send-timeout仍未结束的连接被判定为卡住并关闭；它的发送线程在send返回前一直被占用，
+ * 所以卡住的连接在send返回前仍计入连接数上限，发送线程数因此不超过max-connections。
+ */
+@Slf4j
+@Service
+public class DashboardStreamService {
+
+    private final ObjectMapper objectMapper;
+    private final MqttClientService mqttClientService;
+    private final DeviceDataService deviceDataService;
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService sender;
+    private final Set<DashboardStream> streams = ConcurrentHashMap.newKeySet();
+    // 已判定卡住、发送线程仍阻塞在send中的连接数
+    private final AtomicInteger stalledSending = new AtomicInteger();
+    private final long flushIntervalMillis;
+    private final long sendTimeoutNanos;
+    private final int maxPending;
+    private final int maxConnections;
+    private final long timeoutMillis;
+
+    private final LongAdder opened = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+    private final LongAdder stalled = new LongAdder();
+
+    public DashboardStreamService(MqttClientService mqttClientService,
+                                  DeviceDataService deviceDataService,
+                                  @Value("${mqtt.dashboard.stream.flush-interval-ms:250}") long flushIntervalMillis,
+                                  @Value("${mqtt.dashboard.stream.max-pending:1000}") int maxPending,
+                                  @Value("${mqtt.dashboard.stream.max-connections:100}") int maxConnections,
+                                  @Value("${mqtt.dashboard.stream.heartbeat-seconds:15}") long heartbeatSeconds,
+                                  @Value("${mqtt.dashboard.stream.timeout-seconds:1800}") long timeoutSeconds,
+                                  @Value("${mqtt.dashboard.stream.send-timeout-ms:30000}") long sendTimeoutMillis) {
+        this.mqttClientService = mqttClientService;
+        this.deviceDataService = deviceDataService;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.sendTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(sendTimeoutMillis);
+        this.maxPending = maxPending;
+        this.maxConnections = maxConnections;
+        this.timeoutMillis = TimeUnit.SECONDS.toMillis(timeoutSeconds);
+        this.objectMapper = new ObjectMapper();
+        this.objectMapper.registerModule(new JavaTimeModule());
+        this.objectMapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("dashboard-stream", true));
+        // 每个连接（包括send尚未返回的卡住连接）最多占用一个发送线程，线程数随连接数增减，不超过连接数上限
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(maxConnections, maxConnections, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), new DefaultThreadFactory("dashboard-send", true));
+        pool.allowCoreThreadTimeOut(true);
+        this.sender = pool;
+        long checkMillis = Math.max(1, Math.min(sendTimeoutMillis, 1000));
+        scheduler.scheduleAtFixedRate(this::heartbeat, heartbeatSeconds, heartbeatSeconds, TimeUnit.SECONDS);
+        scheduler.scheduleAtFixedRate(this::closeStalled, checkMillis, checkMillis, TimeUnit.MILLISECONDS);
+        mqttClientService.addMessageListener(this::onMessage);
+        deviceDataService.addUpdateListener(this::onDevice);
+    }
+
+    /**
+     * 打开一个推送连接，先发送当前匹配的消息和设备作为初始状态；连接数已满时返回null
+     */
+    public SseEmitter open(List<TopicFilter> filters) {
+        if (streams.size() + stalledSending.get() >= maxConnections) {
+            rejected.increment();
+            return null;
+        }
+        SseEmitter emitter = new SseEmitter(timeoutMillis);
+        DashboardStream stream = new DashboardStream(emitter, filters, maxPending);
+        emitter.onCompletion(() -> streams.remove(stream));
+        emitter.onTimeout(stream::close);
+        emitter.onError(e -> stream.close());
+        streams.add(stream);
+        opened.increment();
+
+        // 初始状态：每个主题最新的一条消息及全部设备
+        mqttClientService.getLatestMessages().forEach(message -> offer(stream, message));
+        deviceDataService.getAllDeviceData().forEach(device -> offer(stream, device));
+        return emitter;
+    }
+
+    private void onMessage(MqttMessage message) {
+        if (streams.isEmpty()) {
+            return;
+        }
+        String json = toJson(message);
+        if (json == null) {
+            return;
+        }
+        for (DashboardStream stream : streams) {
+            if (stream.accepts(message.getTopic())) {
+                offer(stream, "message:" + message.getTopic(), "message", json);
+            }
+        }
+    }
+
+    private void onDevice(DeviceData device) {
+        if (streams.isEmpty()) {
+            return;
+        }
+        String topic = DeviceDataService.dataTopic(device.getDeviceId());
+        String json = toJson(device);
+        if (json == null) {
+            return;
+        }
+        for (DashboardStream stream : streams) {
+            if (stream.accepts(topic)) {
+                offer(stream, "device:" + device.getDeviceId(), "device", json);
+            }
+        }
+    }
+
+    private void offer(DashboardStream stream, MqttMessage message) {
+        String json = toJson(message);
+        if (json != null && stream.accepts(message.getTopic())) {
+            offer(stream, "message:" + message.getTopic(), "message", json);
+        }
+    }
+
+    private void offer(DashboardStream stream, DeviceData device) {
+        String json = toJson(device);
+        if (json != null && stream.accepts(DeviceDataService.dataTopic(device.getDeviceId()))) {
+            offer(stream, "device:" + device.getDeviceId(), "device", json);
+        }
+    }
+
+    private void offer(DashboardStream stream, String key, String name, String json) {
+        switch (stream.offer(key, name, json)) {
+            case SCHEDULE:
+                scheduleFlush(stream);
+                break;
+            case COALESCED:
+                coalesced.increment();
+                break;
+            case EVICTED:
+                evicted.increment();
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void scheduleFlush(DashboardStream stream) {
+        scheduler.schedule(() -> sender.execute(() -> flush(stream)), flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void flush(DashboardStream stream) {
+        sent.add(stream.flush());
+        if (stream.isStalled()) {
+            // 卡住的send已返回，emitter已由flush完成，释放它占用的连接名额
+            stalledSending.decrementAndGet();
+            return;
+        }
+        if (stream.finishFlush()) {
+            scheduleFlush(stream);
+        }
+    }
+
+    private void heartbeat() {
+        for (DashboardStream stream : streams) {
+            if (stream.heartbeat() == DashboardStream.Offer.SCHEDULE) {
+                sender.execute(() -> flush(stream));
+            }
+        }
+    }
+
+    /**
+     * 关闭发送超过send-timeout仍未结束的连接：不再向它推送，emitter由阻塞的发送线程在send返回后完成
+     */
+    private void closeStalled() {
+        long now = System.nanoTime();
+        for (DashboardStream stream : streams) {
+            if (stream.markStalled(now, sendTimeoutNanos)) {
+                stalledSending.incrementAndGet();
+                streams.remove(stream);
+                stalled.increment();
+                log.warn("控制台推送连接发送超过{}ms未完成，关闭连接", TimeUnit.NANOSECONDS.toMillis(sendTimeoutNanos));
+            }
+        }
+    }
+
+    private String toJson(Object value) {
+        try {
+            return objectMapper.writeValueAsString(value);
+        } catch (JsonProcessingException e) {
+            log.error("控制台推送序列化失败", e);
+            return null;
+        }
+    }
+
+    /**
+     * 获取推送统计
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> result = new HashMap<>();
+        result.put("connections", streams.size());
+        result.put("stalled_sending", stalledSending.get());
+        result.put("opened", opened.sum());
+        result.put("rejected", rejected.sum());
+        result.put("sent", sent.sum());
+        result.put("coalesced", coalesced.sum());
+        result.put("evicted", evicted.sum());
+        result.put("stalled", stalled.sum());
+        return result;
+    }
+
+    @PreDestroy
+    public void close() {
+        streams.forEach(DashboardStream::close);
+        scheduler.shutdownNow();
+        sender.shutdownNow();
+    }
+}
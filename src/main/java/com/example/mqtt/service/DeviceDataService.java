@@ -1,5 +1,8 @@
 package com.example.mqtt.service;
 
+import com.example.mqtt.aggregate.DeviceAggregator;
+import com.example.mqtt.history.DeviceHistoryStore;
+import com.example.mqtt.history.HistorySample;
 import com.example.mqtt.model.DeviceData;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
@@ -11,9 +14,11 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 /**
  * 设备数据服务
@@ -23,14 +28,21 @@ import java.util.concurrent.TimeUnit;
 public class DeviceDataService {
 
     private final MqttClientService mqttClientService;
+    private final DeviceHistoryStore historyStore;
+    private final DeviceAggregator aggregator;
     private final ObjectMapper objectMapper;
     private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
     
     // 存储设备数据
     private final ConcurrentHashMap<String, DeviceData> deviceDataMap = new ConcurrentHashMap<>();
+    // 设备数据更新后的回调（如控制台推送）
+    private final List<Consumer<DeviceData>> updateListeners = new CopyOnWriteArrayList<>();
     
-    public DeviceDataService(MqttClientService mqttClientService) {
+    public DeviceDataService(MqttClientService mqttClientService, DeviceHistoryStore historyStore,
+                             DeviceAggregator aggregator) {
         this.mqttClientService = mqttClientService;
+        this.historyStore = historyStore;
+        this.aggregator = aggregator;
         // 配置ObjectMapper支持Java 8时间类型
         this.objectMapper = new ObjectMapper();
         this.objectMapper.registerModule(new JavaTimeModule());
@@ -112,16 +124,17 @@ public class DeviceDataService {
      */
     public boolean sendDeviceData(DeviceData deviceData) {
         try {
-            String topic = "device/" + deviceData.getDeviceId() + "/data";
+            String topic = dataTopic(deviceData.getDeviceId());
             String payload = objectMapper.writeValueAsString(deviceData);
             
             log.debug("准备发送设备数据 - 主题: {}, 设备: {}", topic, deviceData.getDeviceId());
             
-            boolean success = mqttClientService.publish(topic, payload, 1, false);
+            // 以保留消息发布，新订阅者无需等待下一个上报周期即可拿到最新数据
+            boolean success = mqttClientService.publish(topic, payload, 1, true);
             
             if (success) {
                 // 保存到本地存储
-                deviceDataMap.put(deviceData.getDeviceId(), deviceData);
+                updateDeviceData(deviceData);
                 log.info("设备数据发送成功: {} - 温度: {}°C, 湿度: {}%, 电量: {}%", 
                     deviceData.getDeviceId(), 
                     String.format("%.1f", deviceData.getTemperature()),
@@ -153,7 +166,7 @@ public class DeviceDataService {
             );
             
             String payload = objectMapper.writeValueAsString(status);
-            return mqttClientService.publish("system/status", payload, 0, false);
+            return mqttClientService.publish("system/status", payload, 0, true);
             
         } catch (Exception e) {
             log.error("发送系统状态失败", e);
@@ -180,12 +193,75 @@ public class DeviceDataService {
      */
     public void updateDeviceData(DeviceData deviceData) {
         deviceDataMap.put(deviceData.getDeviceId(), deviceData);
+        historyStore.record(deviceData);
+        aggregator.record(deviceData);
+        for (Consumer<DeviceData> listener : updateListeners) {
+            listener.accept(deviceData);
+        }
+    }
+
+    /**
+     * 查询设备历史数据，时间为epoch毫秒，cursor为分页游标（采样的写入序号）
+     */
+    public List<HistorySample> getDeviceHistory(String deviceId, long from, long to, long cursor, int limit) {
+        return historyStore.query(deviceId, from, to, cursor, limit);
+    }
+
+    /**
+     * 获取历史存储统计
+     */
+    public Map<String, Object> getHistoryStats() {
+        return historyStore.getStats();
+    }
+
+    /**
+     * 获取设备最近1分钟/1小时/1天的温湿度聚合，没有数据时返回null
+     */
+    public Map<String, Object> getDeviceAggregates(String deviceId) {
+        return aggregator.getDeviceAggregates(deviceId);
+    }
+
+    /**
+     * 获取设备类型的温湿度聚合，没有数据时返回null
+     */
+    public Map<String, Object> getTypeAggregates(String deviceType) {
+        return aggregator.getTypeAggregates(deviceType);
+    }
+
+    /**
+     * 获取全部设备类型的温湿度聚合
+     */
+    public Map<String, Object> getAllTypeAggregates() {
+        return aggregator.getAllTypeAggregates();
+    }
+
+    /**
+     * 获取聚合统计
+     */
+    public Map<String, Object> getAggregateStats() {
+        return aggregator.getStats();
+    }
+
+    /**
+     * 注册设备数据更新后的回调，回调不能阻塞
+     */
+    public void addUpdateListener(Consumer<DeviceData> listener) {
+        updateListeners.add(listener);
+    }
+
+    /**
+     * 设备上报数据的主题
+     */
+    public static String dataTopic(String deviceId) {
+        return "device/" + deviceId + "/data";
     }
 
     /**
      * 删除设备数据
      */
     public boolean removeDeviceData(String deviceId) {
+        historyStore.remove(deviceId);
+        aggregator.remove(deviceId);
         return deviceDataMap.remove(deviceId) != null;
     }
 
@@ -1,6 +1,8 @@
 package com.example.mqtt.service;
 
 // import com.example.mqtt.model.MqttMessage; // 避免与Paho的MqttMessage冲突
+import com.example.mqtt.broker.TopicFilter;
+import com.example.mqtt.trace.MessageTracer;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 
@@ -17,10 +19,11 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 /**
  * MQTT客户端服务
@@ -57,17 +60,23 @@ public class MqttClientService {
 
     private MqttClient mqttClient;
     private final ObjectMapper objectMapper;
+    private final MessageTracer tracer;
     private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
     
-    public MqttClientService() {
+    public MqttClientService(MessageTracer tracer,
+                             @Value("${mqtt.client.received-buffer-size:10000}") int receivedBufferSize) {
+        this.tracer = tracer;
+        this.receivedMessages = new ReceivedMessageBuffer(receivedBufferSize);
         // 配置ObjectMapper支持Java 8时间类型
         this.objectMapper = new ObjectMapper();
         this.objectMapper.registerModule(new JavaTimeModule());
         this.objectMapper.disable(com.fasterxml.jackson.databind.SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
     }
     
-    // 存储接收到的消息
-    private final ConcurrentHashMap<String, com.example.mqtt.model.MqttMessage> receivedMessages = new ConcurrentHashMap<>();
+    // 最近接收到的消息，定长环形缓冲区，按接收序号增量读取
+    private final ReceivedMessageBuffer receivedMessages;
+    // 收到消息后的回调（如控制台推送），在Paho回调线程中执行
+    private final List<Consumer<com.example.mqtt.model.MqttMessage>> messageListeners = new CopyOnWriteArrayList<>();
 
     @PostConstruct
     public void init() {
@@ -76,9 +85,6 @@ public class MqttClientService {
         
         // 延迟启动MQTT客户端连接，等待服务器完全启动
         scheduler.schedule(this::connectToBroker, 2, TimeUnit.SECONDS);
-        
-        // 启动定时任务，清理过期消息
-        scheduler.scheduleAtFixedRate(this::cleanupExpiredMessages, 5, 5, TimeUnit.MINUTES);
     }
     
     /**
@@ -208,8 +214,9 @@ public class MqttClientService {
     private void handleMessage(String topic, org.eclipse.paho.client.mqttv3.MqttMessage pahoMessage) {
         try {
             String payload = new String(pahoMessage.getPayload());
-            log.info("收到MQTT消息 - 主题: {}, 内容: {}, QoS: {}", 
-                topic, payload, pahoMessage.getQos());
+            if (tracer.sampled(clientId, topic)) {
+                tracer.trace("RECV", clientId, topic, pahoMessage.getQos(), pahoMessage.getPayload().length, -1);
+            }
 
             // 创建自定义消息对象
             com.example.mqtt.model.MqttMessage message = new com.example.mqtt.model.MqttMessage();
@@ -220,8 +227,11 @@ public class MqttClientService {
             message.setMessageId(String.valueOf(pahoMessage.getId()));
             message.setClientId(clientId);
 
-            // 存储消息
-            receivedMessages.put(message.getMessageId(), message);
+            // 存储消息，缓冲区满时淘汰最早的一条
+            receivedMessages.append(message);
+            for (Consumer<com.example.mqtt.model.MqttMessage> listener : messageListeners) {
+                listener.accept(message);
+            }
 
             // 这里可以添加业务逻辑处理
             processBusinessLogic(message);
@@ -240,10 +250,10 @@ public class MqttClientService {
         
         if (topic.startsWith("device/") && topic.endsWith("/data")) {
             // 处理设备数据
-            log.info("处理设备数据: {}", message.getPayload());
+            log.debug("处理设备数据: {}", message.getPayload());
         } else if (topic.equals("system/status")) {
             // 处理系统状态
-            log.info("处理系统状态: {}", message.getPayload());
+            log.debug("处理系统状态: {}", message.getPayload());
         }
     }
 
@@ -265,7 +275,9 @@ public class MqttClientService {
                 pahoMessage.setRetained(retained);
                 
                 mqttClient.publish(topic, pahoMessage);
-                log.info("发布MQTT消息成功 - 主题: {}, 内容: {}", topic, payload);
+                if (tracer.sampled(clientId, topic)) {
+                    tracer.trace("SEND", clientId, topic, qos, pahoMessage.getPayload().length, -1);
+                }
                 return true;
             } else {
                 log.warn("MQTT客户端未连接，无法发布消息");
@@ -323,23 +335,50 @@ public class MqttClientService {
     }
 
     /**
-     * 获取接收到的消息
+     * 获取接收序号大于since的消息，filter为null时不过滤，最多返回limit条
+     */
+    public List<com.example.mqtt.model.MqttMessage> getReceivedMessages(long since, TopicFilter filter, int limit) {
+        return receivedMessages.since(since, filter, limit);
+    }
+
+    /**
+     * 获取每个主题最近收到的一条消息
+     */
+    public List<com.example.mqtt.model.MqttMessage> getLatestMessages() {
+        return receivedMessages.latestPerTopic();
+    }
+
+    /**
+     * 接收缓冲区中最早一条消息的序号，游标小于它减一时说明中间的消息已被淘汰
+     */
+    public long getOldestSequence() {
+        return receivedMessages.oldestSeq();
+    }
+
+    /**
+     * 最近收到的一条消息的序号
+     */
+    public long getLastSequence() {
+        return receivedMessages.lastSeq();
+    }
+
+    /**
+     * 获取接收缓冲区统计
      */
-    public Map<String, com.example.mqtt.model.MqttMessage> getReceivedMessages() {
-        return new ConcurrentHashMap<>(receivedMessages);
+    public Map<String, Object> getReceivedMessageStats() {
+        Map<String, Object> result = new HashMap<>();
+        result.put("buffered", receivedMessages.size());
+        result.put("topics", receivedMessages.topicCount());
+        result.put("oldest_sequence", receivedMessages.oldestSeq());
+        result.put("last_sequence", receivedMessages.lastSeq());
+        return result;
     }
 
     /**
-     * 清理过期消息
+     * 注册收到消息后的回调，回调不能阻塞
      */
-    private void cleanupExpiredMessages() {
-        long currentTime = System.currentTimeMillis();
-        receivedMessages.entrySet().removeIf(entry -> {
-            com.example.mqtt.model.MqttMessage message = entry.getValue();
-            // 清理1小时前的消息
-            return currentTime - message.getTimestamp().atZone(java.time.ZoneId.systemDefault())
-                .toInstant().toEpochMilli() > 3600000;
-        });
+    public void addMessageListener(Consumer<com.example.mqtt.model.MqttMessage> listener) {
+        messageListeners.add(listener);
     }
 
     @PreDestroy
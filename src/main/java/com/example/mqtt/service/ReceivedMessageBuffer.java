@@ -0,0 +1,169 @@
+package com.example.mqtt.service;
+
+import com.example.mqtt.broker.TopicFilter;
+import com.example.mqtt.model.MqttMessage;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 客户端收到消息的定长环形缓冲区
+ * <p>
+ * 每条消息分配单调递增的序号，写满后新消息覆盖最早的一条，追加和淘汰都是O(1)。
+ * 另按主题保存该主题在缓冲区中的序号队列（按序号递增），精确主题的查询不必扫描整个缓冲区，
+ * 淘汰的消息一定是其主题队列的队首。读取方以序号作为游标增量拉取。
+ */
+public class ReceivedMessageBuffer {
+
+    private final MqttMessage[] ring;
+    // 主题 -> 该主题仍在缓冲区中的消息序号
+    private final Map<String, SeqQueue> topicIndex = new HashMap<>();
+    // 下一条消息的序号，序号从1开始
+    private long nextSeq = 1;
+
+    public ReceivedMessageBuffer(int capacity) {
+        this.ring = new MqttMessage[capacity];
+    }
+
+    /**
+     * 追加消息并分配序号，缓冲区已满时淘汰最早的一条
+     */
+    public synchronized long append(MqttMessage message) {
+        long seq = nextSeq++;
+        int slot = slot(seq);
+        MqttMessage evicted = ring[slot];
+        if (evicted != null) {
+            SeqQueue queue = topicIndex.get(evicted.getTopic());
+            queue.removeFirst();
+            if (queue.isEmpty()) {
+                topicIndex.remove(evicted.getTopic());
+            }
+        }
+        message.setSequence(seq);
+        ring[slot] = message;
+        topicIndex.computeIfAbsent(message.getTopic(), topic -> new SeqQueue()).add(seq);
+        return seq;
+    }
+
+    /**
+     * 取序号大于since的消息，按序号递增最多返回limit条；filter为null时不过滤，
+     * 不含通配符的过滤器按主题索引查找，含通配符时顺序扫描缓冲区
+     */
+    public synchronized List<MqttMessage> since(long since, TopicFilter filter, int limit) {
+        List<MqttMessage> result = new ArrayList<>(Math.min(limit, ring.length));
+        long from = Math.max(since + 1, oldestSeq());
+        if (filter != null && !filter.hasWildcard()) {
+            SeqQueue queue = topicIndex.get(filter.getTopicFilter());
+            if (queue != null) {
+                for (int i = queue.firstAfter(since); i < queue.size() && result.size() < limit; i++) {
+                    result.add(ring[slot(queue.get(i))]);
+                }
+            }
+            return result;
+        }
+        for (long seq = from; seq < nextSeq && result.size() < limit; seq++) {
+            MqttMessage message = ring[slot(seq)];
+            if (filter == null || filter.matches(message.getTopic())) {
+                result.add(message);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 每个主题最新的一条消息
+     */
+    public synchronized List<MqttMessage> latestPerTopic() {
+        List<MqttMessage> result = new ArrayList<>(topicIndex.size());
+        topicIndex.values().forEach(queue -> result.add(ring[slot(queue.last())]));
+        return result;
+    }
+
+    /**
+     * 缓冲区中最早一条消息的序号，为空时等于下一条消息的序号
+     */
+    public synchronized long oldestSeq() {
+        return Math.max(1, nextSeq - ring.length);
+    }
+
+    /**
+     * 最近一条消息的序号，没有消息时为0
+     */
+    public synchronized long lastSeq() {
+        return nextSeq - 1;
+    }
+
+    public synchronized int size() {
+        return (int) Math.min(nextSeq - 1, ring.length);
+    }
+
+    public synchronized int topicCount() {
+        return topicIndex.size();
+    }
+
+    private int slot(long seq) {
+        return (int) (seq % ring.length);
+    }
+
+    /**
+     * 递增序号的环形队列，只在队尾追加、队首移除
+     */
+    private static final class SeqQueue {
+        private long[] seqs = new long[4];
+        private int head;
+        private int size;
+
+        void add(long seq) {
+            if (size == seqs.length) {
+                long[] grown = new long[seqs.length * 2];
+                for (int i = 0; i < size; i++) {
+                    grown[i] = get(i);
+                }
+                seqs = grown;
+                head = 0;
+            }
+            seqs[(head + size) % seqs.length] = seq;
+            size++;
+        }
+
+        void removeFirst() {
+            head = (head + 1) % seqs.length;
+            size--;
+        }
+
+        long get(int index) {
+            return seqs[(head + index) % seqs.length];
+        }
+
+        long last() {
+            return get(size - 1);
+        }
+
+        int size() {
+            return size;
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        /**
+         * 第一个大于seq的位置，二分查找
+         */
+        int firstAfter(long seq) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (get(mid) <= seq) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+}
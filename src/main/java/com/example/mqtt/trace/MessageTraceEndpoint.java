@@ -0,0 +1,56 @@
+package com.example.mqtt.trace;
+
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * 消息追踪端点 /actuator/mqtttrace
+ * <p>
+ * GET 查看追踪状态；POST 调整模式、采样率或追加要追踪的clientId/主题过滤器；
+ * DELETE 取消指定目标，不带参数时清空全部目标。
+ */
+@Component
+@Endpoint(id = "mqtttrace")
+public class MessageTraceEndpoint {
+
+    private final MessageTracer tracer;
+
+    public MessageTraceEndpoint(MessageTracer tracer) {
+        this.tracer = tracer;
+    }
+
+    @ReadOperation
+    public Map<String, Object> status() {
+        return tracer.getStatus();
+    }
+
+    @WriteOperation
+    public Map<String, Object> configure(@Nullable MessageTracer.Mode mode, @Nullable Integer sampleRate,
+                                         @Nullable String clientId, @Nullable String topic) {
+        if (mode != null) {
+            tracer.setMode(mode);
+        }
+        if (sampleRate != null) {
+            tracer.setSampleRate(sampleRate);
+        }
+        if (clientId != null) {
+            tracer.traceClient(clientId);
+        }
+        if (topic != null) {
+            tracer.traceTopic(topic);
+        }
+        return tracer.getStatus();
+    }
+
+    @DeleteOperation
+    public Map<String, Object> clear(@Nullable String clientId, @Nullable String topic) {
+        tracer.clearTargets(clientId, topic);
+        return tracer.getStatus();
+    }
+}
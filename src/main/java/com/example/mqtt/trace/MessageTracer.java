@@ -0,0 +1,260 @@
+package com.example.mqtt.trace;
+
+import com.example.mqtt.broker.TopicFilter;
+import io.netty.util.internal.PlatformDependent;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * 采样消息追踪
+ * <p>
+ * 取代热路径上逐条消息的日志：按1/N随机采样，或只追踪指定的clientId/主题过滤器（可通过actuator端点临时开启）。
+ * 命中的消息生成一条紧凑记录放入有界队列，由后台线程格式化并写入 "mqtt.trace" 日志，
+ * 业务线程和事件循环不做字符串格式化和I/O；队列满时丢弃记录并计数。
+ * 未命中时只读取几个volatile字段，没有分配。
+ */
+@Slf4j
+@Component
+public class MessageTracer {
+
+    /**
+     * 追踪模式
+     */
+    public enum Mode {
+        /** 只追踪指定的clientId/主题 */
+        OFF,
+        /** 按1/N采样，外加指定的clientId/主题 */
+        SAMPLED,
+        /** 每条消息都追踪 */
+        FULL
+    }
+
+    private static final Logger TRACE_LOG = LoggerFactory.getLogger("mqtt.trace");
+    private static final int MAX_WRITE_BATCH = 1024;
+
+    private final Queue<TraceRecord> queue;
+    private final Consumer<String> sink;
+    private final Thread writer;
+    private final LongAdder traced = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private volatile Mode mode;
+    private volatile int sampleRate;
+    // 按需追踪的目标，修改时整体替换，热路径只读
+    private volatile Set<String> clients = Set.of();
+    private volatile List<TopicFilter> topics = List.of();
+    private volatile boolean running = true;
+
+    @Autowired
+    public MessageTracer(@Value("${mqtt.trace.mode:OFF}") Mode mode,
+                         @Value("${mqtt.trace.sample-rate:1000}") int sampleRate,
+                         @Value("${mqtt.trace.queue-capacity:65536}") int capacity) {
+        this(mode, sampleRate, capacity, TRACE_LOG::info);
+    }
+
+    /**
+     * @param sink 在后台线程中接收格式化后的记录
+     */
+    public MessageTracer(Mode mode, int sampleRate, int capacity, Consumer<String> sink) {
+        this.mode = mode;
+        this.sampleRate = Math.max(1, sampleRate);
+        this.queue = PlatformDependent.newFixedMpscQueue(capacity);
+        this.sink = sink;
+        this.writer = new Thread(this::drain, "mqtt-trace");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * 判断这条消息是否需要追踪，在热路径上调用
+     */
+    public boolean sampled(String clientId, String topic) {
+        Mode current = mode;
+        if (current == Mode.FULL) {
+            return true;
+        }
+        if (current == Mode.SAMPLED && ThreadLocalRandom.current().nextInt(sampleRate) == 0) {
+            return true;
+        }
+        Set<String> targetClients = clients;
+        if (!targetClients.isEmpty() && clientId != null && targetClients.contains(clientId)) {
+            return true;
+        }
+        List<TopicFilter> targetTopics = topics;
+        for (int i = 0; i < targetTopics.size(); i++) {
+            if (targetTopics.get(i).matches(topic)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 记录一条已命中采样的消息，只入队，不格式化
+     *
+     * @param event   事件类型，如PUB（Broker收到）、RECV（客户端收到）、SEND（客户端发出）
+     * @param fanOut  转发到的订阅者数，不适用时为-1
+     */
+    public void trace(String event, String clientId, String topic, int qos, int bytes, int fanOut) {
+        if (queue.offer(new TraceRecord(System.currentTimeMillis(), event, clientId, topic, qos, bytes, fanOut))) {
+            traced.increment();
+        } else {
+            dropped.increment();
+        }
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public void setMode(Mode mode) {
+        this.mode = mode;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public void setSampleRate(int sampleRate) {
+        this.sampleRate = Math.max(1, sampleRate);
+    }
+
+    /**
+     * 追踪指定客户端的全部消息
+     */
+    public synchronized void traceClient(String clientId) {
+        Set<String> updated = new HashSet<>(clients);
+        updated.add(clientId);
+        clients = Set.copyOf(updated);
+    }
+
+    /**
+     * 追踪匹配主题过滤器的全部消息
+     */
+    public synchronized void traceTopic(String filter) {
+        TopicFilter compiled = TopicFilter.compile(filter);
+        if (!topics.contains(compiled)) {
+            List<TopicFilter> updated = new ArrayList<>(topics);
+            updated.add(compiled);
+            topics = List.copyOf(updated);
+        }
+    }
+
+    /**
+     * 取消按需追踪，参数都为null时清空全部目标
+     */
+    public synchronized void clearTargets(String clientId, String filter) {
+        if (clientId == null && filter == null) {
+            clients = Set.of();
+            topics = List.of();
+            return;
+        }
+        if (clientId != null) {
+            Set<String> updated = new HashSet<>(clients);
+            updated.remove(clientId);
+            clients = Set.copyOf(updated);
+        }
+        if (filter != null) {
+            List<TopicFilter> updated = new ArrayList<>(topics);
+            updated.remove(TopicFilter.compile(filter));
+            topics = List.copyOf(updated);
+        }
+    }
+
+    /**
+     * 获取追踪状态
+     */
+    public Map<String, Object> getStatus() {
+        Map<String, Object> result = new HashMap<>();
+        result.put("mode", mode.name());
+        result.put("sample_rate", sampleRate);
+        result.put("clients", clients);
+        result.put("topics", topics.stream().map(TopicFilter::getFilter).toList());
+        result.put("traced", traced.sum());
+        result.put("dropped", dropped.sum());
+        result.put("pending", queue.size());
+        return result;
+    }
+
+    @PreDestroy
+    public void close() {
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(2));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void drain() {
+        StringBuilder line = new StringBuilder(256);
+        while (running || !queue.isEmpty()) {
+            int written = 0;
+            TraceRecord record;
+            while (written < MAX_WRITE_BATCH && (record = queue.poll()) != null) {
+                line.setLength(0);
+                record.appendTo(line);
+                try {
+                    sink.accept(line.toString());
+                } catch (Exception e) {
+                    log.warn("写出追踪记录失败", e);
+                }
+                written++;
+            }
+            if (written == 0 && running) {
+                // 追踪记录不要求实时，空闲时定期轮询，生产者入队后无需唤醒
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(5));
+            }
+        }
+    }
+
+    private static final class TraceRecord {
+        private final long timestamp;
+        private final String event;
+        private final String clientId;
+        private final String topic;
+        private final int qos;
+        private final int bytes;
+        private final int fanOut;
+
+        TraceRecord(long timestamp, String event, String clientId, String topic, int qos, int bytes, int fanOut) {
+            this.timestamp = timestamp;
+            this.event = event;
+            this.clientId = clientId;
+            this.topic = topic;
+            this.qos = qos;
+            this.bytes = bytes;
+            this.fanOut = fanOut;
+        }
+
+        void appendTo(StringBuilder out) {
+            out.append("ts=").append(timestamp)
+                .append(' ').append(event)
+                .append(" c=").append(clientId)
+                .append(" t=").append(topic)
+                .append(" q=").append(qos)
+                .append(" b=").append(bytes);
+            if (fanOut >= 0) {
+                out.append(" n=").append(fanOut);
+            }
+        }
+    }
+}
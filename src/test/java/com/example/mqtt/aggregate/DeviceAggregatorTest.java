@@ -0,0 +1,95 @@
+package com.example.mqtt.aggregate;
+
+import com.example.mqtt.model.DeviceData;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 设备数据流式聚合测试
+ */
+class DeviceAggregatorTest {
+
+    private static final long MINUTE = 60_000;
+
+    @Test
+    void slidingWindowDropsExpiredBuckets() {
+        AtomicLong now = new AtomicLong(100 * MINUTE);
+        DeviceAggregator aggregator = new DeviceAggregator(true, 60, now::get, TimeZone.getTimeZone("UTC"));
+
+        aggregator.record(device("DEV001", "sensor", 20.0, 50.0));
+        now.addAndGet(30_000);
+        aggregator.record(device("DEV001", "sensor", 30.0, null));
+        now.addAndGet(20_000);
+        aggregator.record(device("DEV001", "sensor", 25.0, 70.0));
+
+        Map<String, Object> temperature = metric(aggregator.getDeviceAggregates("DEV001"), "1m", "sliding", "temperature");
+        assertEquals(3L, temperature.get("count"));
+        assertEquals(20.0, temperature.get("min"));
+        assertEquals(30.0, temperature.get("max"));
+        assertEquals(25.0, temperature.get("avg"));
+        assertEquals(2L, metric(aggregator.getDeviceAggregates("DEV001"), "1m", "sliding", "humidity").get("count"));
+
+        // 35秒后第一个采样滑出1分钟窗口，仍在1小时窗口内
+        now.addAndGet(35_000);
+        temperature = metric(aggregator.getDeviceAggregates("DEV001"), "1m", "sliding", "temperature");
+        assertEquals(2L, temperature.get("count"));
+        assertEquals(25.0, temperature.get("min"));
+        assertEquals(3L, metric(aggregator.getDeviceAggregates("DEV001"), "1h", "sliding", "temperature").get("count"));
+
+        // 一小时无数据后滑动窗口为空
+        now.addAndGet(61 * MINUTE);
+        assertEquals(0L, metric(aggregator.getDeviceAggregates("DEV001"), "1h", "sliding", "temperature").get("count"));
+        assertNull(aggregator.getDeviceAggregates("DEV002"));
+    }
+
+    @Test
+    void tumblingWindowsRollOverAndTypesCombineDevices() {
+        AtomicLong now = new AtomicLong(100 * MINUTE + 10_000);
+        DeviceAggregator aggregator = new DeviceAggregator(true, 60, now::get, TimeZone.getTimeZone("UTC"));
+
+        aggregator.record(device("DEV001", "sensor", 10.0, null));
+        aggregator.record(device("DEV002", "sensor", 20.0, null));
+        aggregator.record(device("DEV003", "monitor", 99.0, null));
+        now.addAndGet(MINUTE);
+        aggregator.record(device("DEV001", "sensor", 40.0, null));
+
+        Map<String, Object> sensor = aggregator.getTypeAggregates("sensor");
+        Map<String, Object> previous = metric(sensor, "1m", "previous", "temperature");
+        assertEquals(2L, previous.get("count"));
+        assertEquals(15.0, previous.get("avg"));
+        assertEquals(1L, metric(sensor, "1m", "current", "temperature").get("count"));
+        assertEquals(101 * MINUTE, window(sensor, "1m", "current").get("start"));
+        assertEquals(3L, metric(sensor, "1h", "current", "temperature").get("count"));
+        assertEquals(40.0, metric(sensor, "1d", "current", "temperature").get("max"));
+        assertEquals(2, aggregator.getAllTypeAggregates().size());
+
+        // 当前周期没有采样时，上一个周期来自最后写入的周期
+        now.addAndGet(MINUTE);
+        assertEquals(0L, metric(aggregator.getTypeAggregates("sensor"), "1m", "current", "temperature").get("count"));
+        assertEquals(1L, metric(aggregator.getTypeAggregates("sensor"), "1m", "previous", "temperature").get("count"));
+    }
+
+    private static DeviceData device(String id, String type, Double temperature, Double humidity) {
+        DeviceData data = new DeviceData();
+        data.setDeviceId(id);
+        data.setDeviceType(type);
+        data.setTemperature(temperature);
+        data.setHumidity(humidity);
+        return data;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> window(Map<String, Object> aggregates, String window, String kind) {
+        return (Map<String, Object>) ((Map<String, Object>) aggregates.get(window)).get(kind);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> metric(Map<String, Object> aggregates, String window, String kind, String name) {
+        return (Map<String, Object>) window(aggregates, window, kind).get(name);
+    }
+}
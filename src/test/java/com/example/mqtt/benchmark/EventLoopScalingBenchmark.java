@@ -0,0 +1,211 @@
+package com.example.mqtt.benchmark;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import com.example.mqtt.handler.MqttMessageHandler;
+import com.example.mqtt.handler.MqttPublishEncoder;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.*;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.mqtt.*;
+import io.netty.handler.flush.FlushConsolidationHandler;
+import io.netty.util.ReferenceCountUtil;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 事件循环扩展基准测试
+ * <p>
+ * 在本机回环上启动与 NettyMqttServerConfig 相同的Broker管道，多个发布者向 bench/# 的订阅者发送QoS 0消息，
+ * 分别以1/2/4/8/16个worker线程、开启/关闭跨事件循环批量转发运行，统计投递吞吐量，
+ * 以及转发路径中直接写出与经信箱交给其他循环的投递数、信箱实际执行的排空任务数。
+ * <p>
+ * 运行方式: mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.example.mqtt.benchmark.EventLoopScalingBenchmark
+ */
+public class EventLoopScalingBenchmark {
+
+    private static final int[] WORKER_THREADS = {1, 2, 4, 8, 16};
+    private static final int SUBSCRIBERS = 32;
+    private static final int PUBLISHERS = 4;
+    private static final int MESSAGES_PER_PUBLISHER = 5_000;
+    private static final int BURST = 32;
+    private static final int PAYLOAD_SIZE = 128;
+
+    public static void main(String[] args) throws Exception {
+        ((Logger) LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+
+        int port = 19101;
+        for (int workers : WORKER_THREADS) {
+            run(workers, false, port++);
+            run(workers, true, port++);
+        }
+    }
+
+    private static void run(int workers, boolean batching, int port) throws Exception {
+        EventLoopGroup bossGroup = new NioEventLoopGroup(1);
+        EventLoopGroup workerGroup = new NioEventLoopGroup(workers);
+        EventLoopGroup clientGroup = new NioEventLoopGroup(4);
+        MqttMessageHandler broker = new MqttMessageHandler();
+        broker.configureFanOut(batching);
+        try {
+            new ServerBootstrap()
+                .group(bossGroup, workerGroup)
+                .channel(NioServerSocketChannel.class)
+                .childOption(ChannelOption.TCP_NODELAY, true)
+                // 放宽写缓冲水位，避免订阅者短暂不可写时QoS 0被丢弃影响计数
+                .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, new WriteBufferWaterMark(4 << 20, 8 << 20))
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ChannelPipeline pipeline = ch.pipeline();
+                        pipeline.addLast(new FlushConsolidationHandler(256, true));
+                        pipeline.addLast(new MqttDecoder());
+                        pipeline.addLast(MqttEncoder.INSTANCE);
+                        pipeline.addLast(MqttPublishEncoder.INSTANCE);
+                        pipeline.addLast(broker);
+                    }
+                })
+                .bind("127.0.0.1", port).sync();
+
+            long expected = (long) SUBSCRIBERS * PUBLISHERS * MESSAGES_PER_PUBLISHER;
+            LongAdder received = new LongAdder();
+            CountDownLatch subscribed = new CountDownLatch(SUBSCRIBERS);
+            CountDownLatch delivered = new CountDownLatch(SUBSCRIBERS);
+            List<Channel> subscribers = new ArrayList<>();
+            for (int i = 0; i < SUBSCRIBERS; i++) {
+                Channel ch = connect(clientGroup, port,
+                    new SubscriberHandler(subscribed, delivered, received, PUBLISHERS * MESSAGES_PER_PUBLISHER));
+                ch.write(connect("sub-" + port + "-" + i));
+                ch.writeAndFlush(subscribe("bench/#"));
+                subscribers.add(ch);
+            }
+            subscribed.await(10, TimeUnit.SECONDS);
+
+            List<Channel> publishers = new ArrayList<>();
+            for (int i = 0; i < PUBLISHERS; i++) {
+                Channel publisher = connect(clientGroup, port, new ChannelInboundHandlerAdapter() {
+                    @Override
+                    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+                        ReferenceCountUtil.release(msg);
+                    }
+                });
+                publisher.writeAndFlush(connect("pub-" + port + "-" + i)).sync();
+                publishers.add(publisher);
+            }
+
+            ByteBuf payload = Unpooled.directBuffer(PAYLOAD_SIZE).writeZero(PAYLOAD_SIZE);
+            long start = System.nanoTime();
+            List<Thread> senders = new ArrayList<>();
+            for (int p = 0; p < PUBLISHERS; p++) {
+                Channel publisher = publishers.get(p);
+                String topic = "bench/" + p;
+                Thread sender = new Thread(() -> publish(publisher, topic, payload));
+                sender.start();
+                senders.add(sender);
+            }
+            for (Thread sender : senders) {
+                sender.join();
+            }
+            boolean completed = delivered.await(60, TimeUnit.SECONDS);
+            long elapsed = System.nanoTime() - start;
+            payload.release();
+
+            Map<String, Object> stats = broker.getFanOutStats();
+            System.out.printf("workers=%-2d batching=%-5s completed=%s delivered=%d/%d msgs/s=%,.0f "
+                    + "direct=%s handed_off=%s batches=%s drains=%s%n",
+                workers, batching, completed, received.sum(), expected, received.sum() / (elapsed / 1e9),
+                stats.get("direct_deliveries"), stats.get("handed_off_deliveries"),
+                stats.get("handed_off_batches"), stats.get("mailbox_drains"));
+
+            publishers.forEach(Channel::close);
+            subscribers.forEach(Channel::close);
+        } finally {
+            clientGroup.shutdownGracefully().sync();
+            bossGroup.shutdownGracefully().sync();
+            workerGroup.shutdownGracefully().sync();
+        }
+    }
+
+    private static void publish(Channel publisher, String topic, ByteBuf payload) {
+        for (int i = 0; i < MESSAGES_PER_PUBLISHER; i++) {
+            publisher.write(new MqttPublishMessage(
+                new MqttFixedHeader(MqttMessageType.PUBLISH, false, MqttQoS.AT_MOST_ONCE, false, 0),
+                new MqttPublishVariableHeader(topic, 0), payload.retainedDuplicate()));
+            if (i % BURST == BURST - 1) {
+                publisher.flush();
+                // 避免发布端写缓冲无限堆积
+                while (!publisher.isWritable()) {
+                    Thread.onSpinWait();
+                }
+            }
+        }
+        publisher.flush();
+    }
+
+    private static Channel connect(EventLoopGroup group, int port, ChannelHandler handler) throws InterruptedException {
+        return new Bootstrap()
+            .group(group)
+            .channel(NioSocketChannel.class)
+            .option(ChannelOption.TCP_NODELAY, true)
+            .handler(new ChannelInitializer<SocketChannel>() {
+                @Override
+                protected void initChannel(SocketChannel ch) {
+                    ch.pipeline().addLast(new MqttDecoder(), MqttEncoder.INSTANCE, handler);
+                }
+            })
+            .connect("127.0.0.1", port).sync().channel();
+    }
+
+    private static MqttConnectMessage connect(String clientId) {
+        return MqttMessageBuilders.connect().clientId(clientId).protocolVersion(MqttVersion.MQTT_3_1_1).build();
+    }
+
+    private static MqttSubscribeMessage subscribe(String filter) {
+        return MqttMessageBuilders.subscribe().messageId(1).addSubscription(MqttQoS.AT_MOST_ONCE, filter).build();
+    }
+
+    private static final class SubscriberHandler extends ChannelInboundHandlerAdapter {
+        private final CountDownLatch subscribed;
+        private final CountDownLatch delivered;
+        private final LongAdder total;
+        private final int expected;
+        private int received;
+
+        SubscriberHandler(CountDownLatch subscribed, CountDownLatch delivered, LongAdder total, int expected) {
+            this.subscribed = subscribed;
+            this.delivered = delivered;
+            this.total = total;
+            this.expected = expected;
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            try {
+                MqttMessageType type = ((MqttMessage) msg).fixedHeader().messageType();
+                if (type == MqttMessageType.SUBACK) {
+                    subscribed.countDown();
+                } else if (type == MqttMessageType.PUBLISH) {
+                    total.increment();
+                    if (++received == expected) {
+                        delivered.countDown();
+                    }
+                }
+            } finally {
+                ReferenceCountUtil.release(msg);
+            }
+        }
+    }
+}
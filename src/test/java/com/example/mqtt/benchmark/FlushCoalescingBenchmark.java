@@ -0,0 +1,197 @@
+package com.example.mqtt.benchmark;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import com.example.mqtt.handler.MqttMessageHandler;
+import com.example.mqtt.handler.MqttPublishEncoder;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.*;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.mqtt.*;
+import io.netty.handler.flush.FlushConsolidationHandler;
+import io.netty.util.ReferenceCountUtil;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 刷新合并基准测试
+ * <p>
+ * 在本机回环上启动与 NettyMqttServerConfig 相同的Broker管道，一个发布者突发发送QoS 0消息，
+ * 多个订阅者接收，分别统计开启/关闭刷新合并时的投递吞吐量，以及每条投递消息对应的flush次数
+ * （flush到达传输层即一次write/writev系统调用）。
+ * <p>
+ * 运行方式: mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.example.mqtt.benchmark.FlushCoalescingBenchmark
+ */
+public class FlushCoalescingBenchmark {
+
+    private static final int SUBSCRIBERS = 50;
+    private static final int MESSAGES = 20_000;
+    private static final int BURST = 64;
+    private static final int PAYLOAD_SIZE = 256;
+
+    public static void main(String[] args) throws Exception {
+        ((Logger) LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+
+        run(false, 19001);
+        run(true, 19002);
+        run(false, 19003);
+        run(true, 19004);
+    }
+
+    private static void run(boolean consolidate, int port) throws Exception {
+        EventLoopGroup bossGroup = new NioEventLoopGroup(1);
+        EventLoopGroup workerGroup = new NioEventLoopGroup(4);
+        EventLoopGroup clientGroup = new NioEventLoopGroup(4);
+        FlushCounter flushCounter = new FlushCounter();
+        MqttMessageHandler broker = new MqttMessageHandler();
+        try {
+            new ServerBootstrap()
+                .group(bossGroup, workerGroup)
+                .channel(NioServerSocketChannel.class)
+                .childOption(ChannelOption.TCP_NODELAY, true)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ChannelPipeline pipeline = ch.pipeline();
+                        pipeline.addLast(flushCounter);
+                        if (consolidate) {
+                            pipeline.addLast(new FlushConsolidationHandler(256, true));
+                        }
+                        pipeline.addLast(new MqttDecoder());
+                        pipeline.addLast(MqttEncoder.INSTANCE);
+                        pipeline.addLast(MqttPublishEncoder.INSTANCE);
+                        pipeline.addLast(broker);
+                    }
+                })
+                .bind("127.0.0.1", port).sync();
+
+            CountDownLatch subscribed = new CountDownLatch(SUBSCRIBERS);
+            CountDownLatch delivered = new CountDownLatch(SUBSCRIBERS);
+            List<Channel> subscribers = new ArrayList<>();
+            for (int i = 0; i < SUBSCRIBERS; i++) {
+                Channel ch = connect(clientGroup, port, new SubscriberHandler(subscribed, delivered));
+                ch.write(connect("sub-" + port + "-" + i));
+                ch.writeAndFlush(subscribe("bench/#"));
+                subscribers.add(ch);
+            }
+            subscribed.await(10, TimeUnit.SECONDS);
+
+            Channel publisher = connect(clientGroup, port, new ChannelInboundHandlerAdapter() {
+                @Override
+                public void channelRead(ChannelHandlerContext ctx, Object msg) {
+                    ReferenceCountUtil.release(msg);
+                }
+            });
+            publisher.writeAndFlush(connect("pub-" + port)).sync();
+
+            ByteBuf payload = Unpooled.directBuffer(PAYLOAD_SIZE).writeZero(PAYLOAD_SIZE);
+            flushCounter.reset();
+            long start = System.nanoTime();
+            for (int i = 0; i < MESSAGES; i++) {
+                publisher.write(new MqttPublishMessage(
+                    new MqttFixedHeader(MqttMessageType.PUBLISH, false, MqttQoS.AT_MOST_ONCE, false, 0),
+                    new MqttPublishVariableHeader("bench/topic", 0), payload.retainedDuplicate()));
+                if (i % BURST == BURST - 1) {
+                    publisher.flush();
+                    // 避免发布端写缓冲无限堆积
+                    while (!publisher.isWritable()) {
+                        Thread.onSpinWait();
+                    }
+                }
+            }
+            publisher.flush();
+            boolean completed = delivered.await(60, TimeUnit.SECONDS);
+            long elapsed = System.nanoTime() - start;
+            payload.release();
+
+            long deliveries = (long) SUBSCRIBERS * MESSAGES;
+            System.out.printf("consolidation=%-5s completed=%s deliveries=%d msgs/s=%,.0f flushes=%d flushes/msg=%.3f%n",
+                consolidate, completed, deliveries, deliveries / (elapsed / 1e9),
+                flushCounter.flushes.sum(), flushCounter.flushes.sum() / (double) deliveries);
+
+            publisher.close();
+            subscribers.forEach(Channel::close);
+        } finally {
+            clientGroup.shutdownGracefully().sync();
+            bossGroup.shutdownGracefully().sync();
+            workerGroup.shutdownGracefully().sync();
+        }
+    }
+
+    private static Channel connect(EventLoopGroup group, int port, ChannelHandler handler) throws InterruptedException {
+        return new Bootstrap()
+            .group(group)
+            .channel(NioSocketChannel.class)
+            .option(ChannelOption.TCP_NODELAY, true)
+            .handler(new ChannelInitializer<SocketChannel>() {
+                @Override
+                protected void initChannel(SocketChannel ch) {
+                    ch.pipeline().addLast(new MqttDecoder(), MqttEncoder.INSTANCE, handler);
+                }
+            })
+            .connect("127.0.0.1", port).sync().channel();
+    }
+
+    private static MqttConnectMessage connect(String clientId) {
+        return MqttMessageBuilders.connect().clientId(clientId).protocolVersion(MqttVersion.MQTT_3_1_1).build();
+    }
+
+    private static MqttSubscribeMessage subscribe(String filter) {
+        return MqttMessageBuilders.subscribe().messageId(1).addSubscription(MqttQoS.AT_MOST_ONCE, filter).build();
+    }
+
+    /**
+     * 统计到达传输层的flush次数
+     */
+    @ChannelHandler.Sharable
+    private static final class FlushCounter extends ChannelOutboundHandlerAdapter {
+        final LongAdder flushes = new LongAdder();
+
+        @Override
+        public void flush(ChannelHandlerContext ctx) throws Exception {
+            flushes.increment();
+            super.flush(ctx);
+        }
+
+        void reset() {
+            flushes.reset();
+        }
+    }
+
+    private static final class SubscriberHandler extends ChannelInboundHandlerAdapter {
+        private final CountDownLatch subscribed;
+        private final CountDownLatch delivered;
+        private int received;
+
+        SubscriberHandler(CountDownLatch subscribed, CountDownLatch delivered) {
+            this.subscribed = subscribed;
+            this.delivered = delivered;
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            try {
+                MqttMessageType type = ((MqttMessage) msg).fixedHeader().messageType();
+                if (type == MqttMessageType.SUBACK) {
+                    subscribed.countDown();
+                } else if (type == MqttMessageType.PUBLISH && ++received == MESSAGES) {
+                    delivered.countDown();
+                }
+            } finally {
+                ReferenceCountUtil.release(msg);
+            }
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.mqtt.benchmark;
+
+import com.example.mqtt.history.DeviceHistoryStore;
+import com.example.mqtt.history.HistorySample;
+import com.example.mqtt.model.DeviceData;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * 设备历史存储占用测试
+ * <p>
+ * 100台设备各上报1万个采样（30秒间隔、毫秒级抖动，温湿度为保留1位小数的随机游走），
+ * 对比按 DeviceData 对象保存与 DeviceHistoryStore 压缩列保存的堆内存占用，并测量整设备范围查询的解码速度。
+ * <p>
+ * 建议以固定堆运行以减少GC噪声，例如 -Xms2g -Xmx2g。
+ * 运行方式: mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.example.mqtt.benchmark.HistoryStorageBenchmark
+ */
+public class HistoryStorageBenchmark {
+
+    private static final int DEVICES = 100;
+    private static final int SAMPLES_PER_DEVICE = 10_000;
+    private static final long INTERVAL_MILLIS = 30_000;
+    private static final long START = 1_700_000_000_000L;
+
+    public static void main(String[] args) {
+        int total = DEVICES * SAMPLES_PER_DEVICE;
+
+        long before = usedHeap();
+        List<DeviceData> objects = new ArrayList<>(total);
+        generate((deviceId, timestamp, temperature, humidity, battery) -> {
+            DeviceData data = new DeviceData();
+            data.setDeviceId(deviceId);
+            data.setTimestamp(LocalDateTime.ofInstant(Instant.ofEpochMilli(timestamp), ZoneId.systemDefault()));
+            data.setTemperature(temperature);
+            data.setHumidity(humidity);
+            data.setBattery(battery);
+            DeviceData.Location location = new DeviceData.Location();
+            location.setLatitude(39.9042);
+            location.setLongitude(116.4074);
+            data.setLocation(location);
+            objects.add(data);
+        });
+        long objectBytes = usedHeap() - before;
+        System.out.printf("%-28s %,d 个采样, 共 %,d 字节, 每个约 %.1f 字节%n",
+            "DeviceData对象", objects.size(), objectBytes, (double) objectBytes / total);
+        objects.clear();
+
+        before = usedHeap();
+        DeviceHistoryStore store = new DeviceHistoryStore(true, 1024, Long.MAX_VALUE / 2, Long.MAX_VALUE,
+            () -> START + SAMPLES_PER_DEVICE * INTERVAL_MILLIS);
+        generate(store::record);
+        long storeBytes = usedHeap() - before;
+        Map<String, Object> stats = store.getStats();
+        System.out.printf("%-28s %,d 个采样, 共 %,d 字节, 每个约 %.1f 字节 (列数据 %.1f 字节)%n",
+            "DeviceHistoryStore压缩列", total, storeBytes, (double) storeBytes / total, stats.get("bytes_per_sample"));
+
+        long decoded = 0;
+        long startNanos = System.nanoTime();
+        for (int round = 0; round < 5; round++) {
+            for (int d = 0; d < DEVICES; d++) {
+                List<HistorySample> samples = store.query("DEV" + d, Long.MIN_VALUE, Long.MAX_VALUE, Integer.MAX_VALUE);
+                decoded += samples.size();
+            }
+        }
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        System.out.printf("范围查询解码 %,d 个采样, %.0f 个/秒%n", decoded, decoded / seconds);
+    }
+
+    private interface SampleSink {
+        void accept(String deviceId, long timestamp, Double temperature, Double humidity, Integer battery);
+    }
+
+    private static void generate(SampleSink sink) {
+        Random random = new Random(42);
+        for (int d = 0; d < DEVICES; d++) {
+            String deviceId = "DEV" + d;
+            double temperature = 25.0;
+            double humidity = 60.0;
+            int battery = 100;
+            long timestamp = START;
+            for (int i = 0; i < SAMPLES_PER_DEVICE; i++) {
+                timestamp += INTERVAL_MILLIS + random.nextInt(41) - 20;
+                temperature = Math.round((temperature + random.nextGaussian() * 0.2) * 10) / 10.0;
+                humidity = Math.round((humidity + random.nextGaussian() * 0.5) * 10) / 10.0;
+                if (i % 100 == 99 && battery > 0) {
+                    battery--;
+                }
+                sink.accept(deviceId, timestamp, temperature, humidity, battery);
+            }
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
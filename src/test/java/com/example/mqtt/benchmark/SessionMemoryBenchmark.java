@@ -0,0 +1,103 @@
+package com.example.mqtt.benchmark;
+
+import com.example.mqtt.broker.InflightWindow;
+import com.example.mqtt.broker.PacketIdSet;
+import com.example.mqtt.broker.Session;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.mqtt.MqttFixedHeader;
+import io.netty.handler.codec.mqtt.MqttMessageType;
+import io.netty.handler.codec.mqtt.MqttPublishMessage;
+import io.netty.handler.codec.mqtt.MqttPublishVariableHeader;
+import io.netty.handler.codec.mqtt.MqttQoS;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntFunction;
+
+/**
+ * 会话内存占用测试
+ * <p>
+ * 创建10万个会话，统计每个会话的堆内存占用：
+ * 分别对比QoS 2入站状态使用装箱HashMap与PacketIdSet的开销，
+ * 以及空闲会话和正在进行QoS 2握手（入站待PUBREL、出站待PUBCOMP各若干条）的会话整体开销。
+ * <p>
+ * 建议以固定堆运行以减少GC噪声，例如 -Xms2g -Xmx2g。
+ * 运行方式: mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.example.mqtt.benchmark.SessionMemoryBenchmark
+ */
+public class SessionMemoryBenchmark {
+
+    private static final int SESSIONS = 100_000;
+    private static final int INFLIGHT_PER_SESSION = 4;
+    private static final int MAX_INFLIGHT = 32;
+
+    public static void main(String[] args) {
+        // 预热一轮，让类加载和JIT的内存分配不计入结果
+        measure("warmup", SessionMemoryBenchmark::boxedState);
+
+        measure("QoS 2入站状态 HashMap<Integer, Byte>", SessionMemoryBenchmark::boxedState);
+        measure("QoS 2入站状态 PacketIdSet", SessionMemoryBenchmark::packetIdSetState);
+        measure("空闲会话 Session", i -> new Session("client-" + i, MAX_INFLIGHT, false));
+        measure("QoS 2握手中的会话 Session", SessionMemoryBenchmark::activeSession);
+    }
+
+    private static Object boxedState(int i) {
+        Map<Integer, Byte> state = new HashMap<>();
+        for (int id = 1; id <= INFLIGHT_PER_SESSION; id++) {
+            state.put(i % 60_000 + id * 97, (byte) 1);
+        }
+        return state;
+    }
+
+    private static Object packetIdSetState(int i) {
+        PacketIdSet state = new PacketIdSet();
+        for (int id = 1; id <= INFLIGHT_PER_SESSION; id++) {
+            state.add(i % 60_000 + id * 97);
+        }
+        return state;
+    }
+
+    private static Object activeSession(int i) {
+        Session session = new Session("client-" + i, MAX_INFLIGHT, false);
+        InflightWindow window = session.getInflightWindow();
+        for (int id = 1; id <= INFLIGHT_PER_SESSION; id++) {
+            session.getAwaitingPubRel().add(id);
+
+            // 出站消息已收到PUBREC，窗口只保留报文标识符与状态，消息内容已释放
+            int packetId = window.nextPacketId();
+            window.add(packetId, new MqttPublishMessage(
+                new MqttFixedHeader(MqttMessageType.PUBLISH, false, MqttQoS.EXACTLY_ONCE, false, 0),
+                new MqttPublishVariableHeader("meter/data", packetId),
+                Unpooled.EMPTY_BUFFER), 0);
+            window.received(packetId, 0);
+        }
+        return session;
+    }
+
+    private static void measure(String name, IntFunction<Object> factory) {
+        Object[] holder = new Object[SESSIONS];
+        long before = usedHeap();
+        for (int i = 0; i < SESSIONS; i++) {
+            holder[i] = factory.apply(i);
+        }
+        long after = usedHeap();
+        if (!"warmup".equals(name)) {
+            System.out.printf("%-40s %,d 个, 每个约 %,d 字节%n", name, holder.length, (after - before) / SESSIONS);
+        }
+        // 测量完成前保持引用
+        holder[0] = null;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,199 @@
+package com.example.mqtt.benchmark;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import com.example.mqtt.broker.BuiltinSharedSubscriptionStrategy;
+import com.example.mqtt.broker.SlowConsumerPolicy;
+import com.example.mqtt.handler.MqttMessageHandler;
+import com.example.mqtt.handler.MqttPublishEncoder;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.*;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.mqtt.*;
+import io.netty.util.ReferenceCountUtil;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 共享订阅扩展性基准测试
+ * <p>
+ * 在本机回环上启动Broker，一组消费者以 "$share/ingest/bench/#" 共享订阅（QoS 1），
+ * 每条消息模拟一次固定耗时的下游写入（如写数据库）后才回复PUBACK。
+ * 发布者持续发送QoS 1消息，统计不同组大小、不同选择策略下整组的消费吞吐量与各成员的分配比例。
+ * <p>
+ * 运行方式: mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.example.mqtt.benchmark.SharedSubscriptionBenchmark
+ */
+public class SharedSubscriptionBenchmark {
+
+    private static final int MESSAGES = 10_000;
+    private static final int DEVICES = 1_000;
+    private static final int PAYLOAD_SIZE = 256;
+    private static final long PROCESS_NANOS = TimeUnit.MICROSECONDS.toNanos(500);
+    // 发布端最多领先消费端的消息数（按组大小放大），避免订阅者待发送队列溢出
+    private static final int OUTSTANDING_PER_MEMBER = 200;
+
+    public static void main(String[] args) throws Exception {
+        ((Logger) LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+
+        int port = 19101;
+        for (BuiltinSharedSubscriptionStrategy strategy : BuiltinSharedSubscriptionStrategy.values()) {
+            for (int groupSize : new int[]{1, 2, 4, 8}) {
+                run(strategy, groupSize, port++);
+            }
+        }
+    }
+
+    private static void run(BuiltinSharedSubscriptionStrategy strategy, int groupSize, int port) throws Exception {
+        EventLoopGroup bossGroup = new NioEventLoopGroup(1);
+        EventLoopGroup workerGroup = new NioEventLoopGroup(4);
+        EventLoopGroup clientGroup = new NioEventLoopGroup(2);
+        MqttMessageHandler broker = new MqttMessageHandler();
+        broker.configureSlowConsumer(SlowConsumerPolicy.QUEUE, 10_000);
+        broker.configureSharedSubscriptions(strategy);
+        try {
+            new ServerBootstrap()
+                .group(bossGroup, workerGroup)
+                .channel(NioServerSocketChannel.class)
+                .childOption(ChannelOption.TCP_NODELAY, true)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ch.pipeline().addLast(new MqttDecoder(), MqttEncoder.INSTANCE,
+                            MqttPublishEncoder.INSTANCE, broker);
+                    }
+                })
+                .bind("127.0.0.1", port).sync();
+
+            LongAdder consumed = new LongAdder();
+            List<ConsumerHandler> consumers = new ArrayList<>();
+            List<Channel> channels = new ArrayList<>();
+            for (int i = 0; i < groupSize; i++) {
+                ConsumerHandler consumer = new ConsumerHandler(consumed);
+                Channel ch = connect(clientGroup, port, consumer);
+                ch.write(connect("ingest-" + port + "-" + i));
+                ch.writeAndFlush(MqttMessageBuilders.subscribe().messageId(1)
+                    .addSubscription(MqttQoS.AT_LEAST_ONCE, "$share/ingest/bench/#").build()).sync();
+                consumers.add(consumer);
+                channels.add(ch);
+            }
+            // 等待SUBACK
+            for (ConsumerHandler consumer : consumers) {
+                while (!consumer.subscribed) {
+                    Thread.sleep(1);
+                }
+            }
+
+            Channel publisher = connect(clientGroup, port, new ChannelInboundHandlerAdapter() {
+                @Override
+                public void channelRead(ChannelHandlerContext ctx, Object msg) {
+                    ReferenceCountUtil.release(msg);
+                }
+            });
+            publisher.writeAndFlush(connect("pub-" + port)).sync();
+
+            ByteBuf payload = Unpooled.directBuffer(PAYLOAD_SIZE).writeZero(PAYLOAD_SIZE);
+            int outstanding = OUTSTANDING_PER_MEMBER * groupSize;
+            long start = System.nanoTime();
+            for (int i = 0; i < MESSAGES; i++) {
+                while (i - consumed.sum() >= outstanding) {
+                    LockSupport.parkNanos(50_000);
+                }
+                publisher.writeAndFlush(new MqttPublishMessage(
+                    new MqttFixedHeader(MqttMessageType.PUBLISH, false, MqttQoS.AT_LEAST_ONCE, false, 0),
+                    new MqttPublishVariableHeader("bench/dev-" + (i % DEVICES), i % 65535 + 1),
+                    payload.retainedDuplicate()));
+            }
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+            while (consumed.sum() < MESSAGES && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            long elapsed = System.nanoTime() - start;
+            payload.release();
+
+            StringBuilder shares = new StringBuilder();
+            for (ConsumerHandler consumer : consumers) {
+                shares.append(String.format(" %.0f%%", consumer.received * 100.0 / MESSAGES));
+            }
+            System.out.printf("strategy=%-14s group=%d consumed=%d msgs/s=%,8.0f per-member:%s%n",
+                strategy, groupSize, consumed.sum(), consumed.sum() / (elapsed / 1e9), shares);
+
+            publisher.close().sync();
+            for (int i = 0; i < channels.size(); i++) {
+                channels.get(i).close().sync();
+                consumers.get(i).executor.shutdownNow();
+            }
+        } finally {
+            clientGroup.shutdownGracefully().sync();
+            bossGroup.shutdownGracefully().sync();
+            workerGroup.shutdownGracefully().sync();
+        }
+    }
+
+    private static Channel connect(EventLoopGroup group, int port, ChannelHandler handler) throws InterruptedException {
+        return new Bootstrap()
+            .group(group)
+            .channel(NioSocketChannel.class)
+            .option(ChannelOption.TCP_NODELAY, true)
+            .handler(new ChannelInitializer<SocketChannel>() {
+                @Override
+                protected void initChannel(SocketChannel ch) {
+                    ch.pipeline().addLast(new MqttDecoder(), MqttEncoder.INSTANCE, handler);
+                }
+            })
+            .connect("127.0.0.1", port).sync().channel();
+    }
+
+    private static MqttConnectMessage connect(String clientId) {
+        return MqttMessageBuilders.connect().clientId(clientId).protocolVersion(MqttVersion.MQTT_3_1_1).build();
+    }
+
+    /**
+     * 消费者：在独立线程中逐条处理消息，处理完成后才回复PUBACK
+     */
+    private static final class ConsumerHandler extends ChannelInboundHandlerAdapter {
+        private final LongAdder consumed;
+        private final ExecutorService executor = Executors.newSingleThreadExecutor();
+        private volatile boolean subscribed;
+        private volatile int received;
+
+        ConsumerHandler(LongAdder consumed) {
+            this.consumed = consumed;
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            try {
+                MqttMessage message = (MqttMessage) msg;
+                if (message.fixedHeader().messageType() == MqttMessageType.SUBACK) {
+                    subscribed = true;
+                } else if (message.fixedHeader().messageType() == MqttMessageType.PUBLISH) {
+                    int packetId = ((MqttPublishMessage) message).variableHeader().packetId();
+                    executor.execute(() -> {
+                        LockSupport.parkNanos(PROCESS_NANOS);
+                        received++;
+                        consumed.increment();
+                        ctx.writeAndFlush(new MqttPubAckMessage(
+                            new MqttFixedHeader(MqttMessageType.PUBACK, false, MqttQoS.AT_MOST_ONCE, false, 0),
+                            MqttMessageIdVariableHeader.from(packetId)));
+                    });
+                }
+            } finally {
+                ReferenceCountUtil.release(msg);
+            }
+        }
+    }
+}
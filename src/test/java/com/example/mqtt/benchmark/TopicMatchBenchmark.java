@@ -0,0 +1,97 @@
+package com.example.mqtt.benchmark;
+
+import com.example.mqtt.broker.TopicFilter;
+import com.example.mqtt.broker.TopicMatcher;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 主题匹配基准测试：旧的正则实现 vs 逐层匹配 vs 预编译过滤器
+ * <p>
+ * 运行方式: mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.example.mqtt.benchmark.TopicMatchBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TopicMatchBenchmark {
+
+    private static final String[] FILTERS = {
+        "device/+/data", "device/#", "device/DEV00042/data", "device/+/status", "system/status"
+    };
+
+    private String[] topics;
+    private TopicFilter[] compiledFilters;
+    private int index;
+
+    @Setup
+    public void setup() {
+        topics = new String[1024];
+        for (int i = 0; i < topics.length; i++) {
+            topics[i] = "device/DEV" + String.format("%05d", i) + (i % 4 == 0 ? "/status" : "/data");
+        }
+        compiledFilters = new TopicFilter[FILTERS.length];
+        for (int i = 0; i < FILTERS.length; i++) {
+            compiledFilters[i] = TopicFilter.compile(FILTERS[i]);
+        }
+    }
+
+    private String nextTopic() {
+        index = (index + 1) & (topics.length - 1);
+        return topics[index];
+    }
+
+    @Benchmark
+    public void legacyRegex(Blackhole bh) {
+        String topic = nextTopic();
+        for (String filter : FILTERS) {
+            bh.consume(legacyTopicMatches(filter, topic));
+        }
+    }
+
+    @Benchmark
+    public void levelWalk(Blackhole bh) {
+        String topic = nextTopic();
+        for (String filter : FILTERS) {
+            bh.consume(TopicMatcher.matches(filter, topic));
+        }
+    }
+
+    @Benchmark
+    public void precompiled(Blackhole bh) {
+        String topic = nextTopic();
+        for (TopicFilter filter : compiledFilters) {
+            bh.consume(filter.matches(topic));
+        }
+    }
+
+    /**
+     * 旧版 MqttMessageHandler.topicMatches 实现，仅作基准对照
+     */
+    private static boolean legacyTopicMatches(String subscribedTopic, String publishTopic) {
+        if (subscribedTopic.equals(publishTopic)) {
+            return true;
+        }
+        if (subscribedTopic.contains("+") || subscribedTopic.contains("#")) {
+            String regex = subscribedTopic
+                .replace("+", "[^/]+")
+                .replace("#", ".*");
+            return publishTopic.matches(regex);
+        }
+        return false;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+            .include(TopicMatchBenchmark.class.getSimpleName())
+            .build()).run();
+    }
+}
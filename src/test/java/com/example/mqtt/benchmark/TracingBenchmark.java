@@ -0,0 +1,224 @@
+package com.example.mqtt.benchmark;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import com.example.mqtt.handler.MqttMessageHandler;
+import com.example.mqtt.handler.MqttPublishEncoder;
+import com.example.mqtt.trace.MessageTracer;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.*;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.mqtt.*;
+import io.netty.util.ReferenceCountUtil;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 消息追踪开销基准测试
+ * <p>
+ * 在本机回环上启动Broker，一个发布者突发发送QoS 0消息，少量订阅者接收，
+ * 分别在追踪关闭、1/100采样、全量追踪下统计Broker吞吐量。追踪记录写入临时文件，模拟真实的磁盘输出。
+ * <p>
+ * 单次运行的波动比三种模式之间的差距还大：先做几轮不计入结果的预热，之后每轮按轮换的顺序交替运行三种模式，
+ * 消除运行顺序带来的偏差，最后报告每种模式的中位数和最小/最大值，以及中位数相对关闭追踪的变化。
+ * <p>
+ * 运行方式: mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.example.mqtt.benchmark.TracingBenchmark
+ */
+public class TracingBenchmark {
+
+    private static final int SUBSCRIBERS = 4;
+    private static final int MESSAGES = 100_000;
+    private static final int BURST = 64;
+    private static final int PAYLOAD_SIZE = 128;
+    private static final int WARMUP_ROUNDS = 2;
+    private static final int ROUNDS = 7;
+
+    public static void main(String[] args) throws Exception {
+        ((Logger) LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+
+        MessageTracer.Mode[] modes = {MessageTracer.Mode.OFF, MessageTracer.Mode.SAMPLED, MessageTracer.Mode.FULL};
+        Map<MessageTracer.Mode, List<Double>> results = new EnumMap<>(MessageTracer.Mode.class);
+        int port = 19201;
+        for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; round++) {
+            boolean warmup = round < WARMUP_ROUNDS;
+            // 每轮换一个起始模式，各模式在每个位置上运行的次数相近
+            for (int i = 0; i < modes.length; i++) {
+                MessageTracer.Mode mode = modes[(round + i) % modes.length];
+                double throughput = run(mode, port++, warmup ? "warmup" : "round " + (round - WARMUP_ROUNDS + 1));
+                if (!warmup) {
+                    results.computeIfAbsent(mode, m -> new ArrayList<>()).add(throughput);
+                }
+            }
+        }
+
+        double baseline = median(results.get(MessageTracer.Mode.OFF));
+        System.out.printf("%n%d rounds, %,d messages x %d subscribers%n", ROUNDS, MESSAGES, SUBSCRIBERS);
+        for (MessageTracer.Mode mode : modes) {
+            List<Double> samples = results.get(mode);
+            double median = median(samples);
+            System.out.printf("tracing=%-7s median msgs/s=%,.0f min=%,.0f max=%,.0f vs off=%+.1f%%%n",
+                mode, median, Collections.min(samples), Collections.max(samples), (median / baseline - 1) * 100);
+        }
+    }
+
+    private static double median(List<Double> samples) {
+        List<Double> sorted = new ArrayList<>(samples);
+        Collections.sort(sorted);
+        int middle = sorted.size() / 2;
+        return sorted.size() % 2 == 1 ? sorted.get(middle) : (sorted.get(middle - 1) + sorted.get(middle)) / 2;
+    }
+
+    private static double run(MessageTracer.Mode mode, int port, String label) throws Exception {
+        // 减少上一次运行留下的垃圾对本次计时的影响
+        System.gc();
+        Thread.sleep(200);
+        Path traceFile = Files.createTempFile("mqtt-trace", ".log");
+        BufferedWriter out = Files.newBufferedWriter(traceFile);
+        MessageTracer tracer = new MessageTracer(mode, 100, 65536, line -> {
+            try {
+                out.write(line);
+                out.newLine();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        EventLoopGroup bossGroup = new NioEventLoopGroup(1);
+        EventLoopGroup workerGroup = new NioEventLoopGroup(2);
+        EventLoopGroup clientGroup = new NioEventLoopGroup(2);
+        MqttMessageHandler broker = new MqttMessageHandler();
+        broker.configureTracing(tracer);
+        try {
+            new ServerBootstrap()
+                .group(bossGroup, workerGroup)
+                .channel(NioServerSocketChannel.class)
+                .childOption(ChannelOption.TCP_NODELAY, true)
+                .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, new WriteBufferWaterMark(4 << 20, 8 << 20))
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ch.pipeline().addLast(new MqttDecoder(), MqttEncoder.INSTANCE, MqttPublishEncoder.INSTANCE, broker);
+                    }
+                })
+                .bind("127.0.0.1", port).sync();
+
+            CountDownLatch subscribed = new CountDownLatch(SUBSCRIBERS);
+            CountDownLatch delivered = new CountDownLatch(SUBSCRIBERS);
+            List<Channel> subscribers = new ArrayList<>();
+            for (int i = 0; i < SUBSCRIBERS; i++) {
+                Channel ch = connect(clientGroup, port, new SubscriberHandler(subscribed, delivered));
+                ch.write(connect("sub-" + port + "-" + i));
+                ch.writeAndFlush(subscribe("bench/#"));
+                subscribers.add(ch);
+            }
+            subscribed.await(10, TimeUnit.SECONDS);
+
+            Channel publisher = connect(clientGroup, port, new ChannelInboundHandlerAdapter() {
+                @Override
+                public void channelRead(ChannelHandlerContext ctx, Object msg) {
+                    ReferenceCountUtil.release(msg);
+                }
+            });
+            publisher.writeAndFlush(connect("pub-" + port)).sync();
+
+            ByteBuf payload = Unpooled.directBuffer(PAYLOAD_SIZE).writeZero(PAYLOAD_SIZE);
+            long start = System.nanoTime();
+            for (int i = 0; i < MESSAGES; i++) {
+                publisher.write(new MqttPublishMessage(
+                    new MqttFixedHeader(MqttMessageType.PUBLISH, false, MqttQoS.AT_MOST_ONCE, false, 0),
+                    new MqttPublishVariableHeader("bench/topic", 0), payload.retainedDuplicate()));
+                if (i % BURST == BURST - 1) {
+                    publisher.flush();
+                    while (!publisher.isWritable()) {
+                        Thread.onSpinWait();
+                    }
+                }
+            }
+            publisher.flush();
+            boolean completed = delivered.await(60, TimeUnit.SECONDS);
+            long elapsed = System.nanoTime() - start;
+            payload.release();
+
+            double throughput = MESSAGES / (elapsed / 1e9);
+            Map<String, Object> status = tracer.getStatus();
+            System.out.printf("%-8s tracing=%-7s completed=%s msgs/s=%,.0f traced=%s dropped=%s%n",
+                label, mode, completed, throughput, status.get("traced"), status.get("dropped"));
+
+            publisher.close();
+            subscribers.forEach(Channel::close);
+            return throughput;
+        } finally {
+            clientGroup.shutdownGracefully().sync();
+            bossGroup.shutdownGracefully().sync();
+            workerGroup.shutdownGracefully().sync();
+            tracer.close();
+            out.close();
+            Files.deleteIfExists(traceFile);
+        }
+    }
+
+    private static Channel connect(EventLoopGroup group, int port, ChannelHandler handler) throws InterruptedException {
+        return new Bootstrap()
+            .group(group)
+            .channel(NioSocketChannel.class)
+            .option(ChannelOption.TCP_NODELAY, true)
+            .handler(new ChannelInitializer<SocketChannel>() {
+                @Override
+                protected void initChannel(SocketChannel ch) {
+                    ch.pipeline().addLast(new MqttDecoder(), MqttEncoder.INSTANCE, handler);
+                }
+            })
+            .connect("127.0.0.1", port).sync().channel();
+    }
+
+    private static MqttConnectMessage connect(String clientId) {
+        return MqttMessageBuilders.connect().clientId(clientId).protocolVersion(MqttVersion.MQTT_3_1_1).build();
+    }
+
+    private static MqttSubscribeMessage subscribe(String filter) {
+        return MqttMessageBuilders.subscribe().messageId(1).addSubscription(MqttQoS.AT_MOST_ONCE, filter).build();
+    }
+
+    private static final class SubscriberHandler extends ChannelInboundHandlerAdapter {
+        private final CountDownLatch subscribed;
+        private final CountDownLatch delivered;
+        private int received;
+
+        SubscriberHandler(CountDownLatch subscribed, CountDownLatch delivered) {
+            this.subscribed = subscribed;
+            this.delivered = delivered;
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            try {
+                MqttMessageType type = ((MqttMessage) msg).fixedHeader().messageType();
+                if (type == MqttMessageType.SUBACK) {
+                    subscribed.countDown();
+                } else if (type == MqttMessageType.PUBLISH && ++received == MESSAGES) {
+                    delivered.countDown();
+                }
+            } finally {
+                ReferenceCountUtil.release(msg);
+            }
+        }
+    }
+}
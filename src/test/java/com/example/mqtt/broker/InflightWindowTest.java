@@ -0,0 +1,59 @@
+package com.example.mqtt.broker;
+
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.mqtt.MqttFixedHeader;
+import io.netty.handler.codec.mqtt.MqttMessageType;
+import io.netty.handler.codec.mqtt.MqttPublishMessage;
+import io.netty.handler.codec.mqtt.MqttPublishVariableHeader;
+import io.netty.handler.codec.mqtt.MqttQoS;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 出站飞行窗口测试
+ */
+class InflightWindowTest {
+
+    @Test
+    void packetIdsWrapAroundAndSkipInflightIds() {
+        InflightWindow window = new InflightWindow(4);
+        int first = window.nextPacketId();
+        assertEquals(1, first);
+        window.add(first, message(first), 0);
+
+        // 其余标识符逐个分配并确认，直到转过65535
+        for (int expected = 2; expected <= 65535; expected++) {
+            int packetId = window.nextPacketId();
+            assertEquals(expected, packetId);
+            window.add(packetId, message(packetId), 0);
+            assertTrue(window.complete(packetId, InflightWindow.AWAIT_PUBACK));
+        }
+        // 1仍在途，回绕后跳过
+        assertEquals(2, window.nextPacketId());
+        assertTrue(window.complete(first, InflightWindow.AWAIT_PUBACK));
+        for (int i = 3; i <= 65535; i++) {
+            window.nextPacketId();
+        }
+        assertEquals(1, window.nextPacketId(), "确认后的标识符在回绕后可以复用");
+        assertTrue(window.isEmpty());
+    }
+
+    @Test
+    void fullWindowRejectsAdd() {
+        InflightWindow window = new InflightWindow(2);
+        window.add(window.nextPacketId(), message(1), 0);
+        window.add(window.nextPacketId(), message(2), 0);
+        assertTrue(window.isFull());
+        assertThrows(IllegalStateException.class, () -> window.add(3, message(3), 0));
+        window.clear();
+        assertTrue(window.isEmpty());
+    }
+
+    private static MqttPublishMessage message(int packetId) {
+        return new MqttPublishMessage(
+            new MqttFixedHeader(MqttMessageType.PUBLISH, false, MqttQoS.AT_LEAST_ONCE, false, 0),
+            new MqttPublishVariableHeader("t", packetId),
+            Unpooled.EMPTY_BUFFER);
+    }
+}
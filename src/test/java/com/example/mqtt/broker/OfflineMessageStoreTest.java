@@ -0,0 +1,123 @@
+package com.example.mqtt.broker;
+
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.mqtt.*;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 离线消息存储测试
+ */
+class OfflineMessageStoreTest {
+
+    @TempDir
+    Path directory;
+
+    private OfflineMessageStore store;
+
+    @BeforeEach
+    void setUp() {
+        store = new OfflineMessageStore(directory, 2, 256, 100, 1024);
+    }
+
+    @AfterEach
+    void tearDown() {
+        store.close();
+    }
+
+    private void append(String clientId, String text) {
+        assertTrue(store.append(clientId, "meter/data", MqttQoS.AT_LEAST_ONCE,
+            Unpooled.copiedBuffer(text, StandardCharsets.UTF_8)));
+    }
+
+    private String pollText(String clientId) {
+        MqttPublishMessage message = (MqttPublishMessage) store.poll(clientId, ByteBufAllocator.DEFAULT);
+        try {
+            return message.payload().toString(StandardCharsets.UTF_8);
+        } finally {
+            message.release();
+        }
+    }
+
+    private long segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+
+    @Test
+    void replaysInOrderAndRequeuesAtHead() {
+        append("device-1", "b");
+        append("device-1", "c");
+        MqttPublishMessage inflight = new MqttPublishMessage(
+            new MqttFixedHeader(MqttMessageType.PUBLISH, true, MqttQoS.EXACTLY_ONCE, false, 0),
+            new MqttPublishVariableHeader("meter/data", 42),
+            Unpooled.copiedBuffer("a", StandardCharsets.UTF_8));
+        MqttMessage pubRel = new MqttMessage(
+            new MqttFixedHeader(MqttMessageType.PUBREL, false, MqttQoS.AT_LEAST_ONCE, false, 0),
+            MqttMessageIdVariableHeader.from(7));
+        store.requeue("device-1", List.of(pubRel, inflight));
+        inflight.release();
+
+        MqttMessage first = store.poll("device-1", ByteBufAllocator.DEFAULT);
+        assertEquals(MqttMessageType.PUBREL, first.fixedHeader().messageType());
+        assertEquals(7, ((MqttMessageIdVariableHeader) first.variableHeader()).messageId());
+
+        MqttPublishMessage resumed = (MqttPublishMessage) store.poll("device-1", ByteBufAllocator.DEFAULT);
+        assertEquals(42, resumed.variableHeader().packetId());
+        assertTrue(resumed.fixedHeader().isDup());
+        assertEquals(MqttQoS.EXACTLY_ONCE, resumed.fixedHeader().qosLevel());
+        assertEquals("a", resumed.payload().toString(StandardCharsets.UTF_8));
+        resumed.release();
+
+        assertEquals("b", pollText("device-1"));
+        assertEquals("c", pollText("device-1"));
+        assertNull(store.poll("device-1", ByteBufAllocator.DEFAULT));
+    }
+
+    @Test
+    void enforcesPerSessionCaps() {
+        OfflineMessageStore capped = new OfflineMessageStore(directory.resolve("capped"), 1, 256, 2, 1024);
+        try {
+            assertTrue(capped.append("device-1", "t", MqttQoS.AT_LEAST_ONCE, Unpooled.wrappedBuffer(new byte[10])));
+            assertTrue(capped.append("device-1", "t", MqttQoS.AT_LEAST_ONCE, Unpooled.wrappedBuffer(new byte[10])));
+            assertFalse(capped.append("device-1", "t", MqttQoS.AT_LEAST_ONCE, Unpooled.wrappedBuffer(new byte[10])));
+            // 其他会话不受影响
+            assertTrue(capped.append("device-2", "t", MqttQoS.AT_LEAST_ONCE, Unpooled.wrappedBuffer(new byte[10])));
+            // 单条消息超过段大小
+            assertFalse(capped.append("device-3", "t", MqttQoS.AT_LEAST_ONCE, Unpooled.wrappedBuffer(new byte[300])));
+        } finally {
+            capped.close();
+        }
+    }
+
+    @Test
+    void deletesConsumedSegments() throws IOException {
+        // 每条记录约40字节，256字节的段写满后滚动到新段
+        for (int i = 0; i < 20; i++) {
+            append("device-1", "message-" + i);
+        }
+        assertTrue(segmentFiles() > 1);
+        for (int i = 0; i < 20; i++) {
+            assertEquals("message-" + i, pollText("device-1"));
+        }
+        // 只保留当前写入段
+        assertEquals(1, segmentFiles());
+
+        append("device-2", "x");
+        store.discard("device-2");
+        assertFalse(store.hasMessages("device-2"));
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.mqtt.broker;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 报文标识符集合测试
+ */
+class PacketIdSetTest {
+
+    @Test
+    void addAndRemove() {
+        PacketIdSet set = new PacketIdSet();
+        assertTrue(set.add(1));
+        assertFalse(set.add(1));
+        assertTrue(set.add(65535));
+        assertTrue(set.contains(65535));
+        assertEquals(2, set.size());
+
+        assertTrue(set.remove(1));
+        assertFalse(set.remove(1));
+        assertFalse(set.contains(1));
+        assertTrue(set.remove(65535));
+        assertTrue(set.isEmpty());
+        assertThrows(IllegalArgumentException.class, () -> set.add(0));
+    }
+
+    @Test
+    void matchesHashSetUnderRandomOperations() {
+        PacketIdSet set = new PacketIdSet();
+        Set<Integer> expected = new HashSet<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            // 标识符范围很小，制造大量冲突以覆盖删除时的探测链回移
+            int packetId = 1 + random.nextInt(64);
+            if (random.nextBoolean()) {
+                assertEquals(expected.add(packetId), set.add(packetId));
+            } else {
+                assertEquals(expected.remove(packetId), set.remove(packetId));
+            }
+            assertEquals(expected.size(), set.size());
+        }
+        for (int packetId = 1; packetId <= 64; packetId++) {
+            assertEquals(expected.contains(packetId), set.contains(packetId));
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.example.mqtt.broker;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 发布限流测试
+ */
+class PublishRateLimiterTest {
+
+    @Test
+    void limitsMessagesAndBytesPerClient() {
+        // 每秒1条、1000字节，突发1秒
+        PublishRateLimiter limiter = new PublishRateLimiter(RateLimitAction.DROP, 1, 1000, 1, List.of());
+        PublishRateLimiter.Quota quota = limiter.newQuota();
+        assertEquals(0, limiter.check(quota, "device/1/data", 10));
+        assertTrue(limiter.check(quota, "device/1/data", 10) > 0);
+
+        // 另一个客户端有自己的配额；桶满时允许一次超过容量的大消息，之后按字节速率偿还
+        PublishRateLimiter bytesOnly = new PublishRateLimiter(RateLimitAction.DROP, 0, 1000, 1, List.of());
+        PublishRateLimiter.Quota other = bytesOnly.newQuota();
+        assertEquals(0, bytesOnly.check(other, "t", 5000));
+        assertTrue(bytesOnly.check(other, "t", 1) > 0);
+        assertEquals(1L, limiter.getStats().get("limited"));
+        assertEquals(1L, limiter.getStats().get("limited_by_client"));
+    }
+
+    @Test
+    void sharesTopicPrefixLimitAcrossClients() {
+        PublishRateLimiter limiter = new PublishRateLimiter(RateLimitAction.DROP, 0, 0, 1,
+            List.of("alerts/:2:0", "device/:1000:0"));
+        assertNull(limiter.newQuota());
+        assertEquals(0, limiter.check(null, "alerts/a", 1));
+        assertEquals(0, limiter.check(null, "alerts/b", 1));
+        assertTrue(limiter.check(null, "alerts/c", 1) > 0);
+        // 其他前缀和未匹配的主题不受影响
+        assertEquals(0, limiter.check(null, "device/1/data", 1));
+        assertEquals(0, limiter.check(null, "system/status", 1));
+    }
+
+    @Test
+    void rejectedMessagesDoNotConsumeEarlierBuckets() throws Exception {
+        // 客户端每秒2条、突发1秒；主题规则每秒1条
+        PublishRateLimiter limiter = new PublishRateLimiter(RateLimitAction.DROP, 2, 0, 1, List.of("alerts/:1:0"));
+        PublishRateLimiter.Quota quota = limiter.newQuota();
+        assertEquals(0, limiter.check(quota, "alerts/a", 1));
+        // 主题限额拒绝，客户端的令牌被归还
+        assertTrue(limiter.check(quota, "alerts/b", 1) > 0);
+        assertTrue(limiter.check(quota, "alerts/c", 1) > 0);
+        assertEquals(0, limiter.check(quota, "device/1/data", 1));
+        assertTrue(limiter.check(quota, "device/1/data", 1) > 0);
+
+        // 字节数不足时归还已取的消息数令牌：每秒2条、1000字节，突发1秒
+        PublishRateLimiter both = new PublishRateLimiter(RateLimitAction.DROP, 2, 1000, 1, List.of());
+        PublishRateLimiter.Quota other = both.newQuota();
+        // 桶满时放行超过容量的消息，字节数欠下100ms
+        assertEquals(0, both.check(other, "t", 1100));
+        assertTrue(both.check(other, "t", 10) > 0);
+        assertTrue(both.check(other, "t", 10) > 0);
+        // 字节数恢复后消息数桶仍剩一个令牌；被拒绝的两条若消耗了消息数令牌，这里要等500ms以上
+        Thread.sleep(250);
+        assertEquals(0, both.check(other, "t", 10));
+        assertEquals(2L, both.getStats().get("limited_by_client"));
+    }
+
+    @Test
+    void tokenBucketReleaseReturnsTokens() {
+        long now = System.nanoTime();
+        TokenBucket bucket = new TokenBucket(0.001, 2, now);
+        assertTrue(bucket.tryAcquire(now));
+        assertTrue(bucket.tryAcquire(now));
+        assertFalse(bucket.tryAcquire(now));
+        bucket.release(1, now);
+        assertTrue(bucket.tryAcquire(now));
+        // 归还不会超过桶容量
+        bucket.release(5, now);
+        assertTrue(bucket.isFull(now));
+        assertTrue(bucket.tryAcquire(now));
+        assertTrue(bucket.tryAcquire(now));
+        assertFalse(bucket.tryAcquire(now));
+    }
+
+    @Test
+    void tokenBucketGrantsExactlyBurstUnderContention() throws Exception {
+        // 补充速率极低，并发获取时总共只能拿到突发容量个令牌
+        TokenBucket bucket = new TokenBucket(0.001, 1000, System.nanoTime());
+        AtomicInteger granted = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < 1000; i++) {
+                    if (bucket.tryAcquire(System.nanoTime())) {
+                        granted.incrementAndGet();
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(1000, granted.get());
+    }
+}
@@ -0,0 +1,43 @@
+package com.example.mqtt.broker;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 按原因暂停读取测试
+ */
+class ReadPauseTest {
+
+    @Test
+    void readingResumesOnlyAfterAllReasonsAreCleared() {
+        EmbeddedChannel channel = new EmbeddedChannel();
+        assertTrue(ReadPause.pause(channel, ReadPause.PIPELINE));
+        assertTrue(ReadPause.pause(channel, ReadPause.RATE_LIMIT));
+        assertFalse(ReadPause.pause(channel, ReadPause.RATE_LIMIT), "同一原因重复暂停不应再次生效");
+        assertFalse(channel.config().isAutoRead());
+
+        // 限流到期恢复时业务队列仍然积压
+        assertTrue(ReadPause.resume(channel, ReadPause.RATE_LIMIT));
+        assertFalse(channel.config().isAutoRead());
+        assertTrue(ReadPause.isPaused(channel, ReadPause.PIPELINE));
+        assertFalse(ReadPause.resume(channel, ReadPause.RATE_LIMIT));
+
+        assertTrue(ReadPause.resume(channel, ReadPause.PIPELINE));
+        assertTrue(channel.config().isAutoRead());
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    void resumeFromBusinessThreadRestoresReading() throws Exception {
+        EmbeddedChannel channel = new EmbeddedChannel();
+        ReadPause.pause(channel, ReadPause.PIPELINE);
+        Thread worker = new Thread(() -> ReadPause.resume(channel, ReadPause.PIPELINE));
+        worker.start();
+        worker.join();
+        channel.runPendingTasks();
+        assertTrue(channel.config().isAutoRead());
+        channel.finishAndReleaseAll();
+    }
+}
@@ -0,0 +1,74 @@
+package com.example.mqtt.broker;
+
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.mqtt.MqttQoS;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 保留消息存储测试
+ */
+class RetainedMessageStoreTest {
+
+    private final RetainedMessageStore store = new RetainedMessageStore();
+
+    @AfterEach
+    void tearDown() {
+        store.clear();
+    }
+
+    private void put(String topic, String payload) {
+        store.put(topic, Unpooled.copiedBuffer(payload, StandardCharsets.UTF_8), MqttQoS.AT_LEAST_ONCE);
+    }
+
+    private Map<String, String> match(String filter) {
+        List<RetainedMessageStore.RetainedMessage> result = new ArrayList<>();
+        store.match(TopicFilter.compile(filter), result);
+        Map<String, String> payloads = new TreeMap<>();
+        for (RetainedMessageStore.RetainedMessage message : result) {
+            payloads.put(message.getTopic(), message.getPayload().toString(StandardCharsets.UTF_8));
+            message.getPayload().release();
+        }
+        return payloads;
+    }
+
+    @Test
+    void matchesWildcardFilters() {
+        put("device/DEV001/data", "1");
+        put("device/DEV002/data", "2");
+        put("device/DEV002/raw", "3");
+        put("device", "4");
+        put("$SYS/status", "5");
+
+        assertEquals(Map.of("device/DEV001/data", "1", "device/DEV002/data", "2"), match("device/+/data"));
+        assertEquals(Map.of("device", "4", "device/DEV001/data", "1", "device/DEV002/data", "2", "device/DEV002/raw", "3"),
+            match("device/#"));
+        assertEquals(4, match("#").size());
+        assertEquals(Map.of("$SYS/status", "5"), match("$SYS/+"));
+        assertEquals(Map.of("device/DEV002/raw", "3"), match("device/DEV002/raw"));
+        assertTrue(match("device/DEV003/data").isEmpty());
+    }
+
+    @Test
+    void replacesAndRemovesRetainedMessages() {
+        put("device/DEV001/data", "old");
+        put("device/DEV001/data", "new");
+        assertEquals(1, store.size());
+        assertEquals(3, store.bytes());
+        assertEquals(Map.of("device/DEV001/data", "new"), match("device/+/data"));
+
+        // 空payload清除保留消息
+        store.put("device/DEV001/data", Unpooled.EMPTY_BUFFER, MqttQoS.AT_MOST_ONCE);
+        assertEquals(0, store.size());
+        assertEquals(0, store.bytes());
+        assertTrue(match("#").isEmpty());
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.mqtt.broker;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 会话注册表测试
+ */
+class SessionRegistryTest {
+
+    @Test
+    void newSessionTakesOverPrevious() {
+        SessionRegistry registry = new SessionRegistry(4);
+        Session first = new Session("c1", 8, true);
+        Session second = new Session("c1", 8, true);
+
+        assertNull(registry.register(first));
+        assertSame(first, registry.register(second));
+        assertSame(second, registry.get("c1"));
+        assertEquals(1, registry.size());
+
+        // 旧会话迟到的注销不影响新会话
+        assertFalse(registry.remove(first));
+        assertSame(second, registry.get("c1"));
+        assertTrue(registry.remove(second));
+        assertNull(registry.get("c1"));
+        assertEquals(0, registry.size());
+    }
+
+    @Test
+    void concurrentConnectsLeaveExactlyOneSession() throws Exception {
+        SessionRegistry registry = new SessionRegistry(16);
+        int threads = 8;
+        int clients = 1000;
+        AtomicInteger takenOver = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < clients; i++) {
+                    if (registry.register(new Session("client-" + i, 8, false)) != null) {
+                        takenOver.incrementAndGet();
+                    }
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        // 每个clientId只留下一个会话，其余都作为被接管的旧会话返回
+        assertEquals(clients, registry.size());
+        assertEquals(clients * (threads - 1), takenOver.get());
+        AtomicInteger visited = new AtomicInteger();
+        registry.forEach(session -> visited.incrementAndGet());
+        assertEquals(clients, visited.get());
+    }
+}
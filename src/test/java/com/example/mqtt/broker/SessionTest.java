@@ -0,0 +1,42 @@
+package com.example.mqtt.broker;
+
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 会话重传排期测试
+ */
+class SessionTest {
+
+    @Test
+    void retransmitStaysScheduledUntilItRuns() throws Exception {
+        HashedWheelTimer timer = new HashedWheelTimer(10, TimeUnit.MILLISECONDS);
+        try {
+            Session session = new Session("c", 8, false);
+            assertFalse(session.isRetransmitScheduled());
+
+            CountDownLatch fired = new CountDownLatch(1);
+            Timeout timeout = timer.newTimeout(t -> fired.countDown(), 10, TimeUnit.MILLISECONDS);
+            session.setRetransmitTimeout(timeout);
+            assertTrue(fired.await(5, TimeUnit.SECONDS));
+            // 计时已到但retransmit还没在事件循环中执行，不能再排第二条检查链
+            assertTrue(timeout.isExpired());
+            assertTrue(session.isRetransmitScheduled());
+
+            session.retransmitFired();
+            assertFalse(session.isRetransmitScheduled());
+
+            session.setRetransmitTimeout(timer.newTimeout(t -> { }, 1, TimeUnit.HOURS));
+            session.close();
+            assertFalse(session.isRetransmitScheduled());
+        } finally {
+            timer.stop();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.example.mqtt.broker;
+
+import io.netty.handler.codec.mqtt.MqttQoS;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 订阅主题树测试
+ */
+class SubscriptionTrieTest {
+
+    private Map<String, MqttQoS> match(SubscriptionTrie<String> trie, String topic) {
+        Map<String, MqttQoS> result = new HashMap<>();
+        trie.match(topic, result);
+        return result;
+    }
+
+    @Test
+    void matchesWildcards() {
+        SubscriptionTrie<String> trie = new SubscriptionTrie<>(clientId -> clientId);
+        trie.subscribe(TopicFilter.compile("device/+/data"), "dashboard", MqttQoS.AT_LEAST_ONCE);
+        trie.subscribe(TopicFilter.compile("device/#"), "archiver", MqttQoS.AT_MOST_ONCE);
+        trie.subscribe(TopicFilter.compile("device/DEV001/data"), "owner", MqttQoS.AT_MOST_ONCE);
+        trie.subscribe(TopicFilter.compile("#"), "all", MqttQoS.AT_MOST_ONCE);
+
+        assertEquals(Map.of("dashboard", MqttQoS.AT_LEAST_ONCE, "archiver", MqttQoS.AT_MOST_ONCE,
+            "owner", MqttQoS.AT_MOST_ONCE, "all", MqttQoS.AT_MOST_ONCE), match(trie, "device/DEV001/data"));
+        assertEquals(Map.of("archiver", MqttQoS.AT_MOST_ONCE, "all", MqttQoS.AT_MOST_ONCE), match(trie, "device"));
+        assertEquals(Map.of("archiver", MqttQoS.AT_MOST_ONCE, "all", MqttQoS.AT_MOST_ONCE),
+            match(trie, "device/DEV001/data/raw"));
+        assertEquals(Map.of("all", MqttQoS.AT_MOST_ONCE), match(trie, "system/status"));
+    }
+
+    @Test
+    void keepsHighestQosPerClient() {
+        SubscriptionTrie<String> trie = new SubscriptionTrie<>(clientId -> clientId);
+        trie.subscribe(TopicFilter.compile("device/+/data"), "c1", MqttQoS.AT_MOST_ONCE);
+        trie.subscribe(TopicFilter.compile("device/DEV001/+"), "c1", MqttQoS.AT_LEAST_ONCE);
+
+        assertEquals(Map.of("c1", MqttQoS.AT_LEAST_ONCE), match(trie, "device/DEV001/data"));
+    }
+
+    @Test
+    void matchesLevelsByRangeIncludingEmptyLevels() {
+        SubscriptionTrie<String> trie = new SubscriptionTrie<>(clientId -> clientId);
+        trie.subscribe(TopicFilter.compile("a//b"), "empty", MqttQoS.AT_MOST_ONCE);
+        trie.subscribe(TopicFilter.compile("/a"), "leading", MqttQoS.AT_MOST_ONCE);
+        trie.subscribe(TopicFilter.compile("传感器/温度"), "utf8", MqttQoS.AT_MOST_ONCE);
+
+        assertEquals(Map.of("empty", MqttQoS.AT_MOST_ONCE), match(trie, "a//b"));
+        assertEquals(Map.of("leading", MqttQoS.AT_MOST_ONCE), match(trie, "/a"));
+        assertEquals(Map.of("utf8", MqttQoS.AT_MOST_ONCE), match(trie, "传感器/温度"));
+        // 前缀相同、长度不同的层级不能误匹配
+        assertTrue(match(trie, "a//bb").isEmpty());
+        assertTrue(match(trie, "a/a").isEmpty());
+    }
+
+    @Test
+    void systemTopicsSkipRootWildcards() {
+        SubscriptionTrie<String> trie = new SubscriptionTrie<>(clientId -> clientId);
+        trie.subscribe(TopicFilter.compile("#"), "all", MqttQoS.AT_MOST_ONCE);
+        trie.subscribe(TopicFilter.compile("+/status"), "status", MqttQoS.AT_MOST_ONCE);
+        trie.subscribe(TopicFilter.compile("$SYS/#"), "sys", MqttQoS.AT_MOST_ONCE);
+
+        assertEquals(Map.of("sys", MqttQoS.AT_MOST_ONCE), match(trie, "$SYS/status"));
+    }
+
+    @Test
+    void unsubscribeRemovesFilter() {
+        SubscriptionTrie<String> trie = new SubscriptionTrie<>(clientId -> clientId);
+        trie.subscribe(TopicFilter.compile("device/+/data"), "c1", MqttQoS.AT_MOST_ONCE);
+        trie.subscribe(TopicFilter.compile("device/+/data"), "c2", MqttQoS.AT_MOST_ONCE);
+
+        assertTrue(trie.unsubscribe(TopicFilter.compile("device/+/data"), "c1"));
+        assertFalse(trie.unsubscribe(TopicFilter.compile("device/+/data"), "c1"));
+        assertEquals(Map.of("c2", MqttQoS.AT_MOST_ONCE), match(trie, "device/DEV001/data"));
+
+        assertTrue(trie.unsubscribe(TopicFilter.compile("device/+/data"), "c2"));
+        assertTrue(match(trie, "device/DEV001/data").isEmpty());
+    }
+
+    @Test
+    void sharedSubscriptionsAreGroupedPerFilter() {
+        SubscriptionTrie<String> trie = new SubscriptionTrie<>(clientId -> clientId);
+        trie.subscribe(TopicFilter.compile("$share/ingest/device/+/data"), "ingest-1", MqttQoS.AT_LEAST_ONCE);
+        trie.subscribe(TopicFilter.compile("$share/ingest/device/+/data"), "ingest-2", MqttQoS.AT_LEAST_ONCE);
+        trie.subscribe(TopicFilter.compile("$share/audit/device/#"), "audit-1", MqttQoS.AT_MOST_ONCE);
+        trie.subscribe(TopicFilter.compile("device/+/data"), "dashboard", MqttQoS.AT_MOST_ONCE);
+
+        Map<String, MqttQoS> subscribers = new HashMap<>();
+        List<SharedSubscriptionGroup<String>> groups = new ArrayList<>();
+        trie.match("device/DEV001/data", subscribers, groups);
+        assertEquals(Map.of("dashboard", MqttQoS.AT_MOST_ONCE), subscribers);
+        assertEquals(2, groups.size());
+        SharedSubscriptionGroup<String> ingest = groups.stream().filter(g -> g.getName().equals("ingest")).findFirst().orElseThrow();
+        assertEquals(2, ingest.getMembers().length);
+        assertEquals("$share/ingest/device/+/data", ingest.getSharedFilter());
+
+        // 轮询在两个在线成员之间交替
+        String first = BuiltinSharedSubscriptionStrategy.ROUND_ROBIN
+            .select(ingest, ingest.getMembers(), "device/DEV001/data", clientId -> 0).getClientId();
+        String second = BuiltinSharedSubscriptionStrategy.ROUND_ROBIN
+            .select(ingest, ingest.getMembers(), "device/DEV001/data", clientId -> 0).getClientId();
+        assertNotEquals(first, second);
+        // 离线成员被跳过
+        assertEquals("ingest-2", BuiltinSharedSubscriptionStrategy.LEAST_INFLIGHT
+            .select(ingest, ingest.getMembers(), "device/DEV001/data", clientId -> clientId.equals("ingest-1") ? -1 : 5)
+            .getClientId());
+
+        assertTrue(trie.unsubscribe(TopicFilter.compile("$share/ingest/device/+/data"), "ingest-1"));
+        assertTrue(trie.unsubscribe(TopicFilter.compile("$share/ingest/device/+/data"), "ingest-2"));
+        groups.clear();
+        trie.match("device/DEV001/data", new HashMap<>(), groups);
+        assertEquals(1, groups.size());
+        assertEquals("audit", groups.get(0).getName());
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.mqtt.broker;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 主题过滤器与匹配工具测试
+ */
+class TopicFilterTest {
+
+    private static void assertMatch(boolean expected, String filter, String topic) {
+        assertEquals(expected, TopicMatcher.matches(filter, topic), filter + " -> " + topic);
+        assertEquals(expected, TopicFilter.compile(filter).matches(topic), filter + " -> " + topic);
+    }
+
+    @Test
+    void singleLevelWildcard() {
+        assertMatch(true, "device/+/data", "device/DEV001/data");
+        assertMatch(true, "device/+/data", "device//data");
+        assertMatch(false, "device/+/data", "device/DEV001/data/raw");
+        assertMatch(false, "device/+/data", "device/data");
+        assertMatch(true, "+", "device");
+        assertMatch(false, "+", "device/DEV001");
+        assertMatch(true, "+/+", "/device");
+    }
+
+    @Test
+    void multiLevelWildcard() {
+        assertMatch(true, "device/#", "device");
+        assertMatch(true, "device/#", "device/DEV001/data");
+        assertMatch(false, "device/#", "devices/DEV001");
+        assertMatch(true, "#", "device/DEV001/data");
+        assertMatch(true, "device/+/#", "device/DEV001");
+    }
+
+    @Test
+    void literalLevels() {
+        assertMatch(true, "system/status", "system/status");
+        assertMatch(false, "system/status", "system/status/");
+        // 旧实现未转义 "."，会把它当作正则通配符
+        assertMatch(false, "device/v1.0/data", "device/v1x0/data");
+        assertMatch(false, "device/DEV", "device/DEV001");
+    }
+
+    @Test
+    void systemTopicsSkipRootWildcards() {
+        assertMatch(false, "#", "$SYS/status");
+        assertMatch(false, "+/status", "$SYS/status");
+        assertMatch(true, "$SYS/#", "$SYS/status");
+    }
+
+    @Test
+    void rejectsInvalidFilters() {
+        assertFalse(TopicFilter.isValid("device/#/data"));
+        assertFalse(TopicFilter.isValid("device/a+/data"));
+        assertFalse(TopicFilter.isValid("device#"));
+        assertFalse(TopicFilter.isValid(""));
+        assertTrue(TopicFilter.isValid("device/+/#"));
+        assertThrows(IllegalArgumentException.class, () -> TopicFilter.compile("device/#/data"));
+    }
+
+    @Test
+    void parsesSharedSubscriptions() {
+        TopicFilter shared = TopicFilter.compile("$share/ingest/device/+/data");
+        assertTrue(shared.isShared());
+        assertEquals("ingest", shared.getShareName());
+        assertEquals("device/+/data", shared.getTopicFilter());
+        assertTrue(shared.matches("device/DEV001/data"));
+        assertFalse(TopicFilter.compile("device/+/data").isShared());
+
+        assertFalse(TopicFilter.isValid("$share/ingest"));
+        assertFalse(TopicFilter.isValid("$share//device/#"));
+        assertFalse(TopicFilter.isValid("$share/in+/device/#"));
+        assertFalse(TopicFilter.isValid("$share/ingest/"));
+    }
+}
@@ -0,0 +1,195 @@
+package com.example.mqtt.cluster;
+
+import com.example.mqtt.broker.TopicFilter;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.mqtt.MqttQoS;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 集群路由测试：同一JVM内在本机端口上启动3个节点
+ */
+class ClusterNodeTest {
+
+    private final List<ClusterNode> nodes = new ArrayList<>();
+    private final List<List<String>> delivered = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        List<String> addresses = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            addresses.add("127.0.0.1:" + freePort());
+        }
+        for (String address : addresses) {
+            List<String> received = new CopyOnWriteArrayList<>();
+            delivered.add(received);
+            int port = Integer.parseInt(address.substring(address.indexOf(':') + 1));
+            nodes.add(new ClusterNode(address, "127.0.0.1", port, addresses, 1, 1024, 64,
+                (topic, payload, qos, retain) ->
+                    received.add(topic + "=" + payload.toString(StandardCharsets.UTF_8) + (retain ? "(retain)" : ""))));
+        }
+        for (ClusterNode node : nodes) {
+            node.start();
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        nodes.forEach(ClusterNode::close);
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "等待超时");
+            Thread.sleep(10);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> link(ClusterNode node, String peerId) {
+        return ((List<Map<String, Object>>) node.getStats().get("peers")).stream()
+            .filter(peer -> peerId.equals(peer.get("node_id"))).findFirst().orElseThrow();
+    }
+
+    private static boolean connected(ClusterNode node, String peerId) {
+        return (Boolean) link(node, peerId).get("connected");
+    }
+
+    private static void publish(ClusterNode node, String topic, String text, boolean retain) {
+        ByteBuf payload = Unpooled.copiedBuffer(text, StandardCharsets.UTF_8);
+        node.publish(topic, payload, MqttQoS.AT_LEAST_ONCE, retain);
+        payload.release();
+    }
+
+    @Test
+    void forwardsOnlyToNodesWithMatchingSubscriptions() throws Exception {
+        ClusterNode a = nodes.get(0);
+        ClusterNode b = nodes.get(1);
+        ClusterNode c = nodes.get(2);
+        TopicFilter filter = TopicFilter.compile("device/+/data");
+        // 同一过滤器的多个本地订阅在摘要中只出现一次
+        c.subscribe(filter);
+        c.subscribe(filter);
+        b.subscribe(TopicFilter.compile("$share/group/system/#"));
+        await(() -> a.routes("device/DEV001/data").equals(Set.of(c.getNodeId()))
+            && a.routes("system/status").equals(Set.of(b.getNodeId()))
+            && connected(a, b.getNodeId()) && connected(a, c.getNodeId()));
+
+        for (int i = 0; i < 500; i++) {
+            publish(a, "device/DEV001/data", "m" + i, false);
+        }
+        publish(a, "sensor/DEV001", "ignored", false);
+        await(() -> delivered.get(2).size() == 500);
+        for (int i = 0; i < 500; i++) {
+            assertEquals("device/DEV001/data=m" + i, delivered.get(2).get(i));
+        }
+        assertTrue(delivered.get(1).isEmpty());
+        assertTrue(delivered.get(0).isEmpty());
+
+        // 500条消息合并为少量批次
+        Map<String, Object> link = link(a, c.getNodeId());
+        assertEquals(500L, link.get("forwarded"));
+        assertTrue((Long) link.get("batches") < 500);
+
+        // 最后一个本地订阅取消后，其他节点不再转发
+        c.unsubscribe(filter);
+        assertEquals(Set.of(c.getNodeId()), a.routes("device/DEV001/data"));
+        c.unsubscribe(filter);
+        await(() -> a.routes("device/DEV001/data").isEmpty() && b.routes("device/DEV001/data").isEmpty());
+    }
+
+    @Test
+    void sharedGroupWithMembersOnTwoNodesDeliversOnce() throws Exception {
+        ClusterNode a = nodes.get(0);
+        ClusterNode b = nodes.get(1);
+        ClusterNode c = nodes.get(2);
+        TopicFilter shared = TopicFilter.compile("$share/workers/jobs/#");
+        a.subscribe(shared);
+        b.subscribe(shared);
+        // 摘要同步后，两个有成员的节点对属主的判断一致，没有成员的节点不是属主
+        await(() -> connected(a, b.getNodeId()) && connected(b, a.getNodeId())
+            && connected(c, a.getNodeId()) && connected(c, b.getNodeId())
+            && a.ownsSharedGroup("$share/workers/jobs/#") != b.ownsSharedGroup("$share/workers/jobs/#")
+            && c.routes("jobs/1").equals(Set.of(
+                (a.ownsSharedGroup("$share/workers/jobs/#") ? a : b).getNodeId())));
+        ClusterNode owner = a.ownsSharedGroup("$share/workers/jobs/#") ? a : b;
+        ClusterNode other = owner == a ? b : a;
+        assertFalse(c.ownsSharedGroup("$share/workers/jobs/#"));
+        assertTrue(owner.routes("jobs/1").isEmpty());
+        assertEquals(Set.of(owner.getNodeId()), other.routes("jobs/1"));
+
+        // 每个节点各发布10条：属主本地选择成员，其他节点只转发给属主
+        int local = 0;
+        for (ClusterNode publisher : List.of(a, b, c)) {
+            for (int i = 0; i < 10; i++) {
+                publish(publisher, "jobs/" + i, "m" + i, false);
+                if (publisher == owner) {
+                    local++;
+                }
+            }
+        }
+        int ownerIndex = nodes.indexOf(owner);
+        int expectedForwarded = 30 - local;
+        await(() -> delivered.get(ownerIndex).size() == expectedForwarded);
+        Thread.sleep(100);
+        assertEquals(expectedForwarded, delivered.get(ownerIndex).size());
+        assertEquals(30, local + delivered.stream().mapToInt(List::size).sum(), "组内每条消息只投递一次");
+
+        // 属主的成员全部取消后，另一个节点接替
+        owner.unsubscribe(shared);
+        await(() -> other.ownsSharedGroup("$share/workers/jobs/#")
+            && c.routes("jobs/1").equals(Set.of(other.getNodeId()))
+            && owner.routes("jobs/1").equals(Set.of(other.getNodeId())));
+    }
+
+    @Test
+    void replicatesRetainedMessagesAndResyncsAfterRestart() throws Exception {
+        ClusterNode a = nodes.get(0);
+        ClusterNode c = nodes.get(2);
+        await(() -> connected(a, nodes.get(1).getNodeId()) && connected(a, c.getNodeId()));
+
+        // 保留消息不依赖订阅，转发给所有节点
+        publish(a, "system/status", "online", true);
+        await(() -> delivered.get(1).size() == 1 && delivered.get(2).size() == 1);
+        assertEquals("system/status=online(retain)", delivered.get(2).get(0));
+
+        // 节点重启后重新发送完整摘要
+        c.subscribe(TopicFilter.compile("device/#"));
+        await(() -> a.routes("device/DEV002/data").contains(c.getNodeId()));
+        c.close();
+        await(() -> a.routes("device/DEV002/data").isEmpty());
+
+        String address = c.getNodeId();
+        int port = Integer.parseInt(address.substring(address.indexOf(':') + 1));
+        List<String> addresses = List.of(a.getNodeId(), nodes.get(1).getNodeId(), address);
+        ClusterNode restarted = new ClusterNode(address, "127.0.0.1", port, addresses, 1, 1024, 64,
+            (topic, payload, qos, retain) -> delivered.get(2).add(topic));
+        nodes.set(2, restarted);
+        restarted.subscribe(TopicFilter.compile("device/#"));
+        restarted.start();
+        await(() -> a.routes("device/DEV002/data").contains(address) && connected(a, address));
+        publish(a, "device/DEV002/data", "x", false);
+        await(() -> delivered.get(2).contains("device/DEV002/data"));
+    }
+}
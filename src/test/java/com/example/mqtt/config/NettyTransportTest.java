@@ -0,0 +1,40 @@
+package com.example.mqtt.config;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 传输选择与acceptor数测试
+ */
+class NettyTransportTest {
+
+    @Test
+    void selectsAvailableTransportOrFallsBackToNio() {
+        NettyTransport expectedAuto = NettyTransport.EPOLL.isAvailable() ? NettyTransport.EPOLL
+            : NettyTransport.IO_URING.isAvailable() ? NettyTransport.IO_URING : NettyTransport.NIO;
+        assertEquals(expectedAuto, NettyTransport.select("auto"));
+        assertEquals(expectedAuto, NettyTransport.select(null));
+        assertEquals(expectedAuto, NettyTransport.select(" AUTO "));
+
+        assertEquals(NettyTransport.NIO, NettyTransport.select("nio"));
+        assertEquals(NettyTransport.NIO, NettyTransport.select("kqueue"), "未知的传输回退到NIO");
+        // 显式指定的原生传输不可用时回退到NIO
+        for (NettyTransport transport : new NettyTransport[]{NettyTransport.EPOLL, NettyTransport.IO_URING}) {
+            NettyTransport selected = NettyTransport.select(transport.name().toLowerCase().replace('_', '-'));
+            assertEquals(transport.isAvailable() ? transport : NettyTransport.NIO, selected);
+            assertTrue(selected.isAvailable());
+        }
+    }
+
+    @Test
+    void acceptorsDefaultToSeveralOnlyWithReusePort() {
+        assertEquals(1, NettyTransport.NIO.acceptors(0, 16));
+        assertEquals(1, NettyTransport.NIO.acceptors(8, 16));
+
+        assertEquals(4, NettyTransport.EPOLL.acceptors(0, 16));
+        assertEquals(2, NettyTransport.EPOLL.acceptors(0, 2));
+        assertEquals(1, NettyTransport.IO_URING.acceptors(-1, 1));
+        assertEquals(6, NettyTransport.IO_URING.acceptors(6, 2), "显式配置优先");
+    }
+}
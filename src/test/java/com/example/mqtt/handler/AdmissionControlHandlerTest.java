@@ -0,0 +1,101 @@
+package com.example.mqtt.handler;
+
+import com.example.mqtt.broker.ConnectionAdmission;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.mqtt.MqttConnAckMessage;
+import io.netty.handler.codec.mqtt.MqttConnectMessage;
+import io.netty.handler.codec.mqtt.MqttConnectReturnCode;
+import io.netty.handler.codec.mqtt.MqttMessageBuilders;
+import io.netty.handler.codec.mqtt.MqttPublishMessage;
+import io.netty.handler.codec.mqtt.MqttQoS;
+import io.netty.handler.codec.mqtt.MqttVersion;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 连接准入测试
+ */
+class AdmissionControlHandlerTest {
+
+    @Test
+    void rejectsConnectOverRateWithConnAck() {
+        // 全局只允许一次突发，之后几乎不补充
+        ConnectionAdmission admission = new ConnectionAdmission(0.001, 1, 0, 0, 0);
+
+        EmbeddedChannel first = new EmbeddedChannel(new AdmissionControlHandler(admission, 0));
+        assertTrue(first.writeInbound(connect(MqttVersion.MQTT_3_1_1)));
+        assertInstanceOf(MqttConnectMessage.class, first.readInbound());
+        assertNull(first.pipeline().get(AdmissionControlHandler.class));
+
+        EmbeddedChannel second = new EmbeddedChannel(new AdmissionControlHandler(admission, 0));
+        assertFalse(second.writeInbound(connect(MqttVersion.MQTT_3_1_1)));
+        assertFalse(second.config().isAutoRead());
+        second.runScheduledPendingTasks();
+        MqttConnAckMessage connAck = second.readOutbound();
+        assertEquals(MqttConnectReturnCode.CONNECTION_REFUSED_SERVER_UNAVAILABLE, connAck.variableHeader().connectReturnCode());
+        assertFalse(second.isOpen());
+
+        EmbeddedChannel third = new EmbeddedChannel(new AdmissionControlHandler(admission, 0));
+        third.writeInbound(connect(MqttVersion.MQTT_5));
+        third.runScheduledPendingTasks();
+        connAck = third.readOutbound();
+        assertEquals(MqttConnectReturnCode.CONNECTION_REFUSED_CONNECTION_RATE_EXCEEDED,
+            connAck.variableHeader().connectReturnCode());
+
+        assertEquals(1L, admission.getStats().get("accepted"));
+        assertEquals(2L, admission.getStats().get("rejected_global_rate"));
+        assertEquals(0, admission.getStats().get("half_open"));
+    }
+
+    @Test
+    void closesConnectionsOverHalfOpenLimit() {
+        ConnectionAdmission admission = new ConnectionAdmission(0, 0, 0, 0, 1);
+
+        EmbeddedChannel waiting = new EmbeddedChannel(new AdmissionControlHandler(admission, 0));
+        assertTrue(waiting.isOpen());
+        EmbeddedChannel overflow = new EmbeddedChannel(new AdmissionControlHandler(admission, 0));
+        assertFalse(overflow.isOpen());
+        assertEquals(1L, admission.getStats().get("rejected_half_open"));
+
+        // 半开连接发出CONNECT或断开后释放名额
+        waiting.close();
+        EmbeddedChannel next = new EmbeddedChannel(new AdmissionControlHandler(admission, 0));
+        assertTrue(next.isOpen());
+        assertTrue(next.writeInbound(connect(MqttVersion.MQTT_3_1_1)));
+        assertEquals(0, admission.getStats().get("half_open"));
+    }
+
+    @Test
+    void packetsBeforeConnectCloseTheConnection() {
+        ConnectionAdmission admission = new ConnectionAdmission(0, 0, 0, 0, 1);
+        EmbeddedChannel channel = new EmbeddedChannel(new AdmissionControlHandler(admission, 0));
+        MqttPublishMessage publish = MqttTestSupport.publish("t", "x", MqttQoS.AT_MOST_ONCE, 0, false);
+        ByteBuf payload = publish.payload();
+        assertFalse(channel.writeInbound(publish));
+        assertEquals(0, payload.refCnt());
+        assertFalse(channel.isOpen());
+        assertEquals(0, admission.getStats().get("half_open"));
+    }
+
+    @Test
+    void handlerClosesSessionlessPublishWithoutForwarding() {
+        MqttMessageHandler handler = new MqttMessageHandler();
+        EmbeddedChannel subscriber = MqttTestSupport.brokerChannel(handler);
+        MqttTestSupport.connect(subscriber, "sub", true);
+        MqttTestSupport.subscribe(subscriber, "t", MqttQoS.AT_MOST_ONCE);
+        MqttTestSupport.drain(subscriber);
+
+        EmbeddedChannel anonymous = MqttTestSupport.brokerChannel(handler);
+        anonymous.writeInbound(MqttTestSupport.encode(
+            MqttTestSupport.publish("t", "x", MqttQoS.AT_MOST_ONCE, 0, false)));
+        assertFalse(anonymous.isOpen());
+        assertTrue(MqttTestSupport.summarize(subscriber).isEmpty());
+        subscriber.finishAndReleaseAll();
+    }
+
+    private static MqttConnectMessage connect(MqttVersion version) {
+        return MqttMessageBuilders.connect().clientId("c").protocolVersion(version).build();
+    }
+}
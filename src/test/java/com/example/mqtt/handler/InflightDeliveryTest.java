@@ -0,0 +1,102 @@
+package com.example.mqtt.handler;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.mqtt.MqttMessage;
+import io.netty.handler.codec.mqtt.MqttMessageType;
+import io.netty.handler.codec.mqtt.MqttPublishMessage;
+import io.netty.handler.codec.mqtt.MqttQoS;
+import io.netty.util.ReferenceCountUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static com.example.mqtt.handler.MqttTestSupport.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * QoS 1出站飞行窗口测试：窗口满时排队、确认后补发、超时重发
+ */
+class InflightDeliveryTest {
+
+    private final MqttMessageHandler handler = new MqttMessageHandler();
+    private EmbeddedChannel publisher;
+    private EmbeddedChannel subscriber;
+
+    @AfterEach
+    void tearDown() {
+        publisher.finishAndReleaseAll();
+        subscriber.finishAndReleaseAll();
+    }
+
+    @Test
+    void fullWindowQueuesAndPubAckDrains() {
+        handler.configureDelivery(2, 60_000);
+        connectBoth();
+        for (int i = 1; i <= 4; i++) {
+            publisher.writeInbound(encode(publish("t", "m" + i, MqttQoS.AT_LEAST_ONCE, i, false)));
+        }
+
+        List<MqttMessage> first = decodeOutbound(subscriber);
+        assertEquals(List.of("m1", "m2"), payloads(first));
+        assertEquals(2L, handler.getSlowConsumerStats().get("queued"), "窗口满后的消息排队");
+        assertEquals(2, handler.getSessionInfo("sub").get("pending"));
+        int firstId = packetId(first.get(0));
+        first.forEach(ReferenceCountUtil::release);
+
+        subscriber.writeInbound(encode(packetIdMessage(MqttMessageType.PUBACK, firstId)));
+        subscriber.runPendingTasks();
+        List<MqttMessage> next = decodeOutbound(subscriber);
+        assertEquals(List.of("m3"), payloads(next), "每确认一条补发一条");
+        assertNotEquals(firstId, packetId(next.get(0)));
+        next.forEach(ReferenceCountUtil::release);
+        assertEquals(0L, handler.getSlowConsumerStats().get("dropped"));
+    }
+
+    @Test
+    void unacknowledgedMessageIsResentWithDup() throws InterruptedException {
+        // 重传定时器的刻度为100毫秒
+        handler.configureDelivery(2, 200);
+        connectBoth();
+        publisher.writeInbound(encode(publish("t", "m1", MqttQoS.AT_LEAST_ONCE, 1, false)));
+        List<MqttMessage> sent = decodeOutbound(subscriber);
+        assertEquals(1, sent.size());
+        assertFalse(sent.get(0).fixedHeader().isDup());
+        int packetId = packetId(sent.get(0));
+        sent.forEach(ReferenceCountUtil::release);
+
+        // 定时器线程把重发任务交给连接的事件循环，等它到达后再执行
+        Thread.sleep(450);
+        subscriber.runPendingTasks();
+        List<MqttMessage> resent = decodeOutbound(subscriber);
+        assertEquals(1, resent.size());
+        assertTrue(resent.get(0).fixedHeader().isDup());
+        assertEquals(packetId, packetId(resent.get(0)));
+        assertEquals(List.of("m1"), payloads(resent));
+        resent.forEach(ReferenceCountUtil::release);
+
+        subscriber.writeInbound(encode(packetIdMessage(MqttMessageType.PUBACK, packetId)));
+        assertEquals(0, handler.getSessionInfo("sub").get("inflight"));
+    }
+
+    private void connectBoth() {
+        publisher = brokerChannel(handler);
+        subscriber = brokerChannel(handler);
+        connect(publisher, "pub", true);
+        connect(subscriber, "sub", true);
+        subscribe(subscriber, "t", MqttQoS.AT_LEAST_ONCE);
+        drain(publisher);
+        drain(subscriber);
+    }
+
+    private static int packetId(MqttMessage message) {
+        return ((MqttPublishMessage) message).variableHeader().packetId();
+    }
+
+    private static List<String> payloads(List<MqttMessage> messages) {
+        return messages.stream()
+            .map(message -> ((MqttPublishMessage) message).payload().toString(StandardCharsets.UTF_8))
+            .toList();
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.mqtt.handler;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.mqtt.MqttEncoder;
+import io.netty.handler.codec.mqtt.MqttFixedHeader;
+import io.netty.handler.codec.mqtt.MqttMessageType;
+import io.netty.handler.codec.mqtt.MqttPublishMessage;
+import io.netty.handler.codec.mqtt.MqttPublishVariableHeader;
+import io.netty.handler.codec.mqtt.MqttQoS;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * PUBLISH零拷贝编码器测试：写出的字节与MqttEncoder一致，共享的payload不被复制也不泄漏
+ */
+class MqttPublishEncoderTest {
+
+    @Test
+    void fanOutMatchesMqttEncoderAndRestoresRefCnt() {
+        byte[] bytes = new byte[300];
+        new Random(3).nextBytes(bytes);
+        ByteBuf payload = Unpooled.wrappedBuffer(bytes);
+        int refCnt = payload.refCnt();
+
+        // 各订阅者的QoS、报文标识符和标志位不同，payload共享同一块内存
+        List<MqttPublishMessage> messages = List.of(
+            message(MqttQoS.AT_MOST_ONCE, 0, false, false, payload),
+            message(MqttQoS.AT_LEAST_ONCE, 1, false, false, payload),
+            message(MqttQoS.EXACTLY_ONCE, 65535, true, true, payload));
+        for (MqttPublishMessage message : messages) {
+            byte[] expected = mqttEncoderBytes(message);
+            EmbeddedChannel channel = new EmbeddedChannel(MqttEncoder.INSTANCE, MqttPublishEncoder.INSTANCE);
+            assertTrue(channel.writeOutbound(message.retainedDuplicate()));
+
+            List<ByteBuf> written = new ArrayList<>();
+            ByteBuf part;
+            while ((part = channel.readOutbound()) != null) {
+                written.add(part);
+            }
+            // 头部单独编码，payload以原缓冲区写出
+            assertEquals(2, written.size());
+            assertSame(payload, written.get(1).unwrap());
+            ByteBuf wire = Unpooled.wrappedBuffer(written.toArray(new ByteBuf[0]));
+            assertArrayEquals(expected, ByteBufUtil.getBytes(wire));
+            wire.release();
+            assertFalse(channel.finish());
+        }
+        messages.forEach(MqttPublishMessage::release);
+        assertEquals(refCnt, payload.refCnt());
+        payload.release();
+    }
+
+    @Test
+    void emptyPayloadWritesHeaderOnly() {
+        MqttPublishMessage message = message(MqttQoS.AT_LEAST_ONCE, 7, false, false, Unpooled.EMPTY_BUFFER);
+        byte[] expected = mqttEncoderBytes(message);
+        EmbeddedChannel channel = new EmbeddedChannel(MqttEncoder.INSTANCE, MqttPublishEncoder.INSTANCE);
+        channel.writeOutbound(message);
+        ByteBuf header = channel.readOutbound();
+        assertArrayEquals(expected, ByteBufUtil.getBytes(header));
+        header.release();
+        assertNull(channel.readOutbound());
+        assertFalse(channel.finish());
+    }
+
+    private static MqttPublishMessage message(MqttQoS qos, int packetId, boolean dup, boolean retain,
+                                              ByteBuf payload) {
+        return new MqttPublishMessage(
+            new MqttFixedHeader(MqttMessageType.PUBLISH, dup, qos, retain, 0),
+            new MqttPublishVariableHeader("设备/温度/dev-01", packetId),
+            payload.retainedDuplicate());
+    }
+
+    private static byte[] mqttEncoderBytes(MqttPublishMessage message) {
+        EmbeddedChannel encoder = new EmbeddedChannel(MqttEncoder.INSTANCE);
+        encoder.writeOutbound(message.retainedDuplicate());
+        ByteBuf encoded = encoder.readOutbound();
+        byte[] bytes = ByteBufUtil.getBytes(encoded);
+        encoded.release();
+        encoder.finish();
+        return bytes;
+    }
+}
@@ -0,0 +1,102 @@
+package com.example.mqtt.handler;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.mqtt.*;
+import io.netty.util.ReferenceCountUtil;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 以EmbeddedChannel模拟客户端连接的测试辅助方法：按字节收发，经过真实的MQTT编解码器
+ */
+final class MqttTestSupport {
+
+    private MqttTestSupport() {
+    }
+
+    /**
+     * 与生产环境相同的编解码器加上处理器，不含流式PUBLISH和TLS等可选处理器
+     */
+    static EmbeddedChannel brokerChannel(MqttMessageHandler handler) {
+        return new EmbeddedChannel(new MqttDecoder(), MqttEncoder.INSTANCE, handler);
+    }
+
+    static void connect(EmbeddedChannel channel, String clientId, boolean cleanSession) {
+        channel.writeInbound(encode(MqttMessageBuilders.connect().clientId(clientId)
+            .protocolVersion(MqttVersion.MQTT_3_1_1).cleanSession(cleanSession).build()));
+    }
+
+    static void subscribe(EmbeddedChannel channel, String filter, MqttQoS qos) {
+        channel.writeInbound(encode(MqttMessageBuilders.subscribe()
+            .messageId(1).addSubscription(qos, filter).build()));
+    }
+
+    static MqttPublishMessage publish(String topic, String payload, MqttQoS qos, int packetId, boolean dup) {
+        return new MqttPublishMessage(
+            new MqttFixedHeader(MqttMessageType.PUBLISH, dup, qos, false, 0),
+            new MqttPublishVariableHeader(topic, packetId),
+            Unpooled.copiedBuffer(payload, StandardCharsets.UTF_8));
+    }
+
+    static MqttMessage packetIdMessage(MqttMessageType type, int packetId) {
+        MqttQoS qos = type == MqttMessageType.PUBREL ? MqttQoS.AT_LEAST_ONCE : MqttQoS.AT_MOST_ONCE;
+        return new MqttMessage(new MqttFixedHeader(type, false, qos, false, 0),
+            MqttMessageIdVariableHeader.from(packetId));
+    }
+
+    static ByteBuf encode(MqttMessage message) {
+        EmbeddedChannel encoder = new EmbeddedChannel(MqttEncoder.INSTANCE);
+        encoder.writeOutbound(message);
+        CompositeByteBuf bytes = Unpooled.compositeBuffer();
+        ByteBuf part;
+        while ((part = encoder.readOutbound()) != null) {
+            bytes.addComponent(true, part);
+        }
+        return bytes;
+    }
+
+    static void drain(EmbeddedChannel channel) {
+        decodeOutbound(channel).forEach(ReferenceCountUtil::release);
+    }
+
+    /**
+     * 把连接写出的字节按客户端视角解码成报文
+     */
+    static List<MqttMessage> decodeOutbound(EmbeddedChannel channel) {
+        EmbeddedChannel client = new EmbeddedChannel(new MqttDecoder(1 << 20));
+        Object out;
+        while ((out = channel.readOutbound()) != null) {
+            client.writeInbound(out);
+        }
+        List<MqttMessage> messages = new ArrayList<>();
+        Object in;
+        while ((in = client.readInbound()) != null) {
+            messages.add((MqttMessage) in);
+        }
+        client.finishAndReleaseAll();
+        return messages;
+    }
+
+    /**
+     * 解码连接写出的报文，只保留PUBLISH的主题与payload文本，其余报文只保留类型
+     */
+    static List<String> summarize(EmbeddedChannel channel) {
+        List<String> result = new ArrayList<>();
+        for (MqttMessage message : decodeOutbound(channel)) {
+            if (message instanceof MqttPublishMessage) {
+                MqttPublishMessage publish = (MqttPublishMessage) message;
+                result.add(publish.variableHeader().topicName() + ":"
+                    + publish.payload().toString(StandardCharsets.UTF_8));
+            } else {
+                result.add(message.fixedHeader().messageType().name());
+            }
+            ReferenceCountUtil.release(message);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.mqtt.handler;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.CloseWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * MQTT over WebSocket帧转换测试
+ */
+class MqttWebSocketCodecTest {
+
+    @Test
+    void binaryFrameContentIsPassedWithoutCopy() {
+        EmbeddedChannel channel = new EmbeddedChannel(new MqttWebSocketCodec(65536));
+        ByteBuf content = Unpooled.wrappedBuffer(new byte[]{(byte) 0xC0, 0x00});
+        channel.writeInbound(new BinaryWebSocketFrame(content));
+
+        ByteBuf received = channel.readInbound();
+        assertSame(content, received);
+        received.release();
+        assertFalse(channel.finish());
+    }
+
+    @Test
+    void writesUntilFlushBecomeOneFrame() {
+        EmbeddedChannel channel = new EmbeddedChannel(new MqttWebSocketCodec(65536));
+        ChannelFuture header = channel.write(Unpooled.copiedBuffer("head", StandardCharsets.US_ASCII));
+        ChannelFuture payload = channel.write(Unpooled.copiedBuffer("payload", StandardCharsets.US_ASCII));
+        assertNull(channel.readOutbound(), "刷新前不成帧");
+        channel.flush();
+
+        BinaryWebSocketFrame frame = channel.readOutbound();
+        assertEquals("headpayload", frame.content().toString(StandardCharsets.US_ASCII));
+        frame.release();
+        assertNull(channel.readOutbound());
+        assertTrue(header.isSuccess());
+        assertTrue(payload.isSuccess());
+        assertFalse(channel.finish());
+    }
+
+    @Test
+    void frameIsEmittedEarlyWhenLimitReached() {
+        EmbeddedChannel channel = new EmbeddedChannel(new MqttWebSocketCodec(8));
+        channel.write(Unpooled.wrappedBuffer(new byte[5]));
+        channel.write(Unpooled.wrappedBuffer(new byte[5]));
+        channel.write(Unpooled.wrappedBuffer(new byte[3]));
+        channel.flush();
+
+        BinaryWebSocketFrame first = channel.readOutbound();
+        BinaryWebSocketFrame second = channel.readOutbound();
+        assertEquals(10, first.content().readableBytes());
+        assertArrayEquals(new byte[3], ByteBufUtil.getBytes(second.content()));
+        first.release();
+        second.release();
+        assertFalse(channel.finish());
+    }
+
+    @Test
+    void textFrameClosesConnection() {
+        EmbeddedChannel channel = new EmbeddedChannel(new MqttWebSocketCodec(65536));
+        channel.writeInbound(new TextWebSocketFrame("hello"));
+
+        CloseWebSocketFrame close = channel.readOutbound();
+        assertNotNull(close);
+        close.release();
+        assertFalse(channel.isActive());
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.mqtt.handler;
+
+import com.example.mqtt.broker.OfflineMessageStore;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.mqtt.MqttMessageType;
+import io.netty.handler.codec.mqtt.MqttQoS;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static com.example.mqtt.handler.MqttTestSupport.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 持久会话重连测试
+ */
+class PersistentSessionTest {
+
+    @TempDir
+    Path directory;
+
+    private OfflineMessageStore store;
+    private MqttMessageHandler handler;
+    private EmbeddedChannel subscriber;
+
+    @BeforeEach
+    void setUp() {
+        store = new OfflineMessageStore(directory, 1, 1 << 16, 100, 1 << 16);
+        handler = new MqttMessageHandler();
+        handler.configurePersistence(store, 60_000);
+        subscriber = brokerChannel(handler);
+        connect(subscriber, "sub", true);
+        subscribe(subscriber, "t/#", MqttQoS.AT_MOST_ONCE);
+        drain(subscriber);
+    }
+
+    @AfterEach
+    void tearDown() {
+        subscriber.finishAndReleaseAll();
+        handler.configurePersistence(null, 0);
+        store.close();
+    }
+
+    @Test
+    void qos2RetransmitAfterReconnectIsNotForwardedAgain() {
+        EmbeddedChannel first = brokerChannel(handler);
+        connect(first, "pub", false);
+        drain(first);
+        first.writeInbound(encode(publish("t/a", "once", MqttQoS.EXACTLY_ONCE, 7, false)));
+        assertEquals(List.of("PUBREC"), summarize(first));
+        // PUBREC丢失，客户端在发送PUBREL之前断开
+        first.close();
+        assertEquals(List.of("t/a:once"), summarize(subscriber));
+
+        EmbeddedChannel second = brokerChannel(handler);
+        connect(second, "pub", false);
+        drain(second);
+        second.writeInbound(encode(publish("t/a", "once", MqttQoS.EXACTLY_ONCE, 7, true)));
+        assertEquals(List.of("PUBREC"), summarize(second));
+        assertTrue(summarize(subscriber).isEmpty(), "重连后重发的QoS 2消息不能再次转发");
+
+        second.writeInbound(encode(packetIdMessage(MqttMessageType.PUBREL, 7)));
+        assertEquals(List.of("PUBCOMP"), summarize(second));
+        // PUBREL之后同一报文标识符是新消息
+        second.writeInbound(encode(publish("t/a", "next", MqttQoS.EXACTLY_ONCE, 7, false)));
+        assertEquals(List.of("t/a:next"), summarize(subscriber));
+        second.finishAndReleaseAll();
+        first.finishAndReleaseAll();
+    }
+
+    @Test
+    void qos1DuplicateAfterTakeoverIsOnlyAcknowledged() {
+        EmbeddedChannel first = brokerChannel(handler);
+        connect(first, "pub", false);
+        drain(first);
+        first.writeInbound(encode(publish("t/b", "once", MqttQoS.AT_LEAST_ONCE, 3, false)));
+        drain(first);
+        assertEquals(List.of("t/b:once"), summarize(subscriber));
+
+        // 旧连接仍在线时被同一clientId接管
+        EmbeddedChannel second = brokerChannel(handler);
+        connect(second, "pub", false);
+        drain(second);
+        assertFalse(first.isActive());
+        second.writeInbound(encode(publish("t/b", "once", MqttQoS.AT_LEAST_ONCE, 3, true)));
+        assertEquals(List.of("PUBACK"), summarize(second));
+        assertTrue(summarize(subscriber).isEmpty());
+        second.finishAndReleaseAll();
+        first.finishAndReleaseAll();
+    }
+}
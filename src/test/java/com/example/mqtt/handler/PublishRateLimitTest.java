@@ -0,0 +1,47 @@
+package com.example.mqtt.handler;
+
+import com.example.mqtt.broker.PublishRateLimiter;
+import com.example.mqtt.broker.RateLimitAction;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.mqtt.MqttQoS;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static com.example.mqtt.handler.MqttTestSupport.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 发布限流在处理器中的行为测试
+ */
+class PublishRateLimitTest {
+
+    @Test
+    void retransmittedDuplicatesDoNotConsumeQuota() {
+        MqttMessageHandler handler = new MqttMessageHandler();
+        // 每个客户端每秒1条，突发1秒：桶里只有一个令牌
+        handler.configureRateLimit(new PublishRateLimiter(RateLimitAction.DROP, 1, 0, 1, List.of()));
+        EmbeddedChannel publisher = brokerChannel(handler);
+        EmbeddedChannel subscriber = brokerChannel(handler);
+        connect(publisher, "pub", true);
+        connect(subscriber, "sub", true);
+        subscribe(subscriber, "t", MqttQoS.AT_MOST_ONCE);
+        drain(publisher);
+        drain(subscriber);
+
+        publisher.writeInbound(encode(publish("t", "m1", MqttQoS.AT_LEAST_ONCE, 5, false)));
+        publisher.writeInbound(encode(publish("t", "m1", MqttQoS.AT_LEAST_ONCE, 5, true)));
+        publisher.writeInbound(encode(publish("t", "m1", MqttQoS.AT_LEAST_ONCE, 5, true)));
+        assertEquals(List.of("PUBACK", "PUBACK", "PUBACK"), summarize(publisher));
+        assertEquals(List.of("t:m1"), summarize(subscriber));
+        assertEquals(0L, handler.getRateLimitStats().get("dropped"));
+
+        // 令牌只被第一条消息消耗，下一条新消息才超限
+        publisher.writeInbound(encode(publish("t", "m2", MqttQoS.AT_LEAST_ONCE, 6, false)));
+        assertEquals(List.of("PUBACK"), summarize(publisher));
+        assertTrue(summarize(subscriber).isEmpty());
+        assertEquals(1L, handler.getRateLimitStats().get("dropped"));
+        publisher.finishAndReleaseAll();
+        subscriber.finishAndReleaseAll();
+    }
+}
@@ -0,0 +1,257 @@
+package com.example.mqtt.handler;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.mqtt.*;
+import io.netty.util.ReferenceCountUtil;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 流式PUBLISH测试
+ */
+class PublishStreamTest {
+
+    private static final int THRESHOLD = 256;
+
+    @Test
+    void largePayloadIsForwardedInSegmentsAndOtherWritesWaitForIt() {
+        MqttMessageHandler handler = new MqttMessageHandler();
+        EmbeddedChannel publisher = brokerChannel(handler);
+        EmbeddedChannel other = brokerChannel(handler);
+        EmbeddedChannel subscriber = brokerChannel(handler);
+        connect(publisher, "pub");
+        connect(other, "other");
+        connect(subscriber, "sub");
+        subscriber.writeInbound(encode(MqttMessageBuilders.subscribe()
+            .messageId(1).addSubscription(MqttQoS.AT_LEAST_ONCE, "fw/#").build()));
+        drain(publisher);
+        drain(other);
+        drain(subscriber);
+
+        byte[] image = new byte[20_000];
+        new Random(7).nextBytes(image);
+        ByteBuf packet = encode(MqttMessageBuilders.publish().topicName("fw/image").qos(MqttQoS.AT_MOST_ONCE)
+            .payload(Unpooled.wrappedBuffer(image)).build());
+        int half = packet.readableBytes() / 2;
+        publisher.writeInbound(packet.readRetainedSlice(half));
+        // 流式报文写到一半时到达的普通消息要等流结束后才写出
+        other.writeInbound(encode(MqttMessageBuilders.publish().topicName("fw/status").qos(MqttQoS.AT_MOST_ONCE)
+            .payload(Unpooled.copiedBuffer("ok", StandardCharsets.UTF_8)).build()));
+        while (packet.isReadable()) {
+            publisher.writeInbound(packet.readRetainedSlice(Math.min(1000, packet.readableBytes())));
+        }
+        packet.release();
+
+        List<MqttMessage> received = decodeOutbound(subscriber);
+        assertEquals(2, received.size());
+        MqttPublishMessage streamed = (MqttPublishMessage) received.get(0);
+        assertEquals("fw/image", streamed.variableHeader().topicName());
+        assertEquals(MqttQoS.AT_MOST_ONCE, streamed.fixedHeader().qosLevel());
+        assertArrayEquals(image, ByteBufUtil.getBytes(streamed.payload()));
+        assertEquals("fw/status", ((MqttPublishMessage) received.get(1)).variableHeader().topicName());
+        received.forEach(ReferenceCountUtil::release);
+
+        assertEquals(1L, handler.getStreamingStats().get("streamedMessages"));
+        assertEquals((long) image.length, handler.getStreamingStats().get("streamedBytes"));
+        publisher.finishAndReleaseAll();
+        other.finishAndReleaseAll();
+        subscriber.finishAndReleaseAll();
+    }
+
+    @Test
+    void qos1AndRetainedPayloadsAreNotStreamed() {
+        MqttMessageHandler handler = new MqttMessageHandler();
+        EmbeddedChannel publisher = brokerChannel(handler);
+        EmbeddedChannel subscriber = brokerChannel(handler);
+        connect(publisher, "pub");
+        connect(subscriber, "sub");
+        subscriber.writeInbound(encode(MqttMessageBuilders.subscribe()
+            .messageId(1).addSubscription(MqttQoS.AT_LEAST_ONCE, "fw/#").build()));
+        drain(publisher);
+        drain(subscriber);
+
+        publisher.writeInbound(encode(MqttMessageBuilders.publish().topicName("fw/image").qos(MqttQoS.AT_LEAST_ONCE)
+            .messageId(42).payload(Unpooled.wrappedBuffer(new byte[4096])).build()));
+        publisher.writeInbound(encode(MqttMessageBuilders.publish().topicName("fw/latest").retained(true)
+            .qos(MqttQoS.AT_MOST_ONCE).payload(Unpooled.wrappedBuffer(new byte[4096])).build()));
+
+        // 超过阈值但未超过最大报文长度，按普通PUBLISH处理：回复PUBACK、按订阅QoS转发、保存保留消息
+        List<MqttMessage> acks = decodeOutbound(publisher);
+        assertEquals(1, acks.size());
+        assertEquals(MqttMessageType.PUBACK, acks.get(0).fixedHeader().messageType());
+        assertEquals(42, ((MqttMessageIdVariableHeader) acks.get(0).variableHeader()).messageId());
+        List<MqttMessage> received = decodeOutbound(subscriber);
+        assertEquals(2, received.size());
+        assertEquals(MqttQoS.AT_LEAST_ONCE, received.get(0).fixedHeader().qosLevel());
+        received.forEach(ReferenceCountUtil::release);
+        assertEquals(0L, handler.getStreamingStats().get("streamedMessages"));
+
+        EmbeddedChannel late = brokerChannel(handler);
+        connect(late, "late");
+        drain(late);
+        late.writeInbound(encode(MqttMessageBuilders.subscribe()
+            .messageId(1).addSubscription(MqttQoS.AT_MOST_ONCE, "fw/latest").build()));
+        List<MqttMessage> retained = decodeOutbound(late);
+        assertTrue(retained.stream().anyMatch(message -> message instanceof MqttPublishMessage));
+        retained.forEach(ReferenceCountUtil::release);
+        publisher.finishAndReleaseAll();
+        subscriber.finishAndReleaseAll();
+        late.finishAndReleaseAll();
+    }
+
+    @Test
+    void unwritableSubscriberPausesPublisherUntilWritable() {
+        MqttMessageHandler handler = new MqttMessageHandler();
+        EmbeddedChannel publisher = brokerChannel(handler);
+        EmbeddedChannel subscriber = brokerChannel(handler);
+        connect(publisher, "pub");
+        connect(subscriber, "sub");
+        subscriber.writeInbound(encode(MqttMessageBuilders.subscribe()
+            .messageId(1).addSubscription(MqttQoS.AT_MOST_ONCE, "fw/#").build()));
+        drain(subscriber);
+
+        ByteBuf packet = encode(MqttMessageBuilders.publish().topicName("fw/image").qos(MqttQoS.AT_MOST_ONCE)
+            .payload(Unpooled.wrappedBuffer(new byte[4096])).build());
+        publisher.writeInbound(packet.readRetainedSlice(1000));
+        // 订阅者写缓冲超过高水位
+        subscriber.unsafe().outboundBuffer().setUserDefinedWritability(1, false);
+        publisher.writeInbound(packet.readRetainedSlice(1000));
+        assertFalse(publisher.config().isAutoRead(), "订阅者不可写时暂停读取发布者");
+        assertEquals(1L, handler.getStreamingStats().get("publisherPauses"));
+
+        subscriber.unsafe().outboundBuffer().setUserDefinedWritability(1, true);
+        subscriber.runPendingTasks();
+        publisher.runPendingTasks();
+        assertTrue(publisher.config().isAutoRead());
+
+        publisher.writeInbound(packet.readRetainedSlice(packet.readableBytes()));
+        packet.release();
+        List<MqttMessage> received = decodeOutbound(subscriber);
+        assertEquals(1, received.size());
+        assertEquals(4096, ((MqttPublishMessage) received.get(0)).payload().readableBytes());
+        received.forEach(ReferenceCountUtil::release);
+        publisher.finishAndReleaseAll();
+        subscriber.finishAndReleaseAll();
+    }
+
+    @Test
+    void heldWritesOverLimitCloseSubscriber() {
+        MqttMessageHandler handler = new MqttMessageHandler();
+        EmbeddedChannel publisher = brokerChannel(handler);
+        EmbeddedChannel other = brokerChannel(handler);
+        EmbeddedChannel subscriber = new EmbeddedChannel(new StreamWriteGate(200),
+            new PublishStreamDecoder(THRESHOLD, 1 << 20), new MqttDecoder(), MqttEncoder.INSTANCE, handler);
+        connect(publisher, "pub");
+        connect(other, "other");
+        connect(subscriber, "sub");
+        subscriber.writeInbound(encode(MqttMessageBuilders.subscribe()
+            .messageId(1).addSubscription(MqttQoS.AT_MOST_ONCE, "fw/#").build()));
+        drain(subscriber);
+
+        ByteBuf packet = encode(MqttMessageBuilders.publish().topicName("fw/image").qos(MqttQoS.AT_MOST_ONCE)
+            .payload(Unpooled.wrappedBuffer(new byte[4096])).build());
+        publisher.writeInbound(packet.readRetainedSlice(1000));
+        packet.release();
+        other.writeInbound(encode(MqttMessageBuilders.publish().topicName("fw/status").qos(MqttQoS.AT_MOST_ONCE)
+            .payload(Unpooled.wrappedBuffer(new byte[50])).build()));
+        assertTrue(subscriber.isActive());
+        other.writeInbound(encode(MqttMessageBuilders.publish().topicName("fw/status").qos(MqttQoS.AT_MOST_ONCE)
+            .payload(Unpooled.wrappedBuffer(new byte[50])).build()));
+        assertFalse(subscriber.isActive(), "暂存超过上限时关闭订阅者");
+        publisher.finishAndReleaseAll();
+        other.finishAndReleaseAll();
+        subscriber.finishAndReleaseAll();
+    }
+
+    @Test
+    void publisherDisconnectMidStreamClosesSubscribers() {
+        MqttMessageHandler handler = new MqttMessageHandler();
+        EmbeddedChannel publisher = brokerChannel(handler);
+        EmbeddedChannel subscriber = brokerChannel(handler);
+        connect(publisher, "pub");
+        connect(subscriber, "sub");
+        subscriber.writeInbound(encode(MqttMessageBuilders.subscribe()
+            .messageId(1).addSubscription(MqttQoS.AT_MOST_ONCE, "fw/#").build()));
+        drain(subscriber);
+
+        ByteBuf packet = encode(MqttMessageBuilders.publish().topicName("fw/image").qos(MqttQoS.AT_MOST_ONCE)
+            .payload(Unpooled.wrappedBuffer(new byte[4096])).build());
+        publisher.writeInbound(packet.readRetainedSlice(1000));
+        packet.release();
+        publisher.close();
+
+        assertFalse(subscriber.isActive(), "订阅者收到了不完整的报文，连接必须关闭");
+        assertEquals(1L, handler.getStreamingStats().get("aborted"));
+        publisher.finishAndReleaseAll();
+        subscriber.finishAndReleaseAll();
+    }
+
+    @Test
+    void oversizedPacketIsRejectedAtFixedHeader() {
+        MqttMessageHandler handler = new MqttMessageHandler();
+        EmbeddedChannel channel = new EmbeddedChannel(new MqttDecoder(1024, 64), MqttEncoder.INSTANCE, handler);
+        connect(channel, "big");
+        drain(channel);
+
+        ByteBuf packet = encode(MqttMessageBuilders.publish().topicName("fw/image").qos(MqttQoS.AT_MOST_ONCE)
+            .payload(Unpooled.wrappedBuffer(new byte[4096])).build());
+        // 只送出报文头部，剩余长度超限即断开，不等待payload
+        channel.writeInbound(packet.readRetainedSlice(16));
+        packet.release();
+        assertFalse(channel.isActive());
+        channel.finishAndReleaseAll();
+    }
+
+    private static EmbeddedChannel brokerChannel(MqttMessageHandler handler) {
+        return new EmbeddedChannel(new StreamWriteGate(1 << 20), new PublishStreamDecoder(THRESHOLD, 1 << 20),
+            new MqttDecoder(), MqttEncoder.INSTANCE, handler);
+    }
+
+    private static void connect(EmbeddedChannel channel, String clientId) {
+        channel.writeInbound(encode(MqttMessageBuilders.connect().clientId(clientId)
+            .protocolVersion(MqttVersion.MQTT_3_1_1).cleanSession(true).build()));
+    }
+
+    private static ByteBuf encode(MqttMessage message) {
+        EmbeddedChannel encoder = new EmbeddedChannel(MqttEncoder.INSTANCE);
+        encoder.writeOutbound(message);
+        CompositeByteBuf bytes = Unpooled.compositeBuffer();
+        ByteBuf part;
+        while ((part = encoder.readOutbound()) != null) {
+            bytes.addComponent(true, part);
+        }
+        return bytes;
+    }
+
+    private static void drain(EmbeddedChannel channel) {
+        decodeOutbound(channel).forEach(ReferenceCountUtil::release);
+    }
+
+    /**
+     * 把连接写出的字节按客户端视角解码成报文
+     */
+    private static List<MqttMessage> decodeOutbound(EmbeddedChannel channel) {
+        EmbeddedChannel client = new EmbeddedChannel(new MqttDecoder(1 << 20));
+        Object out;
+        while ((out = channel.readOutbound()) != null) {
+            client.writeInbound(out);
+        }
+        List<MqttMessage> messages = new ArrayList<>();
+        Object in;
+        while ((in = client.readInbound()) != null) {
+            messages.add((MqttMessage) in);
+        }
+        client.finishAndReleaseAll();
+        return messages;
+    }
+}
@@ -0,0 +1,177 @@
+package com.example.mqtt.handler;
+
+import com.example.mqtt.broker.SlowConsumerPolicy;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.mqtt.MqttDecoder;
+import io.netty.handler.codec.mqtt.MqttEncoder;
+import io.netty.handler.codec.mqtt.MqttMessage;
+import io.netty.handler.codec.mqtt.MqttMessageType;
+import io.netty.handler.codec.mqtt.MqttPublishMessage;
+import io.netty.handler.codec.mqtt.MqttQoS;
+import io.netty.util.ReferenceCountUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.example.mqtt.handler.MqttTestSupport.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 慢消费者策略测试：订阅者连接暂不刷出，写缓冲超过很小的高水位后变为不可写
+ */
+class SlowConsumerTest {
+
+    // 每条消息编码后约200字节，写出一条即超过高水位
+    private static final String PADDING = "|" + "x".repeat(190);
+
+    private final MqttMessageHandler handler = new MqttMessageHandler();
+    private final FlushValve valve = new FlushValve();
+    private EmbeddedChannel publisher;
+    private EmbeddedChannel subscriber;
+
+    @AfterEach
+    void tearDown() {
+        publisher.finishAndReleaseAll();
+        subscriber.finishAndReleaseAll();
+    }
+
+    @Test
+    void dropPolicyDropsWhileUnwritable() {
+        handler.configureSlowConsumer(SlowConsumerPolicy.DROP, 10);
+        connectBoth(MqttQoS.AT_MOST_ONCE);
+
+        send("m1", MqttQoS.AT_MOST_ONCE);
+        assertFalse(subscriber.isWritable());
+        send("m2", MqttQoS.AT_MOST_ONCE);
+        send("m3", MqttQoS.AT_MOST_ONCE);
+
+        assertEquals(List.of("m1"), received());
+        assertEquals(2L, handler.getSlowConsumerStats().get("dropped"));
+        assertTrue(subscriber.isActive());
+    }
+
+    @Test
+    void queuePolicyDropsQos0AndQueuesQos1UpToLimit() {
+        handler.configureSlowConsumer(SlowConsumerPolicy.QUEUE, 2);
+        connectBoth(MqttQoS.AT_LEAST_ONCE);
+
+        send("m1", MqttQoS.AT_LEAST_ONCE);
+        assertFalse(subscriber.isWritable());
+        send("q0", MqttQoS.AT_MOST_ONCE);
+        send("m2", MqttQoS.AT_LEAST_ONCE);
+        send("m3", MqttQoS.AT_LEAST_ONCE);
+        assertEquals(1L, handler.getSlowConsumerStats().get("dropped"));
+        assertEquals(2L, handler.getSlowConsumerStats().get("queued"));
+
+        // 写缓冲回落后按顺序发出排队的消息
+        assertEquals(List.of("m1", "m2", "m3"), received());
+        assertTrue(subscriber.isActive());
+
+        // 队列满时断开
+        valve.open = false;
+        send("m4", MqttQoS.AT_LEAST_ONCE);
+        send("m5", MqttQoS.AT_LEAST_ONCE);
+        send("m6", MqttQoS.AT_LEAST_ONCE);
+        assertTrue(subscriber.isActive());
+        send("m7", MqttQoS.AT_LEAST_ONCE);
+        assertFalse(subscriber.isActive());
+        assertEquals(1L, handler.getSlowConsumerStats().get("disconnects"));
+    }
+
+    @Test
+    void disconnectPolicyClosesUnwritableSubscriber() {
+        handler.configureSlowConsumer(SlowConsumerPolicy.DISCONNECT, 10);
+        connectBoth(MqttQoS.AT_MOST_ONCE);
+
+        send("m1", MqttQoS.AT_MOST_ONCE);
+        assertTrue(subscriber.isActive());
+        send("m2", MqttQoS.AT_MOST_ONCE);
+        assertFalse(subscriber.isActive());
+        assertEquals(1L, handler.getSlowConsumerStats().get("disconnects"));
+        assertEquals(0L, handler.getSlowConsumerStats().get("dropped"));
+    }
+
+    @Test
+    void qos0BehindQueuedMessagesIsDeliveredWhenWritable() {
+        handler.configureSlowConsumer(SlowConsumerPolicy.QUEUE, 10);
+        handler.configureDelivery(1, 60_000);
+        connectBoth(MqttQoS.AT_LEAST_ONCE);
+        valve.open = true;
+
+        // 飞行窗口已满，连接仍可写：m2排队，其后的QoS 0消息不能被丢弃
+        send("m1", MqttQoS.AT_LEAST_ONCE);
+        send("m2", MqttQoS.AT_LEAST_ONCE);
+        send("q0", MqttQoS.AT_MOST_ONCE);
+        // 收到m1后确认，窗口腾出后依次发出m2和q0
+        assertEquals(List.of("m1", "m2", "q0"), received());
+        assertEquals(0L, handler.getSlowConsumerStats().get("dropped"));
+    }
+
+    private void connectBoth(MqttQoS subscriptionQos) {
+        publisher = brokerChannel(handler);
+        subscriber = new EmbeddedChannel(valve, new MqttDecoder(), MqttEncoder.INSTANCE, handler);
+        connect(publisher, "pub", true);
+        connect(subscriber, "sub", true);
+        subscribe(subscriber, "t", subscriptionQos);
+        drain(publisher);
+        drain(subscriber);
+        subscriber.config().setWriteBufferWaterMark(new WriteBufferWaterMark(64, 128));
+        valve.open = false;
+    }
+
+    private void send(String payload, MqttQoS qos) {
+        publisher.writeInbound(encode(publish("t", payload + PADDING, qos, qos == MqttQoS.AT_MOST_ONCE ? 0 : 1, false)));
+        subscriber.runPendingTasks();
+        drain(publisher);
+    }
+
+    /**
+     * 打开闸门刷出订阅者的写缓冲，确认收到的QoS 1消息，返回收到的payload
+     */
+    private List<String> received() {
+        valve.open = true;
+        subscriber.flush();
+        subscriber.runPendingTasks();
+        List<String> payloads = new ArrayList<>();
+        List<MqttMessage> messages;
+        while (!(messages = decodeOutbound(subscriber)).isEmpty()) {
+            for (MqttMessage message : messages) {
+                MqttPublishMessage publish = (MqttPublishMessage) message;
+                String payload = publish.payload().toString(StandardCharsets.UTF_8);
+                payloads.add(payload.substring(0, payload.length() - PADDING.length()));
+                if (publish.fixedHeader().qosLevel() != MqttQoS.AT_MOST_ONCE) {
+                    subscriber.writeInbound(encode(packetIdMessage(MqttMessageType.PUBACK,
+                        publish.variableHeader().packetId())));
+                }
+                ReferenceCountUtil.release(message);
+            }
+            subscriber.runPendingTasks();
+        }
+        return payloads;
+    }
+
+    /**
+     * 关闭时不把flush传给EmbeddedChannel，写出的消息留在写缓冲中计入水位
+     */
+    private static final class FlushValve extends ChannelOutboundHandlerAdapter {
+        boolean open = true;
+
+        @Override
+        public void flush(ChannelHandlerContext ctx) {
+            if (open) {
+                ctx.flush();
+            }
+        }
+
+        @Override
+        public boolean isSharable() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.example.mqtt.history;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 设备历史存储测试
+ */
+class DeviceHistoryStoreTest {
+
+    @Test
+    void chunkRoundTripsIrregularTimestampsAndValues() {
+        Random random = new Random(7);
+        SeriesChunk chunk = new SeriesChunk(2000);
+        List<HistorySample> expected = new ArrayList<>();
+        long timestamp = 1_700_000_000_000L;
+        double temperature = 21.5;
+        for (int i = 0; i < 2000; i++) {
+            // 覆盖各档delta-of-delta：稳定间隔、小抖动、大跳变和时间回退
+            switch (i % 5) {
+                case 0: timestamp += 30_000; break;
+                case 1: timestamp += 30_000 + random.nextInt(200) - 100; break;
+                case 2: timestamp += random.nextInt(5_000_000); break;
+                case 3: timestamp -= random.nextInt(1000); break;
+                default: timestamp += 30_000; break;
+            }
+            temperature = i % 7 == 0 ? temperature : temperature + random.nextGaussian();
+            Double humidity = i % 11 == 0 ? null : random.nextDouble() * 100;
+            Integer battery = i % 13 == 0 ? null : random.nextInt(101);
+            double value = i % 97 == 0 ? -temperature * 1e300 : temperature;
+            expected.add(new HistorySample(i, timestamp, value, humidity, battery));
+            chunk.append(timestamp, value, humidity, battery);
+        }
+        assertTrue(chunk.isFull());
+
+        assertSamples(expected, decodeAll(chunk));
+        chunk.seal();
+        assertSamples(expected, decodeAll(chunk));
+    }
+
+    @Test
+    void rangeQuerySpansChunksAndHonoursLimit() {
+        DeviceHistoryStore store = new DeviceHistoryStore(true, 16, Long.MAX_VALUE / 2, Long.MAX_VALUE, () -> 0L);
+        for (int i = 0; i < 100; i++) {
+            store.record("DEV001", i * 1000L, 20.0 + i * 0.1, 50.0, 90);
+        }
+        store.record("DEV002", 5000L, 1.0, 2.0, 3);
+
+        List<HistorySample> range = store.query("DEV001", 10_000, 40_000, 1000);
+        assertEquals(31, range.size());
+        assertEquals(10_000, range.get(0).getTimestamp());
+        assertEquals(40_000, range.get(30).getTimestamp());
+        assertEquals(20.0 + 10 * 0.1, range.get(0).getTemperature());
+
+        List<HistorySample> limited = store.query("DEV001", 0, Long.MAX_VALUE, 25);
+        assertEquals(25, limited.size());
+        assertEquals(24_000, limited.get(24).getTimestamp());
+        assertTrue(store.query("DEV003", 0, Long.MAX_VALUE, 10).isEmpty());
+        assertEquals(101L, store.getStats().get("samples"));
+    }
+
+    @Test
+    void evictsExpiredAndOverBudgetChunks() {
+        AtomicLong now = new AtomicLong(0);
+        DeviceHistoryStore store = new DeviceHistoryStore(true, 16, 100_000, Long.MAX_VALUE, now::get);
+        for (int i = 0; i < 64; i++) {
+            store.record("DEV001", i * 1000L, 20.0, 50.0, 90);
+        }
+        // 第5个块封存时，maxTimestamp早于now-retention的块被淘汰
+        now.set(150_000);
+        for (int i = 64; i < 80; i++) {
+            store.record("DEV001", i * 1000L, 20.0, 50.0, 90);
+        }
+        List<HistorySample> remaining = store.query("DEV001", 0, Long.MAX_VALUE, 1000);
+        assertEquals(48_000, remaining.get(0).getTimestamp());
+        // 淘汰不改变剩余采样的写入序号
+        assertEquals(48L, remaining.get(0).getSequence());
+        assertEquals(3L, store.getStats().get("evicted_chunks"));
+
+        // 16个取值不变的采样封存后为4列各2个long共64字节，写入中的块从64字节开始：
+        // "new"开始写入时超出预算，淘汰最早封存的块
+        DeviceHistoryStore budget = new DeviceHistoryStore(true, 16, Long.MAX_VALUE / 2, 100, () -> 0L);
+        for (int i = 0; i < 16; i++) {
+            budget.record("old", i, 1.0, 1.0, 1);
+        }
+        for (int i = 0; i < 16; i++) {
+            budget.record("new", 1000 + i, 1.0, 1.0, 1);
+        }
+        assertTrue(budget.query("old", 0, Long.MAX_VALUE, 100).isEmpty());
+        assertEquals(16, budget.query("new", 0, Long.MAX_VALUE, 100).size());
+        assertEquals(1L, budget.getStats().get("evicted_chunks"));
+        assertEquals(64L, budget.getStats().get("sealed_bytes"));
+        assertEquals(0L, budget.getStats().get("active_bytes"));
+    }
+
+    @Test
+    void activeChunksCountTowardsBudget() {
+        DeviceHistoryStore store = new DeviceHistoryStore(true, 16, Long.MAX_VALUE / 2, 150, () -> 0L);
+        for (int i = 0; i < 16; i++) {
+            store.record("old", i, 1.0, 1.0, 1);
+        }
+        store.record("a", 100, 1.0, 1.0, 1);
+        assertEquals(16, store.query("old", 0, Long.MAX_VALUE, 100).size());
+        // 没有块封存，第二台设备的写入中的块使总量超过预算
+        store.record("b", 100, 1.0, 1.0, 1);
+        assertTrue(store.query("old", 0, Long.MAX_VALUE, 100).isEmpty());
+        assertEquals(0L, store.getStats().get("sealed_bytes"));
+        assertEquals(128L, store.getStats().get("active_bytes"));
+
+        // 只剩写入中的块超出预算时不再淘汰，也不影响继续写入
+        for (int i = 0; i < 10; i++) {
+            store.record("more" + i, 100, 1.0, 1.0, 1);
+        }
+        assertEquals(1L, store.getStats().get("evicted_chunks"));
+        assertEquals(768L, store.getStats().get("active_bytes"));
+        assertEquals(1, store.query("more9", 0, Long.MAX_VALUE, 100).size());
+    }
+
+    @Test
+    void cursorPagesOutOfOrderSamplesWithoutGapsOrDuplicates() {
+        DeviceHistoryStore store = new DeviceHistoryStore(true, 16, Long.MAX_VALUE / 2, Long.MAX_VALUE, () -> 0L);
+        // 时间戳乱序且有重复，跨越封存块
+        long[] timestamps = new long[40];
+        for (int i = 0; i < timestamps.length; i++) {
+            timestamps[i] = (i * 7919L) % 25;
+            store.record("DEV001", timestamps[i], (double) i, null, null);
+        }
+
+        List<Long> seen = new ArrayList<>();
+        long cursor = 0;
+        while (true) {
+            List<HistorySample> page = store.query("DEV001", 5, 20, cursor, 4);
+            int size = Math.min(page.size(), 3);
+            page.subList(0, size).forEach(sample -> seen.add(sample.getTemperature().longValue()));
+            if (page.size() <= 3) {
+                break;
+            }
+            cursor = page.get(3).getSequence();
+        }
+        List<Long> expected = new ArrayList<>();
+        for (int i = 0; i < timestamps.length; i++) {
+            if (timestamps[i] >= 5 && timestamps[i] <= 20) {
+                expected.add((long) i);
+            }
+        }
+        assertEquals(expected, seen);
+    }
+
+    private static List<HistorySample> decodeAll(SeriesChunk chunk) {
+        List<HistorySample> out = new ArrayList<>();
+        chunk.decode(Long.MIN_VALUE, Long.MAX_VALUE, 0, 0, out, Integer.MAX_VALUE);
+        return out;
+    }
+
+    private static void assertSamples(List<HistorySample> expected, List<HistorySample> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            HistorySample e = expected.get(i);
+            HistorySample a = actual.get(i);
+            assertEquals(e.getSequence(), a.getSequence(), "sequence " + i);
+            assertEquals(e.getTimestamp(), a.getTimestamp(), "timestamp " + i);
+            assertEquals(e.getTemperature(), a.getTemperature(), "temperature " + i);
+            assertEquals(e.getHumidity(), a.getHumidity(), "humidity " + i);
+            assertEquals(e.getBattery(), a.getBattery(), "battery " + i);
+        }
+    }
+}
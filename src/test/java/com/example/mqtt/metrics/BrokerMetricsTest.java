@@ -0,0 +1,55 @@
+package com.example.mqtt.metrics;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Broker指标测试
+ */
+class BrokerMetricsTest {
+
+    @Test
+    void recordsHotPathMeters() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        BrokerMetrics metrics = new BrokerMetrics(registry);
+
+        metrics.connected();
+        metrics.published(0);
+        metrics.published(1);
+        metrics.published(1);
+        metrics.routed(5, System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(2));
+        metrics.disconnected();
+
+        assertEquals(1, registry.get("mqtt.connections.opened").counter().count());
+        assertEquals(1, registry.get("mqtt.connections.closed").counter().count());
+        assertEquals(1, registry.get("mqtt.publish.received").tag("qos", "0").counter().count());
+        assertEquals(2, registry.get("mqtt.publish.received").tag("qos", "1").counter().count());
+        assertEquals(5, registry.get("mqtt.publish.fanout").summary().totalAmount());
+        assertTrue(registry.get("mqtt.publish.route").timer().totalTime(TimeUnit.MILLISECONDS) >= 2);
+    }
+
+    @Test
+    void countsOutboundBytesAndBindsEventLoops() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        BrokerMetrics metrics = new BrokerMetrics(registry);
+        EmbeddedChannel channel = new EmbeddedChannel(new OutboundTrafficHandler(metrics));
+        channel.writeOutbound(Unpooled.wrappedBuffer(new byte[100]));
+        channel.finishAndReleaseAll();
+        assertEquals(100, registry.get("mqtt.bytes.outbound").counter().count());
+
+        NioEventLoopGroup group = new NioEventLoopGroup(2);
+        try {
+            metrics.bindEventLoops(group, "test");
+            assertEquals(2, registry.get("mqtt.eventloop.pending.tasks").tag("group", "test").gauges().size());
+        } finally {
+            group.shutdownGracefully().syncUninterruptibly();
+        }
+    }
+}
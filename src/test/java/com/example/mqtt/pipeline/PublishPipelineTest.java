@@ -0,0 +1,95 @@
+package com.example.mqtt.pipeline;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.mqtt.MqttQoS;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 业务处理管道测试
+ */
+class PublishPipelineTest {
+
+    @Test
+    void keepsPerClientOrderAndReleasesPayload() throws Exception {
+        int clients = 4;
+        int messages = 1000;
+        Map<String, List<Integer>> received = new ConcurrentHashMap<>();
+        CountDownLatch done = new CountDownLatch(clients * messages);
+        PublishPipeline pipeline = new PublishPipeline(List.of(batch -> {
+            assertTrue(batch.size() <= 16);
+            for (PublishEvent event : batch) {
+                received.computeIfAbsent(event.getClientId(), id -> new ArrayList<>())
+                    .add(Integer.parseInt(event.getPayloadAsString()));
+                done.countDown();
+            }
+        }), 2, 1024, 16);
+        EmbeddedChannel channel = new EmbeddedChannel();
+        List<ByteBuf> payloads = new ArrayList<>();
+        try {
+            for (int i = 0; i < messages; i++) {
+                for (int c = 0; c < clients; c++) {
+                    ByteBuf payload = Unpooled.copiedBuffer(Integer.toString(i).getBytes());
+                    payloads.add(payload);
+                    assertTrue(pipeline.publish(channel, "client-" + c, "device/" + c + "/data", payload,
+                        MqttQoS.AT_MOST_ONCE, false));
+                    payload.release();
+                }
+                // 发布速度超过业务线程时模拟事件循环被恢复读取前的等待
+                while (!channel.config().isAutoRead()) {
+                    Thread.onSpinWait();
+                }
+            }
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+        } finally {
+            pipeline.close();
+        }
+
+        for (int c = 0; c < clients; c++) {
+            List<Integer> sequence = received.get("client-" + c);
+            assertEquals(messages, sequence.size());
+            for (int i = 0; i < messages; i++) {
+                assertEquals(i, sequence.get(i));
+            }
+        }
+        // 每一批处理完都释放了管道持有的引用
+        payloads.forEach(payload -> assertEquals(0, payload.refCnt()));
+    }
+
+    @Test
+    void pausesPublisherWhenRingBacksUp() throws Exception {
+        CountDownLatch blocked = new CountDownLatch(1);
+        PublishPipeline pipeline = new PublishPipeline(List.of(batch -> blocked.await()), 1, 8, 1);
+        EmbeddedChannel channel = new EmbeddedChannel();
+        ByteBuf payload = Unpooled.copiedBuffer("x".getBytes());
+        try {
+            // 第一条被业务线程取走后阻塞，之后的消息留在队列中
+            for (int i = 0; i < 7; i++) {
+                pipeline.publish(channel, "slow", "t", payload, MqttQoS.AT_MOST_ONCE, false);
+            }
+            assertFalse(channel.config().isAutoRead());
+            assertEquals(1, pipeline.getStats().get("paused_channels"));
+
+            blocked.countDown();
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (!channel.config().isAutoRead() && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue(channel.config().isAutoRead());
+        } finally {
+            pipeline.close();
+            payload.release();
+        }
+        assertEquals(0, payload.refCnt());
+    }
+}
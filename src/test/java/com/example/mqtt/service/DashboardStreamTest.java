@@ -0,0 +1,157 @@
+package com.example.mqtt.service;
+
+import com.example.mqtt.broker.TopicFilter;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 控制台推送连接测试
+ */
+class DashboardStreamTest {
+
+    @Test
+    void burstToSameKeySendsOnlyLatest() {
+        RecordingEmitter emitter = new RecordingEmitter();
+        DashboardStream stream = new DashboardStream(emitter, List.of(TopicFilter.compile("device/#")), 100);
+
+        assertEquals(DashboardStream.Offer.SCHEDULE, stream.offer("device:DEV001", "device", "{\"t\":1}"));
+        assertEquals(DashboardStream.Offer.COALESCED, stream.offer("device:DEV001", "device", "{\"t\":2}"));
+        assertEquals(DashboardStream.Offer.QUEUED, stream.offer("device:DEV002", "device", "{\"t\":3}"));
+        assertEquals(DashboardStream.Offer.COALESCED, stream.offer("device:DEV001", "device", "{\"t\":4}"));
+
+        assertEquals(2, stream.flush());
+        assertEquals(2, emitter.sent.size());
+        assertTrue(emitter.sent.get(0).contains("{\"t\":4}"), "同一设备只发送最新值");
+        assertTrue(emitter.sent.get(1).contains("{\"t\":3}"));
+        assertFalse(stream.finishFlush());
+
+        // 一轮发送结束后新的更新重新排队
+        assertEquals(DashboardStream.Offer.SCHEDULE, stream.offer("device:DEV001", "device", "{\"t\":5}"));
+    }
+
+    @Test
+    void updatesDuringFlushNeedAnotherRound() {
+        RecordingEmitter emitter = new RecordingEmitter();
+        DashboardStream stream = new DashboardStream(emitter, List.of(TopicFilter.compile("#")), 100);
+        stream.offer("message:a", "message", "1");
+        stream.flush();
+        // 发送中到达的更新不另排任务，由本轮结束时接着发送
+        assertEquals(DashboardStream.Offer.QUEUED, stream.offer("message:b", "message", "2"));
+        assertTrue(stream.finishFlush());
+        assertEquals(1, stream.flush());
+        assertFalse(stream.finishFlush());
+    }
+
+    @Test
+    void pendingKeysAreBoundedAndFilteredByTopic() {
+        DashboardStream stream = new DashboardStream(new RecordingEmitter(),
+            List.of(TopicFilter.compile("device/+/data")), 2);
+        assertTrue(stream.accepts("device/DEV001/data"));
+        assertFalse(stream.accepts("system/status"));
+
+        stream.offer("k1", "message", "1");
+        stream.offer("k2", "message", "2");
+        assertEquals(DashboardStream.Offer.EVICTED, stream.offer("k3", "message", "3"));
+        assertEquals(2, stream.pendingCount());
+    }
+
+    @Test
+    void failedSendClosesStream() {
+        RecordingEmitter emitter = new RecordingEmitter();
+        emitter.fail = true;
+        DashboardStream stream = new DashboardStream(emitter, List.of(TopicFilter.compile("#")), 10);
+        stream.offer("k", "message", "1");
+        stream.flush();
+        assertTrue(stream.isClosed());
+        assertEquals(DashboardStream.Offer.CLOSED, stream.offer("k", "message", "2"));
+        assertFalse(stream.finishFlush());
+    }
+
+    @Test
+    void heartbeatIsSentOnlyWhenIdle() {
+        RecordingEmitter emitter = new RecordingEmitter();
+        DashboardStream stream = new DashboardStream(emitter, List.of(TopicFilter.compile("#")), 10);
+        assertEquals(DashboardStream.Offer.SCHEDULE, stream.heartbeat());
+        // 心跳与后续更新在同一轮发送，心跳不计入发送的更新数
+        assertEquals(DashboardStream.Offer.QUEUED, stream.offer("k", "message", "1"));
+        assertEquals(1, stream.flush());
+        assertEquals(2, emitter.sent.size());
+        assertTrue(emitter.sent.get(0).contains("ping"));
+        assertFalse(stream.finishFlush());
+
+        // 已有待发更新时不再另加心跳
+        stream.offer("k", "message", "2");
+        assertEquals(DashboardStream.Offer.QUEUED, stream.heartbeat());
+        assertEquals(1, stream.pendingCount());
+    }
+
+    @Test
+    void stalledSendIsCompletedByTheBlockedSender() throws Exception {
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Thread> completedBy = new ArrayList<>();
+        SseEmitter emitter = new SseEmitter() {
+            @Override
+            public void send(SseEventBuilder builder) throws IOException {
+                entered.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new IOException("broken pipe");
+            }
+
+            @Override
+            public synchronized void complete() {
+                completedBy.add(Thread.currentThread());
+            }
+        };
+        DashboardStream stream = new DashboardStream(emitter, List.of(TopicFilter.compile("#")), 10);
+        stream.offer("k", "message", "1");
+        assertFalse(stream.markStalled(System.nanoTime(), 0), "没有在发送时不算卡住");
+
+        Thread flusher = new Thread(stream::flush);
+        flusher.start();
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        assertFalse(stream.markStalled(System.nanoTime(), TimeUnit.SECONDS.toNanos(10)));
+        assertTrue(stream.markStalled(System.nanoTime(), TimeUnit.MILLISECONDS.toNanos(50)), "浏览器不读取时发送卡住");
+        assertTrue(stream.isClosed());
+        assertEquals(DashboardStream.Offer.CLOSED, stream.offer("k", "message", "2"));
+        // send返回之前不在其他线程上等待emitter
+        assertTrue(completedBy.isEmpty());
+
+        release.countDown();
+        flusher.join(5000);
+        assertTrue(stream.isStalled());
+        assertEquals(List.of(flusher), completedBy);
+        assertFalse(stream.finishFlush());
+    }
+
+    /**
+     * 记录发送内容的SseEmitter，不依赖Servlet容器
+     */
+    private static final class RecordingEmitter extends SseEmitter {
+        final List<String> sent = new ArrayList<>();
+        boolean fail;
+
+        @Override
+        public void send(SseEventBuilder builder) throws IOException {
+            if (fail) {
+                throw new IOException("broken pipe");
+            }
+            StringBuilder event = new StringBuilder();
+            builder.build().forEach(part -> event.append(part.getData()));
+            sent.add(event.toString());
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.example.mqtt.service;
+
+import com.example.mqtt.broker.TopicFilter;
+import com.example.mqtt.model.MqttMessage;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 接收消息环形缓冲区测试
+ */
+class ReceivedMessageBufferTest {
+
+    @Test
+    void sequencesAreMonotonicAndOldestIsEvicted() {
+        ReceivedMessageBuffer buffer = new ReceivedMessageBuffer(4);
+        for (int i = 1; i <= 6; i++) {
+            // QoS 0消息的Paho报文标识符都是0，按序号存储不再互相覆盖
+            assertEquals(i, buffer.append(new MqttMessage("t/" + (i % 2), "m" + i)));
+        }
+
+        assertEquals(4, buffer.size());
+        assertEquals(3, buffer.oldestSeq());
+        assertEquals(6, buffer.lastSeq());
+        assertEquals(List.of("m3", "m4", "m5", "m6"), payloads(buffer.since(0, null, 100)));
+        assertEquals(List.of("m5", "m6"), payloads(buffer.since(4, null, 100)));
+        assertEquals(List.of("m3", "m4"), payloads(buffer.since(0, null, 2)));
+        assertTrue(buffer.since(6, null, 100).isEmpty());
+    }
+
+    @Test
+    void topicIndexFollowsEviction() {
+        ReceivedMessageBuffer buffer = new ReceivedMessageBuffer(3);
+        buffer.append(new MqttMessage("device/A/data", "a1"));
+        buffer.append(new MqttMessage("device/B/data", "b1"));
+        buffer.append(new MqttMessage("device/A/data", "a2"));
+        buffer.append(new MqttMessage("system/status", "s1"));
+
+        TopicFilter a = TopicFilter.compile("device/A/data");
+        assertEquals(List.of("a2"), payloads(buffer.since(0, a, 10)));
+        assertEquals(List.of("a2"), payloads(buffer.since(2, a, 10)));
+        assertTrue(buffer.since(3, a, 10).isEmpty());
+        assertEquals(List.of("b1", "a2"), payloads(buffer.since(0, TopicFilter.compile("device/+/data"), 10)));
+
+        // 设备B唯一的消息被淘汰后，主题从索引中移除
+        buffer.append(new MqttMessage("system/status", "s2"));
+        assertEquals(2, buffer.topicCount());
+        assertEquals(List.of("a2", "s2"), payloads(buffer.latestPerTopic().stream()
+            .sorted((x, y) -> Long.compare(x.getSequence(), y.getSequence())).collect(Collectors.toList())));
+    }
+
+    private static List<String> payloads(List<MqttMessage> messages) {
+        return messages.stream().map(MqttMessage::getPayload).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,58 @@
+package com.example.mqtt.trace;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 消息追踪测试
+ */
+class MessageTracerTest {
+
+    @Test
+    void tracesOnlyTargetsWhenOff() {
+        MessageTracer tracer = new MessageTracer(MessageTracer.Mode.OFF, 1, 16, line -> { });
+        try {
+            assertFalse(tracer.sampled("dev-1", "device/1/data"));
+
+            tracer.traceClient("dev-1");
+            tracer.traceTopic("system/#");
+            assertTrue(tracer.sampled("dev-1", "device/1/data"));
+            assertTrue(tracer.sampled("dev-2", "system/status"));
+            assertFalse(tracer.sampled("dev-2", "device/2/data"));
+
+            tracer.clearTargets("dev-1", null);
+            assertFalse(tracer.sampled("dev-1", "device/1/data"));
+            tracer.clearTargets(null, null);
+            assertFalse(tracer.sampled("dev-2", "system/status"));
+
+            tracer.setMode(MessageTracer.Mode.FULL);
+            assertTrue(tracer.sampled("dev-2", "device/2/data"));
+        } finally {
+            tracer.close();
+        }
+    }
+
+    @Test
+    void writesCompactRecordsInBackground() throws Exception {
+        List<String> lines = new CopyOnWriteArrayList<>();
+        MessageTracer tracer = new MessageTracer(MessageTracer.Mode.FULL, 1, 2, lines::add);
+        try {
+            tracer.trace("PUB", "dev-1", "device/1/data", 1, 128, 3);
+            tracer.trace("SEND", "app", "system/status", 0, 2, -1);
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (lines.size() < 2 && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+        } finally {
+            tracer.close();
+        }
+        assertEquals(2, lines.size());
+        assertTrue(lines.get(0).endsWith(" PUB c=dev-1 t=device/1/data q=1 b=128 n=3"), lines.get(0));
+        assertTrue(lines.get(1).endsWith(" SEND c=app t=system/status q=0 b=2"), lines.get(1));
+    }
+}